@@ -36,6 +36,7 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -52,6 +53,9 @@ public class IbsAnalysis extends OpenCGAAnalysis {
 
     public static final String OUTDIR = "outdir";
     public static final String SAMPLES = "samples";
+    public static final String THREADS = "threads";
+    public static final String BATCH_SIZE = "batchSize";
+    public static final String SPILL = "spill";
     public static final String PLUGIN_ID = "ibs_plugin";
     private final Manifest manifest;
 
@@ -61,7 +65,10 @@ public class IbsAnalysis extends OpenCGAAnalysis {
                         new Execution("default", "default", "", Collections.emptyList(), Collections.emptyList(), OUTDIR,
                                 Arrays.asList(
                                         new Option(OUTDIR, "", true),
-                                        new Option(SAMPLES, "", false)
+                                        new Option(SAMPLES, "", false),
+                                        new Option(THREADS, "Number of threads", false),
+                                        new Option(BATCH_SIZE, "Number of variants packed in each batch", false),
+                                        new Option(SPILL, "Store the packed batches in memory mapped files", false)
                                 ), Collections.emptyList(), null, null)
                 ), null, null);
     }
@@ -102,9 +109,22 @@ public class IbsAnalysis extends OpenCGAAnalysis {
                 .collect(Collectors.toList());
 
 
+        int threads = params.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        boolean spill = params.getBoolean(SPILL, false);
+        int batchSize = params.getInt(BATCH_SIZE, spill
+                ? IdentityByStateEngine.DEFAULT_SPILL_BATCH_SIZE
+                : IdentityByStateEngine.DEFAULT_BATCH_SIZE);
+        Path spillDir = null;
+        if (spill) {
+            spillDir = outdir.toAbsolutePath().toFile().isDirectory()
+                    ? outdir.toAbsolutePath()
+                    : Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+
         List<IdentityByState> identityByStateList;
-        try (VariantDBIterator iterator = getVariantStorageManager().iterable(sessionId).iterator(query, options)) {
-            identityByStateList = ibsc.countIBS(iterator, samples);
+        try (VariantDBIterator iterator = getVariantStorageManager().iterable(sessionId).iterator(query, options);
+             IdentityByStateEngine engine = new IdentityByStateEngine(samples, threads, batchSize, spillDir)) {
+            identityByStateList = engine.addAll(iterator).toIdentityByStateList(ibsc);
         }
         if ("-".equals(outdir.getFileName().toString())) {
             ibsc.write(System.out, identityByStateList, samples);
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.variant.algorithm.IdentityByState;
+import org.opencb.biodata.tools.variant.algorithm.IdentityByStateClustering;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Counts the Identity By State (IBS0, IBS1 and IBS2) of every pair of samples.
+ *
+ * Genotypes are packed in batches of variants, using 2 bits per sample and variant, stored in two bit planes of 64 variants per word:
+ * 00 for 0/0, 01 for 0/1, 10 for 1/1 and 11 for missing. Then, the IBS of each pair of samples is counted with bitwise operations
+ * and popcount, splitting the matrix of pairs in tiles processed in parallel in a {@link ForkJoinPool}.
+ * Variants with other alleles or non diploid genotypes are compared one by one in the same tiles.
+ *
+ * Batches can be stored in memory mapped files instead of the java heap, to use larger batches with a bounded heap.
+ *
+ * Created on 17/10/17.
+ */
+public class IdentityByStateEngine implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    public static final int DEFAULT_SPILL_BATCH_SIZE = 65536;
+    public static final int TILE_SIZE = 64;
+
+    private static final int MISSING = 3;
+    private static final int[] MISSING_ALLELES = {-1, -1};
+    private static final int MAX_COMPLEX_VARIANTS = 1024;
+
+    private final List<String> samples;
+    private final int numSamples;
+    private final int numTiles;
+    private final ForkJoinPool pool;
+    private final Path spillFile;
+
+    // Packed genotypes of the current batch. Row of words for each sample, alternating both bit planes.
+    private final LongBuffer batch;
+    private final int batchWords;
+    private int batchWordsUsed;
+    private final long[] word;
+    private int wordVariants;
+    private final List<int[][]> complexVariants = new ArrayList<>();
+
+    // Counts for each pair of samples: IBS0, IBS2, and number of non missing variants
+    private final int[] ibs0;
+    private final int[] ibs2;
+    private final int[] valid;
+    private long numVariants;
+
+    private final Map<String, int[]> genotypes = new HashMap<>();
+    private Map<String, Integer> samplesPosition;
+    private int[] samplesPositionArray;
+
+    private final Logger logger = LoggerFactory.getLogger(IdentityByStateEngine.class);
+
+    /**
+     * Create an engine keeping the batches in the java heap.
+     *
+     * @param samples   Samples to compare
+     * @param threads   Number of threads
+     */
+    public IdentityByStateEngine(List<String> samples, int threads) {
+        this(samples, threads, DEFAULT_BATCH_SIZE, null);
+    }
+
+    /**
+     * Create an engine.
+     *
+     * @param samples   Samples to compare
+     * @param threads   Number of threads
+     * @param batchSize Number of variants of each batch
+     * @param spillDir  Directory to create the memory mapped file of the batches. If null, batches are kept in the java heap
+     */
+    public IdentityByStateEngine(List<String> samples, int threads, int batchSize, Path spillDir) {
+        this.samples = new ArrayList<>(samples);
+        numSamples = samples.size();
+        if (numSamples < 2) {
+            throw new IllegalArgumentException("Required at least 2 samples to compute IBS");
+        }
+        numTiles = (numSamples + TILE_SIZE - 1) / TILE_SIZE;
+        long numPairs = ((long) numSamples) * (numSamples - 1) / 2;
+        if (numPairs > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many samples : " + numSamples);
+        }
+        ibs0 = new int[(int) numPairs];
+        ibs2 = new int[(int) numPairs];
+        valid = new int[(int) numPairs];
+
+        // Limit the batch to 2GB, the maximum size of a memory mapped buffer
+        long maxWords = Integer.MAX_VALUE / (2L * Long.BYTES * numSamples);
+        batchWords = (int) Math.max(1, Math.min(maxWords, (Math.max(batchSize, 1) + Long.SIZE - 1) / Long.SIZE));
+        int batchLongs = 2 * batchWords * numSamples;
+        if (spillDir == null) {
+            spillFile = null;
+            batch = LongBuffer.wrap(new long[batchLongs]);
+        } else {
+            try {
+                spillFile = Files.createTempFile(spillDir, "ibs_batch_", ".bin");
+                try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, ((long) batchLongs) * Long.BYTES);
+                    batch = buffer.order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        word = new long[2 * numSamples];
+        resetWord();
+        pool = new ForkJoinPool(Math.max(1, threads));
+        logger.debug("IBS for {} samples, {} variants per batch, {} tiles. Batch in {}", numSamples, batchWords * Long.SIZE, numTiles,
+                spillFile == null ? "heap" : spillFile);
+    }
+
+    /**
+     * Add all the variants from the iterator.
+     *
+     * @param iterator  Variants iterator
+     * @return          this
+     */
+    public IdentityByStateEngine addAll(Iterator<Variant> iterator) {
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+        return this;
+    }
+
+    /**
+     * Add a variant. Only the first study is used.
+     *
+     * @param variant   Variant
+     */
+    public void add(Variant variant) {
+        StudyEntry studyEntry = variant.getStudies().get(0);
+        Integer gtIdx = studyEntry.getFormatPositions().get("GT");
+        if (gtIdx == null || gtIdx < 0) {
+            return;
+        }
+        if (samplesPosition != studyEntry.getSamplesPosition()) {
+            samplesPosition = studyEntry.getSamplesPosition();
+            samplesPositionArray = new int[numSamples];
+            for (int i = 0; i < numSamples; i++) {
+                samplesPositionArray[i] = samplesPosition.getOrDefault(samples.get(i), -1);
+            }
+        }
+        List<List<String>> samplesData = studyEntry.getSamplesData();
+        String[] gts = new String[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            int position = samplesPositionArray[i];
+            if (position >= 0 && position < samplesData.size()) {
+                List<String> sampleData = samplesData.get(position);
+                gts[i] = gtIdx < sampleData.size() ? sampleData.get(gtIdx) : null;
+            }
+        }
+        add(gts);
+    }
+
+    /**
+     * Add the genotypes of one variant.
+     *
+     * @param gts   Genotypes, in the same order as the samples. Null for missing
+     */
+    public void add(String[] gts) {
+        int[][] alleles = new int[numSamples][];
+        boolean packed = true;
+        for (int i = 0; i < numSamples; i++) {
+            alleles[i] = parseGenotype(gts[i]);
+            packed &= alleles[i][1] <= 1;
+        }
+        numVariants++;
+        if (packed) {
+            long mask = 1L << wordVariants;
+            for (int i = 0; i < numSamples; i++) {
+                int code = alleles[i][0] < 0 ? MISSING : alleles[i][0] + alleles[i][1];
+                if ((code & 1) == 0) {
+                    word[2 * i] &= ~mask;
+                }
+                if ((code & 2) == 0) {
+                    word[2 * i + 1] &= ~mask;
+                }
+            }
+            wordVariants++;
+            if (wordVariants == Long.SIZE) {
+                flushWord();
+            }
+        } else {
+            complexVariants.add(alleles);
+            if (complexVariants.size() >= MAX_COMPLEX_VARIANTS) {
+                countBatch();
+            }
+        }
+    }
+
+    /**
+     * Parse a genotype into a sorted pair of alleles. Haploid genotypes are considered homozygous.
+     *
+     * @param gt    Genotype
+     * @return      Sorted alleles, or {-1, -1} if missing
+     */
+    private int[] parseGenotype(String gt) {
+        if (gt == null || gt.isEmpty()) {
+            return MISSING_ALLELES;
+        }
+        int[] alleles = genotypes.get(gt);
+        if (alleles == null) {
+            String[] split = gt.split("[/|]");
+            if (split.length > 2) {
+                alleles = MISSING_ALLELES;
+            } else {
+                try {
+                    int a = Integer.parseInt(split[0]);
+                    int b = split.length == 1 ? a : Integer.parseInt(split[1]);
+                    alleles = a < 0 || b < 0 ? MISSING_ALLELES : new int[]{Math.min(a, b), Math.max(a, b)};
+                } catch (NumberFormatException e) {
+                    // Missing alleles, like "./." or "0/."
+                    alleles = MISSING_ALLELES;
+                }
+            }
+            genotypes.put(gt, alleles);
+        }
+        return alleles;
+    }
+
+    private void resetWord() {
+        // Unused positions are missing
+        Arrays.fill(word, -1L);
+        wordVariants = 0;
+    }
+
+    private void flushWord() {
+        if (wordVariants == 0) {
+            return;
+        }
+        for (int i = 0; i < numSamples; i++) {
+            int offset = (i * batchWords + batchWordsUsed) * 2;
+            batch.put(offset, word[2 * i]);
+            batch.put(offset + 1, word[2 * i + 1]);
+        }
+        batchWordsUsed++;
+        resetWord();
+        if (batchWordsUsed == batchWords) {
+            countBatch();
+        }
+    }
+
+    /**
+     * Count the IBS of all the pairs of samples with the variants of the current batch, and empty the batch.
+     */
+    private void countBatch() {
+        if (batchWordsUsed == 0 && complexVariants.isEmpty()) {
+            return;
+        }
+        int numTilePairs = numTiles * (numTiles + 1) / 2;
+        try {
+            pool.submit(() -> IntStream.range(0, numTilePairs).parallel().forEach(this::countTilePair)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        batchWordsUsed = 0;
+        complexVariants.clear();
+    }
+
+    private void countTilePair(int tilePair) {
+        // Tile pair to tiles, with firstTile <= secondTile
+        int secondTile = (int) ((Math.sqrt(8.0 * tilePair + 1) - 1) / 2);
+        while (secondTile * (secondTile + 1) / 2 > tilePair) {
+            secondTile--;
+        }
+        while ((secondTile + 1) * (secondTile + 2) / 2 <= tilePair) {
+            secondTile++;
+        }
+        int firstTile = tilePair - secondTile * (secondTile + 1) / 2;
+
+        long[] first = readTile(firstTile);
+        long[] second = firstTile == secondTile ? first : readTile(secondTile);
+        int rowLength = 2 * batchWordsUsed;
+
+        int firstStart = firstTile * TILE_SIZE;
+        int secondStart = secondTile * TILE_SIZE;
+        int secondEnd = Math.min(numSamples, secondStart + TILE_SIZE);
+        for (int j = secondStart; j < secondEnd; j++) {
+            int jOffset = (j - secondStart) * rowLength;
+            int firstEnd = Math.min(j, firstStart + TILE_SIZE);
+            for (int i = firstStart; i < firstEnd; i++) {
+                int iOffset = (i - firstStart) * rowLength;
+                int pairIbs0 = 0;
+                int pairIbs2 = 0;
+                int pairValid = 0;
+                for (int w = 0; w < rowLength; w += 2) {
+                    long lowI = first[iOffset + w];
+                    long highI = first[iOffset + w + 1];
+                    long lowJ = second[jOffset + w];
+                    long highJ = second[jOffset + w + 1];
+                    long nonMissing = ~((lowI & highI) | (lowJ & highJ));
+                    pairValid += Long.bitCount(nonMissing);
+                    pairIbs2 += Long.bitCount(~((lowI ^ lowJ) | (highI ^ highJ)) & nonMissing);
+                    // Opposite homozygous: both low bits unset, and different high bits
+                    pairIbs0 += Long.bitCount(~(lowI | lowJ) & (highI ^ highJ));
+                }
+                for (int[][] alleles : complexVariants) {
+                    int[] a = alleles[i];
+                    int[] b = alleles[j];
+                    if (a[0] < 0 || b[0] < 0) {
+                        continue;
+                    }
+                    pairValid++;
+                    if (a[0] == b[0] && a[1] == b[1]) {
+                        pairIbs2++;
+                    } else if (a[0] != b[0] && a[0] != b[1] && a[1] != b[0] && a[1] != b[1]) {
+                        pairIbs0++;
+                    }
+                }
+                int pair = getPairIndex(i, j);
+                ibs0[pair] += pairIbs0;
+                ibs2[pair] += pairIbs2;
+                valid[pair] += pairValid;
+            }
+        }
+    }
+
+    private long[] readTile(int tile) {
+        int start = tile * TILE_SIZE;
+        int end = Math.min(numSamples, start + TILE_SIZE);
+        int rowLength = 2 * batchWordsUsed;
+        long[] rows = new long[(end - start) * rowLength];
+        LongBuffer buffer = batch.duplicate();
+        for (int i = start; i < end; i++) {
+            buffer.position(i * batchWords * 2);
+            buffer.get(rows, (i - start) * rowLength, rowLength);
+        }
+        return rows;
+    }
+
+    private static int getPairIndex(int first, int second) {
+        return (int) (((long) second) * (second - 1) / 2) + first;
+    }
+
+    /**
+     * Count all the pending variants. Must be called before reading the counts.
+     *
+     * @return this
+     */
+    public IdentityByStateEngine finish() {
+        flushWord();
+        countBatch();
+        return this;
+    }
+
+    /**
+     * Get the IBS counts of a pair of samples.
+     *
+     * @param first     Index of the first sample
+     * @param second    Index of the second sample
+     * @return          IBS0, IBS1 and IBS2 counts
+     */
+    public int[] getIbs(int first, int second) {
+        if (first == second) {
+            throw new IllegalArgumentException("Same sample");
+        }
+        int pair = getPairIndex(Math.min(first, second), Math.max(first, second));
+        return new int[]{ibs0[pair], valid[pair] - ibs0[pair] - ibs2[pair], ibs2[pair]};
+    }
+
+    /**
+     * Build the list of IBS counts in the order expected by {@link IdentityByStateClustering#write}.
+     *
+     * @param ibsc  IdentityByStateClustering
+     * @return      List of IBS counts
+     */
+    public List<IdentityByState> toIdentityByStateList(IdentityByStateClustering ibsc) {
+        finish();
+        IdentityByState[] list = new IdentityByState[ibs0.length];
+        for (int j = 1; j < numSamples; j++) {
+            for (int i = 0; i < j; i++) {
+                IdentityByState identityByState = new IdentityByState();
+                int[] counts = getIbs(i, j);
+                System.arraycopy(counts, 0, identityByState.ibs, 0, counts.length);
+                list[ibsc.getCompoundIndex(i, j)] = identityByState;
+            }
+        }
+        return Arrays.asList(list);
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    public List<String> getSamples() {
+        return samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.variant.algorithm.IdentityByState;
+import org.opencb.biodata.tools.variant.algorithm.IdentityByStateClustering;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on 17/10/17.
+ */
+public class IdentityByStateEngineTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/0", "1/1", "0|1", "./.", ".", "0/.", "1", "0", "1/2", "2/2", "0/3"};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testHeap() throws Exception {
+        testIbs(150, 1000, 3, 300, null);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        testIbs(70, 700, 2, 128, temporaryFolder.newFolder().toPath());
+    }
+
+    @Test
+    public void testSingleThread() throws Exception {
+        testIbs(5, 100, 1, 64, null);
+    }
+
+    @Test
+    public void testSameAsIdentityByStateClustering() throws Exception {
+        // Diploid genotypes without missing alleles, across more than one batch and tile
+        String[] genotypes = {"0/0", "0/1", "1/0", "1/1", "0|1", "1/2", "2/2"};
+        int numSamples = 80;
+        Random random = new Random(1);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < numSamples; i++) {
+            samples.add("S" + i);
+        }
+        List<Variant> variants = new ArrayList<>();
+        for (int v = 0; v < 300; v++) {
+            Variant variant = new Variant("1:" + (1000 + v) + ":A:C");
+            StudyEntry studyEntry = new StudyEntry("1", Collections.emptyList(), Collections.singletonList("GT"));
+            for (String sample : samples) {
+                // Mostly biallelic variants
+                String gt = genotypes[random.nextInt(v % 10 == 0 ? genotypes.length : 5)];
+                studyEntry.addSampleData(sample, Collections.singletonList(gt));
+            }
+            variant.addStudyEntry(studyEntry);
+            variants.add(variant);
+        }
+
+        IdentityByStateClustering ibsc = new IdentityByStateClustering();
+        List<IdentityByState> expected = ibsc.countIBS(variants.iterator(), samples);
+        List<IdentityByState> actual;
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples, 3, 128, null)) {
+            actual = engine.addAll(variants.iterator()).toIdentityByStateList(ibsc);
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int j = 0; j < numSamples; j++) {
+            for (int i = 0; i < j; i++) {
+                int index = ibsc.getCompoundIndex(i, j);
+                assertArrayEquals("Pair " + i + " - " + j, expected.get(index).ibs, actual.get(index).ibs);
+            }
+        }
+    }
+
+    private void testIbs(int numSamples, int numVariants, int threads, int batchSize, Path spillDir) throws Exception {
+        Random random = new Random(numSamples);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < numSamples; i++) {
+            samples.add("S" + i);
+        }
+        List<String[]> variants = new ArrayList<>();
+        for (int v = 0; v < numVariants; v++) {
+            // Mostly biallelic variants
+            int numGenotypes = random.nextInt(10) == 0 ? GENOTYPES.length : 8;
+            String[] gts = new String[numSamples];
+            for (int i = 0; i < numSamples; i++) {
+                gts[i] = GENOTYPES[random.nextInt(numGenotypes)];
+            }
+            variants.add(gts);
+        }
+
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples, threads, batchSize, spillDir)) {
+            variants.forEach(engine::add);
+            engine.finish();
+            assertEquals(numVariants, engine.getNumVariants());
+            for (int j = 0; j < numSamples; j++) {
+                for (int i = 0; i < j; i++) {
+                    int[] expected = new int[3];
+                    for (String[] gts : variants) {
+                        int ibs = countSharedAlleles(gts[i], gts[j]);
+                        if (ibs >= 0) {
+                            expected[ibs]++;
+                        }
+                    }
+                    assertArrayEquals("Pair " + i + " - " + j, expected, engine.getIbs(i, j));
+                    assertArrayEquals(expected, engine.getIbs(j, i));
+                }
+            }
+        }
+    }
+
+    private int countSharedAlleles(String gt1, String gt2) {
+        int[] a = alleles(gt1);
+        int[] b = alleles(gt2);
+        if (a == null || b == null) {
+            return -1;
+        }
+        if (a[0] == b[0] && a[1] == b[1] || a[0] == b[1] && a[1] == b[0]) {
+            return 2;
+        } else if (a[0] == b[0] || a[0] == b[1] || a[1] == b[0] || a[1] == b[1]) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    private int[] alleles(String gt) {
+        if (gt.contains(".")) {
+            return null;
+        }
+        String[] split = gt.split("[/|]");
+        int a = Integer.parseInt(split[0]);
+        int b = split.length == 1 ? a : Integer.parseInt(split[1]);
+        return new int[]{a, b};
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.catalog.auth.authorization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Short lived cache of authorization decisions, keyed by study, member, permission and entry id.
+ *
+ * The cache is bounded by number of decisions, evicting the least recently used ones, and each decision expires after a short
+ * time. Decisions are local to this process, so changes made by other processes are only seen once the cached decisions expire.
+ *
+ * Created on 17/10/17.
+ */
+public class AuthorizationCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    public static final long DEFAULT_TTL_MS = 10000;
+
+    private static final char SEPARATOR = ':';
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Decision> decisions;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static final class Decision {
+        private final boolean granted;
+        private final long expireAt;
+
+        private Decision(boolean granted, long expireAt) {
+            this.granted = granted;
+            this.expireAt = expireAt;
+        }
+    }
+
+    public AuthorizationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Create an authorization cache.
+     *
+     * @param maxEntries Max number of decisions to keep. Values &lt;= 0 disable the cache.
+     * @param ttlMs      Time in milliseconds before a decision expires. Values &lt;= 0 disable the cache.
+     */
+    public AuthorizationCache(int maxEntries, long ttlMs) {
+        this(maxEntries, ttlMs, System::currentTimeMillis);
+    }
+
+    AuthorizationCache(int maxEntries, long ttlMs, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        this.decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                if (size() > AuthorizationCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlMs > 0;
+    }
+
+    /**
+     * Get a cached decision.
+     *
+     * @param studyId    Study id
+     * @param member     User or group asking for the permission
+     * @param permission Permission
+     * @param id         Id of the entry
+     * @return true if the permission was granted, false if it was denied, or null if there is no valid cached decision.
+     */
+    public synchronized Boolean get(long studyId, String member, Enum<?> permission, long id) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = buildKey(studyId, member, permission, id);
+        Decision decision = decisions.get(key);
+        if (decision != null && decision.expireAt <= clock.getAsLong()) {
+            decisions.remove(key);
+            evictions++;
+            decision = null;
+        }
+        if (decision == null) {
+            misses++;
+            return null;
+        } else {
+            hits++;
+            return decision.granted;
+        }
+    }
+
+    public synchronized void put(long studyId, String member, Enum<?> permission, long id, boolean granted) {
+        if (isEnabled()) {
+            decisions.put(buildKey(studyId, member, permission, id), new Decision(granted, clock.getAsLong() + ttlMs));
+        }
+    }
+
+    /**
+     * Discard all the decisions of a study.
+     *
+     * @param studyId Study id
+     */
+    public synchronized void invalidate(long studyId) {
+        String prefix = Long.toString(studyId) + SEPARATOR;
+        Iterator<String> iterator = decisions.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        decisions.clear();
+    }
+
+    public synchronized int size() {
+        return decisions.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : ((double) hits) / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("AuthorizationCache{");
+        sb.append("entries=").append(decisions.size());
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", evictions=").append(evictions);
+        sb.append(", hitRate=").append(getHitRate());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static String buildKey(long studyId, String member, Enum<?> permission, long id) {
+        return Long.toString(studyId) + SEPARATOR + member + SEPARATOR + permission.name() + SEPARATOR + id;
+    }
+}
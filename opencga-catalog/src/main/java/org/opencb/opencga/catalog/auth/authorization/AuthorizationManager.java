@@ -85,6 +85,18 @@ public interface AuthorizationManager {
 
     boolean isPublicRegistration();
 
+    /**
+     * Discard the cached authorization decisions of a study. Must be called whenever the groups of the study change.
+     *
+     * @param studyId Study id
+     */
+    void invalidatePermissionCache(long studyId);
+
+    /**
+     * Discard the cached authorization decisions of all the studies.
+     */
+    void invalidatePermissionCache();
+
     void checkProjectPermission(long projectId, String userId, StudyAclEntry.StudyPermissions permission) throws CatalogException;
 
     void checkStudyPermission(long studyId, String userId, StudyAclEntry.StudyPermissions permission) throws CatalogException;
@@ -94,12 +106,30 @@ public interface AuthorizationManager {
 
     void checkFilePermission(long studyId, long fileId, String userId, FileAclEntry.FilePermissions permission) throws CatalogException;
 
+    /**
+     * Check the permission of the user over a list of files, with one single query for the whole list.
+     *
+     * @param studyId    Study id
+     * @param fileIds    File ids
+     * @param userId     User id
+     * @param permission Permission to check
+     * @throws CatalogException if the user does not have the permission over any of the files
+     */
+    void checkFilePermissions(long studyId, List<Long> fileIds, String userId, FileAclEntry.FilePermissions permission)
+            throws CatalogException;
+
     void checkSamplePermission(long studyId, long sampleId, String userId, SampleAclEntry.SamplePermissions permission)
             throws CatalogException;
 
+    void checkSamplePermissions(long studyId, List<Long> sampleIds, String userId, SampleAclEntry.SamplePermissions permission)
+            throws CatalogException;
+
     void checkIndividualPermission(long studyId, long individualId, String userId, IndividualAclEntry.IndividualPermissions permission)
             throws CatalogException;
 
+    void checkIndividualPermissions(long studyId, List<Long> individualIds, String userId,
+                                    IndividualAclEntry.IndividualPermissions permission) throws CatalogException;
+
     void checkJobPermission(long studyId, long jobId, String userId, JobAclEntry.JobPermissions permission) throws CatalogException;
 
     void checkCohortPermission(long studyId, long cohortId, String userId, CohortAclEntry.CohortPermissions permission)
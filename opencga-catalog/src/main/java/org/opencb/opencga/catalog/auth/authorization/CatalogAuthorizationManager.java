@@ -37,9 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -76,11 +74,15 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
 
     private final AuthorizationDBAdaptor aclDBAdaptor;
 
+    // Recent decisions over files, samples, individuals... Must be invalidated whenever any ACL or group of the study changes.
+    private final AuthorizationCache authorizationCache;
+
     public CatalogAuthorizationManager(DBAdaptorFactory dbFactory, CatalogAuditManager auditManager, Configuration configuration)
             throws CatalogDBException, CatalogAuthorizationException {
         this.logger = LoggerFactory.getLogger(CatalogAuthorizationManager.class);
         this.auditManager = auditManager;
         this.aclDBAdaptor = new AuthorizationMongoDBAdaptor(configuration);
+        this.authorizationCache = new AuthorizationCache();
 
         this.openRegister = configuration.isOpenRegister();
 
@@ -112,6 +114,20 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
         return openRegister;
     }
 
+    @Override
+    public void invalidatePermissionCache(long studyId) {
+        authorizationCache.invalidate(studyId);
+    }
+
+    @Override
+    public void invalidatePermissionCache() {
+        authorizationCache.invalidateAll();
+    }
+
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
+    }
+
     @Override
     public void checkProjectPermission(long projectId, String userId, StudyAclEntry.StudyPermissions permission) throws CatalogException {
         if (projectDBAdaptor.getOwnerId(projectId).equals(userId)) {
@@ -168,54 +184,132 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
         Query query = new Query()
                 .append(FileDBAdaptor.QueryParams.ID.key(), fileId)
                 .append(FileDBAdaptor.QueryParams.STUDY_ID.key(), studyId);
-        StudyAclEntry.StudyPermissions studyPermission;
+        StudyAclEntry.StudyPermissions studyPermission = getStudyPermission(permission);
+
+        if (checkUserPermission(studyId, fileId, userId, query, studyPermission, fileDBAdaptor)) {
+            return;
+        }
+        throw CatalogAuthorizationException.deny(userId, permission.toString(), "File", fileId, null);
+    }
+
+    @Override
+    public void checkFilePermissions(long studyId, List<Long> fileIds, String userId, FileAclEntry.FilePermissions permission)
+            throws CatalogException {
+        List<Long> deniedIds = getDeniedIds(studyId, fileIds, userId, FileDBAdaptor.QueryParams.ID.key(),
+                FileDBAdaptor.QueryParams.STUDY_ID.key(), getStudyPermission(permission), fileDBAdaptor);
+        if (!deniedIds.isEmpty()) {
+            throw CatalogAuthorizationException.deny(userId, permission.toString(), "File", deniedIds.get(0), null);
+        }
+    }
+
+    private StudyAclEntry.StudyPermissions getStudyPermission(FileAclEntry.FilePermissions permission)
+            throws CatalogAuthorizationException {
         switch (permission) {
             case VIEW_HEADER:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_FILE_HEADERS;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_FILE_HEADERS;
             case VIEW_CONTENT:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_FILE_CONTENTS;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_FILE_CONTENTS;
             case VIEW:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_FILES;
             case WRITE:
-                studyPermission = StudyAclEntry.StudyPermissions.WRITE_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.WRITE_FILES;
             case DELETE:
-                studyPermission = StudyAclEntry.StudyPermissions.DELETE_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.DELETE_FILES;
             case DOWNLOAD:
-                studyPermission = StudyAclEntry.StudyPermissions.DOWNLOAD_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.DOWNLOAD_FILES;
             case UPLOAD:
-                studyPermission = StudyAclEntry.StudyPermissions.UPLOAD_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.UPLOAD_FILES;
             case SHARE:
-                studyPermission = StudyAclEntry.StudyPermissions.SHARE_FILES;
-                break;
+                return StudyAclEntry.StudyPermissions.SHARE_FILES;
             default:
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
+    }
 
-        if (checkUserPermission(userId, query, studyPermission, fileDBAdaptor)) {
-            return;
+    private boolean checkUserPermission(long studyId, long id, String userId, Query query,
+                                        StudyAclEntry.StudyPermissions studyPermission, DBAdaptor dbAdaptor)
+            throws CatalogDBException, CatalogAuthorizationException {
+        if (userId.equals(ADMIN)) {
+            return getSpecialPermissions(ADMIN).getPermissions().contains(studyPermission);
+        } else {
+            Boolean granted = authorizationCache.get(studyId, userId, studyPermission, id);
+            if (granted == null) {
+                granted = queryUserPermission(studyId, id, userId, query, studyPermission, dbAdaptor);
+            }
+            return granted;
         }
-        throw CatalogAuthorizationException.deny(userId, permission.toString(), "File", fileId, null);
     }
 
-    private boolean checkUserPermission(String userId, Query query, StudyAclEntry.StudyPermissions studyPermission, DBAdaptor dbAdaptor)
+    private boolean queryUserPermission(long studyId, long id, String userId, Query query,
+                                        StudyAclEntry.StudyPermissions studyPermission, DBAdaptor dbAdaptor)
             throws CatalogDBException, CatalogAuthorizationException {
+        boolean granted = (Long) dbAdaptor.count(query, userId, studyPermission).first() == 1;
+        authorizationCache.put(studyId, userId, studyPermission, id, granted);
+        return granted;
+    }
+
+    /**
+     * Check the permission of the user over a list of entries, using the cached decisions and one single query for the rest.
+     *
+     * @param studyId           Study id
+     * @param ids               Entry ids
+     * @param userId            User id
+     * @param idKey             Query param with the entry id
+     * @param studyIdKey        Query param with the study id
+     * @param studyPermission   Study permission to check
+     * @param dbAdaptor         DBAdaptor of the entries
+     * @return the list of entries where the user does not have the permission.
+     * @throws CatalogDBException if there is any database error
+     * @throws CatalogAuthorizationException if the permission can not be checked
+     */
+    private List<Long> getDeniedIds(long studyId, List<Long> ids, String userId, String idKey, String studyIdKey,
+                                    StudyAclEntry.StudyPermissions studyPermission, DBAdaptor dbAdaptor)
+            throws CatalogDBException, CatalogAuthorizationException {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
         if (userId.equals(ADMIN)) {
             if (getSpecialPermissions(ADMIN).getPermissions().contains(studyPermission)) {
-                return true;
+                return Collections.emptyList();
+            } else {
+                return new ArrayList<>(ids);
+            }
+        }
+
+        List<Long> deniedIds = new ArrayList<>();
+        Set<Long> pendingIds = new LinkedHashSet<>();
+        for (Long id : ids) {
+            Boolean granted = authorizationCache.get(studyId, userId, studyPermission, id);
+            if (granted == null) {
+                pendingIds.add(id);
+            } else if (!granted) {
+                deniedIds.add(id);
+            }
+        }
+        if (pendingIds.isEmpty()) {
+            return deniedIds;
+        }
+
+        Query query = new Query()
+                .append(idKey, new ArrayList<>(pendingIds))
+                .append(studyIdKey, studyId);
+        if ((Long) dbAdaptor.count(query, userId, studyPermission).first() == pendingIds.size()) {
+            // All the pending entries are granted
+            for (Long id : pendingIds) {
+                authorizationCache.put(studyId, userId, studyPermission, id, true);
             }
         } else {
-            if ((Long) dbAdaptor.count(query, userId, studyPermission).first() == 1) {
-                return true;
+            // At least one of the entries is denied. Check them one by one to know which ones.
+            for (Long id : pendingIds) {
+                query = new Query()
+                        .append(idKey, id)
+                        .append(studyIdKey, studyId);
+                if (!queryUserPermission(studyId, id, userId, query, studyPermission, dbAdaptor)) {
+                    deniedIds.add(id);
+                }
             }
         }
-        return false;
+        return deniedIds;
     }
 
     @Override
@@ -224,37 +318,44 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
         Query query = new Query()
                 .append(SampleDBAdaptor.QueryParams.ID.key(), sampleId)
                 .append(SampleDBAdaptor.QueryParams.STUDY_ID.key(), studyId);
-        StudyAclEntry.StudyPermissions studyPermission;
+        StudyAclEntry.StudyPermissions studyPermission = getStudyPermission(permission);
+
+        if (checkUserPermission(studyId, sampleId, userId, query, studyPermission, sampleDBAdaptor)) {
+            return;
+        }
+        throw CatalogAuthorizationException.deny(userId, permission.toString(), "Sample", sampleId, null);
+    }
+
+    @Override
+    public void checkSamplePermissions(long studyId, List<Long> sampleIds, String userId, SampleAclEntry.SamplePermissions permission)
+            throws CatalogException {
+        List<Long> deniedIds = getDeniedIds(studyId, sampleIds, userId, SampleDBAdaptor.QueryParams.ID.key(),
+                SampleDBAdaptor.QueryParams.STUDY_ID.key(), getStudyPermission(permission), sampleDBAdaptor);
+        if (!deniedIds.isEmpty()) {
+            throw CatalogAuthorizationException.deny(userId, permission.toString(), "Sample", deniedIds.get(0), null);
+        }
+    }
+
+    private StudyAclEntry.StudyPermissions getStudyPermission(SampleAclEntry.SamplePermissions permission)
+            throws CatalogAuthorizationException {
         switch (permission) {
             case VIEW:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_SAMPLES;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_SAMPLES;
             case UPDATE:
-                studyPermission = StudyAclEntry.StudyPermissions.WRITE_SAMPLES;
-                break;
+                return StudyAclEntry.StudyPermissions.WRITE_SAMPLES;
             case DELETE:
-                studyPermission = StudyAclEntry.StudyPermissions.DELETE_SAMPLES;
-                break;
+                return StudyAclEntry.StudyPermissions.DELETE_SAMPLES;
             case SHARE:
-                studyPermission = StudyAclEntry.StudyPermissions.SHARE_SAMPLES;
-                break;
+                return StudyAclEntry.StudyPermissions.SHARE_SAMPLES;
             case WRITE_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.WRITE_SAMPLE_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.WRITE_SAMPLE_ANNOTATIONS;
             case VIEW_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_SAMPLE_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_SAMPLE_ANNOTATIONS;
             case DELETE_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.DELETE_SAMPLE_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.DELETE_SAMPLE_ANNOTATIONS;
             default:
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
-
-        if (checkUserPermission(userId, query, studyPermission, sampleDBAdaptor)) {
-            return;
-        }
-        throw CatalogAuthorizationException.deny(userId, permission.toString(), "Sample", sampleId, null);
     }
 
     @Override
@@ -263,37 +364,45 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
         Query query = new Query()
                 .append(IndividualDBAdaptor.QueryParams.ID.key(), individualId)
                 .append(IndividualDBAdaptor.QueryParams.STUDY_ID.key(), studyId);
-        StudyAclEntry.StudyPermissions studyPermission;
+        StudyAclEntry.StudyPermissions studyPermission = getStudyPermission(permission);
+
+        if (checkUserPermission(studyId, individualId, userId, query, studyPermission, individualDBAdaptor)) {
+            return;
+        }
+        throw CatalogAuthorizationException.deny(userId, permission.toString(), "Individual", individualId, null);
+    }
+
+    @Override
+    public void checkIndividualPermissions(long studyId, List<Long> individualIds, String userId,
+                                           IndividualAclEntry.IndividualPermissions permission) throws CatalogException {
+        List<Long> deniedIds = getDeniedIds(studyId, individualIds, userId, IndividualDBAdaptor.QueryParams.ID.key(),
+                IndividualDBAdaptor.QueryParams.STUDY_ID.key(), getStudyPermission(permission), individualDBAdaptor);
+        if (!deniedIds.isEmpty()) {
+            throw CatalogAuthorizationException.deny(userId, permission.toString(), "Individual", deniedIds.get(0), null);
+        }
+    }
+
+    private StudyAclEntry.StudyPermissions getStudyPermission(IndividualAclEntry.IndividualPermissions permission)
+            throws CatalogAuthorizationException {
         switch (permission) {
             case VIEW:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_INDIVIDUALS;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_INDIVIDUALS;
             case UPDATE:
-                studyPermission = StudyAclEntry.StudyPermissions.WRITE_INDIVIDUALS;
-                break;
+                return StudyAclEntry.StudyPermissions.WRITE_INDIVIDUALS;
             case DELETE:
-                studyPermission = StudyAclEntry.StudyPermissions.DELETE_INDIVIDUALS;
-                break;
+                return StudyAclEntry.StudyPermissions.DELETE_INDIVIDUALS;
             case SHARE:
-                studyPermission = StudyAclEntry.StudyPermissions.SHARE_INDIVIDUALS;
-                break;
+                return StudyAclEntry.StudyPermissions.SHARE_INDIVIDUALS;
             case WRITE_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.WRITE_INDIVIDUAL_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.WRITE_INDIVIDUAL_ANNOTATIONS;
             case VIEW_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.VIEW_INDIVIDUAL_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.VIEW_INDIVIDUAL_ANNOTATIONS;
             case DELETE_ANNOTATIONS:
-                studyPermission = StudyAclEntry.StudyPermissions.DELETE_INDIVIDUAL_ANNOTATIONS;
-                break;
+                return StudyAclEntry.StudyPermissions.DELETE_INDIVIDUAL_ANNOTATIONS;
             default:
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
-
-        if (checkUserPermission(userId, query, studyPermission, individualDBAdaptor)) {
-            return;
-        }
-        throw CatalogAuthorizationException.deny(userId, permission.toString(), "Individual", individualId, null);
+    }
     }
 
     @Override
@@ -319,7 +428,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
 
-        if (checkUserPermission(userId, query, studyPermission, jobDBAdaptor)) {
+        if (checkUserPermission(studyId, jobId, userId, query, studyPermission, jobDBAdaptor)) {
             return;
         }
         throw CatalogAuthorizationException.deny(userId, permission.toString(), "Job", jobId, null);
@@ -358,7 +467,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
 
-        if (checkUserPermission(userId, query, studyPermission, cohortDBAdaptor)) {
+        if (checkUserPermission(studyId, cohortId, userId, query, studyPermission, cohortDBAdaptor)) {
             return;
         }
         throw CatalogAuthorizationException.deny(userId, permission.toString(), "Cohort", cohortId, null);
@@ -389,7 +498,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
 
-        if (checkUserPermission(userId, query, studyPermission, panelDBAdaptor)) {
+        if (checkUserPermission(studyId, panelId, userId, query, studyPermission, panelDBAdaptor)) {
             return;
         }
         throw CatalogAuthorizationException.deny(userId, permission.toString(), "Panel", panelId, null);
@@ -428,7 +537,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
 
-        if (checkUserPermission(userId, query, studyPermission, familyDBAdaptor)) {
+        if (checkUserPermission(studyId, familyId, userId, query, studyPermission, familyDBAdaptor)) {
             return;
         }
         throw CatalogAuthorizationException.deny(userId, permission.toString(), "Family", familyId, null);
@@ -459,7 +568,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
                 throw new CatalogAuthorizationException("Permission " + permission.toString() + " not found");
         }
 
-        if (checkUserPermission(userId, query, studyPermission, clinicalAnalysisDBAdaptor)) {
+        if (checkUserPermission(studyId, analysisId, userId, query, studyPermission, clinicalAnalysisDBAdaptor)) {
             return;
         }
         throw CatalogAuthorizationException.deny(userId, permission.toString(), "ClinicalAnalysis", analysisId, null);
@@ -527,6 +636,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
     @Override
     public void resetPermissionsFromAllEntities(long studyId, List<String> members) throws CatalogException {
         aclDBAdaptor.resetMembersFromAllEntries(studyId, members);
+        authorizationCache.invalidate(studyId);
     }
 
     @Override
@@ -699,6 +809,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
         }
 
         aclDBAdaptor.setToMembers(studyIds, members, permissions, MongoDBAdaptorFactory.STUDY_COLLECTION);
+        studyIds.forEach(authorizationCache::invalidate);
         return aclDBAdaptor.get(studyIds, members, MongoDBAdaptorFactory.STUDY_COLLECTION);
     }
 
@@ -716,6 +827,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
             }
         }
         aclDBAdaptor.addToMembers(studyIds, members, permissions, MongoDBAdaptorFactory.STUDY_COLLECTION);
+        studyIds.forEach(authorizationCache::invalidate);
         return aclDBAdaptor.get(studyIds, members, MongoDBAdaptorFactory.STUDY_COLLECTION);
     }
 
@@ -723,6 +835,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
     public List<QueryResult<StudyAclEntry>> removeStudyAcls(List<Long> studyIds, List<String> members, @Nullable List<String> permissions)
             throws CatalogException {
         aclDBAdaptor.removeFromMembers(studyIds, members, permissions, MongoDBAdaptorFactory.STUDY_COLLECTION);
+        studyIds.forEach(authorizationCache::invalidate);
         return aclDBAdaptor.get(studyIds, members, MongoDBAdaptorFactory.STUDY_COLLECTION);
     }
 
@@ -750,6 +863,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
 
         long startTime = System.currentTimeMillis();
         aclDBAdaptor.setToMembers(ids, members, permissions, entity);
+        authorizationCache.invalidate(studyId);
         int dbTime = (int) (System.currentTimeMillis() - startTime);
 
         List<QueryResult<E>> aclResultList = getAcls(ids, members, entity);
@@ -780,6 +894,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
 
         long startTime = System.currentTimeMillis();
         aclDBAdaptor.addToMembers(ids, members, permissions, entity);
+        authorizationCache.invalidate(studyId);
         int dbTime = (int) (System.currentTimeMillis() - startTime);
 
         List<QueryResult<E>> aclResultList = getAcls(ids, members, entity);
@@ -802,6 +917,8 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
 
         long startTime = System.currentTimeMillis();
         aclDBAdaptor.removeFromMembers(ids, members, permissions, entity);
+        // The study of the entries is not known, so all the decisions are discarded
+        authorizationCache.invalidateAll();
 
         int dbTime = (int) (System.currentTimeMillis() - startTime);
         List<QueryResult<E>> aclResultList = getAcls(ids, members, entity);
@@ -823,6 +940,7 @@ public class CatalogAuthorizationManager implements AuthorizationManager {
 
         long startTime = System.currentTimeMillis();
         aclDBAdaptor.setAcls(ids, aclEntries, entity);
+        authorizationCache.invalidate(studyId);
         int dbTime = (int) (System.currentTimeMillis() - startTime);
 
         List<QueryResult<E>> aclResultList = getAcls(ids, null, entity);
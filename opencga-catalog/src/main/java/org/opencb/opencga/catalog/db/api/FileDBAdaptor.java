@@ -24,9 +24,7 @@ import org.opencb.opencga.catalog.exceptions.CatalogDBException;
 import org.opencb.opencga.core.models.File;
 import org.opencb.opencga.core.models.Sample;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static org.opencb.commons.datastore.core.QueryParam.Type.*;
 
@@ -157,6 +155,28 @@ public interface FileDBAdaptor extends DBAdaptor<File> {
      */
     QueryResult<File> insert(File file, long studyId, QueryOptions options) throws CatalogDBException;
 
+    /***
+     * Inserts a list of files of the same study in the database with one bulk write. The paths of the files must not exist.
+     * If any of the files can not be inserted, none of them is kept.
+     *
+     * @param files Files to be inserted in the database.
+     * @param studyId Id of the study where the files belong to.
+     * @param options Not used.
+     * @return A QueryResult object containing the inserted files, with their new ids.
+     * @throws CatalogDBException when the files could not be inserted due to different reasons.
+     */
+    QueryResult<File> insert(List<File> files, long studyId, QueryOptions options) throws CatalogDBException;
+
+    /***
+     * Obtains which of the given paths are already in use in the study, with one query.
+     *
+     * @param studyId Id of the study.
+     * @param paths Paths to look for.
+     * @return The subset of paths already found in the study.
+     * @throws CatalogDBException when the study does not exist.
+     */
+    Set<String> getExistingPaths(long studyId, Collection<String> paths) throws CatalogDBException;
+
     /***
      * Retrieves the file from the database containing the fileId given.
      *
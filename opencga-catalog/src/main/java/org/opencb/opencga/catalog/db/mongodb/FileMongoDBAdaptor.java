@@ -16,6 +16,7 @@
 
 package org.opencb.opencga.catalog.db.mongodb;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoCursor;
@@ -96,7 +97,7 @@ public class FileMongoDBAdaptor extends MongoDBAdaptor implements FileDBAdaptor
         }
 
         //new File Id
-        long newFileId = getNewId();
+        long newFileId = getNewBlockAllocatedId();
         file.setId(newFileId);
         Document fileDocument = fileConverter.convertToStorageType(file);
         fileDocument.append(PRIVATE_STUDY_ID, studyId);
@@ -116,6 +117,57 @@ public class FileMongoDBAdaptor extends MongoDBAdaptor implements FileDBAdaptor
         return endQuery("Create file", startTime, get(newFileId, options));
     }
 
+    @Override
+    public QueryResult<File> insert(List<File> files, long studyId, QueryOptions options) throws CatalogDBException {
+        long startTime = startQuery();
+
+        dbAdaptorFactory.getCatalogStudyDBAdaptor().checkId(studyId);
+        if (files.isEmpty()) {
+            return endQuery("Create files", startTime, Collections.emptyList());
+        }
+
+        List<Document> fileDocuments = new ArrayList<>(files.size());
+        List<Long> newFileIds = new ArrayList<>(files.size());
+        long diskUsage = 0;
+        for (File file : files) {
+            long newFileId = getNewBlockAllocatedId();
+            file.setId(newFileId);
+            newFileIds.add(newFileId);
+            Document fileDocument = fileConverter.convertToStorageType(file);
+            fileDocument.append(PRIVATE_STUDY_ID, studyId);
+            fileDocument.append(PRIVATE_ID, newFileId);
+            fileDocuments.add(fileDocument);
+            if (!file.isExternal()) {
+                diskUsage += file.getSize();
+            }
+        }
+
+        try {
+            fileCollection.insert(fileDocuments, new QueryOptions());
+        } catch (MongoBulkWriteException e) {
+            // The files inserted before the error would be left without ACLs and out of the disk usage. Remove them.
+            fileCollection.remove(new Document(PRIVATE_ID, new Document("$in", newFileIds)), new QueryOptions());
+            throw new CatalogDBException("Error inserting " + files.size() + " files in study " + studyId, e);
+        }
+
+        // Update the size field from the study collection
+        if (diskUsage > 0) {
+            dbAdaptorFactory.getCatalogStudyDBAdaptor().updateDiskUsage(studyId, diskUsage);
+        }
+
+        return endQuery("Create files", startTime, files);
+    }
+
+    @Override
+    public Set<String> getExistingPaths(long studyId, Collection<String> paths) throws CatalogDBException {
+        if (paths.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Document query = new Document(PRIVATE_STUDY_ID, studyId)
+                .append(QueryParams.PATH.key(), new Document("$in", paths instanceof List ? paths : new ArrayList<>(paths)));
+        return new HashSet<>(fileCollection.distinct(QueryParams.PATH.key(), query, String.class).getResult());
+    }
+
     @Override
     public long getId(long studyId, String path) throws CatalogDBException {
         Query query = new Query(QueryParams.STUDY_ID.key(), studyId).append(QueryParams.PATH.key(), path);
@@ -101,7 +101,7 @@ public class IndividualMongoDBAdaptor extends AnnotationMongoDBAdaptor implement
             throw CatalogDBException.idNotFound("Individual", individual.getMotherId());
         }
 
-        long individualId = getNewId();
+        long individualId = getNewBlockAllocatedId();
 
         individual.setId(individualId);
 
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.opencb.opencga.catalog.db.mongodb.MongoDBUtils.getMongoDBDocument;
@@ -47,13 +48,37 @@ import static org.opencb.opencga.catalog.db.mongodb.MongoDBUtils.parseObject;
  */
 public class MetaMongoDBAdaptor extends MongoDBAdaptor implements MetaDBAdaptor {
 
+    public static final String ID_BLOCK_SIZE = "idBlockSize";
+    public static final int DEFAULT_ID_BLOCK_SIZE = 100;
+
     private final MongoDBCollection metaCollection;
     private static final String VERSION = GitRepositoryState.get().getBuildVersion();
+    private final int idBlockSize;
+    private volatile IdBlock idBlock = IdBlock.EMPTY;
 
     public MetaMongoDBAdaptor(MongoDBCollection metaMongoDBCollection, MongoDBAdaptorFactory dbAdaptorFactory) {
+        this(metaMongoDBCollection, dbAdaptorFactory, DEFAULT_ID_BLOCK_SIZE);
+    }
+
+    public MetaMongoDBAdaptor(MongoDBCollection metaMongoDBCollection, MongoDBAdaptorFactory dbAdaptorFactory, int idBlockSize) {
         super(LoggerFactory.getLogger(ProjectMongoDBAdaptor.class));
         this.dbAdaptorFactory = dbAdaptorFactory;
         this.metaCollection = metaMongoDBCollection;
+        this.idBlockSize = Math.max(1, idBlockSize);
+    }
+
+    /**
+     * Range of ids reserved in the "idCounter" by this instance. Ids are handed out from an AtomicLong until the block is exhausted.
+     */
+    private static final class IdBlock {
+        private static final IdBlock EMPTY = new IdBlock(1, 0);
+        private final AtomicLong next;
+        private final long last;
+
+        private IdBlock(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
     }
 
     public long getNewAutoIncrementId() {
@@ -61,14 +86,49 @@ public class MetaMongoDBAdaptor extends MongoDBAdaptor implements MetaDBAdaptor
     }
 
     public long getNewAutoIncrementId(String field) { //, MongoDBCollection metaCollection
+        return getNewAutoIncrementId(field, 1);
+    }
+
+    /**
+     * Reserve a range of consecutive ids with one atomic increment.
+     *
+     * @param field Counter field of the metadata document
+     * @param count Number of ids to reserve
+     * @return Last id of the range. The range starts at {@code last - count + 1}
+     */
+    private long getNewAutoIncrementId(String field, int count) {
         Bson query = Filters.eq(PRIVATE_ID, MongoDBAdaptorFactory.METADATA_OBJECT_ID);
         Document projection = new Document(field, true);
-        Bson inc = Updates.inc(field, 1L);
+        Bson inc = Updates.inc(field, (long) count);
         QueryOptions queryOptions = new QueryOptions("returnNew", true);
         QueryResult<Document> result = metaCollection.findAndUpdate(query, projection, null, inc, queryOptions);
         return result.getResult().get(0).getLong(field);
     }
 
+    /**
+     * Get a new id from the block of ids reserved by this instance, reserving a new block of "idBlockSize" ids from the "idCounter"
+     * when exhausted. Blocks are reserved atomically in the database, so ids are unique across several instances sharing the catalog,
+     * although not consecutive between instances. Ids not handed out before the instance is closed are lost.
+     *
+     * @return New unique id
+     */
+    public long getNewBlockAllocatedId() {
+        while (true) {
+            IdBlock block = idBlock;
+            long id = block.next.getAndIncrement();
+            if (id <= block.last) {
+                return id;
+            }
+            synchronized (this) {
+                // Only the first thread finding the block exhausted reserves a new one
+                if (idBlock == block) {
+                    long last = getNewAutoIncrementId("idCounter", idBlockSize);
+                    idBlock = new IdBlock(last - idBlockSize + 1, last);
+                }
+            }
+        }
+    }
+
 
     public void createIndexes() {
         InputStream resourceAsStream = getClass().getResourceAsStream("/catalog-indexes.txt");
@@ -163,6 +223,8 @@ public class MetaMongoDBAdaptor extends MongoDBAdaptor implements MetaDBAdaptor
         metadataObject.put("admin", adminDocument);
 
         metaCollection.insert(metadataObject, null);
+        // Discard any block reserved from a previous counter
+        idBlock = IdBlock.EMPTY;
     }
 
     @Override
@@ -71,6 +71,10 @@ public class MongoDBAdaptor extends AbstractDBAdaptor {
         return dbAdaptorFactory.getCatalogMetaDBAdaptor().getNewAutoIncrementId();
     }
 
+    protected long getNewBlockAllocatedId() {
+        return dbAdaptorFactory.getCatalogMetaDBAdaptor().getNewBlockAllocatedId();
+    }
+
 
     @Deprecated
     protected void addIntegerOrQuery(String mongoDbField, String queryParam, Query query, List<Bson> andBsonList) {
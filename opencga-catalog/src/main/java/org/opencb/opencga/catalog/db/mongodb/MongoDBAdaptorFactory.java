@@ -330,7 +330,8 @@ public class MongoDBAdaptorFactory implements DBAdaptorFactory {
         panelDBAdaptor = new PanelMongoDBAdaptor(panelCollection, this);
         familyDBAdaptor = new FamilyMongoDBAdaptor(familyCollection, this);
         clinicalDBAdaptor = new ClinicalAnalysisMongoDBAdaptor(clinicalCollection, this);
-        metaDBAdaptor = new MetaMongoDBAdaptor(metaCollection, this);
+        metaDBAdaptor = new MetaMongoDBAdaptor(metaCollection, this,
+                configuration.getInt(MetaMongoDBAdaptor.ID_BLOCK_SIZE, MetaMongoDBAdaptor.DEFAULT_ID_BLOCK_SIZE));
         auditDBAdaptor = new AuditMongoDBAdaptor(auditCollection);
 
     }
@@ -101,7 +101,7 @@ public class SampleMongoDBAdaptor extends AnnotationMongoDBAdaptor implements Sa
             throw new CatalogDBException("Sample { name: '" + sample.getName() + "'} already exists.");
         }
 
-        long sampleId = getNewId();
+        long sampleId = getNewBlockAllocatedId();
         sample.setId(sampleId);
         Document sampleObject = sampleConverter.convertToStorageType(sample);
         sampleObject.put(PRIVATE_STUDY_ID, studyId);
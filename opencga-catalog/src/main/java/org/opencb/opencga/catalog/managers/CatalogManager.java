@@ -27,6 +27,7 @@ import org.opencb.opencga.catalog.audit.CatalogAuditManager;
 import org.opencb.opencga.catalog.auth.authorization.AuthorizationManager;
 import org.opencb.opencga.catalog.auth.authorization.CatalogAuthorizationManager;
 import org.opencb.opencga.catalog.db.DBAdaptorFactory;
+import org.opencb.opencga.catalog.db.mongodb.MetaMongoDBAdaptor;
 import org.opencb.opencga.catalog.db.mongodb.MongoDBAdaptorFactory;
 import org.opencb.opencga.catalog.exceptions.CatalogDBException;
 import org.opencb.opencga.catalog.exceptions.CatalogException;
@@ -237,6 +238,8 @@ public class CatalogManager implements AutoCloseable {
                 .add("authenticationDatabase", configuration.getCatalog().getDatabase().getOptions().get("authenticationDatabase"))
                 .setConnectionsPerHost(Integer.parseInt(configuration.getCatalog().getDatabase().getOptions()
                         .getOrDefault(MongoDBConfiguration.CONNECTIONS_PER_HOST, "20")))
+                .add(MetaMongoDBAdaptor.ID_BLOCK_SIZE, Integer.parseInt(configuration.getCatalog().getDatabase().getOptions()
+                        .getOrDefault(MetaMongoDBAdaptor.ID_BLOCK_SIZE, String.valueOf(MetaMongoDBAdaptor.DEFAULT_ID_BLOCK_SIZE))))
                 .build();
 
         List<DataStoreServerAddress> dataStoreServerAddresses = new LinkedList<>();
@@ -62,6 +62,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.opencb.opencga.catalog.auth.authorization.CatalogAuthorizationManager.checkPermissions;
@@ -84,6 +88,13 @@ public class FileManager extends ResourceManager<File> {
     public static final String SKIP_TRASH = "SKIP_TRASH";
     public static final String DELETE_EXTERNAL_FILES = "DELETE_EXTERNAL_FILES";
     public static final String FORCE_DELETE = "FORCE_DELETE";
+    /** Minimum number of files and folders of a directory to link them in bulk. */
+    public static final String LINK_BULK_THRESHOLD = "bulkLinkThreshold";
+    public static final int DEFAULT_LINK_BULK_THRESHOLD = 5000;
+    /** Threads reading the metadata of the files linked in bulk. */
+    public static final String LINK_METADATA_THREADS = "linkMetadataThreads";
+    public static final int DEFAULT_LINK_METADATA_THREADS = 4;
+    private static final int LINK_BATCH_SIZE = 1000;
 
     static {
         INCLUDE_STUDY_URI = new QueryOptions(QueryOptions.INCLUDE, StudyDBAdaptor.QueryParams.URI.key());
@@ -562,6 +573,7 @@ public class FileManager extends ResourceManager<File> {
             authorizationManager.replicateAcls(studyId, Arrays.asList(queryResult.first().getId()), allFileAcls.getResult(),
                     MongoDBAdaptorFactory.FILE_COLLECTION);
         }
+        authorizationManager.invalidatePermissionCache(studyId);
 
         auditManager.recordCreation(AuditRecord.Resource.file, queryResult.first().getId(), userId, queryResult.first(), null, null);
 
@@ -957,6 +969,7 @@ public class FileManager extends ResourceManager<File> {
             }
             queryResultList.add(deletedFileResult);
         }
+        authorizationManager.invalidatePermissionCache(studyId);
 
         return queryResultList;
     }
@@ -966,11 +979,14 @@ public class FileManager extends ResourceManager<File> {
             throws CatalogException, IOException {
         // We make two attempts to link to ensure the behaviour remains even if it is being called at the same time link from different
         // threads
+        QueryResult<File> result;
         try {
-            return privateLink(uriOrigin, pathDestiny, studyId, params, sessionId);
+            result = privateLink(uriOrigin, pathDestiny, studyId, params, sessionId);
         } catch (CatalogException | IOException e) {
-            return privateLink(uriOrigin, pathDestiny, studyId, params, sessionId);
+            result = privateLink(uriOrigin, pathDestiny, studyId, params, sessionId);
         }
+        authorizationManager.invalidatePermissionCache(studyId);
+        return result;
     }
 
     public QueryResult<File> unlink(String fileIdStr, @Nullable String studyStr, String sessionId) throws CatalogException, IOException {
@@ -1018,6 +1034,7 @@ public class FileManager extends ResourceManager<File> {
                     .append(FileDBAdaptor.QueryParams.PATH.key(), suffixedPath);
 
             QueryResult<File> retFile = fileDBAdaptor.update(file.getId(), update);
+            authorizationManager.invalidatePermissionCache(studyId);
 
             // Remove any reference to the file ids recently sent to the trash bin
             jobDBAdaptor.extractFilesFromJobs(new Query(JobDBAdaptor.QueryParams.STUDY_ID.key(), studyId), Arrays.asList(file.getId()));
@@ -1151,6 +1168,7 @@ public class FileManager extends ResourceManager<File> {
             Query query = new Query()
                     .append(FileDBAdaptor.QueryParams.ID.key(), file.getId())
                     .append(FileDBAdaptor.QueryParams.STATUS_NAME.key(), File.FileStatus.REMOVED);
+            authorizationManager.invalidatePermissionCache(studyId);
             return fileDBAdaptor.get(query, new QueryOptions());
         }
     }
@@ -1297,6 +1315,7 @@ public class FileManager extends ResourceManager<File> {
             default:
                 throw new CatalogException("Unknown file type " + file.getType());
         }
+        authorizationManager.invalidatePermissionCache(studyId);
 
         return result;
     }
@@ -1647,10 +1666,8 @@ public class FileManager extends ResourceManager<File> {
         resourceIds = getRecursiveFilesAndFolders(resourceIds);
 
         // Check the user has the permissions needed to change permissions over those files
-        for (Long fileId : resourceIds.getResourceIds()) {
-            authorizationManager.checkFilePermission(resourceIds.getStudyId(), fileId, resourceIds.getUser(),
-                    FileAclEntry.FilePermissions.SHARE);
-        }
+        authorizationManager.checkFilePermissions(resourceIds.getStudyId(), resourceIds.getResourceIds(), resourceIds.getUser(),
+                FileAclEntry.FilePermissions.SHARE);
 
         // Validate that the members are actually valid members
         List<String> members;
@@ -2472,6 +2489,13 @@ public class FileManager extends ResourceManager<File> {
             // We remove the / at the end for replacement purposes in the walkFileTree
             String finalExternalPathDestinyStr = externalPathDestinyStr.substring(0, externalPathDestinyStr.length() - 1);
 
+            List<LinkEntry> tree = scanLinkTree(pathOrigin, Paths.get(normalizedUri).toString(), finalExternalPathDestinyStr);
+            if (tree.size() >= params.getInt(LINK_BULK_THRESHOLD, DEFAULT_LINK_BULK_THRESHOLD)) {
+                int numThreads = params.getInt(LINK_METADATA_THREADS, DEFAULT_LINK_METADATA_THREADS);
+                transformedFiles.addAll(bulkLink(tree, studyId, userId, description, numThreads, sessionId));
+                return getLinkedFolderFiles(transformedFiles, normalizedUri, studyId, sessionId);
+            }
+
             // Link all the files and folders present in the uri
             Files.walkFileTree(pathOrigin, new SimpleFileVisitor<Path>() {
                 @Override
@@ -2598,30 +2622,211 @@ public class FileManager extends ResourceManager<File> {
                 }
             });
 
-            // Try to link transformed files with their corresponding original files if any
-            try {
-                if (transformedFiles.size() > 0) {
-                    matchUpVariantFiles(transformedFiles, sessionId);
-                }
-            } catch (CatalogException e) {
-                logger.warn("Matching avro to variant file: {}", e.getMessage());
+            return getLinkedFolderFiles(transformedFiles, normalizedUri, studyId, sessionId);
+        }
+    }
+
+    /**
+     * Match up the transformed files detected while linking a folder, and get the files linked from the folder.
+     */
+    private QueryResult<File> getLinkedFolderFiles(List<File> transformedFiles, URI normalizedUri, long studyId, String sessionId)
+            throws CatalogException {
+        // Try to link transformed files with their corresponding original files if any
+        try {
+            if (transformedFiles.size() > 0) {
+                matchUpVariantFiles(transformedFiles, sessionId);
             }
+        } catch (CatalogException e) {
+            logger.warn("Matching avro to variant file: {}", e.getMessage());
+        }
 
-            // Check if the uri was already linked to that same path
-            query = new Query()
-                    .append(FileDBAdaptor.QueryParams.URI.key(), "~^" + normalizedUri)
-                    .append(FileDBAdaptor.QueryParams.STUDY_ID.key(), studyId)
-                    .append(FileDBAdaptor.QueryParams.STATUS_NAME.key(), "!=" + Status.TRASHED + ";!=" + Status.DELETED + ";!="
-                            + File.FileStatus.REMOVED)
-                    .append(FileDBAdaptor.QueryParams.EXTERNAL.key(), true);
+        // Check if the uri was already linked to that same path
+        Query query = new Query()
+                .append(FileDBAdaptor.QueryParams.URI.key(), "~^" + normalizedUri)
+                .append(FileDBAdaptor.QueryParams.STUDY_ID.key(), studyId)
+                .append(FileDBAdaptor.QueryParams.STATUS_NAME.key(), "!=" + Status.TRASHED + ";!=" + Status.DELETED + ";!="
+                        + File.FileStatus.REMOVED)
+                .append(FileDBAdaptor.QueryParams.EXTERNAL.key(), true);
 
-            // Limit the number of results and only some fields
-            QueryOptions queryOptions = new QueryOptions()
-                    .append(QueryOptions.LIMIT, 100);
-            return fileDBAdaptor.get(query, queryOptions);
+        // Limit the number of results and only some fields
+        QueryOptions queryOptions = new QueryOptions()
+                .append(QueryOptions.LIMIT, 100);
+        return fileDBAdaptor.get(query, queryOptions);
+    }
+
+    private static class LinkEntry {
+        private final Path path;
+        private final String destinyPath;
+        private final boolean directory;
+        private final long size;
+
+        LinkEntry(Path path, String destinyPath, boolean directory, long size) {
+            this.path = path;
+            this.destinyPath = destinyPath;
+            this.directory = directory;
+            this.size = size;
         }
     }
 
+    /**
+     * Walk the directory to be linked, without accessing catalog.
+     *
+     * @param pathOrigin     Directory to be linked.
+     * @param originStr      Path of the directory, to be replaced by the destiny.
+     * @param destinyStr     Path of the directory in catalog, without the trailing "/".
+     * @return The folders and files, each folder before its content.
+     * @throws IOException if the directory could not be read.
+     */
+    private List<LinkEntry> scanLinkTree(Path pathOrigin, String originStr, String destinyStr) throws IOException {
+        List<LinkEntry> entries = new ArrayList<>();
+        Files.walkFileTree(pathOrigin, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                String destinyPath = dir.toString().replace(originStr, destinyStr);
+                if (!destinyPath.isEmpty() && !destinyPath.endsWith("/")) {
+                    destinyPath += "/";
+                }
+                if (destinyPath.startsWith("/")) {
+                    destinyPath = destinyPath.substring(1);
+                }
+                entries.add(new LinkEntry(dir, destinyPath, true, 0));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path filePath, BasicFileAttributes attrs) throws IOException {
+                String destinyPath = filePath.toString().replace(originStr, destinyStr);
+                if (destinyPath.startsWith("/")) {
+                    destinyPath = destinyPath.substring(1);
+                }
+                entries.add(new LinkEntry(filePath, destinyPath, false, attrs.size()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Link a scanned directory in batches. For each batch, the existing paths are obtained with one query and the new files and folders
+     * are inserted with one bulk write. New folders take the ACLs of their parent, so all the new entries take the ACLs of their closest
+     * folder already present in catalog, which are fetched once per folder and replicated to the whole batch at once.
+     * The metadata of the new files is read by a pool of threads.
+     *
+     * @param entries     Folders and files to link, each folder before its content.
+     * @param studyId     Study id.
+     * @param userId      User linking the files.
+     * @param description Description of the new files and folders.
+     * @param numThreads  Threads reading the metadata of the files.
+     * @param sessionId   Session id.
+     * @return The transformed files linked.
+     * @throws CatalogException if the files could not be inserted or the ACLs could not be propagated.
+     */
+    private List<File> bulkLink(List<LinkEntry> entries, long studyId, String userId, String description, int numThreads,
+                                String sessionId) throws CatalogException {
+        long start = System.currentTimeMillis();
+        int release = catalogManager.getStudyManager().getCurrentRelease(studyId);
+        // New folder path -> path of the folder its ACLs are taken from
+        Map<String, String> aclSources = new HashMap<>();
+        Map<String, List<FileAclEntry>> aclsBySource = new HashMap<>();
+        List<File> transformedFiles = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> metadataTasks = new ArrayList<>();
+        int numLinked = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            for (int i = 0; i < entries.size(); i += LINK_BATCH_SIZE) {
+                List<LinkEntry> batch = entries.subList(i, Math.min(entries.size(), i + LINK_BATCH_SIZE));
+                Set<String> existingPaths = fileDBAdaptor.getExistingPaths(studyId,
+                        batch.stream().map(entry -> entry.destinyPath).collect(Collectors.toList()));
+
+                List<File> newFiles = new ArrayList<>(batch.size());
+                for (LinkEntry entry : batch) {
+                    if (existingPaths.contains(entry.destinyPath)) {
+                        if (!entry.directory) {
+                            logger.error("Cannot link the file " + entry.path.getFileName().toString()
+                                    + ". There is already a file in the path " + entry.destinyPath + " with the same name.");
+                        }
+                        continue;
+                    }
+                    if (entry.directory) {
+                        String parentPath = getParentPath(entry.destinyPath);
+                        aclSources.put(entry.destinyPath, aclSources.getOrDefault(parentPath, parentPath));
+                        newFiles.add(new File(-1, entry.path.getFileName().toString(), File.Type.DIRECTORY, File.Format.PLAIN,
+                                File.Bioformat.NONE, entry.path.toUri(), entry.destinyPath, TimeUtils.getTime(), TimeUtils.getTime(),
+                                description, new File.FileStatus(File.FileStatus.READY), true, 0, new Experiment(),
+                                Collections.emptyList(), new Job(), Collections.emptyList(), null,
+                                Collections.emptyMap(), release, Collections.emptyMap()));
+                    } else {
+                        newFiles.add(new File(-1, entry.path.getFileName().toString(), File.Type.FILE, File.Format.UNKNOWN,
+                                File.Bioformat.NONE, entry.path.toUri(), entry.destinyPath, TimeUtils.getTime(), TimeUtils.getTime(),
+                                description, new File.FileStatus(File.FileStatus.READY), true, entry.size, new Experiment(),
+                                Collections.emptyList(), new Job(), Collections.emptyList(), null,
+                                Collections.emptyMap(), release, Collections.emptyMap()));
+                    }
+                }
+                List<File> inserted = fileDBAdaptor.insert(newFiles, studyId, new QueryOptions()).getResult();
+                numLinked += inserted.size();
+
+                // Propagate ACLs
+                Map<String, List<Long>> idsByAclSource = new HashMap<>();
+                for (File file : inserted) {
+                    String parentPath = getParentPath(file.getPath());
+                    idsByAclSource.computeIfAbsent(aclSources.getOrDefault(parentPath, parentPath), key -> new ArrayList<>())
+                            .add(file.getId());
+                }
+                for (Map.Entry<String, List<Long>> entry : idsByAclSource.entrySet()) {
+                    List<FileAclEntry> acls = aclsBySource.get(entry.getKey());
+                    if (acls == null) {
+                        long parentFileId = fileDBAdaptor.getId(studyId, entry.getKey());
+                        QueryResult<FileAclEntry> allFileAcls = authorizationManager.getAllFileAcls(studyId, parentFileId, userId, true);
+                        acls = allFileAcls == null ? Collections.emptyList() : allFileAcls.getResult();
+                        aclsBySource.put(entry.getKey(), acls);
+                    }
+                    if (!acls.isEmpty()) {
+                        authorizationManager.replicateAcls(studyId, entry.getValue(), acls, MongoDBAdaptorFactory.FILE_COLLECTION);
+                    }
+                }
+
+                // Read the metadata in background
+                for (File file : inserted) {
+                    if (file.getType() == File.Type.FILE) {
+                        metadataTasks.add(executor.submit(() -> {
+                            try {
+                                File updatedFile = fileMetadataReader.setMetadataInformation(file, file.getUri(), new QueryOptions(),
+                                        sessionId, false);
+                                if (isTransformedFile(updatedFile.getName())) {
+                                    logger.info("Detected transformed file {}", updatedFile.getPath());
+                                    transformedFiles.add(updatedFile);
+                                }
+                            } catch (CatalogException e) {
+                                logger.error("Could not read the metadata of {}: {}", file.getPath(), e.getMessage());
+                            }
+                        }));
+                    }
+                }
+            }
+
+            for (Future<?> metadataTask : metadataTasks) {
+                metadataTask.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CatalogException("Interrupted while linking files", e);
+        } catch (ExecutionException e) {
+            throw new CatalogException("Error reading the metadata of the linked files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Linked {} files and folders out of {} in {}s", numLinked, entries.size(),
+                (System.currentTimeMillis() - start) / 1000.0);
+        return transformedFiles;
+    }
+
     /**
      * Check if the file or files inside the folder can be deleted / unlinked if they are being used in storage.
      *
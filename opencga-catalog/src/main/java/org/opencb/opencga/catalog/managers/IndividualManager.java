@@ -918,10 +918,8 @@ public class IndividualManager extends AnnotationSetManager<Individual> {
         MyResourceIds resourceIds = getIds(individualStr, studyStr, sessionId);
 
         // Check the user has the permissions needed to change permissions over those individuals
-        for (Long individualId : resourceIds.getResourceIds()) {
-            authorizationManager.checkIndividualPermission(resourceIds.getStudyId(), individualId, resourceIds.getUser(),
-                    IndividualAclEntry.IndividualPermissions.SHARE);
-        }
+        authorizationManager.checkIndividualPermissions(resourceIds.getStudyId(), resourceIds.getResourceIds(), resourceIds.getUser(),
+                IndividualAclEntry.IndividualPermissions.SHARE);
 
         // Validate that the members are actually valid members
         List<String> members;
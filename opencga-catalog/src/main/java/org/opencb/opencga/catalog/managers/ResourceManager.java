@@ -106,7 +106,7 @@ public abstract class ResourceManager<R> extends AbstractManager {
         if (queryResult.getNumResults() == 0) {
             throw CatalogAuthorizationException.deny(resources.getUser(), "VIEW", "", resources.getResourceIds().get(0), null);
         }
-        return get(String.valueOf(resources.getStudyId()), query, options, sessionId);
+        return queryResult;
     }
 
     /**
@@ -803,10 +803,8 @@ public class SampleManager extends AnnotationSetManager<Sample> {
         MyResourceIds resourceIds = getIds(sampleStr, studyStr, sessionId);
 
         // Check the user has the permissions needed to change permissions over those samples
-        for (Long sampleId : resourceIds.getResourceIds()) {
-            authorizationManager.checkSamplePermission(resourceIds.getStudyId(), sampleId, resourceIds.getUser(),
-                    SampleAclEntry.SamplePermissions.SHARE);
-        }
+        authorizationManager.checkSamplePermissions(resourceIds.getStudyId(), resourceIds.getResourceIds(), resourceIds.getUser(),
+                SampleAclEntry.SamplePermissions.SHARE);
 
         // Validate that the members are actually valid members
         List<String> members;
@@ -867,10 +865,8 @@ public class SampleManager extends AnnotationSetManager<Sample> {
     // **************************   Private methods  ******************************** //
 
     void checkCanDeleteSamples(MyResourceIds resources) throws CatalogException {
-        for (Long sampleId : resources.getResourceIds()) {
-            authorizationManager.checkSamplePermission(resources.getStudyId(), sampleId, resources.getUser(),
-                    SampleAclEntry.SamplePermissions.DELETE);
-        }
+        authorizationManager.checkSamplePermissions(resources.getStudyId(), resources.getResourceIds(), resources.getUser(),
+                SampleAclEntry.SamplePermissions.DELETE);
 
         // Check that the samples are not being used in cohorts
         Query query = new Query()
@@ -616,7 +616,9 @@ public class StudyManager extends AbstractManager {
         // Add those users to the members group
         studyDBAdaptor.addUsersToGroup(studyId, MEMBERS, userList);
         // Create the group
-        return studyDBAdaptor.createGroup(studyId, new Group(groupId, userList));
+        QueryResult<Group> group = studyDBAdaptor.createGroup(studyId, new Group(groupId, userList));
+        authorizationManager.invalidatePermissionCache(studyId);
+        return group;
     }
 
     public QueryResult<Group> getGroup(String studyStr, String groupId, String sessionId) throws CatalogException {
@@ -702,6 +704,7 @@ public class StudyManager extends AbstractManager {
             default:
                 throw new CatalogException("Unknown action " + groupParams.getAction() + " found.");
         }
+        authorizationManager.invalidatePermissionCache(studyId);
 
         return studyDBAdaptor.getGroup(studyId, groupId, Collections.emptyList());
     }
@@ -741,6 +744,7 @@ public class StudyManager extends AbstractManager {
         }
 
         studyDBAdaptor.syncGroup(studyId, groupId, syncedFrom);
+        authorizationManager.invalidatePermissionCache(studyId);
 
         return studyDBAdaptor.getGroup(studyId, groupId, Collections.emptyList());
     }
@@ -769,6 +773,7 @@ public class StudyManager extends AbstractManager {
         updateAcl(Long.toString(studyId), groupId, aclParams, sessionId);
 
         studyDBAdaptor.deleteGroup(studyId, groupId);
+        authorizationManager.invalidatePermissionCache(studyId);
 
         return group;
     }
@@ -460,6 +460,8 @@ public class UserManager extends AbstractManager {
 
             // Resync synced groups of user in OpenCGA
             studyDBAdaptor.resyncUserWithSyncedGroups(userId, groups, authId);
+            // The groups of any study may have changed
+            authorizationManager.invalidatePermissionCache();
         } else {
             authenticationManagerMap.get(authId).authenticate(userId, password, true);
         }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.catalog.auth.authorization;
+
+import org.junit.Test;
+import org.opencb.opencga.core.models.acls.permissions.StudyAclEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class AuthorizationCacheTest {
+
+    private static final StudyAclEntry.StudyPermissions VIEW_FILES = StudyAclEntry.StudyPermissions.VIEW_FILES;
+    private static final StudyAclEntry.StudyPermissions VIEW_SAMPLES = StudyAclEntry.StudyPermissions.VIEW_SAMPLES;
+
+    private final AtomicLong time = new AtomicLong(1000);
+
+    @Test
+    public void testGetPut() throws Exception {
+        AuthorizationCache cache = new AuthorizationCache(10, 100, time::get);
+        assertNull(cache.get(1, "user1", VIEW_FILES, 10));
+        cache.put(1, "user1", VIEW_FILES, 10, true);
+        cache.put(1, "user2", VIEW_FILES, 10, false);
+
+        assertEquals(Boolean.TRUE, cache.get(1, "user1", VIEW_FILES, 10));
+        assertEquals(Boolean.FALSE, cache.get(1, "user2", VIEW_FILES, 10));
+        assertNull(cache.get(1, "user1", VIEW_SAMPLES, 10));
+        assertNull(cache.get(2, "user1", VIEW_FILES, 10));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.4, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        AuthorizationCache cache = new AuthorizationCache(10, 100, time::get);
+        cache.put(1, "user1", VIEW_FILES, 10, true);
+        time.addAndGet(99);
+        assertEquals(Boolean.TRUE, cache.get(1, "user1", VIEW_FILES, 10));
+        time.addAndGet(1);
+        assertNull(cache.get(1, "user1", VIEW_FILES, 10));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        AuthorizationCache cache = new AuthorizationCache(2, 100, time::get);
+        cache.put(1, "user1", VIEW_FILES, 10, true);
+        cache.put(1, "user1", VIEW_FILES, 11, true);
+        // Use the first decision. The second one is now the least recently used
+        assertNotNull(cache.get(1, "user1", VIEW_FILES, 10));
+        cache.put(1, "user1", VIEW_FILES, 12, true);
+
+        assertNotNull(cache.get(1, "user1", VIEW_FILES, 10));
+        assertNull(cache.get(1, "user1", VIEW_FILES, 11));
+        assertNotNull(cache.get(1, "user1", VIEW_FILES, 12));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        AuthorizationCache cache = new AuthorizationCache(10, 100, time::get);
+        cache.put(1, "user1", VIEW_FILES, 10, true);
+        cache.put(1, "user1", VIEW_SAMPLES, 20, true);
+        cache.put(12, "user1", VIEW_FILES, 30, true);
+
+        cache.invalidate(1);
+        assertNull(cache.get(1, "user1", VIEW_FILES, 10));
+        assertNull(cache.get(1, "user1", VIEW_SAMPLES, 20));
+        assertNotNull(cache.get(12, "user1", VIEW_FILES, 30));
+
+        cache.invalidateAll();
+        assertNull(cache.get(12, "user1", VIEW_FILES, 30));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        AuthorizationCache cache = new AuthorizationCache(0, 100, time::get);
+        assertFalse(cache.isEnabled());
+        cache.put(1, "user1", VIEW_FILES, 10, true);
+        assertNull(cache.get(1, "user1", VIEW_FILES, 10));
+        assertEquals(0, cache.getMisses());
+    }
+}
@@ -807,6 +807,70 @@ public class CatalogAuthorizationManagerTest extends GenericTest {
         assertFalse(sampleMap.containsKey(smp3.getId()));
     }
 
+    @Test
+    public void readSamplesBulk() throws CatalogException {
+        catalogManager.getAuthorizationManager().checkSamplePermissions(s1, Arrays.asList(smp1.getId(), smp6.getId()), externalUser,
+                SampleAclEntry.SamplePermissions.VIEW);
+
+        // All the entries were granted with one single query, and cached
+        AuthorizationCache cache = getAuthorizationCache();
+        assertEquals(Boolean.TRUE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp1.getId()));
+        assertEquals(Boolean.TRUE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp6.getId()));
+    }
+
+    @Test
+    public void readSamplesBulkWithForbidden() throws CatalogException {
+        List<Long> sampleIds = Arrays.asList(smp1.getId(), smp3.getId(), smp6.getId(), smp5.getId());
+        try {
+            catalogManager.getAuthorizationManager().checkSamplePermissions(s1, sampleIds, externalUser,
+                    SampleAclEntry.SamplePermissions.VIEW);
+            fail("Expected " + CatalogAuthorizationException.class.getSimpleName());
+        } catch (CatalogAuthorizationException e) {
+            // The first denied entry is reported
+            assertTrue(e.getMessage(), e.getMessage().contains("id: " + smp3.getId() + " "));
+        }
+
+        // The fallback checks the entries one by one, caching each decision
+        AuthorizationCache cache = getAuthorizationCache();
+        assertEquals(Boolean.TRUE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp1.getId()));
+        assertEquals(Boolean.FALSE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp3.getId()));
+        assertEquals(Boolean.TRUE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp6.getId()));
+        assertEquals(Boolean.FALSE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_SAMPLES, smp5.getId()));
+
+        // Reading the entries by id still returns the visible ones
+        QueryResult<Sample> samples = catalogManager.getSampleManager().get(Long.toString(s1), smp1.getId() + "," + smp3.getId(),
+                null, externalSessionId);
+        assertEquals(1, samples.getNumResults());
+        assertEquals(smp1.getId(), samples.first().getId());
+    }
+
+    @Test
+    public void readSamplesBulkPartiallyCached() throws CatalogException {
+        catalogManager.getAuthorizationManager().checkSamplePermissions(s1, Collections.singletonList(smp1.getId()), externalUser,
+                SampleAclEntry.SamplePermissions.VIEW);
+        catalogManager.getAuthorizationManager().checkSamplePermissions(s1, Arrays.asList(smp1.getId(), smp6.getId()), externalUser,
+                SampleAclEntry.SamplePermissions.VIEW);
+
+        thrown.expect(CatalogAuthorizationException.class);
+        catalogManager.getAuthorizationManager().checkSamplePermissions(s1, Arrays.asList(smp1.getId(), smp6.getId(), smp3.getId()),
+                externalUser, SampleAclEntry.SamplePermissions.VIEW);
+    }
+
+    @Test
+    public void createFileInvalidatesPermissionCache() throws CatalogException {
+        catalogManager.getAuthorizationManager().checkFilePermissions(s1, Collections.singletonList(data_d1), externalUser,
+                FileAclEntry.FilePermissions.VIEW);
+        AuthorizationCache cache = getAuthorizationCache();
+        assertEquals(Boolean.TRUE, cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_FILES, data_d1));
+
+        fileManager.createFolder(Long.toString(s1), "data/d1/new/", null, false, null, QueryOptions.empty(), ownerSessionId);
+        assertNull(cache.get(s1, externalUser, StudyAclEntry.StudyPermissions.VIEW_FILES, data_d1));
+    }
+
+    private AuthorizationCache getAuthorizationCache() {
+        return ((CatalogAuthorizationManager) catalogManager.getAuthorizationManager()).getAuthorizationCache();
+    }
+
     @Test
     public void readCohort() throws CatalogException {
         assertEquals(1, catalogManager.getCohortManager().get(s1, null, null, ownerSessionId).getNumResults());
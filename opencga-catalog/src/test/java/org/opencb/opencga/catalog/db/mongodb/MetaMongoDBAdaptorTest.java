@@ -17,8 +17,13 @@
 package org.opencb.opencga.catalog.db.mongodb;
 
 import org.junit.Test;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+
+import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by imedina on 07/04/16.
@@ -31,4 +36,53 @@ public class MetaMongoDBAdaptorTest extends MongoDBAdaptorTest {
         catalogDBAdaptor.getCatalogMetaDBAdaptor().createIndexes();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void getNewBlockAllocatedId() throws Exception {
+        MongoDBCollection metaCollection = catalogDBAdaptor.getMongoDBCollectionMap().get(MongoDBAdaptorFactory.METADATA_COLLECTION);
+        // Two instances sharing the same catalog, and ids taken one by one
+        MetaMongoDBAdaptor instance1 = new MetaMongoDBAdaptor(metaCollection, catalogDBAdaptor, 10);
+        MetaMongoDBAdaptor instance2 = new MetaMongoDBAdaptor(metaCollection, catalogDBAdaptor, 7);
+
+        long first = instance1.getNewBlockAllocatedId();
+        for (int i = 1; i < 10; i++) {
+            // Consecutive within the block
+            assertEquals(first + i, instance1.getNewBlockAllocatedId());
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ids.add(instance1.getNewBlockAllocatedId()));
+            assertTrue(ids.add(instance2.getNewBlockAllocatedId()));
+            assertTrue(ids.add(catalogDBAdaptor.getCatalogMetaDBAdaptor().getNewAutoIncrementId()));
+        }
+    }
+
+    @Test
+    public void getNewBlockAllocatedIdConcurrent() throws Exception {
+        MongoDBCollection metaCollection = catalogDBAdaptor.getMongoDBCollectionMap().get(MongoDBAdaptorFactory.METADATA_COLLECTION);
+        List<MetaMongoDBAdaptor> instances = Arrays.asList(
+                new MetaMongoDBAdaptor(metaCollection, catalogDBAdaptor, 5),
+                new MetaMongoDBAdaptor(metaCollection, catalogDBAdaptor, 50));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            MetaMongoDBAdaptor instance = instances.get(i % instances.size());
+            futures.add(executor.submit(() -> {
+                List<Long> ids = new ArrayList<>();
+                for (int j = 0; j < 500; j++) {
+                    ids.add(instance.getNewBlockAllocatedId());
+                }
+                return ids;
+            }));
+        }
+        executor.shutdown();
+
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            ids.addAll(future.get());
+        }
+        assertEquals(8 * 500, ids.size());
+    }
+
+}
@@ -352,6 +352,46 @@ public class FileManagerTest extends GenericTest {
         link(uri, "data", Long.toString(studyId), new ObjectMap(), sessionIdUser);
     }
 
+    @Test
+    public void testLinkFolderBulk() throws CatalogException, IOException {
+        URI uri = Paths.get(getStudyURI()).resolve("data").toUri();
+        ObjectMap params = new ObjectMap("parents", true).append(FileManager.LINK_BULK_THRESHOLD, 1);
+        fileManager.createFolder(Long.toString(studyId), "test/myLinkedFolder/", null, true, null, QueryOptions.empty(), sessionIdUser);
+        Study.StudyAclParams aclParams = new Study.StudyAclParams("", AclParams.Action.ADD, null);
+        catalogManager.getStudyManager().updateAcl(Long.toString(studyId), "user2", aclParams, sessionIdUser);
+        fileManager.updateAcl(Long.toString(studyId), "test/myLinkedFolder/", "user2",
+                new File.FileAclParams("VIEW", AclParams.Action.SET, null), sessionIdUser);
+
+        QueryResult<File> allFiles = link(uri, "test/myLinkedFolder/", Long.toString(studyId), params, sessionIdUser);
+        assertEquals(6, allFiles.getNumResults());
+        for (File file : allFiles.getResult()) {
+            assertTrue(file.isExternal());
+            assertTrue(file.getPath().startsWith("test/myLinkedFolder/data/"));
+            assertEquals(File.FileStatus.READY, file.getStatus().getName());
+        }
+
+        QueryResult<File> folderQueryResult = catalogManager.getFileManager().get(studyId, new Query()
+                .append(FileDBAdaptor.QueryParams.STUDY_ID.key(), studyId)
+                .append(FileDBAdaptor.QueryParams.PATH.key(), "test/myLinkedFolder/data/test/folder/"), null, sessionIdUser);
+        assertEquals(1, folderQueryResult.getNumResults());
+        assertEquals(File.Type.DIRECTORY, folderQueryResult.first().getType());
+
+        // The new files and folders take the ACLs of the folder they are linked into
+        List<String> paths = allFiles.getResult().stream().map(File::getPath).collect(Collectors.toList());
+        paths.add(folderQueryResult.first().getPath());
+        for (String path : paths) {
+            List<QueryResult<FileAclEntry>> acls = fileManager.getAcl(Long.toString(studyId), path, "user2", sessionIdUser);
+            assertEquals(path, 1, acls.get(0).getNumResults());
+            assertEquals(path, EnumSet.of(FileAclEntry.FilePermissions.VIEW), acls.get(0).first().getPermissions());
+        }
+        assertEquals(allFiles.getNumResults(), fileManager.get(studyId, new Query(FileDBAdaptor.QueryParams.PATH.key(),
+                "~^test/myLinkedFolder/data/"), null, sessionIdUser2).getNumResults());
+
+        // Nothing else is linked the second time
+        QueryResult<File> sameAllFiles = link(uri, "test/myLinkedFolder/", Long.toString(studyId), params, sessionIdUser);
+        assertEquals(allFiles.getNumResults(), sameAllFiles.getNumResults());
+    }
+
     @Test
     public void testLinkNormalizedUris() throws CatalogException, IOException, URISyntaxException {
         Path path = Paths.get(getStudyURI().resolve("data"));
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.core.tools.accession;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe generator of accessions.
+ *
+ * Accessions are fixed length numbers in base 31, using digits and consonants as symbols: "0000001", "0000002", ..., "ZZZZZZZ".
+ * Instead of iterating over arrays of characters, accessions are handed out as a long counter, and encoded arithmetically
+ * only when written. Workers reserve disjoint ranges of consecutive accessions with {@link #reserve(int)}.
+ *
+ * Created on 17/10/17.
+ */
+public class AccessionGenerator {
+
+    public static final int ACCESSION_LENGTH = 7;
+    private static final char[] SYMBOLS = "0123456789BCDFGHJKLMNPQRSTVWXYZ".toCharArray();
+    private static final int BASE = SYMBOLS.length;
+    private static final int[] SYMBOL_VALUES = new int[128];
+    /** Last valid accession, "ZZZZZZZ". */
+    public static final long MAX_ACCESSION;
+
+    static {
+        Arrays.fill(SYMBOL_VALUES, -1);
+        for (int i = 0; i < BASE; i++) {
+            SYMBOL_VALUES[SYMBOLS[i]] = i;
+        }
+        long max = 1;
+        for (int i = 0; i < ACCESSION_LENGTH; i++) {
+            max *= BASE;
+        }
+        MAX_ACCESSION = max - 1;
+    }
+
+    // Next accession to hand out
+    private final AtomicLong next;
+
+    public AccessionGenerator() {
+        this(null);
+    }
+
+    /**
+     * @param lastAccession Last accession used, if any. The first accession generated will be the following one
+     */
+    public AccessionGenerator(String lastAccession) {
+        long last = lastAccession != null && lastAccession.length() == ACCESSION_LENGTH ? decode(lastAccession) : 0;
+        next = new AtomicLong(last + 1);
+    }
+
+    /**
+     * Reserve a range of consecutive accessions, not shared with any other caller.
+     *
+     * @param count Number of accessions to reserve
+     * @return First accession of the range. The range ends at {@code first + count - 1}
+     * @throws IllegalStateException if there are no more accessions available
+     */
+    public long reserve(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid number of accessions " + count);
+        }
+        long first = next.getAndAdd(count);
+        if (first + count - 1 > MAX_ACCESSION) {
+            throw new IllegalStateException("No more accessions available. Last accession is " + encode(MAX_ACCESSION));
+        }
+        return first;
+    }
+
+    public long next() {
+        return reserve(1);
+    }
+
+    /**
+     * @return Last accession handed out, or null if none
+     */
+    public String getLastAccession() {
+        long last = Math.min(next.get() - 1, MAX_ACCESSION);
+        return last > 0 ? encode(last) : null;
+    }
+
+    public static String encode(long accession) {
+        return append(new StringBuilder(ACCESSION_LENGTH), accession).toString();
+    }
+
+    /**
+     * Append the encoded accession to a StringBuilder, without intermediate objects.
+     *
+     * @param sb        StringBuilder
+     * @param accession Accession number
+     * @return The same StringBuilder
+     */
+    public static StringBuilder append(StringBuilder sb, long accession) {
+        if (accession < 0 || accession > MAX_ACCESSION) {
+            throw new IllegalArgumentException("Accession " + accession + " out of range");
+        }
+        int offset = sb.length();
+        sb.setLength(offset + ACCESSION_LENGTH);
+        for (int i = offset + ACCESSION_LENGTH - 1; i >= offset; i--) {
+            sb.setCharAt(i, SYMBOLS[(int) (accession % BASE)]);
+            accession /= BASE;
+        }
+        return sb;
+    }
+
+    public static long decode(String accession) {
+        if (accession.length() != ACCESSION_LENGTH) {
+            throw new IllegalArgumentException("Invalid accession \"" + accession + "\". Expected " + ACCESSION_LENGTH + " symbols");
+        }
+        long value = 0;
+        for (int i = 0; i < ACCESSION_LENGTH; i++) {
+            char c = accession.charAt(i);
+            int symbol = c < SYMBOL_VALUES.length ? SYMBOL_VALUES[c] : -1;
+            if (symbol < 0) {
+                throw new IllegalArgumentException("Invalid accession \"" + accession + "\". Unknown symbol '" + c + "'");
+            }
+            value = value * BASE + symbol;
+        }
+        return value;
+    }
+}
@@ -17,10 +17,11 @@
 package org.opencb.opencga.core.tools.accession;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.lang3.ArrayUtils;
+import java.util.Objects;
 import org.opencb.biodata.formats.variant.vcf4.VcfRecord;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.formats.variant.vcf4.VariantAggregatedVcfFactory;
@@ -29,30 +30,30 @@ import org.opencb.biodata.formats.variant.vcf4.VariantVcfFactory;
 import org.opencb.commons.run.Task;
 
 /**
+ * Adds the accessions of the variants of each record in the INFO field "ACC".
+ *
+ * Records are processed in three steps, so batches can be processed in parallel by {@link ParallelCreateAccessionRunner}:
+ * parse the variants (thread safe), assign the accessions (one batch at a time, in the order of the input) and
+ * annotate the records (thread safe). New accessions of each batch are taken from a single range reserved to the
+ * {@link AccessionGenerator}, so the accessions only depend on the order of the input.
  *
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 public class CreateAccessionTask extends Task<VcfRecord> {
 
-    private final Character[] validCharacters = {
-        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
-        'B', 'C', 'D', 'F', 'G', 'H', 'J', 'K', 'L', 'M',
-        'N', 'P', 'Q', 'R', 'S', 'T', 'V', 'W', 'X', 'Y', 'Z'
-    };
-
-    private VariantSource source;
-    private String globalPrefix;
-    private String studyPrefix;
+    private final VariantSource source;
+    private final String globalPrefix;
+    private final String studyPrefix;
 
     /**
      * Last accessions used, in case they would need to be reused. They are 
-     * grouped by chromosome, position and alternate allele.
+     * grouped by chromosome and position, and then by reference and alternate allele.
      */
-    private LRUCache<String, Map<String, String>> currentAccessions;
-    private String lastAccession;
+    private final LRUCache<Position, Map<String, Long>> currentAccessions;
+    private final AccessionGenerator generator;
 
-    private CombinationIterator<Character> iterator;
-    private VariantVcfFactory variantFactory;
+    // Do not even try to parse the samples, it's useless. One factory per thread
+    private final ThreadLocal<VariantVcfFactory> variantFactory = ThreadLocal.withInitial(VariantAggregatedVcfFactory::new);
 
     public CreateAccessionTask(VariantSource source, String globalPrefix, String studyPrefix) {
         this(source, globalPrefix, studyPrefix, 0);
@@ -71,80 +72,140 @@ public class CreateAccessionTask extends Task<VcfRecord> {
         this.source = source;
         this.globalPrefix = globalPrefix != null ? globalPrefix : "";
         this.studyPrefix = studyPrefix;
-        this.lastAccession = lastAccession;
         this.currentAccessions = new LRUCache<>(10);
-        if (lastAccession != null && lastAccession.length() == 7) {
-            this.iterator = new CombinationIterator(7, validCharacters, ArrayUtils.toObject(this.lastAccession.toCharArray()));
-        } else {
-            this.iterator = new CombinationIterator(7, validCharacters);
-        }
-
-        this.variantFactory = new VariantAggregatedVcfFactory(); // Do not even try to parse the samples, it's useless
+        this.generator = new AccessionGenerator(lastAccession);
     }
 
     @Override
     public boolean apply(List<VcfRecord> batch) throws IOException {
+        annotate(batch, assign(parse(batch)));
+        return true;
+    }
+
+    /**
+     * Parse the variants of each record of a batch. Thread safe.
+     *
+     * @param batch Records
+     * @return Variants of each record
+     */
+    List<List<Variant>> parse(List<VcfRecord> batch) {
+        VariantVcfFactory factory = variantFactory.get();
+        List<List<Variant>> variants = new ArrayList<>(batch.size());
         for (VcfRecord record : batch) {
-            List<Variant> variants = variantFactory.create(source, record.toString());
-            StringBuilder allAccessionsInRecord = new StringBuilder();
-            for (Variant v : variants) {
-                Map<String, String> variantAccession = currentAccessions.get(getKey(v));
-                if (variantAccession != null) {
-                    String accessionGroup = variantAccession.get(getValue(v));
-                    if (accessionGroup != null) {
-                        allAccessionsInRecord = appendAccession(allAccessionsInRecord, accessionGroup);
-                    } else {
-                        resetAccessions(v);
-                        allAccessionsInRecord = appendAccession(allAccessionsInRecord, lastAccession);
+            variants.add(factory.create(source, record.toString()));
+        }
+        return variants;
+    }
+
+    /**
+     * Assign the accessions of the variants of a batch, reusing the accessions of the variants recently seen.
+     * Batches must be assigned one at a time, in the order of the input.
+     *
+     * @param variants Variants of each record
+     * @return Accession of each variant of each record
+     */
+    synchronized long[][] assign(List<List<Variant>> variants) {
+        long[][] accessions = new long[variants.size()][];
+        // New accessions are numbered -1, -2, ... until the range of the batch is reserved
+        int newAccessions = 0;
+        for (int i = 0; i < variants.size(); i++) {
+            List<Variant> recordVariants = variants.get(i);
+            accessions[i] = new long[recordVariants.size()];
+            for (int j = 0; j < recordVariants.size(); j++) {
+                Variant v = recordVariants.get(j);
+                Position key = new Position(v.getChromosome(), v.getStart());
+                String value = getValue(v);
+                Map<String, Long> variantAccession = currentAccessions.get(key);
+                Long accession = variantAccession == null ? null : variantAccession.get(value);
+                if (accession == null) {
+                    accession = (long) -(++newAccessions);
+                    if (variantAccession == null) {
+                        variantAccession = new HashMap<>();
+                        currentAccessions.put(key, variantAccession);
                     }
-                } else {
-                    resetAccessions(v);
-                    allAccessionsInRecord = appendAccession(allAccessionsInRecord, lastAccession);
+                    variantAccession.put(value, accession);
                 }
+                accessions[i][j] = accession;
             }
-            
-            // Set accession/s for this record (be it in a new genomic position or not)
-            record.addInfoField("ACC=" + allAccessionsInRecord.toString());
         }
 
-        return true;
+        if (newAccessions > 0) {
+            long first = generator.reserve(newAccessions);
+            for (long[] recordAccessions : accessions) {
+                for (int j = 0; j < recordAccessions.length; j++) {
+                    if (recordAccessions[j] < 0) {
+                        recordAccessions[j] = first - recordAccessions[j] - 1;
+                    }
+                }
+            }
+            for (Map<String, Long> variantAccession : currentAccessions.values()) {
+                for (Map.Entry<String, Long> entry : variantAccession.entrySet()) {
+                    if (entry.getValue() < 0) {
+                        entry.setValue(first - entry.getValue() - 1);
+                    }
+                }
+            }
+        }
+        return accessions;
     }
 
-    private String getKey(Variant v) {
-        return v.getChromosome() + "_" + v.getStart();
+    /**
+     * Set the accession/s of each record (be it in a new genomic position or not). Thread safe.
+     *
+     * @param batch      Records
+     * @param accessions Accession of each variant of each record
+     */
+    void annotate(List<VcfRecord> batch, long[][] accessions) {
+        StringBuilder allAccessionsInRecord = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            allAccessionsInRecord.setLength(0);
+            allAccessionsInRecord.append("ACC=");
+            for (int j = 0; j < accessions[i].length; j++) {
+                if (j > 0) {
+                    allAccessionsInRecord.append(',');
+                }
+                allAccessionsInRecord.append(globalPrefix).append(studyPrefix);
+                AccessionGenerator.append(allAccessionsInRecord, accessions[i][j]);
+            }
+            batch.get(i).addInfoField(allAccessionsInRecord.toString());
+        }
     }
-    
+
+    /**
+     * @return Last accession assigned, or null if none
+     */
+    public String getLastAccession() {
+        return generator.getLastAccession();
+    }
+
     private String getValue(Variant v) {
         return v.getReference() + "_" + v.getAlternate();
     }
-    
-    private void resetAccessions(Variant v) {
-        Character[] next = (Character[]) iterator.next();
-        StringBuilder sb = new StringBuilder(next.length);
-        for (Character c : next) {
-            sb.append(c);
+
+    private static final class Position {
+        private final String chromosome;
+        private final int start;
+
+        Position(String chromosome, int start) {
+            this.chromosome = chromosome;
+            this.start = start;
         }
-        lastAccession = sb.toString();
-        
-        Map<String, String> variantAccession = currentAccessions.get(getKey(v));
-        if (variantAccession == null) {
-            variantAccession = new HashMap<>();
-            variantAccession.put(getValue(v), lastAccession);
-            currentAccessions.put(getKey(v), variantAccession);
-        } else {
-            String accessionGroup = variantAccession.get(getValue(v));
-            if (accessionGroup == null) {
-                variantAccession.put(getValue(v), lastAccession);
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Position)) {
+                return false;
             }
+            Position position = (Position) o;
+            return start == position.start && Objects.equals(chromosome, position.chromosome);
         }
-    }
 
-    private StringBuilder appendAccession(StringBuilder allAccessionsInRecord, String newAccession) {
-        if (allAccessionsInRecord.length() == 0) {
-            return allAccessionsInRecord.append(globalPrefix).append(studyPrefix).append(newAccession);
-        } else {
-            return allAccessionsInRecord.append(",").append(globalPrefix).append(studyPrefix).append(newAccession);
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(chromosome) + start;
         }
     }
-    
 }
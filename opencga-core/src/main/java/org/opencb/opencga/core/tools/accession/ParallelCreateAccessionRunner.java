@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.core.tools.accession;
+
+import org.opencb.biodata.formats.variant.vcf4.VcfRecord;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs a {@link CreateAccessionTask} with a pool of threads, producing the same output as running it sequentially.
+ *
+ * Records are parsed and annotated in parallel. Accessions are assigned batch by batch in the order of the input, which only
+ * involves the cache of recent accessions and the reservation of one range of new accessions per batch.
+ * Batches are written in the order they were read.
+ *
+ * Created on 17/10/17.
+ */
+public class ParallelCreateAccessionRunner {
+
+    private final CreateAccessionTask task;
+    private final int numThreads;
+    private final int batchSize;
+    private final int capacity;
+    private final Logger logger = LoggerFactory.getLogger(ParallelCreateAccessionRunner.class);
+
+    public ParallelCreateAccessionRunner(CreateAccessionTask task, int numThreads, int batchSize) {
+        this.task = task;
+        this.numThreads = Math.max(1, numThreads);
+        this.batchSize = batchSize;
+        // Batches in flight
+        this.capacity = this.numThreads * 2;
+    }
+
+    private static class PendingBatch {
+        private final List<VcfRecord> records;
+        private final Future<List<List<Variant>>> variants;
+
+        PendingBatch(List<VcfRecord> records, Future<List<List<Variant>>> variants) {
+            this.records = records;
+            this.variants = variants;
+        }
+    }
+
+    public void run(DataReader<VcfRecord> reader, DataWriter<VcfRecord> writer) throws IOException {
+        long start = System.currentTimeMillis();
+        long numRecords = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Deque<PendingBatch> parsing = new ArrayDeque<>(capacity);
+        Deque<Future<List<VcfRecord>>> annotating = new ArrayDeque<>(capacity);
+        try {
+            reader.open();
+            reader.pre();
+            writer.open();
+            writer.pre();
+            task.pre();
+
+            boolean eof = false;
+            while (!eof || !parsing.isEmpty() || !annotating.isEmpty()) {
+                while (!eof && parsing.size() + annotating.size() < capacity) {
+                    List<VcfRecord> batch = reader.read(batchSize);
+                    if (batch == null || batch.isEmpty()) {
+                        eof = true;
+                    } else {
+                        parsing.add(new PendingBatch(batch, executor.submit(() -> task.parse(batch))));
+                    }
+                }
+
+                // Assign accessions in order
+                if (!parsing.isEmpty()) {
+                    PendingBatch batch = parsing.poll();
+                    long[][] accessions = task.assign(batch.variants.get());
+                    annotating.add(executor.submit(() -> {
+                        task.annotate(batch.records, accessions);
+                        return batch.records;
+                    }));
+                }
+
+                // Write in order. Wait for the first batch if there is nothing else to do
+                while (!annotating.isEmpty()
+                        && (annotating.peek().isDone() || parsing.isEmpty() || annotating.size() >= numThreads)) {
+                    List<VcfRecord> batch = annotating.poll().get();
+                    writer.write(batch);
+                    numRecords += batch.size();
+                }
+            }
+
+            task.post();
+            writer.post();
+            reader.post();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            try {
+                writer.close();
+            } finally {
+                reader.close();
+            }
+        }
+
+        logger.info("Created accessions for {} records in {}s using {} threads. Last accession: {}",
+                numRecords, (System.currentTimeMillis() - start) / 1000.0, numThreads, task.getLastAccession());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.core.tools.accession;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class AccessionGeneratorTest {
+
+    private static final Character[] VALID_CHARACTERS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+        'B', 'C', 'D', 'F', 'G', 'H', 'J', 'K', 'L', 'M',
+        'N', 'P', 'Q', 'R', 'S', 'T', 'V', 'W', 'X', 'Y', 'Z'
+    };
+
+    @Test
+    public void testSameSequenceAsCombinationIterator() throws Exception {
+        checkSameSequence(null, new CombinationIterator<>(7, VALID_CHARACTERS));
+        String lastAccession = "00BZZZY";
+        checkSameSequence(lastAccession, new CombinationIterator<>(7, VALID_CHARACTERS, toCharacters(lastAccession)));
+    }
+
+    private void checkSameSequence(String lastAccession, CombinationIterator<Character> iterator) {
+        AccessionGenerator generator = new AccessionGenerator(lastAccession);
+        for (int i = 0; i < 100000; i++) {
+            Character[] next = (Character[]) iterator.next();
+            StringBuilder sb = new StringBuilder();
+            for (Character c : next) {
+                sb.append(c);
+            }
+            assertEquals(sb.toString(), AccessionGenerator.encode(generator.next()));
+        }
+        assertEquals(AccessionGenerator.encode(generator.reserve(0) - 1), generator.getLastAccession());
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        assertEquals("0000000", AccessionGenerator.encode(0));
+        assertEquals("0000010", AccessionGenerator.encode(31));
+        assertEquals("ZZZZZZZ", AccessionGenerator.encode(AccessionGenerator.MAX_ACCESSION));
+        for (long accession = 0; accession < AccessionGenerator.MAX_ACCESSION; accession += 7919) {
+            assertEquals(accession, AccessionGenerator.decode(AccessionGenerator.encode(accession)));
+        }
+        assertEquals("ACC=00000BZ", AccessionGenerator.append(new StringBuilder("ACC="), AccessionGenerator.decode("00000BZ")).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidSymbol() throws Exception {
+        AccessionGenerator.decode("00000A0");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExhausted() throws Exception {
+        AccessionGenerator generator = new AccessionGenerator("ZZZZZZY");
+        assertEquals("ZZZZZZZ", AccessionGenerator.encode(generator.next()));
+        generator.next();
+    }
+
+    @Test
+    public void testDisjointRanges() throws Exception {
+        AccessionGenerator generator = new AccessionGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int count = i % 10;
+            futures.add(executor.submit(() -> new long[]{generator.reserve(count), count}));
+        }
+        BitSet used = new BitSet();
+        int total = 0;
+        for (Future<long[]> future : futures) {
+            long[] range = future.get();
+            for (long accession = range[0]; accession < range[0] + range[1]; accession++) {
+                assertFalse(used.get((int) accession));
+                used.set((int) accession);
+            }
+            total += range[1];
+        }
+        executor.shutdown();
+        assertEquals(total, used.cardinality());
+        assertEquals(1, used.nextSetBit(0));
+        assertEquals(AccessionGenerator.encode(total), generator.getLastAccession());
+    }
+
+    private static Character[] toCharacters(String accession) {
+        Character[] characters = new Character[accession.length()];
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = accession.charAt(i);
+        }
+        return characters;
+    }
+}
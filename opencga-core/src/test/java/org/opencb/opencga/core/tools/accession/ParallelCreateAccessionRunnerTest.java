@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.core.tools.accession;
+
+import org.junit.Test;
+import org.opencb.biodata.formats.variant.vcf4.VcfRecord;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class ParallelCreateAccessionRunnerTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final String[] ALTERNATES = {"C", "G", "C", "C,G", "T", "G"};
+
+    private final VariantSource source = new VariantSource("file.vcf", "1", "1", "study");
+
+    @Test
+    public void testSameOutputAsSequential() throws Exception {
+        // Three records per position, so the same position is found in consecutive batches
+        List<VcfRecord> expected = createRecords(500);
+        CreateAccessionTask sequentialTask = new CreateAccessionTask(source, "ES", "ST", "00BZZZY");
+        for (int i = 0; i < expected.size(); i += BATCH_SIZE) {
+            sequentialTask.apply(expected.subList(i, Math.min(expected.size(), i + BATCH_SIZE)));
+        }
+
+        ListReader reader = new ListReader(createRecords(500));
+        ListWriter writer = new ListWriter();
+        CreateAccessionTask task = new CreateAccessionTask(source, "ES", "ST", "00BZZZY");
+        new ParallelCreateAccessionRunner(task, 4, BATCH_SIZE).run(reader, writer);
+
+        assertEquals(expected.size(), writer.records.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), writer.records.get(i).toString());
+        }
+        assertEquals(sequentialTask.getLastAccession(), task.getLastAccession());
+        assertTrue(reader.closed);
+        assertTrue(writer.closed);
+    }
+
+    @Test
+    public void testCloseOnError() throws Exception {
+        ListReader reader = new ListReader(createRecords(100));
+        ListWriter writer = new ListWriter() {
+            @Override
+            public boolean write(List<VcfRecord> batch) {
+                throw new IllegalStateException("Write error");
+            }
+        };
+        CreateAccessionTask task = new CreateAccessionTask(source, "ES", "ST");
+        try {
+            new ParallelCreateAccessionRunner(task, 4, BATCH_SIZE).run(reader, writer);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Write error", e.getMessage());
+        }
+        assertTrue(reader.closed);
+        assertTrue(writer.closed);
+    }
+
+    private List<VcfRecord> createRecords(int size) {
+        List<VcfRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(new VcfRecord(new String[]{"1", Integer.toString(1000 + i / 3), ".", "A", ALTERNATES[i % ALTERNATES.length],
+                    ".", "PASS", "NS=1"}));
+        }
+        return records;
+    }
+
+    private static class ListReader implements DataReader<VcfRecord> {
+        private final List<VcfRecord> records;
+        private int position;
+        private boolean closed;
+
+        ListReader(List<VcfRecord> records) {
+            this.records = records;
+        }
+
+        @Override
+        public List<VcfRecord> read() {
+            return read(1);
+        }
+
+        @Override
+        public List<VcfRecord> read(int batchSize) {
+            if (position >= records.size()) {
+                return Collections.emptyList();
+            }
+            List<VcfRecord> batch = new ArrayList<>(records.subList(position, Math.min(records.size(), position + batchSize)));
+            position += batch.size();
+            return batch;
+        }
+
+        @Override
+        public boolean close() {
+            closed = true;
+            return true;
+        }
+    }
+
+    private static class ListWriter implements DataWriter<VcfRecord> {
+        private final List<VcfRecord> records = new ArrayList<>();
+        private boolean closed;
+
+        @Override
+        public boolean write(VcfRecord elem) {
+            return write(Collections.singletonList(elem));
+        }
+
+        @Override
+        public boolean write(List<VcfRecord> batch) {
+            return records.addAll(batch);
+        }
+
+        @Override
+        public boolean close() {
+            closed = true;
+            return true;
+        }
+    }
+}
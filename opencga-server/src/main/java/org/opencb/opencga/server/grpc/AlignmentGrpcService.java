@@ -26,6 +26,10 @@ import org.opencb.opencga.core.config.Configuration;
 import org.opencb.opencga.storage.core.alignment.iterators.AlignmentIterator;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.manager.AlignmentStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Function;
 
 /**
  * Created by pfurio on 26/10/16.
@@ -34,6 +38,7 @@ public class AlignmentGrpcService extends AlignmentServiceGrpc.AlignmentServiceI
 
     private GenericGrpcService genericGrpcService;
     private AlignmentStorageManager alignmentStorageManager;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public AlignmentGrpcService(Configuration configuration, StorageConfiguration storageConfiguration) {
         genericGrpcService = new GenericGrpcService(configuration, storageConfiguration);
@@ -82,14 +87,37 @@ public class AlignmentGrpcService extends AlignmentServiceGrpc.AlignmentServiceI
         String fileIdStr = query.getString("fileId");
         String sessionId = query.getString("sid");
 
-        try (AlignmentIterator<Reads.ReadAlignment> iterator =
-                     alignmentStorageManager.iterator(studyIdStr, fileIdStr, query, queryOptions, sessionId)) {
-            while (iterator.hasNext()) {
-                responseObserver.onNext(iterator.next());
-            }
-            responseObserver.onCompleted();
+        try {
+            AlignmentIterator<Reads.ReadAlignment> iterator =
+                    alignmentStorageManager.iterator(studyIdStr, fileIdStr, query, queryOptions, sessionId);
+            FlowControlledStreamer.stream(responseObserver, iterator, Function.identity());
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Error on get alignments", e);
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void getBatches(GenericAlignmentServiceModel.Request request,
+                           StreamObserver<AlignmentServiceModel.ReadAlignmentBatch> responseObserver) {
+        // Creating the datastore Query and QueryOptions objects from the gRPC request Map of Strings
+        Query query = createQuery(request);
+        QueryOptions queryOptions = createQueryOptions(request);
+        int batchSize = queryOptions.getInt(FlowControlledStreamer.BATCH_SIZE, FlowControlledStreamer.DEFAULT_BATCH_SIZE);
+        queryOptions.remove(FlowControlledStreamer.BATCH_SIZE);
+
+        String studyIdStr = query.getString("study");
+        String fileIdStr = query.getString("fileId");
+        String sessionId = query.getString("sid");
+
+        try {
+            AlignmentIterator<Reads.ReadAlignment> iterator =
+                    alignmentStorageManager.iterator(studyIdStr, fileIdStr, query, queryOptions, sessionId);
+            FlowControlledStreamer.streamBatches(responseObserver, iterator, batchSize,
+                    reads -> AlignmentServiceModel.ReadAlignmentBatch.newBuilder().addAllReads(reads).build());
+        } catch (Exception e) {
+            logger.error("Error on get alignment batches", e);
+            responseObserver.onError(e);
         }
     }
 
@@ -103,17 +131,14 @@ public class AlignmentGrpcService extends AlignmentServiceGrpc.AlignmentServiceI
         String fileIdStr = query.getString("fileId");
         String sessionId = query.getString("sid");
 
-        try (AlignmentIterator<SAMRecord> iterator =
-                     alignmentStorageManager.iterator(studyIdStr, fileIdStr, query, queryOptions, sessionId,
-                             SAMRecord.class)) {
-            while (iterator.hasNext()) {
-                ServiceTypesModel.StringResponse response =
-                        ServiceTypesModel.StringResponse.newBuilder().setValue(iterator.next().getSAMString()).build();
-                responseObserver.onNext(response);
-            }
-            responseObserver.onCompleted();
+        try {
+            AlignmentIterator<SAMRecord> iterator =
+                    alignmentStorageManager.iterator(studyIdStr, fileIdStr, query, queryOptions, sessionId, SAMRecord.class);
+            FlowControlledStreamer.stream(responseObserver, iterator,
+                    samRecord -> ServiceTypesModel.StringResponse.newBuilder().setValue(samRecord.getSAMString()).build());
         } catch (Exception e) {
             e.printStackTrace();
+            responseObserver.onError(e);
         }
     }
 
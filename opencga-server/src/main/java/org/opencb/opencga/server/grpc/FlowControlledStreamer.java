@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.server.grpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Streams the elements of an iterator into a server streaming gRPC call, following the flow control of the transport.
+ *
+ * Elements are only read from the iterator while the call {@link ServerCallStreamObserver#isReady() is ready}. When the client
+ * does not consume fast enough, the streaming pauses and the service thread is released. Streaming is resumed from the
+ * onReady handler. If the call is cancelled, the iterator is closed, releasing the underlying DB cursor.
+ *
+ * Elements can be packed into batches, to reduce the number of messages.
+ *
+ * Created on 17/10/17.
+ */
+public final class FlowControlledStreamer<T, R> implements Runnable {
+
+    /**
+     * Request option with the number of elements per message for batched streams.
+     */
+    public static final String BATCH_SIZE = "batchSize";
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final StreamObserver<R> responseObserver;
+    private final ServerCallStreamObserver<R> serverObserver;
+    private final Iterator<T> iterator;
+    private final AutoCloseable closeable;
+    private final int batchSize;
+    private final Function<List<T>, R> converter;
+    private boolean finished;
+    private long numElements;
+
+    private final Logger logger = LoggerFactory.getLogger(FlowControlledStreamer.class);
+
+    private FlowControlledStreamer(StreamObserver<R> responseObserver, Iterator<T> iterator, AutoCloseable closeable, int batchSize,
+                                   Function<List<T>, R> converter) {
+        this.responseObserver = responseObserver;
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            serverObserver = (ServerCallStreamObserver<R>) responseObserver;
+        } else {
+            serverObserver = null;
+        }
+        this.iterator = iterator;
+        this.closeable = closeable;
+        this.batchSize = Math.max(batchSize, 1);
+        this.converter = converter;
+    }
+
+    /**
+     * Stream each element of the iterator in one message.
+     * Must be called from the service method, before it returns.
+     *
+     * @param responseObserver  Response observer of the call
+     * @param iterator          Elements to stream. Closed at the end, on error, or if the call is cancelled
+     * @param converter         Converts each element into a message
+     * @param <T>               Element type
+     * @param <R>               Message type
+     * @param <I>               Iterator type
+     */
+    public static <T, R, I extends Iterator<T> & AutoCloseable> void stream(StreamObserver<R> responseObserver, I iterator,
+                                                                             Function<T, R> converter) {
+        new FlowControlledStreamer<T, R>(responseObserver, iterator, iterator, 1, list -> converter.apply(list.get(0))).start();
+    }
+
+    /**
+     * Stream the elements of the iterator packed in batches.
+     * Must be called from the service method, before it returns.
+     *
+     * @param responseObserver  Response observer of the call
+     * @param iterator          Elements to stream. Closed at the end, on error, or if the call is cancelled
+     * @param batchSize         Max number of elements per message
+     * @param converter         Converts a batch of elements into a message
+     * @param <T>               Element type
+     * @param <R>               Message type
+     * @param <I>               Iterator type
+     */
+    public static <T, R, I extends Iterator<T> & AutoCloseable> void streamBatches(StreamObserver<R> responseObserver, I iterator,
+                                                                                    int batchSize, Function<List<T>, R> converter) {
+        new FlowControlledStreamer<>(responseObserver, iterator, iterator, batchSize, converter).start();
+    }
+
+    private void start() {
+        if (serverObserver != null) {
+            serverObserver.setOnCancelHandler(this::cancel);
+            serverObserver.setOnReadyHandler(this);
+        }
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        if (finished) {
+            return;
+        }
+        try {
+            while (isReady() && iterator.hasNext()) {
+                List<T> batch;
+                if (batchSize == 1) {
+                    batch = Collections.singletonList(iterator.next());
+                } else {
+                    batch = new ArrayList<>(batchSize);
+                    while (batch.size() < batchSize && iterator.hasNext()) {
+                        batch.add(iterator.next());
+                    }
+                }
+                numElements += batch.size();
+                responseObserver.onNext(converter.apply(batch));
+            }
+            if (!iterator.hasNext()) {
+                close();
+                logger.debug("Stream completed. {} elements sent", numElements);
+                responseObserver.onCompleted();
+            }
+            // Else, the call is not ready. Wait for the onReady handler.
+        } catch (RuntimeException e) {
+            close();
+            if (serverObserver != null && serverObserver.isCancelled()) {
+                logger.debug("Stream cancelled after {} elements", numElements);
+            } else {
+                logger.error("Error streaming elements", e);
+                responseObserver.onError(e);
+            }
+        }
+    }
+
+    private synchronized void cancel() {
+        if (!finished) {
+            logger.info("Stream cancelled by the client after {} elements", numElements);
+            close();
+        }
+    }
+
+    private boolean isReady() {
+        return serverObserver == null || serverObserver.isReady() && !serverObserver.isCancelled();
+    }
+
+    private void close() {
+        finished = true;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.warn("Error closing iterator", e);
+        }
+    }
+}
@@ -69,19 +69,37 @@ public class VariantGrpcService extends VariantServiceGrpc.VariantServiceImplBas
             Query query = genericGrpcService.createQuery(request);
             QueryOptions queryOptions = genericGrpcService.createQueryOptions(request);
             logger.info("Get variants query : {} , queryOptions : {}" , query.toJson(), queryOptions.toJson());
-            try (VariantDBIterator iterator = genericGrpcService.variantStorageManager.iterator(query, queryOptions, request.getSessionId())) {
-                while (iterator.hasNext()) {
-                    Variant variant = iterator.next();
-                    responseObserver.onNext(converter.convert(variant));
-                }
-            }
-            responseObserver.onCompleted();
+            VariantDBIterator iterator = genericGrpcService.variantStorageManager.iterator(query, queryOptions, request.getSessionId());
+            FlowControlledStreamer.stream(responseObserver, iterator, converter::convert);
         } catch (Exception e) {
             logger.error("Error on get variants", e);
             responseObserver.onError(e);
         }
     }
 
+    @Override
+    public void getBatches(GenericServiceModel.Request request, StreamObserver<VariantServiceModel.VariantBatch> responseObserver) {
+        try {
+            VariantAvroToVariantProtoConverter converter = new VariantAvroToVariantProtoConverter();
+            Query query = genericGrpcService.createQuery(request);
+            QueryOptions queryOptions = genericGrpcService.createQueryOptions(request);
+            int batchSize = queryOptions.getInt(FlowControlledStreamer.BATCH_SIZE, FlowControlledStreamer.DEFAULT_BATCH_SIZE);
+            queryOptions.remove(FlowControlledStreamer.BATCH_SIZE);
+            logger.info("Get variant batches query : {} , queryOptions : {}" , query.toJson(), queryOptions.toJson());
+            VariantDBIterator iterator = genericGrpcService.variantStorageManager.iterator(query, queryOptions, request.getSessionId());
+            FlowControlledStreamer.streamBatches(responseObserver, iterator, batchSize, variants -> {
+                VariantServiceModel.VariantBatch.Builder builder = VariantServiceModel.VariantBatch.newBuilder();
+                for (Variant variant : variants) {
+                    builder.addVariants(converter.convert(variant));
+                }
+                return builder.build();
+            });
+        } catch (Exception e) {
+            logger.error("Error on get variant batches", e);
+            responseObserver.onError(e);
+        }
+    }
+
     @Override
     public void groupBy(GenericServiceModel.Request request, StreamObserver<ServiceTypesModel.GroupResponse> responseObserver) {
         super.groupBy(request, responseObserver);
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.server.grpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class FlowControlledStreamerTest {
+
+    @Test
+    public void testPauseWhileNotReady() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(0);
+        CloseableIterator iterator = new CloseableIterator(10);
+
+        FlowControlledStreamer.stream(observer, iterator, i -> i);
+
+        assertEquals(0, observer.messages.size());
+        assertEquals(0, iterator.next);
+        assertFalse(iterator.closed);
+        assertFalse(observer.completed);
+    }
+
+    @Test
+    public void testResumeOnReady() throws Exception {
+        // Not ready after each 3 messages
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(3);
+        CloseableIterator iterator = new CloseableIterator(10);
+
+        FlowControlledStreamer.streamBatches(observer, iterator, 2, batch -> batch);
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Arrays.asList(4, 5)), observer.messages);
+        assertFalse(observer.completed);
+
+        observer.ready(3);
+        assertEquals(5, observer.messages.size());
+        assertEquals(Arrays.asList(8, 9), observer.messages.get(4));
+        assertTrue(observer.completed);
+        assertTrue(iterator.closed);
+
+        // Late onReady calls do nothing
+        observer.ready(3);
+        assertEquals(5, observer.messages.size());
+    }
+
+    @Test
+    public void testCloseOnCancel() throws Exception {
+        FakeServerCallStreamObserver observer = new FakeServerCallStreamObserver(2);
+        CloseableIterator iterator = new CloseableIterator(10);
+
+        FlowControlledStreamer.stream(observer, iterator, i -> i);
+        assertEquals(2, observer.messages.size());
+        assertFalse(iterator.closed);
+
+        observer.cancel();
+        assertTrue(iterator.closed);
+        assertFalse(observer.completed);
+        assertNull(observer.error);
+
+        observer.ready(2);
+        assertEquals(2, observer.messages.size());
+    }
+
+    private static class CloseableIterator implements Iterator<Integer>, AutoCloseable {
+        private final int size;
+        private int next;
+        private boolean closed;
+
+        CloseableIterator(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            assertFalse(closed);
+            return next < size;
+        }
+
+        @Override
+        public Integer next() {
+            assertFalse(closed);
+            return next++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Call that becomes not ready after a number of messages, until {@link #ready} is called.
+     */
+    private static class FakeServerCallStreamObserver extends ServerCallStreamObserver<Object> {
+        private final List<Object> messages = new ArrayList<>();
+        private int credits;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+        private Runnable onReadyHandler;
+        private Runnable onCancelHandler;
+
+        FakeServerCallStreamObserver(int credits) {
+            this.credits = credits;
+        }
+
+        void ready(int credits) {
+            this.credits = credits;
+            onReadyHandler.run();
+        }
+
+        void cancel() {
+            cancelled = true;
+            onCancelHandler.run();
+        }
+
+        @Override
+        public void onNext(Object value) {
+            assertTrue(isReady());
+            messages.add(value);
+            credits--;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return credits > 0;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            this.onCancelHandler = onCancelHandler;
+        }
+
+        public void setCompression(String compression) {
+        }
+
+        public void disableAutoInboundFlowControl() {
+        }
+
+        public void request(int count) {
+        }
+
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.alignment.local;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary store of the coverage of an alignment file, with several zoom levels.
+ *
+ * For each chromosome, the file contains the depth of each position, and the mean and max depth of bins of 10, 100 and 1000 bases.
+ * Values are stored as primitive arrays, read from memory mapped buffers, so any region can be queried without reading the BAM file.
+ * Depths are saturated at 65535.
+ *
+ * File layout:
+ * <pre>
+ *  MAGIC, numLevels, [binSize]*, numChromosomes, [chromosome, length, offset]*
+ *  For each chromosome:
+ *      char[length]            Depth of each position
+ *      For each level with binSize > 1:
+ *          float[numBins]      Mean depth of each bin
+ *          char[numBins]       Max depth of each bin
+ * </pre>
+ *
+ * Created on 17/10/17.
+ */
+public class BinaryCoverageStore implements Closeable {
+
+    public static final String COVERAGE_STORE_SUFFIX = ".coverage.bin";
+    public static final int[] DEFAULT_BIN_SIZES = {1, 10, 100, 1000};
+
+    private static final long MAGIC = 0x4f43474143563031L; // OCGACV01
+
+    private final Path path;
+    // Final path of a writable store
+    private final Path targetPath;
+    private final int[] binSizes;
+    private final Map<String, Integer> chromosomeLengths;
+    private final Map<String, Long> chromosomeOffsets;
+    private final Map<String, MappedByteBuffer> buffers = new ConcurrentHashMap<>();
+
+    private BinaryCoverageStore(Path path, Path targetPath, int[] binSizes, Map<String, Integer> chromosomeLengths,
+                                Map<String, Long> chromosomeOffsets) {
+        this.path = path;
+        this.targetPath = targetPath;
+        this.binSizes = binSizes;
+        this.chromosomeLengths = chromosomeLengths;
+        this.chromosomeOffsets = chromosomeOffsets;
+    }
+
+    /**
+     * Open an existing coverage store.
+     *
+     * @param path  Coverage store file
+     * @return      Coverage store
+     * @throws IOException if the file can not be read, or is not a coverage store
+     */
+    public static BinaryCoverageStore open(Path path) throws IOException {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            if (is.readLong() != MAGIC) {
+                throw new IOException("File " + path + " is not a coverage store");
+            }
+            int[] binSizes = new int[is.readInt()];
+            for (int i = 0; i < binSizes.length; i++) {
+                binSizes[i] = is.readInt();
+            }
+            int numChromosomes = is.readInt();
+            Map<String, Integer> lengths = new LinkedHashMap<>();
+            Map<String, Long> offsets = new HashMap<>();
+            for (int i = 0; i < numChromosomes; i++) {
+                String chromosome = is.readUTF();
+                lengths.put(chromosome, is.readInt());
+                offsets.put(chromosome, is.readLong());
+            }
+            return new BinaryCoverageStore(path, null, binSizes, lengths, offsets);
+        }
+    }
+
+    /**
+     * Build the coverage store of a BAM file, computing the chromosomes in parallel.
+     * Unmapped, secondary, duplicated and QC failed reads are discarded.
+     *
+     * @param bamPath   BAM file. If indexed, each chromosome is computed in parallel
+     * @param path      Coverage store file
+     * @param threads   Number of threads
+     * @return          Coverage store
+     * @throws IOException if there is any problem reading the BAM or writing the coverage store
+     */
+    public static BinaryCoverageStore build(Path bamPath, Path path, int threads) throws IOException {
+        return new ParallelBamProcessor(threads).coverage(bamPath, path);
+    }
+
+    /**
+     * Create an empty coverage store in a temporary file, for the sequences of a BAM file.
+     * Must be filled with {@link #addDepth} and {@link #computeZoomLevels}, and then moved to the final path with {@link #commit}.
+     *
+     * @param header    BAM file header
+     * @param path      Coverage store file
+     * @return          Empty coverage store
+     * @throws IOException if the file can not be written
+     */
+    static BinaryCoverageStore create(SAMFileHeader header, Path path) throws IOException {
+        int[] binSizes = DEFAULT_BIN_SIZES;
+        Map<String, Integer> lengths = new LinkedHashMap<>();
+        Map<String, Long> offsets = new HashMap<>();
+
+        for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+            if (getChromosomeSize(sequence.getSequenceLength(), binSizes) > Integer.MAX_VALUE) {
+                throw new IOException("Chromosome " + sequence.getSequenceName() + " too long");
+            }
+            lengths.put(sequence.getSequenceName(), sequence.getSequenceLength());
+        }
+        // Write the header once to get its size, and then with the real offsets
+        long offset = writeHeader(new DataOutputStream(new ByteArrayOutputStream()), binSizes, lengths, offsets);
+        for (Map.Entry<String, Integer> entry : lengths.entrySet()) {
+            offsets.put(entry.getKey(), offset);
+            offset += getChromosomeSize(entry.getValue(), binSizes);
+        }
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPath.toFile())))) {
+            writeHeader(os, binSizes, lengths, offsets);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(tmpPath.toFile(), "rw")) {
+            file.setLength(offset);
+        }
+        return new BinaryCoverageStore(tmpPath, path, binSizes, lengths, offsets);
+    }
+
+    /**
+     * Flush a store created with {@link #create}, and move it to the final path.
+     *
+     * @return  Coverage store
+     * @throws IOException if the file can not be moved
+     */
+    BinaryCoverageStore commit() throws IOException {
+        if (targetPath == null) {
+            throw new IllegalStateException("Coverage store " + path + " is read only");
+        }
+        buffers.values().forEach(MappedByteBuffer::force);
+        close();
+        Files.move(path, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        return open(targetPath);
+    }
+
+    /**
+     * Check if a read is used to compute the coverage.
+     *
+     * @param record    Read
+     * @return          If the read is mapped, primary, not duplicated and passes the QC
+     */
+    static boolean isValidRead(SAMRecord record) {
+        return !(record.getReadUnmappedFlag() || record.getNotPrimaryAlignmentFlag() || record.getDuplicateReadFlag()
+                || record.getReadFailsVendorQualityCheckFlag());
+    }
+
+    /**
+     * Add the depth of a read in a range of positions.
+     *
+     * @param record    Read
+     * @param depths    Depths of the chromosome, from {@link #getDepths(String)}
+     * @param start     First position to modify, 0-based
+     * @param end       Last position to modify, exclusive
+     */
+    static void addDepth(SAMRecord record, CharBuffer depths, int start, int end) {
+        for (AlignmentBlock block : record.getAlignmentBlocks()) {
+            int blockStart = Math.max(start, block.getReferenceStart() - 1);
+            int blockEnd = Math.min(end, block.getReferenceStart() - 1 + block.getLength());
+            for (int i = blockStart; i < blockEnd; i++) {
+                char depth = depths.get(i);
+                if (depth != Character.MAX_VALUE) {
+                    depths.put(i, (char) (depth + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the depth of each position of a chromosome.
+     *
+     * @param chromosome    Chromosome
+     * @return              Depths. Writable if the store was created with {@link #create}
+     * @throws IOException  if the store can not be read
+     */
+    CharBuffer getDepths(String chromosome) throws IOException {
+        return getDepths(getBuffer(chromosome), chromosomeLengths.get(chromosome));
+    }
+
+    /**
+     * Compute the bins of all the zoom levels in a range of positions, from the depth of each position.
+     *
+     * @param chromosome    Chromosome
+     * @param start         First position, 0-based. Must be a multiple of all the bin sizes
+     * @param end           Last position, exclusive. Must be a multiple of all the bin sizes, or the chromosome length
+     * @throws IOException  if the store can not be written
+     */
+    void computeZoomLevels(String chromosome, int start, int end) throws IOException {
+        int length = chromosomeLengths.get(chromosome);
+        ByteBuffer buffer = getBuffer(chromosome);
+        CharBuffer depths = getDepths(buffer, length);
+        for (int level = 0; level < binSizes.length; level++) {
+            int binSize = binSizes[level];
+            if (binSize == 1) {
+                continue;
+            }
+            FloatBuffer means = getMeans(buffer, length, level);
+            CharBuffer maxs = getMaxs(buffer, length, level);
+            for (int bin = start / binSize; bin * binSize < end; bin++) {
+                int binStart = bin * binSize;
+                int binEnd = Math.min(end, binStart + binSize);
+                long sum = 0;
+                char max = 0;
+                for (int i = binStart; i < binEnd; i++) {
+                    char depth = depths.get(i);
+                    sum += depth;
+                    if (depth > max) {
+                        max = depth;
+                    }
+                }
+                means.put(bin, ((float) sum) / (binEnd - binStart));
+                maxs.put(bin, max);
+            }
+        }
+    }
+
+    private static long writeHeader(DataOutputStream os, int[] binSizes, Map<String, Integer> lengths, Map<String, Long> offsets)
+            throws IOException {
+        os.writeLong(MAGIC);
+        os.writeInt(binSizes.length);
+        for (int binSize : binSizes) {
+            os.writeInt(binSize);
+        }
+        os.writeInt(lengths.size());
+        for (Map.Entry<String, Integer> entry : lengths.entrySet()) {
+            os.writeUTF(entry.getKey());
+            os.writeInt(entry.getValue());
+            os.writeLong(offsets.getOrDefault(entry.getKey(), 0L));
+        }
+        os.flush();
+        return os.size();
+    }
+
+    private static long getChromosomeSize(int length, int[] binSizes) {
+        long size = Character.BYTES * (long) length;
+        for (int binSize : binSizes) {
+            if (binSize > 1) {
+                size += (Float.BYTES + Character.BYTES) * getNumBins(length, binSize);
+            }
+        }
+        return size;
+    }
+
+    private static long getNumBins(int length, int binSize) {
+        return (length + binSize - 1) / binSize;
+    }
+
+    private CharBuffer getDepths(ByteBuffer buffer, int length) {
+        return slice(buffer, 0, Character.BYTES * (long) length).asCharBuffer();
+    }
+
+    private FloatBuffer getMeans(ByteBuffer buffer, int length, int level) {
+        long numBins = getNumBins(length, binSizes[level]);
+        return slice(buffer, getLevelOffset(length, level), Float.BYTES * numBins).asFloatBuffer();
+    }
+
+    private CharBuffer getMaxs(ByteBuffer buffer, int length, int level) {
+        long numBins = getNumBins(length, binSizes[level]);
+        return slice(buffer, getLevelOffset(length, level) + Float.BYTES * numBins, Character.BYTES * numBins).asCharBuffer();
+    }
+
+    private long getLevelOffset(int length, int level) {
+        long offset = Character.BYTES * (long) length;
+        for (int i = 0; i < level; i++) {
+            if (binSizes[i] > 1) {
+                offset += (Float.BYTES + Character.BYTES) * getNumBins(length, binSizes[i]);
+            }
+        }
+        return offset;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, long size) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position((int) offset);
+        duplicate.limit((int) (offset + size));
+        return duplicate.slice();
+    }
+
+    private ByteBuffer getBuffer(String chromosome) throws IOException {
+        MappedByteBuffer buffer = buffers.get(chromosome);
+        if (buffer == null) {
+            int length = chromosomeLengths.get(chromosome);
+            if (targetPath == null) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, chromosomeOffsets.get(chromosome),
+                            getChromosomeSize(length, binSizes));
+                }
+            } else {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, chromosomeOffsets.get(chromosome),
+                            getChromosomeSize(length, binSizes));
+                }
+            }
+            MappedByteBuffer previous = buffers.putIfAbsent(chromosome, buffer);
+            if (previous != null) {
+                buffer = previous;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Get the mean depth of consecutive windows of a region, from the closest zoom level.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start of the region, 1-based
+     * @param end           End of the region, inclusive. Trimmed to the chromosome length
+     * @param windowSize    Window size
+     * @return              Mean depth of each window, saturated to the short range. Empty for unknown chromosomes
+     * @throws IOException  if the store can not be read
+     */
+    public short[] getMeanCoverage(String chromosome, int start, int end, int windowSize) throws IOException {
+        return getCoverage(chromosome, start, end, windowSize, false);
+    }
+
+    /**
+     * Get the max depth of consecutive windows of a region, from the closest zoom level.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start of the region, 1-based
+     * @param end           End of the region, inclusive. Trimmed to the chromosome length
+     * @param windowSize    Window size
+     * @return              Max depth of each window, saturated to the short range. Empty for unknown chromosomes
+     * @throws IOException  if the store can not be read
+     */
+    public short[] getMaxCoverage(String chromosome, int start, int end, int windowSize) throws IOException {
+        return getCoverage(chromosome, start, end, windowSize, true);
+    }
+
+    private short[] getCoverage(String chromosome, int start, int end, int windowSize, boolean max) throws IOException {
+        Integer length = chromosomeLengths.get(chromosome);
+        if (length == null) {
+            return new short[0];
+        }
+        // To 0-based, end exclusive
+        int regionStart = Math.max(0, start - 1);
+        int regionEnd = Math.min(length, end);
+        if (regionEnd <= regionStart) {
+            return new short[0];
+        }
+        windowSize = Math.max(1, windowSize);
+        ByteBuffer buffer = getBuffer(chromosome);
+
+        // Closest zoom level with a bin size not bigger than the window
+        int level = 0;
+        for (int i = 0; i < binSizes.length; i++) {
+            if (binSizes[i] <= windowSize && binSizes[i] >= binSizes[level]) {
+                level = i;
+            }
+        }
+        int binSize = binSizes[level];
+        CharBuffer depths = binSize == 1 ? getDepths(buffer, length) : null;
+        FloatBuffer means = binSize == 1 || max ? null : getMeans(buffer, length, level);
+        CharBuffer maxs = binSize == 1 || !max ? null : getMaxs(buffer, length, level);
+
+        int numWindows = (int) (((long) regionEnd - regionStart + windowSize - 1) / windowSize);
+        short[] values = new short[numWindows];
+        for (int window = 0; window < numWindows; window++) {
+            int windowStart = regionStart + window * windowSize;
+            int windowEnd = Math.min(regionEnd, windowStart + windowSize);
+            double value = 0;
+            for (int bin = windowStart / binSize; bin * binSize < windowEnd; bin++) {
+                double binValue;
+                if (depths != null) {
+                    binValue = depths.get(bin);
+                } else if (max) {
+                    binValue = maxs.get(bin);
+                } else {
+                    binValue = means.get(bin);
+                }
+                if (max) {
+                    value = Math.max(value, binValue);
+                } else {
+                    // Weight the mean of the bins partially covered by the window
+                    int overlap = Math.min(windowEnd, (bin + 1) * binSize) - Math.max(windowStart, bin * binSize);
+                    value += binValue * overlap;
+                }
+            }
+            if (!max) {
+                value /= windowEnd - windowStart;
+            }
+            values[window] = (short) Math.min(Short.MAX_VALUE, Math.round(value));
+        }
+        return values;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int[] getBinSizes() {
+        return binSizes;
+    }
+
+    public Map<String, Integer> getChromosomeLengths() {
+        return Collections.unmodifiableMap(chromosomeLengths);
+    }
+
+    @Override
+    public void close() {
+        buffers.clear();
+    }
+}
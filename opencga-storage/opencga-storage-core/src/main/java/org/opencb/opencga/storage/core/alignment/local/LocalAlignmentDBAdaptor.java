@@ -17,9 +17,10 @@
 package org.opencb.opencga.storage.core.alignment.local;
 
 import ga4gh.Reads;
-import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import org.apache.commons.lang3.time.StopWatch;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.ObjectWriter;
@@ -28,11 +29,9 @@ import org.opencb.biodata.models.alignment.RegionCoverage;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.tools.alignment.AlignmentOptions;
 import org.opencb.biodata.tools.alignment.BamManager;
-import org.opencb.biodata.tools.alignment.BamUtils;
 import org.opencb.biodata.tools.alignment.filters.AlignmentFilters;
 import org.opencb.biodata.tools.alignment.filters.SamRecordFilters;
 import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
-import org.opencb.biodata.tools.commons.ChunkFrequencyManager;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
@@ -44,31 +43,24 @@ import org.opencb.opencga.storage.core.alignment.iterators.SamRecordAlignmentIte
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Created by pfurio on 26/10/16.
  */
 public class LocalAlignmentDBAdaptor implements AlignmentDBAdaptor {
 
-    private int chunkSize;
-
     private static final int MINOR_CHUNK_SIZE = 1000;
-    private static final int DEFAULT_CHUNK_SIZE = 1000;
     private static final int DEFAULT_WINDOW_SIZE = 1000000;
 
-    private static final String COVERAGE_SUFFIX = ".coverage";
-    private static final String COVERAGE_DATABASE_NAME = "coverage.db";
-
+    private final Map<Path, FutureTask<BinaryCoverageStore>> coverageStores = new ConcurrentHashMap<>();
 
     public LocalAlignmentDBAdaptor() {
-        this(DEFAULT_CHUNK_SIZE);
-    }
-
-    public LocalAlignmentDBAdaptor(int chunkSize) {
-        this.chunkSize = chunkSize;
     }
 
     @Override
@@ -220,8 +212,7 @@ public class LocalAlignmentDBAdaptor implements AlignmentDBAdaptor {
             ObjectMapper objectMapper = new ObjectMapper();
             alignmentGlobalStats = objectMapper.readValue(statsPath.toFile(), AlignmentGlobalStats.class);
         } else {
-            BamManager alignmentManager = new BamManager(path);
-            alignmentGlobalStats = alignmentManager.stats();
+            alignmentGlobalStats = new ParallelBamProcessor(Runtime.getRuntime().availableProcessors()).stats(path);
             ObjectMapper objectMapper = new ObjectMapper();
             ObjectWriter objectWriter = objectMapper.typedWriter(AlignmentGlobalStats.class);
             objectWriter.writeValue(statsPath.toFile(), alignmentGlobalStats);
@@ -288,52 +279,96 @@ public class LocalAlignmentDBAdaptor implements AlignmentDBAdaptor {
         Region region = parseRegion(query);
 
         String queryResultId;
-        int windowSize;
-        RegionCoverage coverage = null;
-
-        Path coverageDBPath = workspace.toAbsolutePath().resolve(COVERAGE_DATABASE_NAME);
-        if (!coverageDBPath.toFile().exists()
-                && (region == null || (region.getEnd() - region.getStart() > 50 * MINOR_CHUNK_SIZE))) {
-            createDBCoverage(path, workspace);
-        }
-
-        ChunkFrequencyManager chunkFrequencyManager = new ChunkFrequencyManager(coverageDBPath, chunkSize);
-        ChunkFrequencyManager.ChunkFrequency chunkFrequency = null;
-        if (region != null) {
-            if (region.getEnd() - region.getStart() > 50 * MINOR_CHUNK_SIZE) {
-                // if region is too big then we calculate the mean. We need to protect this code!
-                // and query SQLite database
-                windowSize = options.getInt(QueryParams.WINDOW_SIZE.key(), DEFAULT_WINDOW_SIZE);
-                chunkFrequency = chunkFrequencyManager.query(region, path, windowSize);
+        RegionCoverage coverage;
+        boolean smallRegion = region != null && region.getEnd() - region.getStart() <= 50 * MINOR_CHUNK_SIZE;
+        Path coveragePath = workspace.toAbsolutePath().resolve(path.getFileName() + BinaryCoverageStore.COVERAGE_STORE_SUFFIX);
+        if (hasFilters(query, options)
+                || smallRegion && !coverageStores.containsKey(coveragePath) && !coveragePath.toFile().exists()) {
+            // The coverage store does not apply any filter, and small regions do not need to wait for the store to be built.
+            // Calculate the coverage dynamically calling the biodata alignment manager
+            if (region != null) {
+                queryResultId = region.toString();
             } else {
-                // if region is small enough we calculate all coverage for all positions dynamically
-                // calling the biodata alignment manager
-                BamManager alignmentManager = new BamManager(path);
-                coverage = alignmentManager.coverage(region, alignmentFilters, alignmentOptions);
+                // Same as the coverage store, the mean values of the first chromosome
+                try (SamReader reader = SamReaderFactory.makeDefault().open(path.toFile())) {
+                    SAMSequenceRecord chromosome = reader.getFileHeader().getSequenceDictionary().getSequence(0);
+                    region = new Region(chromosome.getSequenceName(), 1, chromosome.getSequenceLength());
+                }
+                queryResultId = "Get coverage";
             }
-            queryResultId = region.toString();
+            alignmentOptions.setWindowSize(options.getInt(QueryParams.WINDOW_SIZE.key(), smallRegion ? 1 : DEFAULT_WINDOW_SIZE));
+            BamManager alignmentManager = new BamManager(path);
+            coverage = alignmentManager.coverage(region, alignmentFilters, alignmentOptions);
         } else {
-            // if no region is given we set up the windowSize to default value,
-            // we should return a few thousands mean values
-            // and query SQLite database
-            windowSize = DEFAULT_WINDOW_SIZE;
-            SAMFileHeader fileHeader = BamUtils.getFileHeader(path);
-            SAMSequenceRecord seq = fileHeader.getSequenceDictionary().getSequences().get(0);
-            int arraySize = Math.min(50 * MINOR_CHUNK_SIZE, seq.getSequenceLength());
-
-            region = new Region(seq.getSequenceName(), 1, arraySize * MINOR_CHUNK_SIZE);
-            queryResultId = "Get coverage";
-            chunkFrequency = chunkFrequencyManager.query(region, path, windowSize);
-        }
-
-        if (coverage == null && chunkFrequency != null) {
-            coverage = new RegionCoverage(region, chunkFrequency.getWindowSize(), chunkFrequency.getValues());
+            BinaryCoverageStore coverageStore = getCoverageStore(path, coveragePath);
+            int windowSize;
+            if (region != null) {
+                // Base level coverage for small regions, or the mean of each window for large regions
+                windowSize = options.getInt(QueryParams.WINDOW_SIZE.key(), smallRegion ? 1 : DEFAULT_WINDOW_SIZE);
+                queryResultId = region.toString();
+            } else {
+                // if no region is given we set up the windowSize to default value,
+                // and return the mean values of the first chromosome
+                windowSize = DEFAULT_WINDOW_SIZE;
+                Map.Entry<String, Integer> chromosome = coverageStore.getChromosomeLengths().entrySet().iterator().next();
+                region = new Region(chromosome.getKey(), 1, chromosome.getValue());
+                queryResultId = "Get coverage";
+            }
+            short[] values = coverageStore.getMeanCoverage(region.getChromosome(), region.getStart(), region.getEnd(), windowSize);
+            coverage = new RegionCoverage(region, windowSize, values);
         }
 
         watch.stop();
         return new QueryResult(queryResultId, ((int) watch.getTime()), 1, 1, null, null, Arrays.asList(coverage));
     }
 
+    /**
+     * Get the coverage store of an alignment file, building it if it does not exist.
+     * Each store is built only once, without blocking the queries to other alignment files.
+     *
+     * @param path          Alignment file
+     * @param coveragePath  Coverage store file
+     * @return              Coverage store
+     * @throws IOException if the coverage store can not be built
+     */
+    private BinaryCoverageStore getCoverageStore(Path path, Path coveragePath) throws IOException {
+        FutureTask<BinaryCoverageStore> task = coverageStores.get(coveragePath);
+        if (task == null) {
+            FutureTask<BinaryCoverageStore> newTask = new FutureTask<>(() -> coveragePath.toFile().exists()
+                    ? BinaryCoverageStore.open(coveragePath)
+                    : BinaryCoverageStore.build(path, coveragePath, Runtime.getRuntime().availableProcessors()));
+            task = coverageStores.putIfAbsent(coveragePath, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the coverage store " + coveragePath, e);
+        } catch (ExecutionException e) {
+            // Let the next query try again
+            coverageStores.remove(coveragePath, task);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error building the coverage store " + coveragePath, e.getCause());
+        }
+    }
+
+    /**
+     * Check if the coverage has to be calculated only with some of the alignments, which the coverage store can not do.
+     *
+     * @param query     Query
+     * @param options   Query options
+     * @return          true if any filter is given
+     */
+    private boolean hasFilters(Query query, QueryOptions options) {
+        return query.getInt(QueryParams.MIN_MAPQ.key()) > 0 || options.getBoolean(QueryParams.CONTAINED.key());
+    }
+
     private Region parseRegion(Query query) {
         Region region = null;
         String regionString = query.getString(QueryParams.REGION.key());
@@ -366,27 +401,4 @@ public class LocalAlignmentDBAdaptor implements AlignmentDBAdaptor {
         return alignmentOptions;
     }
 
-    private void createDBCoverage(Path filePath, Path workspace) throws IOException {
-        SAMFileHeader fileHeader = BamUtils.getFileHeader(filePath);
-
-        Path coverageDBPath = workspace.toAbsolutePath().resolve(COVERAGE_DATABASE_NAME);
-        ChunkFrequencyManager chunkFrequencyManager = new ChunkFrequencyManager(coverageDBPath);
-        List<String> chromosomeNames = new ArrayList<>();
-        List<Integer> chromosomeLengths = new ArrayList<>();
-        fileHeader.getSequenceDictionary().getSequences().forEach(
-                seq -> {
-                    chromosomeNames.add(seq.getSequenceName());
-                    chromosomeLengths.add(seq.getSequenceLength());
-                });
-        chunkFrequencyManager.init(chromosomeNames, chromosomeLengths);
-
-        Path coveragePath = workspace.toAbsolutePath().resolve(filePath.getFileName() + COVERAGE_SUFFIX);
-
-        AlignmentOptions options = new AlignmentOptions();
-        options.setContained(false);
-
-        BamUtils.createCoverageWigFile(filePath, coveragePath, 200);
-        chunkFrequencyManager.loadWigFile(coveragePath, filePath);
-    }
-
 }
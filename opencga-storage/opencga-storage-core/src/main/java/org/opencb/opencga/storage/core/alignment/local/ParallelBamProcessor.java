@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.alignment.local;
+
+import htsjdk.samtools.*;
+import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
+import org.opencb.biodata.tools.alignment.stats.SamRecordAlignmentGlobalStatsCalculator;
+import org.opencb.commons.ProgressLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Computes the global stats and the coverage of a BAM file in one pass, using a pool of threads.
+ *
+ * Indexed BAM files are split in chunks of every reference sequence, which are read in parallel with the BAM index.
+ * Chunks without reads in the bins of the index are skipped.
+ * Each read is added to the stats of the chunk where it starts, and to the depth of the positions of the chunk it covers,
+ * so chunks never share any read or position. Partial stats are merged at the end.
+ * Non indexed BAM files are read sequentially.
+ *
+ * Created on 17/10/17.
+ */
+public class ParallelBamProcessor {
+
+    public static final int DEFAULT_CHUNK_SIZE = 10000000;
+
+    private final int threads;
+    private final int chunkSize;
+    private final Logger logger = LoggerFactory.getLogger(ParallelBamProcessor.class);
+
+    public ParallelBamProcessor(int threads) {
+        this(threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threads   Number of threads
+     * @param chunkSize Size of the chunks of each reference sequence. Must be a multiple of the bin sizes of the coverage store
+     */
+    public ParallelBamProcessor(int threads, int chunkSize) {
+        for (int binSize : BinaryCoverageStore.DEFAULT_BIN_SIZES) {
+            if (chunkSize <= 0 || chunkSize % binSize != 0) {
+                throw new IllegalArgumentException("Chunk size " + chunkSize + " must be a multiple of " + binSize);
+            }
+        }
+        this.threads = Math.max(1, threads);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Result of processing a BAM file.
+     */
+    public static class Result {
+        private final AlignmentGlobalStats stats;
+        private final BinaryCoverageStore coverageStore;
+
+        Result(AlignmentGlobalStats stats, BinaryCoverageStore coverageStore) {
+            this.stats = stats;
+            this.coverageStore = coverageStore;
+        }
+
+        public AlignmentGlobalStats getStats() {
+            return stats;
+        }
+
+        public BinaryCoverageStore getCoverageStore() {
+            return coverageStore;
+        }
+    }
+
+    /**
+     * Region of a reference sequence, with 0-based start and exclusive end.
+     */
+    private static class Chunk {
+        private final String chromosome;
+        private final int start;
+        private final int end;
+
+        Chunk(String chromosome, int start, int end) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public AlignmentGlobalStats stats(Path bamPath) throws IOException {
+        return process(bamPath, true, null).getStats();
+    }
+
+    public BinaryCoverageStore coverage(Path bamPath, Path coveragePath) throws IOException {
+        return process(bamPath, false, coveragePath).getCoverageStore();
+    }
+
+    /**
+     * Read a BAM file, computing the stats and/or the coverage store.
+     *
+     * @param bamPath       BAM file
+     * @param computeStats  Compute the global stats of all the reads
+     * @param coveragePath  Coverage store file to build. Skip the coverage if null
+     * @return              Stats and coverage store, if computed
+     * @throws IOException if there is any problem reading the BAM or writing the coverage store
+     */
+    public Result process(Path bamPath, boolean computeStats, Path coveragePath) throws IOException {
+        long start = System.currentTimeMillis();
+        SAMFileHeader header;
+        List<Chunk> chunks;
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bamPath.toFile())) {
+            header = reader.getFileHeader();
+            chunks = reader.hasIndex() ? getChunks(header, reader.indexing().getIndex()) : null;
+        }
+        long totalLength = header.getSequenceDictionary().getSequences().stream().mapToLong(SAMSequenceRecord::getSequenceLength).sum();
+        ProgressLogger progressLogger = new ProgressLogger("Processed bases of " + bamPath.getFileName() + ":", totalLength, 100);
+        BinaryCoverageStore store = coveragePath == null ? null : BinaryCoverageStore.create(header, coveragePath);
+
+        // Each thread reuses its own reader for all its chunks
+        List<SamReader> readers = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<SamReader> threadReader = ThreadLocal.withInitial(() -> {
+            SamReader reader = SamReaderFactory.makeDefault().open(bamPath.toFile());
+            readers.add(reader);
+            return reader;
+        });
+
+        List<Callable<AlignmentGlobalStats>> tasks = new ArrayList<>();
+        if (chunks != null) {
+            long chunksLength = 0;
+            for (Chunk chunk : chunks) {
+                chunksLength += chunk.end - chunk.start;
+                tasks.add(() -> processChunk(threadReader.get(), chunk, computeStats, store, progressLogger));
+            }
+            progressLogger.increment(totalLength - chunksLength, "skipped empty regions");
+            if (computeStats) {
+                tasks.add(() -> processUnmapped(threadReader.get()));
+            }
+        } else {
+            logger.info("Missing index for file {}. Reading sequentially", bamPath);
+            tasks.add(() -> processFile(bamPath, computeStats, store, progressLogger, totalLength));
+        }
+
+        AlignmentGlobalStats stats = computeStats ? new AlignmentGlobalStats() : null;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            List<Future<AlignmentGlobalStats>> futures = new ArrayList<>(tasks.size());
+            for (Callable<AlignmentGlobalStats> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+            for (Future<AlignmentGlobalStats> future : futures) {
+                AlignmentGlobalStats partial = future.get();
+                if (stats != null) {
+                    calculator.update(partial, stats);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (SamReader reader : readers) {
+                reader.close();
+            }
+        }
+
+        BinaryCoverageStore coverageStore = store == null ? null : store.commit();
+        logger.info("Processed {} in {}s using {} threads", bamPath.getFileName(), (System.currentTimeMillis() - start) / 1000.0,
+                threads);
+        return new Result(stats, coverageStore);
+    }
+
+    /**
+     * Split the reference sequences in chunks, skipping the regions without reads in the bins of the BAM index.
+     */
+    private List<Chunk> getChunks(SAMFileHeader header, BAMIndex index) {
+        List<Chunk> chunks = new ArrayList<>();
+        for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+            int length = sequence.getSequenceLength();
+            if (isEmpty(index, sequence.getSequenceIndex(), 0, length)) {
+                continue;
+            }
+            for (int chunkStart = 0; chunkStart < length; chunkStart += chunkSize) {
+                int chunkEnd = (int) Math.min(length, (long) chunkStart + chunkSize);
+                if (!isEmpty(index, sequence.getSequenceIndex(), chunkStart, chunkEnd)) {
+                    chunks.add(new Chunk(sequence.getSequenceName(), chunkStart, chunkEnd));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    private static boolean isEmpty(BAMIndex index, int referenceIndex, int start, int end) {
+        BAMFileSpan span = index.getSpanOverlapping(referenceIndex, start + 1, end);
+        return span == null || span.isEmpty();
+    }
+
+    private AlignmentGlobalStats processChunk(SamReader reader, Chunk chunk, boolean computeStats, BinaryCoverageStore store,
+                                              ProgressLogger progressLogger) throws IOException {
+        String chromosome = chunk.chromosome;
+        int start = chunk.start;
+        int end = chunk.end;
+        SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+        AlignmentGlobalStats stats = new AlignmentGlobalStats();
+        CharBuffer depths = store == null ? null : store.getDepths(chromosome);
+        boolean emptyChunk = true;
+        try (SAMRecordIterator iterator = reader.query(chromosome, start + 1, end, false)) {
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+                // Reads overlapping the previous chunk were already counted
+                if (computeStats && record.getAlignmentStart() > start) {
+                    calculator.update(calculator.compute(record), stats);
+                }
+                if (depths != null && BinaryCoverageStore.isValidRead(record)) {
+                    BinaryCoverageStore.addDepth(record, depths, start, end);
+                    emptyChunk = false;
+                }
+            }
+        }
+        // Bins of empty chunks are already 0
+        if (store != null && !emptyChunk) {
+            store.computeZoomLevels(chromosome, start, end);
+        }
+        progressLogger.increment(end - start, () -> "up to position " + chromosome + ":" + end);
+        return stats;
+    }
+
+    private AlignmentGlobalStats processUnmapped(SamReader reader) {
+        SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+        AlignmentGlobalStats stats = new AlignmentGlobalStats();
+        try (SAMRecordIterator iterator = reader.queryUnmapped()) {
+            while (iterator.hasNext()) {
+                calculator.update(calculator.compute(iterator.next()), stats);
+            }
+        }
+        return stats;
+    }
+
+    private AlignmentGlobalStats processFile(Path bamPath, boolean computeStats, BinaryCoverageStore store,
+                                             ProgressLogger progressLogger, long totalLength) throws IOException {
+        SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+        AlignmentGlobalStats stats = new AlignmentGlobalStats();
+        Set<String> chromosomes = new HashSet<>();
+        String chromosome = null;
+        CharBuffer depths = null;
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bamPath.toFile());
+             SAMRecordIterator iterator = reader.iterator()) {
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+                if (computeStats) {
+                    calculator.update(calculator.compute(record), stats);
+                }
+                if (store != null && BinaryCoverageStore.isValidRead(record)) {
+                    if (!record.getReferenceName().equals(chromosome)) {
+                        chromosome = record.getReferenceName();
+                        chromosomes.add(chromosome);
+                        depths = store.getDepths(chromosome);
+                    }
+                    BinaryCoverageStore.addDepth(record, depths, 0, store.getChromosomeLengths().get(chromosome));
+                }
+            }
+        }
+        if (store != null) {
+            for (String name : chromosomes) {
+                store.computeZoomLevels(name, 0, store.getChromosomeLengths().get(name));
+            }
+        }
+        progressLogger.increment(totalLength);
+        return stats;
+    }
+}
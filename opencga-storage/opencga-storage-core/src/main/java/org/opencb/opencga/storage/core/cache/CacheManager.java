@@ -23,14 +23,8 @@ import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.storage.core.config.CacheConfiguration;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
-import org.redisson.Config;
-import org.redisson.Redisson;
-import org.redisson.RedissonClient;
-import org.redisson.client.RedisConnectionException;
-import org.redisson.codec.JsonJacksonCodec;
-import org.redisson.codec.KryoCodec;
-import org.redisson.core.RKeys;
-import org.redisson.core.RMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.regex.Pattern;
@@ -40,15 +34,19 @@ import java.util.regex.Pattern;
  */
 public class CacheManager {
 
+    public static final String MEMORY_BACKEND = "memory";
+    public static final String REDIS_BACKEND = "redis";
+
     private StorageConfiguration storageConfiguration;
 
-    private Config redissonConfig;
     private Set<String> allowedTypesSet;
-    private RedissonClient redissonClient;
-    private boolean redisState;
+    private QueryCache queryCache;
+
 
+    public static final String PREFIX_DATABASE_KEY = "ocga:";
+    public static final String PREFIX_VERSION_KEY = "ocga-version:";
 
-    private static final String PREFIX_DATABASE_KEY = "ocga:";
+    private final Logger logger = LoggerFactory.getLogger(CacheManager.class);
 
     public CacheManager() {
     }
@@ -62,76 +60,47 @@ public class CacheManager {
             this.storageConfiguration = configuration;
 
             cache = configuration.getCache();
-            redissonConfig = new Config();
-
-            String host = (StringUtils.isNotEmpty(cache.getHost()))
-                    ? cache.getHost()
-                    : CacheConfiguration.DEFAULT_HOST;
-            redissonConfig.useSingleServer().setAddress(host);
-
-            String codec = (StringUtils.isNotEmpty(cache.getSerialization()))
-                    ? cache.getSerialization()
-                    : CacheConfiguration.DEFAULT_SERIALIZATION;
 
             this.allowedTypesSet = new HashSet<>(Arrays.asList(cache.getAllowedTypes().split(",")));
 
-
-            if (StringUtils.isNotEmpty(cache.getPassword())) {
-                redissonConfig.useSingleServer().setPassword(cache.getPassword());
+            String backend = cache.getBackend();
+            if (StringUtils.isEmpty(backend)) {
+                // Configurations without backend used a Redis server
+                backend = StringUtils.isEmpty(cache.getHost()) ? MEMORY_BACKEND : REDIS_BACKEND;
+                logger.debug("Cache backend not defined. Using {}", backend);
             }
-
-            if ("KRYO".equalsIgnoreCase(codec)) {
-                redissonConfig.setCodec(new KryoCodec());
+            if (REDIS_BACKEND.equalsIgnoreCase(backend)) {
+                queryCache = new RedisQueryCache(cache);
             } else {
-                redissonConfig.setCodec(new JsonJacksonCodec());
+                queryCache = new InMemoryQueryCache(cache.getMaxSize(), cache.getTtl() * 1000);
             }
-
-            redisState = true;
-
-//            redissonClient = Redisson.create(redissonConfig);
-            redissonClient = null;
         }
     }
 
 
     public <T> QueryResult<T> get(String key) {
 
-        QueryResult<T> queryResult = new QueryResult<>();
+        QueryResult<T> queryResult = null;
         if (isActive()) {
             long start = System.currentTimeMillis();
-            RMap<Integer, Map<String, Object>> map = getRedissonClient().getMap(key);
-
-            try {
-                // We only retrieve the first field of the HASH, which is the only one that exist.
-                Map<Integer, Map<String, Object>> result = map.getAll(new HashSet<>(Collections.singletonList(0)));
-
-                if (result != null && !result.isEmpty()) {
-                    Object resultMap = result.get(0).get("result");
-                    queryResult = (QueryResult<T>) resultMap;
-                    queryResult.setDbTime((int) (System.currentTimeMillis() - start));
-                }
-            } catch (RedisConnectionException e) {
-                redisState = false;
+            queryResult = queryCache.get(key);
+            if (queryResult != null) {
+                queryResult.setDbTime((int) (System.currentTimeMillis() - start));
+            } else if (!queryCache.isAvailable()) {
+                queryResult = new QueryResult<>();
                 queryResult.setWarningMsg("Unable to connect to Redis Cache, Please query WITHOUT Cache (Falling back to Database)");
-                return queryResult;
             }
         }
-        return queryResult;
+        return queryResult == null ? new QueryResult<>() : queryResult;
     }
 
     public void set(String key, Query query, QueryResult queryResult) {
 
         if (isActive()) {
             if (queryResult.getDbTime() >= storageConfiguration.getCache().getSlowThreshold()
-                    && queryResult.getResult().size() >= storageConfiguration.getCache().getMaxResultSize()) {
-                RMap<Integer, Map<String, Object>> map = getRedissonClient().getMap(key);
-                Map<String, Object> record = new HashMap<>();
-                record.put("query", query);
-                record.put("result", queryResult);
-                try {
-                    map.fastPut(0, record);
-                } catch (RedisConnectionException e) {
-                    redisState = false;
+                    && queryResult.getResult().size() <= storageConfiguration.getCache().getMaxResultSize()) {
+                queryCache.put(key, query, queryResult);
+                if (!queryCache.isAvailable()) {
                     queryResult.setWarningMsg("Unable to connect to Redis Cache, Please query WITHOUT Cache (Falling back to Database)");
                 }
             }
@@ -163,35 +132,63 @@ public class CacheManager {
     }
 
     public boolean isActive() {
-        return storageConfiguration.getCache().isActive() && redisState;
+        return storageConfiguration != null && storageConfiguration.getCache().isActive() && queryCache.isAvailable();
     }
 
     public boolean isTypeAllowed(String type) {
-        return allowedTypesSet.contains(type);
+        return allowedTypesSet != null && allowedTypesSet.contains(type);
     }
 
-    public void clear() {
-        RKeys redisKeys = getRedissonClient().getKeys();
-        redisKeys.deleteByPattern(PREFIX_DATABASE_KEY + "*");
+    /**
+     * Remove all the cached results with a key starting with the given prefix.
+     *
+     * @param keyPrefix Key prefix. Must start with {@link #PREFIX_DATABASE_KEY}
+     */
+    public void invalidate(String keyPrefix) {
+        if (queryCache != null) {
+            queryCache.invalidate(keyPrefix);
+        }
     }
 
-    public void clear(Pattern pattern) {
-        RKeys redisKeys = getRedissonClient().getKeys();
-        redisKeys.deleteByPattern(pattern.toString());
+    /**
+     * Get the version of the cached results with a key starting with the given prefix.
+     * The version is incremented on each call to {@link #invalidate}.
+     *
+     * @param keyPrefix Key prefix. Must start with {@link #PREFIX_DATABASE_KEY}
+     * @return          Current version
+     */
+    public long getVersion(String keyPrefix) {
+        return queryCache == null ? 0 : queryCache.getVersion(keyPrefix);
     }
 
-    public void close() {
-        if (redissonClient != null) {
-            redissonClient.shutdown();
-            redissonClient = null;
+    public CacheStats getStats() {
+        return queryCache == null ? new CacheStats(0, 0, 0, 0, 0) : queryCache.getStats();
+    }
+
+    public void clear() {
+        if (queryCache != null) {
+            queryCache.clear();
         }
     }
 
-    private synchronized RedissonClient getRedissonClient() {
-        if (redissonClient == null) {
-            redissonClient = Redisson.create(redissonConfig);
+    /**
+     * Remove the cached results matching a Redis glob-style pattern.
+     * The in-memory backend does not support patterns, and removes all the results.
+     *
+     * @param pattern Redis key pattern
+     */
+    public void clear(Pattern pattern) {
+        if (queryCache instanceof RedisQueryCache) {
+            ((RedisQueryCache) queryCache).getRedissonClient().getKeys().deleteByPattern(pattern.toString());
+        } else {
+            clear();
+        }
+    }
+
+    public void close() {
+        if (queryCache != null) {
+            queryCache.close();
         }
-        return redissonClient;
     }
 
 }
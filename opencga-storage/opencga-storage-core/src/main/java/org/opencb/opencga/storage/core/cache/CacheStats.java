@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+/**
+ * Snapshot of the metrics of a {@link QueryCache}.
+ *
+ * Created on 17/10/17.
+ */
+public class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long entries;
+    private final long sizeBytes;
+
+    public CacheStats(long hits, long misses, long evictions, long entries, long sizeBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.sizeBytes = sizeBytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : ((double) hits) / requests;
+    }
+
+    /**
+     * Entries removed to free space, or because of the TTL. Invalidated entries are not evictions.
+     *
+     * @return Number of evicted entries
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Current number of entries. Not available for all the backends.
+     *
+     * @return Number of entries in the cache, or -1 if unknown
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Current estimated size of the cached results. Not available for all the backends.
+     *
+     * @return Estimated size of the cache in bytes, or -1 if unknown
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CacheStats{");
+        sb.append("hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", evictions=").append(evictions);
+        sb.append(", entries=").append(entries);
+        sb.append(", sizeBytes=").append(sizeBytes);
+        sb.append('}');
+        return sb.toString();
+    }
+}
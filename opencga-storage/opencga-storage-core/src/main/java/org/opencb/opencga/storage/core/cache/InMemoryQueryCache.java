@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.core.results.VariantQueryResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * In-JVM query cache, bounded by the estimated size of the cached results.
+ *
+ * Entries are evicted in least recently used order when the cache is full, and expire after the TTL.
+ * The size of each result is estimated from the length of the JSON representation of each element, for Variants and other
+ * Avro objects, or from the length of {@link Object#toString()} otherwise.
+ *
+ * Cached results are not shared between callers. Variants and other Avro objects are copied when added to the cache and on
+ * each call to {@link #get}, so callers can modify the returned results.
+ *
+ * Created on 17/10/17.
+ */
+public class InMemoryQueryCache implements QueryCache {
+
+    private final long maxSizeBytes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    // Access ordered map. Iterates from the least recently used entry.
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> versions = new HashMap<>();
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an in memory cache.
+     *
+     * @param maxSizeBytes  Max estimated size of all the cached results
+     * @param ttlMillis     Time to live of each entry, in milliseconds. Values &lt;= 0 for no TTL.
+     */
+    public InMemoryQueryCache(long maxSizeBytes, long ttlMillis) {
+        this(maxSizeBytes, ttlMillis, System::currentTimeMillis);
+    }
+
+    InMemoryQueryCache(long maxSizeBytes, long ttlMillis, LongSupplier clock) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.ttlMillis = ttlMillis <= 0 ? Long.MAX_VALUE : ttlMillis;
+        this.clock = clock;
+    }
+
+    private static final class Entry {
+        private final QueryResult<?> queryResult;
+        private final long sizeBytes;
+        private final long expiration;
+
+        private Entry(QueryResult<?> queryResult, long sizeBytes, long expiration) {
+            this.queryResult = queryResult;
+            this.sizeBytes = sizeBytes;
+            this.expiration = expiration;
+        }
+    }
+
+    @Override
+    public synchronized <T> QueryResult<T> get(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expiration <= clock.getAsLong()) {
+            remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        } else {
+            hits++;
+            return copy(entry.queryResult);
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, Query query, QueryResult<?> queryResult) {
+        long entrySize = estimateSize(key, queryResult);
+        if (entrySize > maxSizeBytes) {
+            return;
+        }
+        remove(key);
+        long now = clock.getAsLong();
+        long expiration = Long.MAX_VALUE - now < ttlMillis ? Long.MAX_VALUE : now + ttlMillis;
+        cache.put(key, new Entry(copy(queryResult), entrySize, expiration));
+        sizeBytes += entrySize;
+
+        if (sizeBytes > maxSizeBytes) {
+            // First, remove expired entries. Then, the least recently used entries.
+            removeIf(e -> e.expiration <= now);
+            Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+            while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+                sizeBytes -= iterator.next().getValue().sizeBytes;
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String keyPrefix) {
+        versions.merge(keyPrefix, 1L, Long::sum);
+        // Do not use cache.get while iterating. Would modify the access order
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(keyPrefix)) {
+                sizeBytes -= entry.getValue().sizeBytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getVersion(String keyPrefix) {
+        return versions.getOrDefault(keyPrefix, 0L);
+    }
+
+    @Override
+    public synchronized void clear() {
+        cache.clear();
+        sizeBytes = 0;
+    }
+
+    @Override
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, cache.size(), sizeBytes);
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private void remove(String key) {
+        Entry entry = cache.remove(key);
+        if (entry != null) {
+            sizeBytes -= entry.sizeBytes;
+        }
+    }
+
+    private void removeIf(Predicate<Entry> predicate) {
+        Iterator<Entry> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (predicate.test(entry)) {
+                sizeBytes -= entry.sizeBytes;
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> QueryResult<T> copy(QueryResult<?> queryResult) {
+        QueryResult<T> copy;
+        if (queryResult instanceof VariantQueryResult) {
+            copy = new VariantQueryResult<>();
+            ((VariantQueryResult) copy).setSamples(((VariantQueryResult) queryResult).getSamples());
+        } else {
+            copy = new QueryResult<>();
+        }
+        copy.setId(queryResult.getId());
+        copy.setDbTime(queryResult.getDbTime());
+        copy.setNumResults(queryResult.getNumResults());
+        copy.setNumTotalResults(queryResult.getNumTotalResults());
+        copy.setWarningMsg(queryResult.getWarningMsg());
+        copy.setErrorMsg(queryResult.getErrorMsg());
+        copy.setResultType(queryResult.getResultType());
+        if (queryResult.getResult() != null) {
+            List<T> result = new ArrayList<>(queryResult.getResult().size());
+            for (Object o : queryResult.getResult()) {
+                result.add((T) copy(o));
+            }
+            copy.setResult(result);
+        }
+        return copy;
+    }
+
+    private static Object copy(Object o) {
+        if (o instanceof Variant) {
+            return new Variant(VariantAvro.newBuilder(((Variant) o).getImpl()).build());
+        } else if (o instanceof SpecificRecord) {
+            SpecificRecord record = (SpecificRecord) o;
+            return SpecificData.get().deepCopy(record.getSchema(), record);
+        } else if (o instanceof GenericRecord) {
+            GenericRecord record = (GenericRecord) o;
+            return GenericData.get().deepCopy(record.getSchema(), record);
+        } else {
+            return o;
+        }
+    }
+
+    static long estimateSize(String key, QueryResult<?> queryResult) {
+        // Fixed overhead of the entry and the QueryResult
+        long size = 200 + key.length() * 2;
+        if (queryResult.getResult() != null) {
+            for (Object o : queryResult.getResult()) {
+                size += estimateSize(o);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object o) {
+        if (o == null) {
+            return 8;
+        } else if (o instanceof Variant) {
+            // Avro toString generates JSON
+            return ((Variant) o).getImpl().toString().length() * 2;
+        } else if (o instanceof GenericRecord) {
+            return o.toString().length() * 2;
+        } else {
+            return String.valueOf(o).length() * 2;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryResult;
+
+/**
+ * Backend of the {@link CacheManager}. Stores query results by key.
+ *
+ * Created on 17/10/17.
+ */
+public interface QueryCache extends AutoCloseable {
+
+    /**
+     * Get a cached result.
+     *
+     * @param key   Key of the result. See {@link CacheManager#createKey}
+     * @param <T>   Result type
+     * @return      Cached result, or null if missing
+     */
+    <T> QueryResult<T> get(String key);
+
+    /**
+     * Add a result to the cache.
+     *
+     * @param key           Key of the result. See {@link CacheManager#createKey}
+     * @param query         Query that generated the result
+     * @param queryResult   Result to cache
+     */
+    void put(String key, Query query, QueryResult<?> queryResult);
+
+    /**
+     * Remove all the results with a key starting with the given prefix, and increment the version of the prefix.
+     *
+     * @param keyPrefix Key prefix
+     */
+    void invalidate(String keyPrefix);
+
+    /**
+     * Get the version of a key prefix. The version is incremented on each {@link #invalidate} of the prefix, so keys
+     * containing the version change after any invalidation, also in other processes sharing the cache.
+     *
+     * @param keyPrefix Key prefix
+     * @return          Current version of the prefix
+     */
+    long getVersion(String keyPrefix);
+
+    /**
+     * Remove all the results.
+     */
+    void clear();
+
+    /**
+     * Check if the cache can be used. Remote caches may be temporally unavailable.
+     *
+     * @return if the cache is available
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    CacheStats getStats();
+
+    @Override
+    void close();
+
+}
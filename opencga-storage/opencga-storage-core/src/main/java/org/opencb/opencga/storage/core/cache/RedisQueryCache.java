@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.config.CacheConfiguration;
+import org.redisson.Config;
+import org.redisson.Redisson;
+import org.redisson.RedissonClient;
+import org.redisson.client.RedisConnectionException;
+import org.redisson.codec.JsonJacksonCodec;
+import org.redisson.codec.KryoCodec;
+import org.redisson.core.RAtomicLong;
+import org.redisson.core.RMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Query cache stored in a Redis server. Shared between all the processes using the same server.
+ *
+ * Hits and misses are counted locally. Evictions, entries and size are managed by the server, and not reported.
+ *
+ * Created on 17/10/17.
+ */
+public class RedisQueryCache implements QueryCache {
+
+    private final Config redissonConfig;
+    private final long ttl;
+    private RedissonClient redissonClient;
+    private volatile boolean redisState;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(RedisQueryCache.class);
+
+    public RedisQueryCache(CacheConfiguration cache) {
+        redissonConfig = new Config();
+
+        String host = (StringUtils.isNotEmpty(cache.getHost()))
+                ? cache.getHost()
+                : CacheConfiguration.DEFAULT_HOST;
+        redissonConfig.useSingleServer().setAddress(host);
+
+        String codec = (StringUtils.isNotEmpty(cache.getSerialization()))
+                ? cache.getSerialization()
+                : CacheConfiguration.DEFAULT_SERIALIZATION;
+
+        if (StringUtils.isNotEmpty(cache.getPassword())) {
+            redissonConfig.useSingleServer().setPassword(cache.getPassword());
+        }
+
+        if ("KRYO".equalsIgnoreCase(codec)) {
+            redissonConfig.setCodec(new KryoCodec());
+        } else {
+            redissonConfig.setCodec(new JsonJacksonCodec());
+        }
+        ttl = cache.getTtl();
+
+        redisState = true;
+        redissonClient = null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> QueryResult<T> get(String key) {
+        RMap<Integer, Map<String, Object>> map = getRedissonClient().getMap(key);
+        try {
+            // We only retrieve the first field of the HASH, which is the only one that exist.
+            Map<Integer, Map<String, Object>> result = map.getAll(new HashSet<>(Collections.singletonList(0)));
+
+            if (result != null && !result.isEmpty()) {
+                hits.incrementAndGet();
+                return (QueryResult<T>) result.get(0).get("result");
+            }
+        } catch (RedisConnectionException e) {
+            connectionError(e);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void put(String key, Query query, QueryResult<?> queryResult) {
+        RMap<Integer, Map<String, Object>> map = getRedissonClient().getMap(key);
+        Map<String, Object> record = new HashMap<>();
+        record.put("query", query);
+        record.put("result", queryResult);
+        try {
+            map.fastPut(0, record);
+            if (ttl > 0) {
+                map.expire(ttl, TimeUnit.SECONDS);
+            }
+        } catch (RedisConnectionException e) {
+            connectionError(e);
+        }
+    }
+
+    @Override
+    public void invalidate(String keyPrefix) {
+        try {
+            getVersionCounter(keyPrefix).incrementAndGet();
+            getRedissonClient().getKeys().deleteByPattern(keyPrefix + "*");
+        } catch (RedisConnectionException e) {
+            connectionError(e);
+        }
+    }
+
+    @Override
+    public long getVersion(String keyPrefix) {
+        try {
+            return getVersionCounter(keyPrefix).get();
+        } catch (RedisConnectionException e) {
+            connectionError(e);
+            return 0;
+        }
+    }
+
+    private RAtomicLong getVersionCounter(String keyPrefix) {
+        // Outside of the prefix, so it is not removed by the invalidation
+        return getRedissonClient().getAtomicLong(CacheManager.PREFIX_VERSION_KEY + keyPrefix);
+    }
+
+    @Override
+    public void clear() {
+        invalidate(CacheManager.PREFIX_DATABASE_KEY);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return redisState;
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), -1, -1, -1);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (redissonClient != null) {
+            redissonClient.shutdown();
+            redissonClient = null;
+        }
+    }
+
+    synchronized RedissonClient getRedissonClient() {
+        if (redissonClient == null) {
+            redissonClient = Redisson.create(redissonConfig);
+        }
+        return redissonClient;
+    }
+
+    private void connectionError(RedisConnectionException e) {
+        redisState = false;
+        logger.warn("Unable to connect to Redis Cache. Disabling cache (Falling back to Database)", e);
+    }
+
+}
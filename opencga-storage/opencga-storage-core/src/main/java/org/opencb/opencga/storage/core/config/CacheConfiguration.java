@@ -40,12 +40,30 @@ public class CacheConfiguration {
      */
     private String allowedTypes;
 
-    public static final boolean DEFAULT_ACTVE = true;
+    /**
+     * Accepted values are: memory (in-process cache), redis.
+     * If not defined, redis is used when a host is defined, and memory otherwise.
+     */
+    private String backend;
+
+    /**
+     * Max estimated size in bytes of the in-process cache.
+     */
+    private long maxSize;
+
+    /**
+     * Time to live of the cached results, in seconds. Values &lt;= 0 for no TTL.
+     */
+    private long ttl;
+
+    public static final boolean DEFAULT_ACTVE = false;
     public static final String DEFAULT_SERIALIZATION = "json";
     public static final String DEFAULT_ALLOWED_TYPE = "aln,var";
     public static final String DEFAULT_HOST = "localhost:6379";
     public static final String DEFAULT_PASSWORD = "";
     public static final int DEFAULT_MAX_FILE_SIZE = 500;
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    public static final long DEFAULT_TTL = 3600;
 
     public CacheConfiguration() {
         this(DEFAULT_HOST, DEFAULT_ACTVE, DEFAULT_SERIALIZATION, 50, DEFAULT_MAX_FILE_SIZE, DEFAULT_PASSWORD,
@@ -61,6 +79,8 @@ public class CacheConfiguration {
         this.maxResultSize = maxFileSize;
         this.password = password;
         this.allowedTypes = allowedTypes;
+        this.maxSize = DEFAULT_MAX_SIZE;
+        this.ttl = DEFAULT_TTL;
     }
 
     @Override
@@ -72,6 +92,9 @@ public class CacheConfiguration {
                 + ", slowThreshold=" + slowThreshold
                 + ", maxResultSize=" + maxResultSize
                 + ", allowedTypes='" + allowedTypes + '\''
+                + ", backend='" + backend + '\''
+                + ", maxSize=" + maxSize
+                + ", ttl=" + ttl
                 + '}');
         return sb.toString();
     }
@@ -138,4 +161,31 @@ public class CacheConfiguration {
         this.allowedTypes = allowedTypes;
         return this;
     }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public CacheConfiguration setBackend(String backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public CacheConfiguration setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public CacheConfiguration setTtl(long ttl) {
+        this.ttl = ttl;
+        return this;
+    }
 }
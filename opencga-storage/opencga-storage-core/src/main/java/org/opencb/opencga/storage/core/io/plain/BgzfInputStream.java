@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io.plain;
+
+import java.io.*;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompressing InputStream for BGZF compressed streams, inflating the independent BGZF blocks in parallel.
+ *
+ * Same as {@link BgzfStringDataReader}, but returning the inflated bytes instead of lines.
+ *
+ * Created on 17/10/17.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final DataInputStream inputStream;
+    private final ExecutorService executorService;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks = new LinkedList<>();
+    private byte[] block = EMPTY;
+    private int blockPosition;
+    private boolean endOfFile;
+    private long readCompressedBytes;
+
+    public BgzfInputStream(InputStream inputStream, int numThreads) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(inputStream));
+        numThreads = Math.max(1, numThreads);
+        this.maxPendingBlocks = numThreads * 4;
+        this.executorService = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int read = Math.min(len, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, b, off, read);
+        blockPosition += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        pendingBlocks.clear();
+        inputStream.close();
+    }
+
+    /**
+     * Move to the next inflated block if the current one was fully read, and refill the queue of pending blocks.
+     *
+     * @return  false if there are no more bytes to read
+     * @throws IOException if there is any error reading the stream
+     */
+    private boolean nextBlock() throws IOException {
+        while (blockPosition == block.length) {
+            fillPendingBlocks();
+            if (pendingBlocks.isEmpty()) {
+                return false;
+            }
+            try {
+                block = pendingBlocks.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating BGZF block");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error inflating BGZF block", e.getCause());
+            }
+            blockPosition = 0;
+        }
+        return true;
+    }
+
+    private void fillPendingBlocks() throws IOException {
+        while (!endOfFile && pendingBlocks.size() < maxPendingBlocks) {
+            byte[] rawBlock = BgzfStringDataReader.readRawBlock(inputStream, readCompressedBytes, "BGZF stream");
+            if (rawBlock == null) {
+                endOfFile = true;
+            } else {
+                readCompressedBytes += rawBlock.length;
+                pendingBlocks.add(executorService.submit(() -> BgzfStringDataReader.inflateBlock(rawBlock)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io.plain;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads BGZF compressed files (e.g. *.vcf.gz compressed with bgzip) inflating the independent BGZF blocks in parallel.
+ *
+ * The raw compressed blocks are read sequentially from the file, and submitted to a pool of workers that inflate them
+ * and split them into lines. The lines are returned in the same order as in the original file.
+ *
+ * Created on 17/10/17.
+ */
+public class BgzfStringDataReader extends StringDataReader {
+
+    public static final int DEFAULT_NUM_THREADS = 4;
+
+    private static final int BGZF_HEADER_SIZE = 18;
+    private static final int BGZF_FOOTER_SIZE = 8;
+    private static final int GZIP_ID1 = 0x1f;
+    private static final int GZIP_ID2 = 0x8b;
+    private static final int GZIP_CM_DEFLATE = 8;
+    private static final int GZIP_FLG_FEXTRA = 4;
+    private static final int BGZF_SI1 = 'B';
+    private static final int BGZF_SI2 = 'C';
+
+    private final int numThreads;
+    private final int maxPendingBlocks;
+    private ExecutorService executorService;
+    private DataInputStream inputStream;
+    private final Deque<Future<Block>> pendingBlocks = new LinkedList<>();
+    private final Deque<String> lines = new LinkedList<>();
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+    private boolean endOfFile;
+    private long fileSize;
+    private long readCompressedBytes;
+    private long lastReadCompressedBytes;
+
+    public BgzfStringDataReader(Path path) {
+        this(path, DEFAULT_NUM_THREADS);
+    }
+
+    public BgzfStringDataReader(Path path, int numThreads) {
+        super(path);
+        this.numThreads = Math.max(1, numThreads);
+        this.maxPendingBlocks = this.numThreads * 4;
+    }
+
+    /**
+     * Check if the given file is a BGZF compressed file, looking at the header of the first block.
+     *
+     * @param path  File to check
+     * @return      If the file is BGZF compressed
+     */
+    public static boolean isBgzf(Path path) {
+        if (!path.toFile().getName().endsWith(".gz")) {
+            return false;
+        }
+        byte[] header = new byte[BGZF_HEADER_SIZE];
+        try (DataInputStream is = new DataInputStream(new FileInputStream(path.toFile()))) {
+            is.readFully(header);
+        } catch (EOFException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return isBgzfHeader(header);
+    }
+
+    private static boolean isBgzfHeader(byte[] header) {
+        return (header[0] & 0xff) == GZIP_ID1
+                && (header[1] & 0xff) == GZIP_ID2
+                && (header[2] & 0xff) == GZIP_CM_DEFLATE
+                && (header[3] & GZIP_FLG_FEXTRA) != 0
+                && (header[12] & 0xff) == BGZF_SI1
+                && (header[13] & 0xff) == BGZF_SI2;
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            fileSize = getFileSize();
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        executorService = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        endOfFile = false;
+        readCompressedBytes = 0;
+        lastReadCompressedBytes = 0;
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        pendingBlocks.clear();
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> read() {
+        return read(1);
+    }
+
+    @Override
+    public List<String> read(int batchSize) {
+        try {
+            while (lines.size() < batchSize && nextBlock()) {
+                continue;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (lines.isEmpty() && partialLine.size() > 0) {
+            // Last line of the file, without a line break
+            lines.add(toLine(partialLine.toByteArray(), 0, partialLine.size()));
+            partialLine.reset();
+        }
+        int size = Math.min(batchSize, lines.size());
+        List<String> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(lines.poll());
+            onReadLine();
+        }
+        onReadBytes();
+        return batch;
+    }
+
+    /**
+     * Take the next inflated block from the queue, and refill the queue of pending blocks.
+     *
+     * @return  false if there are no more blocks to read
+     * @throws IOException if there is any error reading the file
+     */
+    private boolean nextBlock() throws IOException {
+        fillPendingBlocks();
+        if (pendingBlocks.isEmpty()) {
+            return false;
+        }
+        Block block;
+        try {
+            block = pendingBlocks.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while inflating BGZF block from " + path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error inflating BGZF block from " + path, e.getCause());
+        }
+        readCompressedBytes += block.compressedSize;
+
+        if (!block.hasLineBreak) {
+            partialLine.write(block.head, 0, block.head.length);
+        } else {
+            if (partialLine.size() > 0) {
+                partialLine.write(block.head, 0, block.head.length);
+                lines.add(toLine(partialLine.toByteArray(), 0, partialLine.size()));
+                partialLine.reset();
+            } else {
+                lines.add(toLine(block.head, 0, block.head.length));
+            }
+            lines.addAll(block.lines);
+            partialLine.write(block.tail, 0, block.tail.length);
+        }
+        return true;
+    }
+
+    private void fillPendingBlocks() throws IOException {
+        while (!endOfFile && pendingBlocks.size() < maxPendingBlocks) {
+            byte[] rawBlock = readRawBlock();
+            if (rawBlock == null) {
+                endOfFile = true;
+            } else {
+                pendingBlocks.add(executorService.submit(() -> inflate(rawBlock)));
+            }
+        }
+    }
+
+    /**
+     * Read the next compressed BGZF block, without inflating it.
+     *
+     * @return  Compressed block, or null if the end of the file was reached
+     * @throws IOException if the file is not a valid BGZF file
+     */
+    private byte[] readRawBlock() throws IOException {
+        return readRawBlock(inputStream, readCompressedBytes, path);
+    }
+
+    /**
+     * Read the next compressed BGZF block from the given stream, without inflating it.
+     *
+     * @param inputStream   Stream positioned at the start of a BGZF block
+     * @param offset        Position of the block in the file, for the error messages
+     * @param source        Source of the stream, for the error messages
+     * @return  Compressed block, or null if the end of the stream was reached
+     * @throws IOException if the stream is not a valid BGZF stream
+     */
+    static byte[] readRawBlock(DataInputStream inputStream, long offset, Object source) throws IOException {
+        byte[] header = new byte[BGZF_HEADER_SIZE];
+        int read = inputStream.read(header, 0, 1);
+        if (read < 0) {
+            return null;
+        }
+        inputStream.readFully(header, 1, BGZF_HEADER_SIZE - 1);
+        if (!isBgzfHeader(header)) {
+            throw new IOException("Invalid BGZF block header at " + offset + " in file " + source);
+        }
+        int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+        byte[] block = Arrays.copyOf(header, blockSize);
+        inputStream.readFully(block, BGZF_HEADER_SIZE, blockSize - BGZF_HEADER_SIZE);
+        return block;
+    }
+
+    private static Block inflate(byte[] rawBlock) throws IOException {
+        return Block.split(inflateBlock(rawBlock), rawBlock.length);
+    }
+
+    /**
+     * Inflate one raw BGZF block, as returned by {@link #readRawBlock(DataInputStream, long, Object)}.
+     *
+     * @param rawBlock  Compressed block
+     * @return          Inflated data
+     * @throws IOException if the block is corrupted
+     */
+    static byte[] inflateBlock(byte[] rawBlock) throws IOException {
+        int extraLength = (rawBlock[10] & 0xff) | ((rawBlock[11] & 0xff) << 8);
+        int dataOffset = 12 + extraLength;
+        int dataLength = rawBlock.length - dataOffset - BGZF_FOOTER_SIZE;
+        int footer = rawBlock.length - 4;
+        int inflatedSize = (rawBlock[footer] & 0xff)
+                | ((rawBlock[footer + 1] & 0xff) << 8)
+                | ((rawBlock[footer + 2] & 0xff) << 16)
+                | ((rawBlock[footer + 3] & 0xff) << 24);
+
+        byte[] data = new byte[inflatedSize];
+        if (inflatedSize > 0) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(rawBlock, dataOffset, dataLength);
+                int inflated = inflater.inflate(data);
+                if (inflated != inflatedSize) {
+                    throw new IOException("Corrupted BGZF block. Expected " + inflatedSize + " bytes, got " + inflated);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted BGZF block", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        return data;
+    }
+
+    private static String toLine(byte[] bytes, int offset, int end) {
+        if (end > offset && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private void onReadBytes() {
+        if (readBytesListener != null) {
+            readBytesListener.accept(readCompressedBytes, readCompressedBytes - lastReadCompressedBytes);
+        }
+        lastReadCompressedBytes = readCompressedBytes;
+    }
+
+    @Override
+    public long getFileSize() throws IOException {
+        return fileSize > 0 ? fileSize : super.getFileSize();
+    }
+
+    /**
+     * Inflated block split in lines.
+     * The first and the last line of the block may be incomplete, so are kept as bytes until the reader can
+     * join them with the previous and next blocks.
+     */
+    private static final class Block {
+        private final int compressedSize;
+        private final boolean hasLineBreak;
+        private final byte[] head;
+        private final List<String> lines;
+        private final byte[] tail;
+
+        private Block(int compressedSize, boolean hasLineBreak, byte[] head, List<String> lines, byte[] tail) {
+            this.compressedSize = compressedSize;
+            this.hasLineBreak = hasLineBreak;
+            this.head = head;
+            this.lines = lines;
+            this.tail = tail;
+        }
+
+        static Block split(byte[] data, int compressedSize) {
+            int firstLineBreak = indexOf(data, 0);
+            if (firstLineBreak < 0) {
+                return new Block(compressedSize, false, data, Collections.emptyList(), new byte[0]);
+            }
+            byte[] head = Arrays.copyOf(data, firstLineBreak);
+            List<String> lines = new ArrayList<>();
+            int start = firstLineBreak + 1;
+            int end = indexOf(data, start);
+            while (end >= 0) {
+                lines.add(toLine(data, start, end));
+                start = end + 1;
+                end = indexOf(data, start);
+            }
+            byte[] tail = Arrays.copyOfRange(data, start, data.length);
+            return new Block(compressedSize, true, head, lines, tail);
+        }
+
+        private static int indexOf(byte[] data, int from) {
+            for (int i = from; i < data.length; i++) {
+                if (data[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io.plain;
+
+import org.opencb.commons.io.DataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.SnappyInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a text file as lines of raw bytes, without decoding them into Strings.
+ *
+ * Each call to {@link #read(int)} fills one byte array with the content of all the lines of the batch, and returns
+ * {@link ByteBuffer} views of each line, without the line break. Consumers must not modify the content of the buffers.
+ * Once a batch is consumed, it can be given back with {@link #release(List)}, so the next batches reuse its array.
+ * The allocation per line is one ByteBuffer view (~48 bytes) plus the line bytes in the shared batch array, in contrast
+ * with the {@link StringDataReader}, that decodes every line through an {@link InputStreamReader}, and builds a
+ * StringBuilder and a String (two bytes per char) for each line.
+ * Consumers are expected to decode only the lines they need, usually on a worker thread. See {@link #toString(ByteBuffer)}.
+ *
+ * Created on 17/10/17.
+ */
+public class ByteLineDataReader implements DataReader<ByteBuffer> {
+
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    protected final Path path;
+    private final int bgzfThreads;
+    protected static Logger logger = LoggerFactory.getLogger(ByteLineDataReader.class);
+    protected long readLines = 0L;
+    private InputStream inputStream;
+    private StringDataReader.SizeInputStream sizeInputStream;
+    private long lastAvailable = 0;
+    private BiConsumer<Long, Long> readBytesListener;
+    private BiConsumer<Long, Long> readLinesListener;
+
+    /** Bytes read from the input but not yet returned, from the last incomplete line. */
+    private byte[] remaining = new byte[0];
+    private int remainingLength = 0;
+    private boolean endOfFile;
+    private int lastBatchBytes = MIN_BUFFER_SIZE;
+    /** Arrays of the batches already consumed, ready to be reused. */
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private int[] lineEnds = new int[0];
+
+    public ByteLineDataReader(Path path) {
+        this(path, 0);
+    }
+
+    /**
+     * Create a reader for a BGZF compressed file, inflating the BGZF blocks in parallel.
+     *
+     * @param path          Input file
+     * @param bgzfThreads   Number of threads to inflate the BGZF blocks. If 0, the file is read as a regular gzip file.
+     */
+    public ByteLineDataReader(Path path, int bgzfThreads) {
+        this.path = path;
+        this.bgzfThreads = bgzfThreads;
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            String fileName = path.toFile().getName();
+            lastAvailable = getFileSize();
+            sizeInputStream = new StringDataReader.SizeInputStream(new FileInputStream(path.toFile()), lastAvailable);
+            if (bgzfThreads > 0) {
+                logger.debug("BGZF input compress");
+                inputStream = new BgzfInputStream(sizeInputStream, bgzfThreads);
+            } else if (fileName.endsWith(".gz")) {
+                logger.debug("Gzip input compress");
+                inputStream = new GZIPInputStream(sizeInputStream, MIN_BUFFER_SIZE);
+            } else if (fileName.endsWith(".snappy") || fileName.endsWith(".snz")) {
+                logger.info("Snappy input compress");
+                inputStream = new SnappyInputStream(sizeInputStream);
+            } else {
+                logger.debug("Plain input compress");
+                inputStream = sizeInputStream;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        endOfFile = false;
+        remainingLength = 0;
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<ByteBuffer> read() {
+        return read(1);
+    }
+
+    @Override
+    public List<ByteBuffer> read(int batchSize) {
+        if (batchSize <= 0) {
+            return Collections.emptyList();
+        }
+        // Estimate the size of the batch from the previous one, to avoid growing the buffer
+        byte[] buffer = getBuffer(remainingLength + 1,
+                Math.max(remainingLength + MIN_BUFFER_SIZE, lastBatchBytes + lastBatchBytes / 4));
+        System.arraycopy(remaining, 0, buffer, 0, remainingLength);
+        int length = remainingLength;
+
+        // Line ends, as positions of the '\n' in the buffer
+        if (lineEnds.length < batchSize) {
+            lineEnds = new int[batchSize];
+        }
+        int numLines = 0;
+        int scanned = 0;
+        try {
+            while (numLines < batchSize) {
+                // Look for line breaks in the already read bytes
+                while (scanned < length && numLines < batchSize) {
+                    if (buffer[scanned] == '\n') {
+                        lineEnds[numLines++] = scanned;
+                    }
+                    scanned++;
+                }
+                if (numLines == batchSize || endOfFile) {
+                    break;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = inputStream.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    endOfFile = true;
+                } else {
+                    length += read;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<ByteBuffer> batch;
+        int end;
+        if (numLines == 0) {
+            if (length == 0) {
+                freeBuffers.add(buffer);
+                batch = Collections.emptyList();
+            } else {
+                // Last line of the file, without a line break
+                batch = Collections.singletonList(slice(buffer, 0, length));
+            }
+            end = length;
+        } else {
+            batch = new ArrayList<>(numLines);
+            int start = 0;
+            for (int i = 0; i < numLines; i++) {
+                batch.add(slice(buffer, start, lineEnds[i]));
+                start = lineEnds[i] + 1;
+            }
+            end = start;
+        }
+
+        // Keep the incomplete line for the next batch
+        remainingLength = length - end;
+        if (remaining.length < remainingLength) {
+            remaining = new byte[remainingLength];
+        }
+        System.arraycopy(buffer, end, remaining, 0, remainingLength);
+        lastBatchBytes = Math.max(end, MIN_BUFFER_SIZE);
+
+        for (int i = 0; i < batch.size(); i++) {
+            onReadLine();
+        }
+        onReadBytes();
+        return batch;
+    }
+
+    /**
+     * Give back a batch returned by {@link #read(int)}, once none of its lines is going to be used anymore.
+     * The array of the batch will be reused by the next batches. Can be called from any thread.
+     *
+     * @param batch Consumed batch
+     */
+    public void release(List<ByteBuffer> batch) {
+        if (!batch.isEmpty() && batch.get(0).hasArray()) {
+            freeBuffers.add(batch.get(0).array());
+        }
+    }
+
+    private byte[] getBuffer(int minSize, int newSize) {
+        byte[] buffer = freeBuffers.poll();
+        while (buffer != null && buffer.length < minSize) {
+            // Can not even hold the incomplete line of the previous batch. Discard it.
+            buffer = freeBuffers.poll();
+        }
+        // Arrays too small for the batch will grow while reading, and will be given back bigger
+        return buffer == null ? new byte[newSize] : buffer;
+    }
+
+    private static ByteBuffer slice(byte[] buffer, int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        return ByteBuffer.wrap(buffer, start, end - start);
+    }
+
+    /**
+     * Decode a line returned by this reader.
+     *
+     * @param line  Line as bytes
+     * @return      Decoded line
+     */
+    public static String toString(ByteBuffer line) {
+        if (line.hasArray()) {
+            return new String(line.array(), line.arrayOffset() + line.position(), line.remaining(), StandardCharsets.UTF_8);
+        } else {
+            return StandardCharsets.UTF_8.decode(line.duplicate()).toString();
+        }
+    }
+
+    /**
+     * Check if the line is empty or only contains whitespaces, without decoding it.
+     *
+     * @param line  Line as bytes
+     * @return      If the line is blank
+     */
+    public static boolean isBlank(ByteBuffer line) {
+        for (int i = line.position(); i < line.limit(); i++) {
+            if (line.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the line starts with the given character, without decoding it.
+     *
+     * @param line  Line as bytes
+     * @param c     ASCII character
+     * @return      If the line starts with the character
+     */
+    public static boolean startsWith(ByteBuffer line, char c) {
+        return line.hasRemaining() && line.get(line.position()) == c;
+    }
+
+    protected void onReadLine() {
+        if (++readLines % 100000 == 0) {
+            logger.debug("read lines = " + readLines);
+        }
+        if (readLinesListener != null) {
+            readLinesListener.accept(readLines, 1L);
+        }
+    }
+
+    private void onReadBytes() {
+        long newAvailable = sizeInputStream.availableLong();
+        if (readBytesListener != null) {
+            readBytesListener.accept(sizeInputStream.size() - newAvailable, lastAvailable - newAvailable);
+        }
+        lastAvailable = newAvailable;
+    }
+
+    public ByteLineDataReader setReadBytesListener(BiConsumer<Long, Long> readBytesListener) {
+        this.readBytesListener = readBytesListener;
+        return this;
+    }
+
+    public ByteLineDataReader setReadLinesListener(BiConsumer<Long, Long> readLinesListener) {
+        this.readLinesListener = readLinesListener;
+        return this;
+    }
+
+    public long getFileSize() throws IOException {
+        return Files.size(path);
+    }
+
+}
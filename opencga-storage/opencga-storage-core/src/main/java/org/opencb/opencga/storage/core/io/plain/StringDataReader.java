@@ -41,8 +41,8 @@ public class StringDataReader implements DataReader<String> {
     protected long readLines = 0L;
     protected long lastAvailable = 0;
     private SizeInputStream sizeInputStream;
-    private BiConsumer<Long, Long> readBytesListener;
-    private BiConsumer<Long, Long> readLinesListener;
+    protected BiConsumer<Long, Long> readBytesListener;
+    protected BiConsumer<Long, Long> readLinesListener;
 
     public StringDataReader(Path path) {
         this.path = path;
@@ -149,7 +149,7 @@ public class StringDataReader implements DataReader<String> {
         return Files.size(path);
     }
 
-    class SizeInputStream extends InputStream {
+    static class SizeInputStream extends InputStream {
         // The InputStream to read bytes from
         private InputStream in = null;
 
@@ -77,10 +77,15 @@ public class StudyConfiguration {
         this.fileIds = HashBiMap.create(other.fileIds == null ? Collections.emptyMap() : other.fileIds);
         this.sampleIds = HashBiMap.create(other.sampleIds == null ? Collections.emptyMap() : other.sampleIds);
         this.cohortIds = HashBiMap.create(other.cohortIds == null ? Collections.emptyMap() : other.cohortIds);
-        this.cohorts = new HashMap<>(other.cohorts);
+        // Copy also the inner sets. Otherwise, modifying them would modify the original instance
+        this.cohorts = new HashMap<>(other.cohorts.size());
+        other.cohorts.forEach((cohortId, samples) -> this.cohorts.put(cohortId,
+                samples == null ? null : new LinkedHashSet<>(samples)));
         this.indexedFiles = new LinkedHashSet<>(other.indexedFiles);
         this.headers = new HashMap<>(other.headers);
-        this.samplesInFiles = new HashMap<>(other.samplesInFiles);
+        this.samplesInFiles = new HashMap<>(other.samplesInFiles.size());
+        other.samplesInFiles.forEach((fileId, samples) -> this.samplesInFiles.put(fileId,
+                samples == null ? null : new LinkedHashSet<>(samples)));
         this.calculatedStats = new LinkedHashSet<>(other.calculatedStats);
         this.invalidStats = new LinkedHashSet<>(other.invalidStats);
         this.batches = new ArrayList<>(other.batches.size());
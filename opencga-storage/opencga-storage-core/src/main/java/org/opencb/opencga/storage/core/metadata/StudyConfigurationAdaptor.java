@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -50,6 +51,20 @@ public abstract class StudyConfigurationAdaptor implements AutoCloseable {
 
     protected abstract QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options);
 
+    /**
+     * Update the given sections of the StudyConfiguration, and the fields not contained in any section.
+     * By default, the whole StudyConfiguration is updated.
+     *
+     * @param studyConfiguration    StudyConfiguration to store
+     * @param modifiedSections      Sections modified since the last read or write
+     * @param options               Options
+     * @return                      QueryResult
+     */
+    protected QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, Set<StudyConfigurationSection> modifiedSections,
+                                                   QueryOptions options) {
+        return updateStudyConfiguration(studyConfiguration, options);
+    }
+
     protected abstract Map<String, Integer> getStudies(QueryOptions options);
 
     protected List<String> getStudyNames(QueryOptions options) {
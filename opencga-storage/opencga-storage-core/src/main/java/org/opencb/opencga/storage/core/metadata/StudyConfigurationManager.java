@@ -97,11 +97,26 @@ public class StudyConfigurationManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Build a copy of the given options to read StudyConfigurations without copying them.
+     * The returned StudyConfigurations are snapshots shared with other readers, and must not be modified.
+     *
+     * @param options   Query options. May be null
+     * @return          Read only query options
+     */
+    public static QueryOptions readOnly(QueryOptions options) {
+        QueryOptions readOnly = options == null ? new QueryOptions() : new QueryOptions(options);
+        readOnly.put(READ_ONLY, true);
+        return readOnly;
+    }
+
     public final QueryResult<StudyConfiguration> getStudyConfiguration(String studyName, QueryOptions options) {
         QueryResult<StudyConfiguration> result;
         final boolean cached = options != null && options.getBoolean(CACHED, false);
         final boolean readOnly = options != null && options.getBoolean(READ_ONLY, false);
+        StudyConfiguration previous = null;
         if (stringStudyConfigurationMap.containsKey(studyName)) {
+            previous = stringStudyConfigurationMap.get(studyName);
             if (cached) {
                 StudyConfiguration studyConfiguration = stringStudyConfigurationMap.get(studyName);
                 if (!readOnly) {
@@ -123,6 +138,8 @@ public class StudyConfigurationManager implements AutoCloseable {
 
         StudyConfiguration studyConfiguration = result.first();
         if (studyConfiguration != null) {
+            // The adaptor may return only the sections modified since the previous version
+            StudyConfigurationSection.fillMissingSections(studyConfiguration, previous);
             intStudyConfigurationMap.put(studyConfiguration.getStudyId(), studyConfiguration);
             stringStudyConfigurationMap.put(studyConfiguration.getStudyName(), studyConfiguration);
             if (studyName != null && !studyName.equals(studyConfiguration.getStudyName())) {
@@ -140,7 +157,9 @@ public class StudyConfigurationManager implements AutoCloseable {
         QueryResult<StudyConfiguration> result;
         final boolean cached = options != null && options.getBoolean(CACHED, false);
         final boolean readOnly = options != null && options.getBoolean(READ_ONLY, false);
+        StudyConfiguration previous = null;
         if (intStudyConfigurationMap.containsKey(studyId)) {
+            previous = intStudyConfigurationMap.get(studyId);
             if (cached) {
                 StudyConfiguration studyConfiguration = intStudyConfigurationMap.get(studyId);
                 if (!readOnly) {
@@ -162,6 +181,8 @@ public class StudyConfigurationManager implements AutoCloseable {
 
         StudyConfiguration studyConfiguration = result.first();
         if (studyConfiguration != null) {
+            // The adaptor may return only the sections modified since the previous version
+            StudyConfigurationSection.fillMissingSections(studyConfiguration, previous);
             intStudyConfigurationMap.put(studyConfiguration.getStudyId(), studyConfiguration);
             stringStudyConfigurationMap.put(studyConfiguration.getStudyName(), studyConfiguration);
             if (!readOnly) {
@@ -208,9 +229,17 @@ public class StudyConfigurationManager implements AutoCloseable {
 
         // Store a copy of the StudyConfiguration.
         StudyConfiguration copy = studyConfiguration.newInstance();
+        // Only write the sections modified since the last read or write
+        StudyConfiguration previous = intStudyConfigurationMap.get(copy.getStudyId());
+        if (previous == studyConfiguration) {
+            // The cached instance was modified. Can not know which sections changed.
+            previous = null;
+        }
+        Set<StudyConfigurationSection> modifiedSections = StudyConfigurationSection.getModifiedSections(previous, copy);
+        logger.debug("Modified sections : {}", modifiedSections);
         stringStudyConfigurationMap.put(copy.getStudyName(), copy);
         intStudyConfigurationMap.put(copy.getStudyId(), copy);
-        return adaptor.updateStudyConfiguration(copy, options);
+        return adaptor.updateStudyConfiguration(copy, modifiedSections, options);
     }
 
 
@@ -315,7 +344,7 @@ public class StudyConfigurationManager implements AutoCloseable {
             if (defaultStudyConfiguration != null && studyInt == defaultStudyConfiguration.getStudyId()) {
                 studyConfiguration = defaultStudyConfiguration;
             } else {
-                studyConfiguration = getStudyConfiguration(studyInt, null).first();
+                studyConfiguration = getStudyConfiguration(studyInt, readOnly(null)).first();
             }
             if (studyConfiguration == null) {
                 throw VariantQueryException.studyNotFound(studyInt, getStudyNames(null));
@@ -324,7 +353,7 @@ public class StudyConfigurationManager implements AutoCloseable {
             if (defaultStudyConfiguration != null && defaultStudyConfiguration.getStudyName().equals(study)) {
                 studyConfiguration = defaultStudyConfiguration;
             } else {
-                studyConfiguration = getStudyConfiguration(study, new QueryOptions()).first();
+                studyConfiguration = getStudyConfiguration(study, readOnly(null)).first();
             }
             if (studyConfiguration == null) {
                 throw VariantQueryException.studyNotFound(study, getStudyNames(null));
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metadata;
+
+import java.util.*;
+
+/**
+ * Independent sections of a {@link StudyConfiguration}, that can be stored and read separately.
+ *
+ * The {@link StudyConfigurationManager} only sends to the {@link StudyConfigurationAdaptor} the sections modified since the
+ * last read or write, and the adaptors may return only the sections modified since a given timestamp, leaving the rest as null.
+ * The fields not included in any section (study id and name, aggregation, timestamp, attributes...) are always stored.
+ *
+ * Created on 17/10/17.
+ */
+public enum StudyConfigurationSection {
+    FILES("fileIds", "indexedFiles"),
+    SAMPLES("sampleIds", "samplesInFiles"),
+    COHORTS("cohortIds", "cohorts", "calculatedStats", "invalidStats"),
+    HEADERS("headers"),
+    BATCHES("batches");
+
+    private final List<String> fields;
+
+    StudyConfigurationSection(String... fields) {
+        this.fields = Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    /**
+     * Names of the serialized fields of the StudyConfiguration in this section.
+     *
+     * @return List of field names
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Get the values of the fields of this section.
+     *
+     * @param sc    StudyConfiguration
+     * @return      Map from field name to value, in the same order as {@link #getFields()}
+     */
+    public Map<String, Object> getValues(StudyConfiguration sc) {
+        List<Object> values = values(sc);
+        Map<String, Object> map = new LinkedHashMap<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            map.put(fields.get(i), values.get(i));
+        }
+        return map;
+    }
+
+    /**
+     * Check if the section is not present in the StudyConfiguration.
+     *
+     * @param sc    StudyConfiguration
+     * @return      If all the fields of this section are null
+     */
+    public boolean isMissing(StudyConfiguration sc) {
+        return values(sc).stream().allMatch(Objects::isNull);
+    }
+
+    /**
+     * Copy the fields of this section from one StudyConfiguration to another.
+     * Collections are shared, except the id BiMaps, that are copied by the StudyConfiguration setters.
+     *
+     * @param from  Source
+     * @param to    Target
+     */
+    public void copy(StudyConfiguration from, StudyConfiguration to) {
+        switch (this) {
+            case FILES:
+                to.setFileIds(from.getFileIds());
+                to.setIndexedFiles(from.getIndexedFiles());
+                break;
+            case SAMPLES:
+                to.setSampleIds(from.getSampleIds());
+                to.setSamplesInFiles(from.getSamplesInFiles());
+                break;
+            case COHORTS:
+                to.setCohortIds(from.getCohortIds());
+                to.setCohorts(from.getCohorts());
+                to.setCalculatedStats(from.getCalculatedStats());
+                to.setInvalidStats(from.getInvalidStats());
+                break;
+            case HEADERS:
+                to.setHeaders(from.getHeaders());
+                break;
+            case BATCHES:
+                to.setBatches(from.getBatches());
+                break;
+            default:
+                throw new IllegalStateException("Unknown section " + this);
+        }
+    }
+
+    private List<Object> values(StudyConfiguration sc) {
+        switch (this) {
+            case FILES:
+                return Arrays.asList(sc.getFileIds(), sc.getIndexedFiles());
+            case SAMPLES:
+                return Arrays.asList(sc.getSampleIds(), sc.getSamplesInFiles());
+            case COHORTS:
+                return Arrays.asList(sc.getCohortIds(), sc.getCohorts(), sc.getCalculatedStats(), sc.getInvalidStats());
+            case HEADERS:
+                return Collections.singletonList(sc.getHeaders());
+            case BATCHES:
+                return Collections.singletonList(sc.getBatches());
+            default:
+                throw new IllegalStateException("Unknown section " + this);
+        }
+    }
+
+    /**
+     * Get the sections that differ between two versions of the same StudyConfiguration.
+     *
+     * @param previous  Previous version. If null, all the sections are modified
+     * @param current   New version
+     * @return          Modified sections
+     */
+    public static Set<StudyConfigurationSection> getModifiedSections(StudyConfiguration previous, StudyConfiguration current) {
+        if (previous == null || previous == current) {
+            return EnumSet.allOf(StudyConfigurationSection.class);
+        }
+        Set<StudyConfigurationSection> modified = EnumSet.noneOf(StudyConfigurationSection.class);
+        for (StudyConfigurationSection section : values()) {
+            if (!section.values(previous).equals(section.values(current))) {
+                modified.add(section);
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Complete a partially read StudyConfiguration with the missing sections of a previous version.
+     *
+     * @param partial   StudyConfiguration read from the database, where the sections not modified may be null
+     * @param previous  Previous version of the same StudyConfiguration
+     */
+    public static void fillMissingSections(StudyConfiguration partial, StudyConfiguration previous) {
+        if (previous == null || partial == previous) {
+            return;
+        }
+        for (StudyConfigurationSection section : values()) {
+            if (section.isMissing(partial)) {
+                section.copy(previous, partial);
+            }
+        }
+    }
+}
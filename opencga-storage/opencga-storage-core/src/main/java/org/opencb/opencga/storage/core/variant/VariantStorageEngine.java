@@ -36,6 +36,7 @@ import org.opencb.opencga.core.common.TimeUtils;
 import org.opencb.opencga.core.results.VariantQueryResult;
 import org.opencb.opencga.storage.core.StorageEngine;
 import org.opencb.opencga.storage.core.StoragePipelineResult;
+import org.opencb.opencga.storage.core.cache.CacheManager;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.exceptions.StoragePipelineException;
@@ -84,6 +85,13 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     private final AtomicReference<VariantSearchManager> variantSearchManager = new AtomicReference<>();
     private Logger logger = LoggerFactory.getLogger(VariantStorageEngine.class);
     private CellBaseUtils cellBaseUtils;
+    private CacheManager cacheManager;
+
+    public static final String VARIANT_CACHE_TYPE = "var";
+    /**
+     * Query option to skip the query cache.
+     */
+    public static final String QUERY_CACHE = "cache";
 
     public enum MergeMode {
         BASIC,
@@ -128,8 +136,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         TRANSFORM_BATCH_SIZE("transform.batch.size", 200),
         TRANSFORM_THREADS("transform.threads", 4),
         TRANSFORM_FORMAT("transform.format", "avro"),
+        TRANSFORM_PARALLEL_BGZF("transform.parallel.bgzf", true),   // Inflate BGZF input files in parallel, using TRANSFORM_THREADS
+        TRANSFORM_BYTE_LINES("transform.byte.lines", false),        // Read input lines as bytes, decoding only variant lines
         LOAD_BATCH_SIZE("load.batch.size", 100),
         LOAD_THREADS("load.threads", 6),
+        EXPORT_THREADS("export.threads", 4),                        // Export chromosomes in parallel. Use 1 to export sequentially
 
         MERGE_MODE("merge.mode", MergeMode.ADVANCED),
 
@@ -146,7 +157,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         // Intersect options
         INTERSECT_ACTIVE("intersect.active", true),                       // Allow intersect queries with the SearchEngine (Solr)
         INTERSECT_ALWAYS("intersect.always", false),                      // Force intersect queries
-        INTERSECT_PARAMS_THRESHOLD("intersect.params.threshold", 3);      // Minimum number of QueryParams in the query to intersect
+        INTERSECT_PARAMS_THRESHOLD("intersect.params.threshold", 3),      // Minimum number of QueryParams in the query to intersect
+        INTERSECT_PREFETCH_BATCHES("intersect.prefetch.batches", 4);      // Number of batch queries to the storage to execute in advance
 
         private final String key;
         private final Object value;
@@ -289,7 +301,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
             throws VariantAnnotatorException, StorageEngineException, IOException {
         VariantAnnotator annotator = VariantAnnotatorFactory.buildVariantAnnotator(configuration, getStorageEngineId(), params);
         VariantAnnotationManager annotationManager = newVariantAnnotationManager(annotator);
-        annotationManager.annotate(query, params);
+        try {
+            annotationManager.annotate(query, params);
+        } finally {
+            invalidateCache();
+        }
     }
 
     /**
@@ -304,6 +320,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     protected void annotateLoadedFiles(URI outdirUri, List<URI> files, List<StoragePipelineResult> results, ObjectMap options)
             throws StoragePipelineException {
 
+        // Loaded variants. Some engines do not call to index
+        invalidateCache();
         if (!files.isEmpty() && options.getBoolean(Options.ANNOTATE.key(), Options.ANNOTATE.defaultValue())) {
             try {
                 VariantDBAdaptor dbAdaptor = getDBAdaptor();
@@ -366,7 +384,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     public void calculateStats(String study, List<String> cohorts, QueryOptions options)
             throws StorageEngineException, IOException {
         VariantStatisticsManager statisticsManager = newVariantStatisticsManager();
-        statisticsManager.calculateStatistics(study, cohorts, options);
+        try {
+            statisticsManager.calculateStatistics(study, cohorts, options);
+        } finally {
+            invalidateCache();
+        }
     }
 
     /**
@@ -443,10 +465,15 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         if (configuration.getSearch().getActive() && variantSearchManager.isAlive(dbName)) {
 
             // then, load variants
-            queryOptions = new QueryOptions();
-            queryOptions.put(QueryOptions.EXCLUDE, Arrays.asList(VariantField.STUDIES_SAMPLES_DATA, VariantField.STUDIES_FILES));
-            VariantDBIterator iterator = dbAdaptor.iterator(query, queryOptions);
-            variantSearchManager.load(dbName, iterator);
+            QueryOptions iteratorOptions = new QueryOptions();
+            iteratorOptions.put(QueryOptions.EXCLUDE, Arrays.asList(VariantField.STUDIES_SAMPLES_DATA, VariantField.STUDIES_FILES));
+            VariantDBIterator iterator = dbAdaptor.iterator(query, iteratorOptions);
+            ObjectMap loadOptions = new ObjectMap(getOptions());
+            if (queryOptions != null) {
+                loadOptions.putAll(queryOptions);
+            }
+            variantSearchManager.load(dbName, iterator, loadOptions);
+            invalidateCache();
         } else {
             throw new StorageEngineException("Solr is not alive!");
         }
@@ -519,6 +546,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
      * @throws StorageEngineException StorageEngineException
      */
     protected void postRemoveFiles(String study, List<Integer> fileIds, boolean error) throws StorageEngineException {
+        invalidateCache();
         getStudyConfigurationManager().lockAndUpdate(study, studyConfiguration -> {
             if (error) {
                 StudyConfigurationManager.setStatus(studyConfiguration, BatchFileOperation.Status.ERROR, REMOVE_OPERATION_NAME, fileIds);
@@ -624,6 +652,35 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         return variantSearchManager.get();
     }
 
+    /**
+     * Query cache for this database. Results of {@link #get} are cached when the query cache is active and
+     * allows the type {@value #VARIANT_CACHE_TYPE}.
+     *
+     * @return CacheManager
+     */
+    public synchronized CacheManager getCacheManager() {
+        if (cacheManager == null) {
+            cacheManager = new CacheManager(configuration);
+        }
+        return cacheManager;
+    }
+
+    /**
+     * Remove all the cached query results of this database.
+     * Cache keys contain the version of the database prefix, incremented here, so results cached by other processes
+     * sharing the cache are not used any more.
+     */
+    protected void invalidateCache() {
+        CacheManager cacheManager = getCacheManager();
+        if (cacheManager.isActive()) {
+            cacheManager.invalidate(getCacheKeyPrefix());
+        }
+    }
+
+    private String getCacheKeyPrefix() {
+        return CacheManager.PREFIX_DATABASE_KEY + dbName + ":";
+    }
+
     public VariantQueryResult<Variant> getPhased(String variant, String studyName, String sampleName, QueryOptions options, int windowsSize)
             throws StorageEngineException {
         setDefaultTimeout(options);
@@ -652,7 +709,39 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         if (options == null) {
             options = QueryOptions.empty();
         }
-        // TODO: Use CacheManager ?
+        String cacheKey = iterator ? null : buildCacheKey(query, options);
+        if (cacheKey != null) {
+            QueryResult<Variant> cachedResult = getCacheManager().get(cacheKey);
+            if (cachedResult instanceof VariantQueryResult) {
+                logger.debug("Query result found in cache");
+                return cachedResult;
+            }
+            VariantQueryResult<Variant> queryResult = (VariantQueryResult<Variant>) getOrIteratorNoCache(query, options, false);
+            getCacheManager().set(cacheKey, query, queryResult);
+            return queryResult;
+        } else {
+            return getOrIteratorNoCache(query, options, iterator);
+        }
+    }
+
+    /**
+     * Build the cache key for a query, or null if the result should not be cached.
+     * The key includes the version of the cache for this database, incremented by {@link #invalidateCache}.
+     *
+     * @param query     Query
+     * @param options   QueryOptions
+     * @return          Cache key, or null
+     */
+    private String buildCacheKey(Query query, QueryOptions options) {
+        CacheManager cacheManager = getCacheManager();
+        if (!cacheManager.isActive() || !cacheManager.isTypeAllowed(VARIANT_CACHE_TYPE) || !options.getBoolean(QUERY_CACHE, true)) {
+            return null;
+        }
+        long version = cacheManager.getVersion(getCacheKeyPrefix());
+        return cacheManager.createKey(dbName + ":" + version, VARIANT_CACHE_TYPE, query, new QueryOptions(options));
+    }
+
+    private Object getOrIteratorNoCache(Query query, QueryOptions options, boolean iterator) throws StorageEngineException {
         query = preProcessQuery(query, getStudyConfigurationManager());
         if (doQuerySearchManager(query, options)) {
             try {
@@ -708,6 +797,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                     variantsIterator = variantIdIteratorFromSearch(query, Integer.MAX_VALUE, 0, searchCount);
                 }
                 Query engineQuery = getEngineQuery(query, options, getStudyConfigurationManager());
+                if (!options.containsKey(MultiVariantDBIterator.PREFETCH_BATCHES)) {
+                    options = new QueryOptions(options);
+                    options.put(MultiVariantDBIterator.PREFETCH_BATCHES,
+                            getOptions().getInt(INTERSECT_PREFETCH_BATCHES.key(), INTERSECT_PREFETCH_BATCHES.defaultValue()));
+                }
 
                 logger.debug("Intersect query " + engineQuery.toJson() + " options " + options.toJson());
                 if (iterator) {
@@ -922,5 +1016,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     @Override
     public void close() throws IOException {
         cellBaseUtils = null;
+        synchronized (this) {
+            if (cacheManager != null) {
+                cacheManager.close();
+                cacheManager = null;
+            }
+        }
     }
 }
@@ -45,6 +45,8 @@ import org.opencb.hpg.bigdata.core.io.avro.AvroFileWriter;
 import org.opencb.opencga.storage.core.StoragePipeline;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.io.plain.BgzfStringDataReader;
+import org.opencb.opencga.storage.core.io.plain.ByteLineDataReader;
 import org.opencb.opencga.storage.core.io.plain.StringDataReader;
 import org.opencb.opencga.storage.core.io.plain.StringDataWriter;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
@@ -56,6 +58,7 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.core.variant.transform.MalformedVariantHandler;
 import org.opencb.opencga.storage.core.variant.transform.VariantAvroTransformTask;
+import org.opencb.opencga.storage.core.variant.transform.VariantByteLineTransformTask;
 import org.opencb.opencga.storage.core.variant.transform.VariantJsonTransformTask;
 import org.opencb.opencga.storage.core.variant.transform.VariantTransformTask;
 import org.slf4j.Logger;
@@ -64,6 +67,7 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -201,6 +205,90 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
         }
     }
 
+    /**
+     * Create the ParallelTaskRunner for the transform step.
+     *
+     * By default, lines are read as Strings. If {@link Options#TRANSFORM_BYTE_LINES} is enabled, lines are read as
+     * bytes, and only the variant lines are decoded, in the transform tasks.
+     *
+     * @param input         Input file
+     * @param numTasks      Number of transform tasks
+     * @param taskSupplier  Transform task supplier
+     * @param dataWriter    Transformed variants writer
+     * @param config        ParallelTaskRunner config
+     * @param <T>           Transformed variants type
+     * @return              ParallelTaskRunner
+     * @throws StorageEngineException if there is an error reading the input file
+     */
+    protected <T> ParallelTaskRunner<?, T> newTransformRunner(Path input, int numTasks,
+                                                              Supplier<VariantTransformTask<T>> taskSupplier,
+                                                              DataWriter<T> dataWriter, ParallelTaskRunner.Config config)
+            throws StorageEngineException {
+        long fileSize;
+        try {
+            fileSize = Files.size(input);
+        } catch (IOException e) {
+            throw new StorageEngineException("Error reading file " + input, e);
+        }
+        ProgressLogger progressLogger = new ProgressLogger("Transforming file:", fileSize, 200);
+        boolean byteLines = options.getBoolean(Options.TRANSFORM_BYTE_LINES.key(), Options.TRANSFORM_BYTE_LINES.defaultValue());
+
+        try {
+            if (byteLines) {
+                logger.info("Reading variant lines as bytes");
+                ByteLineDataReader dataReader = newByteLineDataReader(input, numTasks);
+                dataReader.setReadBytesListener((totalRead, delta) -> progressLogger.increment(delta, "Bytes"));
+                Supplier<ParallelTaskRunner.Task<ByteBuffer, T>> byteLineTaskSupplier =
+                        () -> new VariantByteLineTransformTask<>(taskSupplier.get(), dataReader);
+                return new ParallelTaskRunner<>(dataReader, byteLineTaskSupplier, dataWriter, config);
+            } else {
+                StringDataReader dataReader = newStringDataReader(input, numTasks);
+                dataReader.setReadBytesListener((totalRead, delta) -> progressLogger.increment(delta, "Bytes"));
+                return new ParallelTaskRunner<>(dataReader, taskSupplier, dataWriter, config);
+            }
+        } catch (Exception e) {
+            throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
+        }
+    }
+
+    /**
+     * Create the reader for the raw variants file.
+     *
+     * BGZF compressed files are inflated in parallel, unless {@link Options#TRANSFORM_PARALLEL_BGZF} is disabled.
+     *
+     * @param input     Input file
+     * @param numTasks  Number of transform tasks
+     * @return          Line reader for the input file
+     */
+    protected StringDataReader newStringDataReader(Path input, int numTasks) {
+        boolean parallelBgzf = options.getBoolean(Options.TRANSFORM_PARALLEL_BGZF.key(), Options.TRANSFORM_PARALLEL_BGZF.defaultValue());
+        if (parallelBgzf && BgzfStringDataReader.isBgzf(input)) {
+            logger.info("BGZF input file. Inflating blocks with {} threads", numTasks);
+            return new BgzfStringDataReader(input, numTasks);
+        } else {
+            return new StringDataReader(input);
+        }
+    }
+
+    /**
+     * Create the byte lines reader for the raw variants file.
+     *
+     * BGZF compressed files are inflated in parallel, unless {@link Options#TRANSFORM_PARALLEL_BGZF} is disabled.
+     *
+     * @param input     Input file
+     * @param numTasks  Number of transform tasks
+     * @return          Byte lines reader for the input file
+     */
+    protected ByteLineDataReader newByteLineDataReader(Path input, int numTasks) {
+        boolean parallelBgzf = options.getBoolean(Options.TRANSFORM_PARALLEL_BGZF.key(), Options.TRANSFORM_PARALLEL_BGZF.defaultValue());
+        if (parallelBgzf && BgzfStringDataReader.isBgzf(input)) {
+            logger.info("BGZF input file. Inflating blocks with {} threads", numTasks);
+            return new ByteLineDataReader(input, numTasks);
+        } else {
+            return new ByteLineDataReader(input);
+        }
+    }
+
     /**
      * Transform raw variant files into biodata model.
      *
@@ -312,17 +400,6 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
 //        } else
         if ("avro".equals(format)) {
 
-            //Reader
-            StringDataReader dataReader = new StringDataReader(input);
-            long fileSize = 0;
-            try {
-                fileSize = dataReader.getFileSize();
-            } catch (IOException e) {
-                throw new StorageEngineException("Error reading file " + input, e);
-            }
-            ProgressLogger progressLogger = new ProgressLogger("Transforming file:", fileSize, 200);
-            dataReader.setReadBytesListener((totalRead, delta) -> progressLogger.increment(delta, "Bytes"));
-
             //Writer
             DataWriter<ByteBuffer> dataWriter;
             try {
@@ -359,17 +436,7 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
 
             logger.info("Generating output file {}", outputVariantsFile);
 
-            ParallelTaskRunner<String, ByteBuffer> ptr;
-            try {
-                ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
-                        config
-                );
-            } catch (Exception e) {
-                throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
-            }
+            ParallelTaskRunner<?, ByteBuffer> ptr = newTransformRunner(input, numTasks, taskSupplier, dataWriter, config);
             logger.info("Multi thread transform... [1 reading, {} transforming, 1 writing]", numTasks);
             start = System.currentTimeMillis();
             try {
@@ -379,22 +446,11 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
             }
             end = System.currentTimeMillis();
         } else if ("json".equals(format)) {
-            //Reader
-            StringDataReader dataReader = new StringDataReader(input);
-            long fileSize = 0;
-            try {
-                fileSize = dataReader.getFileSize();
-            } catch (IOException e) {
-                throw new StorageEngineException("Error reading file " + input, e);
-            }
-            ProgressLogger progressLogger = new ProgressLogger("Transforming file:", fileSize, 200);
-            dataReader.setReadBytesListener((totalRead, delta) -> progressLogger.increment(delta, "Bytes"));
-
             //Writers
             StringDataWriter dataWriter = new StringDataWriter(outputVariantsFile, true);
 
             final VariantSource finalSource = source;
-            ParallelTaskRunner<String, String> ptr;
+            ParallelTaskRunner<?, String> ptr;
 
             Supplier<VariantTransformTask<String>> taskSupplier;
             if (parser.equalsIgnoreCase(HTSJDK_PARSER)) {
@@ -420,16 +476,7 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
 
             logger.info("Generating output file {}", outputVariantsFile);
 
-            try {
-                ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
-                        config
-                );
-            } catch (Exception e) {
-                throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
-            }
+            ptr = newTransformRunner(input, numTasks, taskSupplier, dataWriter, config);
 
             logger.info("Multi thread transform... [1 reading, {} transforming, 1 writing]", numTasks);
             start = System.currentTimeMillis();
@@ -17,6 +17,7 @@
 package org.opencb.opencga.storage.core.variant.adaptors;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -24,17 +25,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 
 /**
  * Iterates multiple variant iterators. Every time that voids one iterator, creates a new one using the iteratorFactory.
  *
+ * Optionally, the next queries can be executed in advance. In that case, up to "prefetchBatches" queries are executed
+ * in parallel in a bounded thread pool, while the results of the current one are returned. Each prefetched query is
+ * read completely into memory, and the results are returned in the same order as the queries.
+ * When prefetching, the iteratorFactory is called from several threads, and must be thread safe. Adaptors sharing a non
+ * thread safe connection, like Phoenix, have to open one connection for each iterator.
+ *
  * Created on 04/07/17.
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
 public class MultiVariantDBIterator extends VariantDBIterator {
 
+    /**
+     * QueryOptions key with the number of queries to execute in advance.
+     */
+    public static final String PREFETCH_BATCHES = "prefetchBatches";
+
     private final Iterator<Query> queryIterator;
     private final QueryOptions options;
     private final BiFunction<Query, QueryOptions, VariantDBIterator> iteratorFactory;
@@ -46,6 +62,10 @@ public class MultiVariantDBIterator extends VariantDBIterator {
     private boolean pendingSkip;
     // Count of returned results.
     private int numResults;
+    // Number of queries to execute in advance. 0 for sequential execution
+    private final int prefetchBatches;
+    private ExecutorService executor;
+    private final Deque<Future<VariantDBIterator>> prefetched = new LinkedList<>();
     private Logger logger = LoggerFactory.getLogger(MultiVariantDBIterator.class);
 
     /**
@@ -64,6 +84,23 @@ public class MultiVariantDBIterator extends VariantDBIterator {
         this(buildQueryIterator(variantsIterator, batchSize, query), options, iteratorFactory);
     }
 
+    /**
+     * Creates a multi iterator given a iterator of variants. It will apply the query (if any) to all the variants in the iterator.
+     * The iterator will group the variants in batches to split the query, and execute up to "prefetchBatches" queries in advance.
+     *
+     * @param variantsIterator  Iterator with all the variants to filter.
+     * @param batchSize         Number of variants to use in each query
+     * @param prefetchBatches   Number of queries to execute in advance, in parallel. 0 to execute the queries sequentially.
+     * @param query             Base query.
+     * @param options           Query options to be used with the iterator factory
+     * @param iteratorFactory   Iterator factory. See {@link VariantDBAdaptor#iterator()}
+     */
+    public MultiVariantDBIterator(Iterator<?> variantsIterator, int batchSize, int prefetchBatches,
+                                  Query query, QueryOptions options,
+                                  BiFunction<Query, QueryOptions, VariantDBIterator> iteratorFactory) {
+        this(buildQueryIterator(variantsIterator, batchSize, query), options, iteratorFactory, prefetchBatches);
+    }
+
     /**
      * @param queryIterator   Query iterator. Provides queries to execute
      * @param options         Query options to be used with the iterator factory
@@ -71,6 +108,18 @@ public class MultiVariantDBIterator extends VariantDBIterator {
      */
     public MultiVariantDBIterator(Iterator<Query> queryIterator, QueryOptions options,
                                   BiFunction<Query, QueryOptions, VariantDBIterator> iteratorFactory) {
+        this(queryIterator, options, iteratorFactory, 0);
+    }
+
+    /**
+     * @param queryIterator   Query iterator. Provides queries to execute
+     * @param options         Query options to be used with the iterator factory
+     * @param iteratorFactory Iterator factory. See {@link VariantDBAdaptor#iterator()}
+     * @param prefetchBatches Number of queries to execute in advance, in parallel. 0 to execute the queries sequentially.
+     */
+    public MultiVariantDBIterator(Iterator<Query> queryIterator, QueryOptions options,
+                                  BiFunction<Query, QueryOptions, VariantDBIterator> iteratorFactory, int prefetchBatches) {
+        this.prefetchBatches = Math.max(0, prefetchBatches);
         this.queryIterator = Objects.requireNonNull(queryIterator);
         this.options = options == null ? new QueryOptions() : new QueryOptions(options);
         this.iteratorFactory = Objects.requireNonNull(iteratorFactory);
@@ -90,6 +139,7 @@ public class MultiVariantDBIterator extends VariantDBIterator {
         // Client side limit+skip. Remove from QueryOptions
         this.options.remove(QueryOptions.LIMIT);
         this.options.remove(QueryOptions.SKIP);
+        this.options.remove(PREFETCH_BATCHES);
 
     }
 
@@ -98,9 +148,13 @@ public class MultiVariantDBIterator extends VariantDBIterator {
         init();
         if (numResults >= maxResults) {
             terminateIterator();
+            shutdownExecutor();
             return false;
         } else if (!variantDBIterator.hasNext()) {
-            nextVariantIterator();
+            // Some queries may return no results. Skip them
+            do {
+                nextVariantIterator();
+            } while (!variantDBIterator.hasNext() && (queryIterator.hasNext() || !prefetched.isEmpty()));
             return variantDBIterator.hasNext();
         } else {
             return true;
@@ -109,22 +163,87 @@ public class MultiVariantDBIterator extends VariantDBIterator {
 
     private void nextVariantIterator() {
         terminateIterator();
-        if (queryIterator.hasNext()) {
-            Query query = queryIterator.next();
-            QueryOptions options;
-            if (maxResults != Integer.MAX_VALUE) {
-                // We are expecting no more than maxResults - numResults
-                // Modify the limit in the query
-                options = new QueryOptions(this.options).append(QueryOptions.LIMIT, maxResults - numResults);
+        if (prefetchBatches > 0) {
+            prefetch();
+            if (prefetched.isEmpty()) {
+                shutdownExecutor();
+                variantDBIterator = emptyIterator();
             } else {
-                options = this.options;
+                Future<VariantDBIterator> future = prefetched.removeFirst();
+                // Keep the thread pool busy while the current batch is returned
+                prefetch();
+                try {
+                    variantDBIterator = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                } catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
             }
-            variantDBIterator = iteratorFactory.apply(query, options);
+        } else if (queryIterator.hasNext()) {
+            variantDBIterator = iteratorFactory.apply(queryIterator.next(), nextQueryOptions());
         } else {
             variantDBIterator = emptyIterator();
         }
     }
 
+    private QueryOptions nextQueryOptions() {
+        if (maxResults != Integer.MAX_VALUE) {
+            // We are expecting no more than maxResults - numResults
+            // Modify the limit in the query
+            return new QueryOptions(this.options).append(QueryOptions.LIMIT, maxResults - numResults);
+        } else {
+            return this.options;
+        }
+    }
+
+    /**
+     * Submit queries until there are "prefetchBatches" queries in flight.
+     * Queries are taken from the queryIterator in this thread, as the queryIterator may not be thread safe.
+     */
+    private void prefetch() {
+        while (prefetched.size() < prefetchBatches && queryIterator.hasNext()) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(prefetchBatches,
+                        new ThreadFactoryBuilder().setNameFormat("multi-variant-iterator-%d").setDaemon(true).build());
+            }
+            Query query = queryIterator.next();
+            QueryOptions options = nextQueryOptions();
+            prefetched.add(executor.submit(() -> fetchBatch(query, options)));
+        }
+    }
+
+    /**
+     * Execute one query and read all the results.
+     *
+     * @param query     Query to execute
+     * @param options   Query options
+     * @return          Iterator over the results in memory, with the fetching and converting time of the query
+     * @throws Exception if there is any error executing the query
+     */
+    private VariantDBIterator fetchBatch(Query query, QueryOptions options) throws Exception {
+        List<Variant> variants = new ArrayList<>();
+        VariantDBIterator iterator = iteratorFactory.apply(query, options);
+        try {
+            iterator.forEachRemaining(variants::add);
+        } finally {
+            iterator.close();
+        }
+        return new PrefetchedVariantDBIterator(variants, iterator.getTimeFetching(), iterator.getTimeConverting());
+    }
+
+    private void shutdownExecutor() {
+        for (Future<VariantDBIterator> future : prefetched) {
+            future.cancel(true);
+        }
+        prefetched.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
     private void terminateIterator() {
         // Accumulate statistics from previous iterator.
         timeFetching += variantDBIterator.getTimeFetching();
@@ -149,6 +268,16 @@ public class MultiVariantDBIterator extends VariantDBIterator {
         }
     }
 
+    @Override
+    public void close() throws Exception {
+        try {
+            terminateIterator();
+        } finally {
+            shutdownExecutor();
+            super.close();
+        }
+    }
+
     @Override
     public long getTimeConverting() {
         return timeConverting + variantDBIterator.getTimeConverting();
@@ -206,4 +335,24 @@ public class MultiVariantDBIterator extends VariantDBIterator {
         };
     }
 
+    private static class PrefetchedVariantDBIterator extends VariantDBIterator {
+        private final Iterator<Variant> iterator;
+
+        PrefetchedVariantDBIterator(List<Variant> variants, long timeFetching, long timeConverting) {
+            this.iterator = variants.iterator();
+            this.timeFetching = timeFetching;
+            this.timeConverting = timeConverting;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Variant next() {
+            return iterator.next();
+        }
+    }
+
 }
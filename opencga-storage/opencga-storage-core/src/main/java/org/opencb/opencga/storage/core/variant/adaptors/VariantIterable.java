@@ -36,13 +36,20 @@ import java.util.stream.StreamSupport;
  */
 public interface VariantIterable extends Iterable<Variant> {
 
+    /**
+     * QueryOptions key to indicate that several iterators will be used concurrently from different threads.
+     * Adaptors sharing a non thread safe connection have to open one connection for each iterator.
+     */
+    String CONCURRENT_ITERATOR = "concurrentIterator";
+
     @Override
     default VariantDBIterator iterator() {
         return iterator(new Query(), new QueryOptions());
     }
 
     default VariantDBIterator iterator(Iterator<?> variants, Query query, QueryOptions options) {
-        return new MultiVariantDBIterator(variants, 100, query, options, this::iterator);
+        int prefetchBatches = options == null ? 0 : options.getInt(MultiVariantDBIterator.PREFETCH_BATCHES, 0);
+        return new MultiVariantDBIterator(variants, 100, prefetchBatches, query, options, this::iterator);
     }
 
     VariantDBIterator iterator(Query query, QueryOptions options);
@@ -216,7 +216,8 @@ public class VariantQueryUtils {
 
 
             if (studyIds.size() == 1) {
-                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0), null).first();
+                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0),
+                        StudyConfigurationManager.readOnly(null)).first();
             } else {
                 defaultStudyConfiguration = null;
             }
@@ -224,7 +225,8 @@ public class VariantQueryUtils {
         } else {
             List<String> studyNames = studyConfigurationManager.getStudyNames(null);
             if (studyNames != null && studyNames.size() == 1) {
-                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyNames.get(0), new QueryOptions()).first();
+                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyNames.get(0),
+                        StudyConfigurationManager.readOnly(null)).first();
             } else {
                 defaultStudyConfiguration = null;
             }
@@ -361,7 +363,7 @@ public class VariantQueryUtils {
     public static Map<String, List<String>> getSamplesMetadata(Query query, StudyConfigurationManager studyConfigurationManager) {
         List<Integer> returnedStudies = getReturnedStudies(query, null, studyConfigurationManager);
         Function<Integer, StudyConfiguration> studyProvider = studyId ->
-                studyConfigurationManager.getStudyConfiguration(studyId, null).first();
+                studyConfigurationManager.getStudyConfiguration(studyId, StudyConfigurationManager.readOnly(null)).first();
         return getReturnedSamples(query, null, returnedStudies, studyProvider, (sc, s) -> s, StudyConfiguration::getStudyName);
     }
 
@@ -376,8 +378,9 @@ public class VariantQueryUtils {
         if (query.getBoolean(SAMPLES_METADATA.key(), false)) {
             if (VariantField.getReturnedFields(options).contains(VariantField.STUDIES)) {
                 List<Integer> returnedStudies = getReturnedStudies(query, options, studyConfigurationManager);
+                QueryOptions readOnlyOptions = StudyConfigurationManager.readOnly(options);
                 Function<Integer, StudyConfiguration> studyProvider = studyId ->
-                        studyConfigurationManager.getStudyConfiguration(studyId, options).first();
+                        studyConfigurationManager.getStudyConfiguration(studyId, readOnlyOptions).first();
                 return getReturnedSamples(query, options, returnedStudies, studyProvider, (sc, s) -> s, StudyConfiguration::getStudyName);
             } else {
                 return Collections.emptyMap();
@@ -390,8 +393,9 @@ public class VariantQueryUtils {
     public static Map<Integer, List<Integer>> getReturnedSamples(Query query, QueryOptions options,
                                                                  StudyConfigurationManager studyConfigurationManager) {
         List<Integer> returnedStudies = getReturnedStudies(query, options, studyConfigurationManager);
+        QueryOptions readOnlyOptions = StudyConfigurationManager.readOnly(options);
         return getReturnedSamples(query, options, returnedStudies, studyId ->
-                studyConfigurationManager.getStudyConfiguration(studyId, options).first());
+                studyConfigurationManager.getStudyConfiguration(studyId, readOnlyOptions).first());
     }
 
     public static Map<Integer, List<Integer>> getReturnedSamples(Query query, QueryOptions options,
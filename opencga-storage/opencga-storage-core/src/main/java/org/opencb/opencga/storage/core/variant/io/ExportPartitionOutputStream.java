@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.io;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output stream of one genomic partition of a variant export.
+ *
+ * The partition is written into a temporary file, to be concatenated in order with the rest of partitions once completed.
+ * Partitions can be BGZF compressed, so the concatenated file is a valid BGZF file. In that case, the position of each VCF
+ * record can be saved in a second temporary file, to build the tabix index of the concatenated file without reading it again.
+ * VCF header lines can be skipped, so only the first partition writes the header.
+ *
+ * Created on 17/10/17.
+ */
+public class ExportPartitionOutputStream extends OutputStream {
+
+    private static final byte NEW_CHROMOSOME = 0;
+    private static final byte RECORD = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Path featuresFile;
+    private final OutputStream out;
+    private final BlockCompressedOutputStream bgzf;
+    private final DataOutputStream features;
+    private final boolean skipHeader;
+    private boolean closed;
+
+    private boolean lineStart = true;
+    private boolean skipLine;
+    private boolean indexLine;
+    private long lineFilePointer;
+    private int column;
+    private int position;
+    private int referenceLength;
+    private final StringBuilder chromosome = new StringBuilder();
+    private String lastChromosome;
+
+    /**
+     * Create a new partition.
+     *
+     * @param file          Temporary file of the partition
+     * @param bgzf          Compress the partition with BGZF
+     * @param skipHeader    Skip the VCF header lines, starting with '#'
+     * @param index         Save the position of each VCF record, to build a tabix index. Requires bgzf
+     * @throws IOException  If the temporary files can not be created
+     */
+    public ExportPartitionOutputStream(Path file, boolean bgzf, boolean skipHeader, boolean index) throws IOException {
+        if (index && !bgzf) {
+            throw new IllegalArgumentException("Only BGZF compressed partitions can be indexed");
+        }
+        this.file = file;
+        this.skipHeader = skipHeader;
+        OutputStream fileOutputStream = new FileOutputStream(file.toFile());
+        if (bgzf) {
+            this.bgzf = new BlockCompressedOutputStream(fileOutputStream, null);
+            this.out = this.bgzf;
+        } else {
+            this.bgzf = null;
+            this.out = new BufferedOutputStream(fileOutputStream, BUFFER_SIZE);
+        }
+        if (index) {
+            featuresFile = file.resolveSibling(file.getFileName() + ".features");
+            features = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(featuresFile.toFile()), BUFFER_SIZE));
+        } else {
+            featuresFile = null;
+            features = null;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (lineStart) {
+                lineStart = false;
+                skipLine = skipHeader && b[i] == '#';
+                indexLine = features != null && b[i] != '#';
+                if (indexLine) {
+                    lineFilePointer = bgzf.getFilePointer();
+                    column = 0;
+                    position = 0;
+                    referenceLength = 0;
+                    chromosome.setLength(0);
+                }
+            }
+            int lineBreak = indexOf(b, i, end);
+            int segmentEnd = lineBreak < 0 ? end : lineBreak + 1;
+            if (!skipLine) {
+                out.write(b, i, segmentEnd - i);
+                if (indexLine) {
+                    parse(b, i, segmentEnd);
+                }
+            }
+            if (lineBreak >= 0) {
+                if (indexLine) {
+                    addFeature();
+                }
+                lineStart = true;
+            }
+            i = segmentEnd;
+        }
+    }
+
+    /**
+     * Read the columns CHROM, POS and REF from a VCF line. Only the first 4 columns are read.
+     */
+    private void parse(byte[] b, int from, int to) {
+        for (int i = from; i < to && column < 4; i++) {
+            byte c = b[i];
+            if (c == '\t') {
+                column++;
+            } else if (column == 0) {
+                chromosome.append((char) c);
+            } else if (column == 1) {
+                position = position * 10 + (c - '0');
+            } else if (column == 3 && c != '\n' && c != '\r') {
+                referenceLength++;
+            }
+        }
+    }
+
+    private void addFeature() throws IOException {
+        if (position <= 0) {
+            // Empty or malformed line
+            return;
+        }
+        String chr = chromosome.toString();
+        if (!chr.equals(lastChromosome)) {
+            lastChromosome = chr;
+            features.writeByte(NEW_CHROMOSOME);
+            features.writeUTF(chr);
+        }
+        features.writeByte(RECORD);
+        features.writeInt(position);
+        features.writeInt(position + Math.max(referenceLength, 1) - 1);
+        features.writeLong(lineFilePointer);
+    }
+
+    private static int indexOf(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } finally {
+            if (features != null) {
+                features.close();
+            }
+        }
+    }
+
+    /**
+     * Append this partition to the concatenated output, and delete the temporary files.
+     * If the partition is BGZF compressed, the final empty BGZF block is not copied. Must be written at the end of the output.
+     *
+     * @param output        Channel of the concatenated output
+     * @param indexCreator  Tabix index of the concatenated output, if any
+     * @throws IOException  If there is any IO error
+     */
+    public void appendTo(FileChannel output, TabixIndexCreator indexCreator) throws IOException {
+        close();
+        long offset = output.position();
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = input.size();
+            if (bgzf != null) {
+                size -= BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+            }
+            long copied = 0;
+            while (copied < size) {
+                copied += input.transferTo(copied, size - copied, output);
+            }
+        }
+        if (featuresFile != null && indexCreator != null) {
+            addFeatures(indexCreator, offset);
+        }
+        Files.deleteIfExists(file);
+        if (featuresFile != null) {
+            Files.deleteIfExists(featuresFile);
+        }
+    }
+
+    private void addFeatures(TabixIndexCreator indexCreator, long offset) throws IOException {
+        // BGZF virtual file pointers. The block address is in the 48 most significant bits
+        long virtualOffset = offset << 16;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(featuresFile.toFile()), BUFFER_SIZE))) {
+            String chr = null;
+            while (true) {
+                int type = is.read();
+                if (type < 0) {
+                    break;
+                } else if (type == NEW_CHROMOSOME) {
+                    chr = is.readUTF();
+                } else {
+                    int start = is.readInt();
+                    int end = is.readInt();
+                    long filePointer = is.readLong();
+                    indexCreator.addFeature(new SimpleFeature(chr, start, end), filePointer + virtualOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary files, if any.
+     */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException ignore) {
+            // Discarding anyway
+        }
+        try {
+            Files.deleteIfExists(file);
+            if (featuresFile != null) {
+                Files.deleteIfExists(featuresFile);
+            }
+        } catch (IOException ignore) {
+            // Best effort
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -17,7 +17,13 @@
 package org.opencb.opencga.storage.core.variant.io;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.commons.ProgressLogger;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -28,27 +34,37 @@ import org.opencb.opencga.storage.core.metadata.ExportMetadata;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantIterable;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
 import org.opencb.opencga.storage.core.variant.io.VariantWriterFactory.VariantOutputFormat;
+import org.opencb.opencga.storage.core.variant.io.avro.VariantAvroWriter;
 import org.opencb.opencga.storage.core.variant.io.db.VariantDBReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.zip.GZIPOutputStream;
 
+import static org.opencb.opencga.storage.core.variant.VariantStorageEngine.Options.EXPORT_THREADS;
+
 /**
  * Prints the result of a given query in the selected output format, and the associated metadata.
  *
+ * When exporting into a file, the query is split by chromosome. Chromosomes are read, converted and compressed in parallel
+ * into temporary files, and concatenated in order. Compressed outputs are written in BGZF, and VCF outputs are tabix indexed.
+ * See {@link VariantStorageEngine.Options#EXPORT_THREADS}.
+ *
  * This class is intended to be extended by other exporters.
  *
  * Created on 06/12/16.
@@ -57,6 +73,9 @@ import java.util.zip.GZIPOutputStream;
 public class VariantExporter {
 
     public static final String METADATA_FILE_EXTENSION = ".meta.json.gz";
+    private static final List<VariantQueryParam> REGION_FILTERS = Arrays.asList(
+            VariantQueryParam.ID, VariantQueryParam.REGION, VariantQueryParam.CHROMOSOME, VariantQueryParam.GENE,
+            VariantQueryParam.ANNOT_XREF);
     private final VariantStorageEngine engine;
     private final VariantWriterFactory variantWriterFactory;
 
@@ -86,9 +105,17 @@ public class VariantExporter {
         outputFile = VariantWriterFactory.checkOutput(outputFile, outputFormat);
         List<Integer> studyIds = engine.getDBAdaptor().getReturnedStudies(query, QueryOptions.empty());
 
-        try (OutputStream os = VariantWriterFactory.getOutputStream(outputFile, outputFormat)) {
-            boolean logProgress = !VariantWriterFactory.isStandardOutput(outputFile);
-            exportData(os, outputFormat, query, queryOptions, logProgress);
+        boolean logProgress = !VariantWriterFactory.isStandardOutput(outputFile);
+        List<String> chromosomes = Collections.emptyList();
+        if (!VariantWriterFactory.isStandardOutput(outputFile)) {
+            chromosomes = getPartitions(outputFormat, query, queryOptions, studyIds);
+        }
+        if (chromosomes.isEmpty()) {
+            try (OutputStream os = VariantWriterFactory.getOutputStream(outputFile, outputFormat)) {
+                exportData(os, outputFormat, query, queryOptions, logProgress);
+            }
+        } else {
+            exportPartitions(Paths.get(outputFile), outputFormat, query, queryOptions, chromosomes, logProgress);
         }
         if (!VariantWriterFactory.isStandardOutput(outputFile)) {
             exportMetaData(query, queryOptions, studyIds, outputFile + METADATA_FILE_EXTENSION);
@@ -105,25 +132,28 @@ public class VariantExporter {
             queryOptions = new QueryOptions();
         }
 
+        ProgressLogger progressLogger = logProgress ? newProgressLogger(query, queryOptions) : null;
+        exportData(outputStream, outputFormat, query, queryOptions, progressLogger);
+    }
+
+    private void exportData(OutputStream outputStream, VariantOutputFormat outputFormat, Query query, QueryOptions queryOptions,
+                            ProgressLogger progressLogger)
+            throws StorageEngineException, IOException {
         // DataReader
         VariantDBReader variantDBReader = new VariantDBReader(engine.iterator(query, queryOptions));
 
         // Task<Variant, Variant>
         ParallelTaskRunner.TaskWithException<Variant, Variant, Exception> progressTask;
-        if (logProgress) {
+        if (progressLogger == null) {
             progressTask = batch -> batch;
         } else {
-            final Query finalQuery = query;
-            final QueryOptions finalQueryOptions = queryOptions;
-            ProgressLogger progressLogger = new ProgressLogger("Export variants", () -> {
-                Long count = engine.count(finalQuery).first();
-                long limit = finalQueryOptions.getLong(QueryOptions.LIMIT, Long.MAX_VALUE);
-                long skip = finalQueryOptions.getLong(QueryOptions.SKIP, 0);
-                count = Math.min(limit, count - skip);
-                return count;
-            }, 200);
             progressTask = batch -> {
-                progressLogger.increment(batch.size(), () -> "up to position " + batch.get(batch.size() - 1).toString());
+                if (!batch.isEmpty()) {
+                    // May be shared by several partitions
+                    synchronized (progressLogger) {
+                        progressLogger.increment(batch.size(), () -> "up to position " + batch.get(batch.size() - 1).toString());
+                    }
+                }
                 return batch;
             };
         }
@@ -145,6 +175,206 @@ public class VariantExporter {
 
     }
 
+    private ProgressLogger newProgressLogger(Query query, QueryOptions queryOptions) {
+        return new ProgressLogger("Export variants", () -> {
+            Long count = engine.count(query).first();
+            long limit = queryOptions.getLong(QueryOptions.LIMIT, Long.MAX_VALUE);
+            long skip = queryOptions.getLong(QueryOptions.SKIP, 0);
+            count = Math.min(limit, count - skip);
+            return count;
+        }, 200);
+    }
+
+    /**
+     * Get the chromosomes to export in parallel.
+     *
+     * The export is only partitioned if the query does not filter by region or id, without limit or skip, and if the
+     * chromosomes of all the files from the returned studies are known.
+     *
+     * @param outputFormat  Variant Output format
+     * @param query         Query with the variants to export
+     * @param queryOptions  Query options
+     * @param studyIds      Returned studies
+     * @return              Sorted list of chromosomes, or an empty list if the export can not be partitioned
+     * @throws StorageEngineException  If there is any error reading the files metadata
+     */
+    protected List<String> getPartitions(VariantOutputFormat outputFormat, Query query, QueryOptions queryOptions,
+                                         List<Integer> studyIds)
+            throws StorageEngineException {
+        if (query == null) {
+            query = new Query();
+        }
+        if (queryOptions == null) {
+            queryOptions = new QueryOptions();
+        }
+        if (getNumThreads(queryOptions) <= 1 || !outputFormat.isPartitionable() || studyIds.isEmpty()
+                || queryOptions.containsKey(QueryOptions.LIMIT) || queryOptions.containsKey(QueryOptions.SKIP)) {
+            return Collections.emptyList();
+        }
+        for (VariantQueryParam param : REGION_FILTERS) {
+            if (VariantQueryUtils.isValidParam(query, param)) {
+                return Collections.emptyList();
+            }
+        }
+
+        Set<String> chromosomes = new HashSet<>();
+        Query sourceQuery = new Query(VariantSourceDBAdaptor.VariantSourceQueryParam.STUDY_ID.key(), studyIds);
+        try {
+            Iterator<VariantSource> iterator = engine.getDBAdaptor().getVariantSourceDBAdaptor().iterator(sourceQuery, new QueryOptions());
+            while (iterator.hasNext()) {
+                VariantSource source = iterator.next();
+                if (source.getStats() == null || source.getStats().getChromosomeCounts() == null) {
+                    logger.debug("Unknown chromosomes in file {}. Export without partitions", source.getFileName());
+                    return Collections.emptyList();
+                }
+                chromosomes.addAll(source.getStats().getChromosomeCounts().keySet());
+            }
+        } catch (IOException e) {
+            throw new StorageEngineException("Error reading VariantSourceDBAdaptor", e);
+        }
+        List<String> sortedChromosomes = new ArrayList<>(chromosomes);
+        sortedChromosomes.sort(VariantExporter::compareChromosomes);
+        return sortedChromosomes;
+    }
+
+    /**
+     * Export each chromosome in parallel into a temporary file, and concatenate them in order into the output file.
+     *
+     * @param output        Output file
+     * @param outputFormat  Variant Output format. Must be {@link VariantOutputFormat#isPartitionable()}
+     * @param query         Query with the variants to export
+     * @param queryOptions  Query options
+     * @param chromosomes   Sorted list of chromosomes
+     * @param logProgress   Log the progress of the export
+     * @throws IOException  If there is any IO error
+     * @throws StorageEngineException  If there is any error exporting variants
+     */
+    protected void exportPartitions(Path output, VariantOutputFormat outputFormat, Query query, QueryOptions queryOptions,
+                                    List<String> chromosomes, boolean logProgress)
+            throws IOException, StorageEngineException {
+        if (query == null) {
+            query = new Query();
+        }
+        if (queryOptions == null) {
+            queryOptions = new QueryOptions();
+        }
+        int numThreads = Math.min(getNumThreads(queryOptions), chromosomes.size());
+        // Avro files are compressed with the avro codec
+        boolean bgzf = outputFormat.isGzip() && !outputFormat.isAvro();
+        boolean tabix = outputFormat == VariantOutputFormat.VCF_GZ;
+        ProgressLogger progressLogger = logProgress ? newProgressLogger(query, queryOptions) : null;
+        logger.info("Export {} chromosomes using {} threads", chromosomes.size(), numThreads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "variant-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<ExportPartitionOutputStream> partitions = Collections.synchronizedList(new ArrayList<>(chromosomes.size()));
+        List<Future<ExportPartitionOutputStream>> futures = new ArrayList<>(chromosomes.size());
+        try {
+            for (int i = 0; i < chromosomes.size(); i++) {
+                Path file = output.resolveSibling(output.getFileName() + "." + i + ".tmp");
+                // Only the first partition writes the VCF header
+                boolean skipHeader = outputFormat.isVcf() && i > 0;
+                Query partitionQuery = new Query(query).append(VariantQueryParam.REGION.key(), chromosomes.get(i));
+                // Partitions are read concurrently. Engines with non thread safe connections must open one for each partition
+                QueryOptions partitionOptions = new QueryOptions(queryOptions).append(VariantIterable.CONCURRENT_ITERATOR, true);
+                futures.add(executorService.submit(() -> {
+                    ExportPartitionOutputStream partition = new ExportPartitionOutputStream(file, bgzf, skipHeader, tabix);
+                    partitions.add(partition);
+                    try {
+                        exportData(partition, outputFormat, partitionQuery, partitionOptions, progressLogger);
+                    } finally {
+                        partition.close();
+                    }
+                    return partition;
+                }));
+            }
+
+            if (outputFormat.isAvro()) {
+                concatAvro(output, outputFormat, query, queryOptions, futures);
+            } else {
+                concat(output, bgzf, tabix, futures);
+            }
+        } finally {
+            executorService.shutdownNow();
+            partitions.forEach(ExportPartitionOutputStream::discard);
+        }
+    }
+
+    private void concat(Path output, boolean bgzf, boolean tabix, List<Future<ExportPartitionOutputStream>> futures)
+            throws IOException, StorageEngineException {
+        TabixIndexCreator indexCreator = tabix ? new TabixIndexCreator(TabixFormat.VCF) : null;
+        try (FileChannel channel = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Future<ExportPartitionOutputStream> future : futures) {
+                getPartition(future).appendTo(channel, indexCreator);
+            }
+            long dataSize = channel.position();
+            if (bgzf) {
+                channel.write(ByteBuffer.wrap(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK));
+            }
+            if (indexCreator != null) {
+                Index index = indexCreator.finalizeIndex(dataSize << 16);
+                index.writeBasedOnFeatureFile(output.toFile());
+            }
+        }
+    }
+
+    private void concatAvro(Path output, VariantOutputFormat outputFormat, Query query, QueryOptions queryOptions,
+                            List<Future<ExportPartitionOutputStream>> futures)
+            throws IOException, StorageEngineException {
+        try (OutputStream os = VariantWriterFactory.getOutputStream(output.toString(), outputFormat)) {
+            VariantAvroWriter writer = (VariantAvroWriter) variantWriterFactory.newDataWriter(outputFormat, os, query, queryOptions);
+            writer.open();
+            for (Future<ExportPartitionOutputStream> future : futures) {
+                ExportPartitionOutputStream partition = getPartition(future);
+                try (InputStream is = new BufferedInputStream(new FileInputStream(partition.getFile().toFile()))) {
+                    writer.appendAllFrom(is);
+                }
+                partition.discard();
+            }
+            writer.close();
+        }
+    }
+
+    private ExportPartitionOutputStream getPartition(Future<ExportPartitionOutputStream> future)
+            throws IOException, StorageEngineException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting variants");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageEngineException) {
+                throw (StorageEngineException) e.getCause();
+            }
+            throw new StorageEngineException("Error exporting variants", e.getCause());
+        }
+    }
+
+    private int getNumThreads(QueryOptions queryOptions) {
+        return queryOptions.getInt(EXPORT_THREADS.key(), engine.getOptions().getInt(EXPORT_THREADS.key(), EXPORT_THREADS.defaultValue()));
+    }
+
+    /**
+     * Numeric chromosomes first, in numeric order. Then the rest of chromosomes, in lexicographic order.
+     */
+    private static int compareChromosomes(String c1, String c2) {
+        boolean numeric1 = StringUtils.isNumeric(c1);
+        boolean numeric2 = StringUtils.isNumeric(c2);
+        if (numeric1 && numeric2) {
+            return Long.compare(Long.parseLong(c1), Long.parseLong(c2));
+        } else if (numeric1) {
+            return -1;
+        } else if (numeric2) {
+            return 1;
+        } else {
+            return c1.compareTo(c2);
+        }
+    }
+
     protected void exportMetaData(Query query, QueryOptions queryOptions, List studies, String output)
             throws IOException, StorageEngineException {
         StudyConfigurationManager scm = engine.getStudyConfigurationManager();
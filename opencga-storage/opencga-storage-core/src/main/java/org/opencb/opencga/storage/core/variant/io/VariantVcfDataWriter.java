@@ -66,8 +66,9 @@ import java.util.stream.IntStream;
  */
 public class VariantVcfDataWriter implements DataWriter<Variant> {
 
-    private static final DecimalFormat DECIMAL_FORMAT_7 = new DecimalFormat("#.#######");
-    private static final DecimalFormat DECIMAL_FORMAT_3 = new DecimalFormat("#.###");
+    // DecimalFormat is not thread safe. Use one instance per writer
+    private final DecimalFormat decimalFormat7 = new DecimalFormat("#.#######");
+    private final DecimalFormat decimalFormat3 = new DecimalFormat("#.###");
     private final Logger logger = LoggerFactory.getLogger(VariantVcfDataWriter.class);
 
 
@@ -507,13 +508,13 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
         if (studyEntry.getFiles() != null && studyEntry.getFiles().size() == 1) {
             Map<String, String> fileAttributes = studyEntry.getFiles().get(0).getAttributes();
             if (fileAttributes.containsKey("PR")) {
-                attributes.putIfNotNull(prk, DECIMAL_FORMAT_7.format(Double.valueOf(fileAttributes.get("PR"))));
+                attributes.putIfNotNull(prk, decimalFormat7.format(Double.valueOf(fileAttributes.get("PR"))));
             }
             if (fileAttributes.containsKey("CR")) {
-                attributes.putIfNotNull(crk, DECIMAL_FORMAT_7.format(Double.valueOf(fileAttributes.get("CR"))));
+                attributes.putIfNotNull(crk, decimalFormat7.format(Double.valueOf(fileAttributes.get("CR"))));
             }
             if (fileAttributes.containsKey("OPR")) {
-                attributes.putIfNotNull(oprk, DECIMAL_FORMAT_7.format(Double.valueOf(fileAttributes.get("OPR"))));
+                attributes.putIfNotNull(oprk, decimalFormat7.format(Double.valueOf(fileAttributes.get("OPR"))));
             }
         }
 
@@ -690,7 +691,7 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
                                     .map(Score::getScore)
                                     .collect(Collectors.toList());
                             if (phastCons.size() > 0) {
-                                stringBuilder.append(DECIMAL_FORMAT_3.format(phastCons.get(0)));
+                                stringBuilder.append(decimalFormat3.format(phastCons.get(0)));
                             }
                         }
                         break;
@@ -701,7 +702,7 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
                                     .map(Score::getScore)
                                     .collect(Collectors.toList());
                             if (phylop.size() > 0) {
-                                stringBuilder.append(DECIMAL_FORMAT_3.format(phylop.get(0)));
+                                stringBuilder.append(decimalFormat3.format(phylop.get(0)));
                             }
                         }
                         break;
@@ -732,7 +733,7 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
                                     .map(Score::getScore)
                                     .collect(Collectors.toList());
                             if (sift.size() > 0) {
-                                stringBuilder.append(DECIMAL_FORMAT_3.format(sift.get(0)));
+                                stringBuilder.append(decimalFormat3.format(sift.get(0)));
                             }
                         }
                         break;
@@ -744,7 +745,7 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
                                     .map(Score::getScore)
                                     .collect(Collectors.toList());
                             if (polyphen.size() > 0) {
-                                stringBuilder.append(DECIMAL_FORMAT_3.format(polyphen.get(0)));
+                                stringBuilder.append(decimalFormat3.format(polyphen.get(0)));
                             }
                         }
                         break;
@@ -814,7 +815,7 @@ public class VariantVcfDataWriter implements DataWriter<Variant> {
             } else {
                 cohortName = cohortName + "_";
             }
-            attributes.put(cohortName + VCFConstants.ALLELE_FREQUENCY_KEY, DECIMAL_FORMAT_7.format(stats.getAltAlleleFreq()));
+            attributes.put(cohortName + VCFConstants.ALLELE_FREQUENCY_KEY, decimalFormat7.format(stats.getAltAlleleFreq()));
         }
     }
 
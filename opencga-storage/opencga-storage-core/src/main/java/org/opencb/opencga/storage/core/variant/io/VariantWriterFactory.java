@@ -97,6 +97,23 @@ public class VariantWriterFactory {
             return extension.endsWith(".gz");
         }
 
+        boolean isVcf() {
+            return this == VCF || this == VCF_GZ;
+        }
+
+        boolean isAvro() {
+            return extension.startsWith("avro");
+        }
+
+        /**
+         * Formats that can be exported in genomic partitions, to be concatenated afterwards.
+         *
+         * @return if the output can be partitioned
+         */
+        public boolean isPartitionable() {
+            return isVcf() || isAvro() || this == JSON || this == JSON_GZ;
+        }
+
         boolean isSnappy() {
             return extension.endsWith(".snappy");
         }
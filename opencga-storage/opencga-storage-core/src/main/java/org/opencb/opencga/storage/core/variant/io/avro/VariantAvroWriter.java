@@ -18,8 +18,10 @@ package org.opencb.opencga.storage.core.variant.io.avro;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
@@ -28,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 
@@ -92,6 +95,19 @@ public class VariantAvroWriter implements DataWriter<Variant> {
         return true;
     }
 
+    /**
+     * Append all the blocks of another avro file, without decoding them.
+     * The file must have been written with the same schema and codec.
+     *
+     * @param inputStream   Avro file to append
+     * @throws IOException  If there is any IO error
+     */
+    public void appendAllFrom(InputStream inputStream) throws IOException {
+        try (DataFileStream<VariantAvro> dataFileStream = new DataFileStream<>(inputStream, new SpecificDatumReader<>())) {
+            writer.appendAllFrom(dataFileStream, false);
+        }
+    }
+
     @Override
     public boolean close() {
         try {
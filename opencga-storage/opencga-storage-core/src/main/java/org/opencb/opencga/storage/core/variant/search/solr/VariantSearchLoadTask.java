@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.search.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.ProgressLogger;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.opencga.storage.core.exceptions.VariantSearchException;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchToVariantConverter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts batches of variants into {@link VariantSearchModel} and sends them to Solr.
+ *
+ * Several instances are executed concurrently by a {@link ParallelTaskRunner}, so conversion and update requests
+ * of different batches overlap. This task never commits. Documents are either committed by Solr after the
+ * commitWithin time, or with a final commit after all the batches are sent.
+ *
+ * Created on 17/10/17.
+ */
+public class VariantSearchLoadTask implements ParallelTaskRunner.TaskWithException<Variant, Object, VariantSearchException> {
+
+    private final SolrClient solrClient;
+    private final String collection;
+    private final int commitWithinMs;
+    private final ProgressLogger progressLogger;
+    private final VariantSearchToVariantConverter converter = new VariantSearchToVariantConverter();
+
+    private long numDocuments;
+    private long timeConverting;
+    private long timeSending;
+
+    /**
+     * Create a load task.
+     *
+     * @param solrClient        Solr client. Must be thread safe, as it is shared between tasks
+     * @param collection        Collection name
+     * @param commitWithinMs    Max time in milliseconds before Solr commits the sent documents. Values &lt;= 0 to disable.
+     * @param progressLogger    Optional progress logger, shared between tasks
+     */
+    public VariantSearchLoadTask(SolrClient solrClient, String collection, int commitWithinMs, ProgressLogger progressLogger) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+        this.commitWithinMs = commitWithinMs;
+        this.progressLogger = progressLogger;
+    }
+
+    @Override
+    public List<Object> apply(List<Variant> variants) throws VariantSearchException {
+        if (variants.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        List<VariantSearchModel> variantSearchModels = converter.convertListToStorageType(variants);
+        long converted = System.nanoTime();
+        timeConverting += converted - start;
+
+        if (!variantSearchModels.isEmpty()) {
+            try {
+                UpdateResponse updateResponse = solrClient.addBeans(collection, variantSearchModels, commitWithinMs);
+                if (updateResponse.getStatus() != 0) {
+                    throw new VariantSearchException("Error loading variants into Solr. Status: " + updateResponse.getStatus());
+                }
+            } catch (SolrServerException | IOException e) {
+                throw new VariantSearchException(e.getMessage(), e);
+            }
+            numDocuments += variantSearchModels.size();
+        }
+        timeSending += System.nanoTime() - converted;
+
+        if (progressLogger != null) {
+            progressLogger.increment(variants.size(), () -> ", up to position " + variants.get(variants.size() - 1).toString());
+        }
+        return Collections.emptyList();
+    }
+
+    public long getNumDocuments() {
+        return numDocuments;
+    }
+
+    public long getTimeConverting(TimeUnit timeUnit) {
+        return timeUnit.convert(timeConverting, TimeUnit.NANOSECONDS);
+    }
+
+    public long getTimeSending(TimeUnit timeUnit) {
+        return timeUnit.convert(timeSending, TimeUnit.NANOSECONDS);
+    }
+}
@@ -36,10 +36,13 @@ import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
+import org.opencb.commons.ProgressLogger;
+import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.result.FacetedQueryResult;
 import org.opencb.commons.datastore.core.result.FacetedQueryResultItem;
+import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.commons.utils.CollectionUtils;
 import org.opencb.commons.utils.FileUtils;
 import org.opencb.opencga.core.results.VariantQueryResult;
@@ -48,6 +51,7 @@ import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.exceptions.VariantSearchException;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.io.db.VariantDBReader;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
 import org.opencb.opencga.storage.core.variant.search.VariantSearchToVariantConverter;
@@ -59,6 +63,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -79,6 +84,22 @@ public class VariantSearchManager {
     public static final String QUERY_INTERSECT = "queryIntersect";
     private static final int DEFAULT_INSERT_SIZE = 10000;
 
+    /**
+     * Number of variants to send to Solr in each update request when loading from a VariantDBIterator.
+     */
+    public static final String LOAD_BATCH_SIZE = "search.load.batchSize";
+    /**
+     * Number of concurrent threads converting and sending variants to Solr.
+     */
+    public static final String LOAD_THREADS = "search.load.threads";
+    public static final int DEFAULT_LOAD_THREADS = 4;
+    /**
+     * Max time in milliseconds before Solr commits the loaded documents. If not positive, commit only at the end of the load.
+     */
+    public static final String LOAD_COMMIT_WITHIN = "search.load.commitWithin";
+    public static final int DEFAULT_LOAD_COMMIT_WITHIN = -1;
+    private static final int DEFAULT_COMMIT_WITHIN = 10000;
+
     @Deprecated
     public VariantSearchManager(String host, String collection) {
         this.solrClient = new HttpSolrClient.Builder(host + collection).build();
@@ -288,6 +309,7 @@ public class VariantSearchManager {
         } else {
             throw new IOException("File format " + path + " not supported. Please, use Avro or JSON file formats.");
         }
+        commit(collection);
     }
 
     /**
@@ -299,24 +321,65 @@ public class VariantSearchManager {
      * @throws VariantSearchException VariantSearchException
      */
     public void load(String collection, VariantDBIterator variantDBIterator) throws IOException, VariantSearchException {
+        load(collection, variantDBIterator, new ObjectMap());
+    }
+
+    /**
+     * Load a Solr core/collection from a variant DB iterator.
+     *
+     * Variants are read from the iterator in one thread, and converted and sent to Solr by {@link #LOAD_THREADS}
+     * concurrent {@link VariantSearchLoadTask}. Documents are committed after {@link #LOAD_COMMIT_WITHIN} milliseconds, if
+     * provided, and always with one final commit.
+     *
+     * @param collection        Collection name
+     * @param variantDBIterator Iterator to retrieve the variants to load
+     * @param options           Load options: {@link #LOAD_BATCH_SIZE}, {@link #LOAD_THREADS}, {@link #LOAD_COMMIT_WITHIN}
+     * @throws IOException            IOException
+     * @throws VariantSearchException VariantSearchException
+     */
+    public void load(String collection, VariantDBIterator variantDBIterator, ObjectMap options)
+            throws IOException, VariantSearchException {
         if (variantDBIterator != null) {
-            int count = 0;
-            List<Variant> variantList = new ArrayList<>(DEFAULT_INSERT_SIZE);
-            while (variantDBIterator.hasNext()) {
-                variantList.add(variantDBIterator.next());
-                count++;
-                if (count % DEFAULT_INSERT_SIZE == 0) {
-                    insert(collection, variantList);
-                    variantList.clear();
-                }
+            int batchSize = options.getInt(LOAD_BATCH_SIZE, DEFAULT_INSERT_SIZE);
+            int numThreads = options.getInt(LOAD_THREADS, DEFAULT_LOAD_THREADS);
+            int commitWithin = options.getInt(LOAD_COMMIT_WITHIN, DEFAULT_LOAD_COMMIT_WITHIN);
+
+            ProgressLogger progressLogger = new ProgressLogger("Variants loaded in search index:");
+            List<VariantSearchLoadTask> tasks = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                tasks.add(new VariantSearchLoadTask(solrClient, collection, commitWithin, progressLogger));
             }
-
-            // insert the remaining variants
-            if (CollectionUtils.isNotEmpty(variantList)) {
-                insert(collection, variantList);
+            ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                    .setNumTasks(numThreads)
+                    .setBatchSize(batchSize)
+                    .setAbortOnFail(true)
+                    .setSorted(false).build();
+            ParallelTaskRunner<Variant, Object> ptr = new ParallelTaskRunner<>(new VariantDBReader(variantDBIterator),
+                    new ArrayList<ParallelTaskRunner.Task<Variant, Object>>(tasks), null, config);
+
+            StopWatch stopWatch = StopWatch.createStarted();
+            try {
+                ptr.run();
+            } catch (ExecutionException e) {
+                throw new VariantSearchException("Error loading variants into Solr", e);
             }
-
-            logger.debug("Variant search loading done: {} variants.", count);
+            commit(collection);
+            stopWatch.stop();
+
+            long count = 0;
+            long timeConverting = 0;
+            long timeSending = 0;
+            for (VariantSearchLoadTask task : tasks) {
+                count += task.getNumDocuments();
+                timeConverting += task.getTimeConverting(TimeUnit.MILLISECONDS);
+                timeSending += task.getTimeSending(TimeUnit.MILLISECONDS);
+            }
+            long time = Math.max(stopWatch.getTime(), 1);
+            logger.info("Variant search loading done: {} variants in {}s ({} variants/s)",
+                    count, time / 1000.0, count * 1000 / time);
+            logger.info("Time fetching: {}s, converting: {}s, sending: {}s (accumulated over {} threads)",
+                    variantDBIterator.getTimeFetching(TimeUnit.MILLISECONDS) / 1000.0,
+                    timeConverting / 1000.0, timeSending / 1000.0, numThreads);
         }
     }
 
@@ -451,9 +514,10 @@ public class VariantSearchManager {
         if (variantSearchModel != null && variantSearchModel.getId() != null) {
             UpdateResponse updateResponse;
             try {
-                updateResponse = solrClient.addBean(collection, variantSearchModel);
-                if (updateResponse.getStatus() == 0) {
-                    solrClient.commit(collection);
+                // Do not commit after each document. Let Solr commit within some time.
+                updateResponse = solrClient.addBean(collection, variantSearchModel, DEFAULT_COMMIT_WITHIN);
+                if (updateResponse.getStatus() != 0) {
+                    throw new VariantSearchException("Error inserting variant into Solr. Status: " + updateResponse.getStatus());
                 }
             } catch (SolrServerException e) {
                 throw new VariantSearchException(e.getMessage(), e);
@@ -462,7 +526,7 @@ public class VariantSearchManager {
     }
 
     /**
-     * Insert a list of variants into Solr.
+     * Insert a list of variants into Solr. Does not commit.
      *
      * @param variants List of variants to insert
      * @throws IOException            IOException
@@ -476,8 +540,8 @@ public class VariantSearchManager {
                 UpdateResponse updateResponse;
                 try {
                     updateResponse = solrClient.addBeans(collection, variantSearchModels);
-                    if (updateResponse.getStatus() == 0) {
-                        solrClient.commit(collection);
+                    if (updateResponse.getStatus() != 0) {
+                        throw new VariantSearchException("Error inserting variants into Solr. Status: " + updateResponse.getStatus());
                     }
                 } catch (SolrServerException e) {
                     throw new VariantSearchException(e.getMessage(), e);
@@ -486,6 +550,14 @@ public class VariantSearchManager {
         }
     }
 
+    private void commit(String collection) throws IOException, VariantSearchException {
+        try {
+            solrClient.commit(collection);
+        } catch (SolrServerException e) {
+            throw new VariantSearchException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Load a JSON file into the Solr core/collection.
      *
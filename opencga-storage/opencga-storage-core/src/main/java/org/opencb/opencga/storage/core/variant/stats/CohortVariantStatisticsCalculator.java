@@ -0,0 +1,320 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.*;
+
+/**
+ * Calculates the VariantStats of several cohorts of a non aggregated study in one single pass over the samples data.
+ *
+ * Cohorts are resolved once, from the StudyConfiguration, into arrays of cohort indexes per sample position, and reused
+ * for all the variants. Genotypes of each variant are counted into primitive counters per cohort, and the VariantStats
+ * are only built at the end of each variant, from the counters.
+ *
+ * Allele and genotype counts follow the same rules as {@link org.opencb.biodata.tools.variant.stats.VariantStatsCalculator}:
+ * <ul>
+ *     <li>All the genotypes are added to the genotypes count, including the missing ones.</li>
+ *     <li>Genotypes with any missing allele increment the missing genotypes. Each missing allele increments the missing alleles.
+ *     The called alleles of these genotypes are still counted.</li>
+ *     <li>Genotypes with alleles from other alternates are not used to calculate the allele and genotype frequencies.</li>
+ *     <li>The QUAL and FILTER attributes of the study are copied into the quality and passed filters of the stats.</li>
+ * </ul>
+ *
+ * Created on 17/10/17.
+ */
+public class CohortVariantStatisticsCalculator {
+
+    private static final String GT = "GT";
+    private static final String QUAL = "QUAL";
+    private static final String FILTER = "FILTER";
+    private static final String PASS = "PASS";
+
+    private final String studyName;
+    private final String[] cohortNames;
+    private int skippedFiles;
+
+    // Cohort indexes of each sample position
+    private final int[][] sampleCohorts;
+
+    // Reusable counters. [cohort][genotype]
+    private int[][] genotypeCounters;
+    private final Map<String, Integer> genotypeIndex = new HashMap<>();
+    private final List<String> genotypes = new ArrayList<>();
+
+    /**
+     * Create a calculator for the given cohorts, for variants returning all the indexed samples of the study.
+     *
+     * @param studyConfiguration    Study to calculate the stats from
+     * @param cohorts               Cohorts to calculate. Keys are cohort names, values are sets of sample names.
+     */
+    public CohortVariantStatisticsCalculator(StudyConfiguration studyConfiguration, Map<String, Set<String>> cohorts) {
+        this(studyConfiguration, cohorts, new ArrayList<>(StudyConfiguration.getSortedIndexedSamplesPosition(studyConfiguration)
+                .keySet()));
+    }
+
+    /**
+     * Create a calculator for the given cohorts.
+     *
+     * @param studyConfiguration    Study to calculate the stats from
+     * @param cohorts               Cohorts to calculate. Keys are cohort names, values are sets of sample names.
+     * @param samples               Names of the samples returned in the variants, sorted by position in the samples data.
+     */
+    public CohortVariantStatisticsCalculator(StudyConfiguration studyConfiguration, Map<String, Set<String>> cohorts,
+                                             List<String> samples) {
+        studyName = studyConfiguration.getStudyName();
+        cohortNames = new String[cohorts.size()];
+        int i = 0;
+        for (String cohortName : cohorts.keySet()) {
+            cohortNames[i++] = cohortName;
+        }
+        sampleCohorts = resolveCohorts(cohorts, samples);
+        genotypeCounters = new int[cohortNames.length][4];
+    }
+
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * Computes the VariantStats for each cohort.
+     *
+     * @param variants  Variants to calculate stats from
+     * @return list of VariantStatsWrapper. May be shorter than the list of variants if there is no study for some variant
+     */
+    public List<VariantStatsWrapper> calculateBatch(List<Variant> variants) {
+        List<VariantStatsWrapper> variantStatsWrappers = new ArrayList<>(variants.size());
+
+        for (Variant variant : variants) {
+            StudyEntry study = null;
+            for (StudyEntry entry : variant.getStudies()) {
+                if (entry.getStudyId().equals(studyName)) {
+                    study = entry;
+                    break;
+                }
+            }
+            if (study == null) {
+                skippedFiles++;
+                continue;
+            }
+            // Clear any stats from the input
+            study.setStats(new HashMap<>());
+            calculate(variant, study);
+
+            variantStatsWrappers.add(new VariantStatsWrapper(variant.getChromosome(), variant.getStart(), study.getStats()));
+        }
+        return variantStatsWrappers;
+    }
+
+    private void calculate(Variant variant, StudyEntry study) {
+        genotypeIndex.clear();
+        genotypes.clear();
+        for (int[] counters : genotypeCounters) {
+            Arrays.fill(counters, 0);
+        }
+
+        int gtPosition = study.getFormat().indexOf(GT);
+        List<List<String>> samplesData = study.getSamplesData();
+        int numSamples = Math.min(samplesData.size(), sampleCohorts.length);
+        for (int samplePosition = 0; samplePosition < numSamples; samplePosition++) {
+            int[] cohorts = sampleCohorts[samplePosition];
+            if (cohorts.length == 0) {
+                continue;
+            }
+            List<String> sampleData = samplesData.get(samplePosition);
+            String gt = gtPosition < 0 || gtPosition >= sampleData.size() ? null : sampleData.get(gtPosition);
+            int gtIdx = getGenotypeIndex(gt);
+            for (int cohort : cohorts) {
+                genotypeCounters[cohort][gtIdx]++;
+            }
+        }
+
+        // Build genotypes only once per variant
+        Genotype[] genotypeObjects = new Genotype[genotypes.size()];
+        for (int i = 0; i < genotypeObjects.length; i++) {
+            genotypeObjects[i] = new Genotype(genotypes.get(i), variant.getReference(), variant.getAlternate());
+        }
+
+        Map<String, String> attributes = study.getAttributes();
+        for (int cohort = 0; cohort < cohortNames.length; cohort++) {
+            VariantStats stats = buildStats(variant, genotypeObjects, genotypeCounters[cohort]);
+            setQualityAndFilter(stats, attributes);
+            study.setStats(cohortNames[cohort], stats);
+        }
+    }
+
+    private static void setQualityAndFilter(VariantStats stats, Map<String, String> attributes) {
+        if (attributes == null) {
+            return;
+        }
+        String qual = attributes.get(QUAL);
+        if (qual != null && !qual.equals(".")) {
+            stats.setQuality(Float.valueOf(qual));
+        }
+        String filter = attributes.get(FILTER);
+        if (filter != null) {
+            stats.setPassedFilters(filter.equalsIgnoreCase(PASS));
+        }
+    }
+
+    private int getGenotypeIndex(String gt) {
+        if (gt == null || gt.isEmpty()) {
+            gt = "./.";
+        }
+        Integer idx = genotypeIndex.get(gt);
+        if (idx == null) {
+            idx = genotypes.size();
+            genotypes.add(gt);
+            genotypeIndex.put(gt, idx);
+            if (idx >= genotypeCounters[0].length) {
+                for (int i = 0; i < genotypeCounters.length; i++) {
+                    genotypeCounters[i] = Arrays.copyOf(genotypeCounters[i], genotypeCounters[i].length * 2);
+                }
+            }
+        }
+        return idx;
+    }
+
+    private VariantStats buildStats(Variant variant, Genotype[] genotypeObjects, int[] counters) {
+        VariantStats stats = new VariantStats(variant);
+        int refAlleleCount = 0;
+        int altAlleleCount = 0;
+        int totalAlleles = 0;
+        int totalGenotypes = 0;
+        int missingAlleles = 0;
+        int missingGenotypes = 0;
+
+        for (int i = 0; i < genotypeObjects.length; i++) {
+            int count = counters[i];
+            if (count == 0) {
+                continue;
+            }
+            Genotype genotype = genotypeObjects[i];
+            stats.addGenotype(genotype, count, false);
+
+            boolean missing = false;
+            boolean otherAlternate = false;
+            int ref = 0;
+            int alt = 0;
+            int called = 0;
+            for (int allele : genotype.getAllelesIdx()) {
+                if (allele < 0) {
+                    missing = true;
+                    missingAlleles += count;
+                } else if (allele == 0) {
+                    ref++;
+                    called++;
+                } else if (allele == 1) {
+                    alt++;
+                    called++;
+                } else {
+                    otherAlternate = true;
+                }
+            }
+            if (missing) {
+                missingGenotypes += count;
+            } else if (otherAlternate) {
+                continue;
+            } else {
+                totalGenotypes += count;
+            }
+            refAlleleCount += ref * count;
+            altAlleleCount += alt * count;
+            totalAlleles += called * count;
+        }
+
+        stats.setMissingAlleles(missingAlleles);
+        stats.setMissingGenotypes(missingGenotypes);
+        stats.setRefAlleleCount(refAlleleCount);
+        stats.setAltAlleleCount(altAlleleCount);
+
+        if (totalAlleles > 0) {
+            float refAlleleFreq = refAlleleCount / (float) totalAlleles;
+            float altAlleleFreq = altAlleleCount / (float) totalAlleles;
+            stats.setRefAlleleFreq(refAlleleFreq);
+            stats.setAltAlleleFreq(altAlleleFreq);
+            if (refAlleleFreq <= altAlleleFreq) {
+                stats.setMaf(refAlleleFreq);
+                stats.setMafAllele(variant.getReference());
+            } else {
+                stats.setMaf(altAlleleFreq);
+                stats.setMafAllele(variant.getAlternate());
+            }
+        }
+
+        if (totalGenotypes > 0) {
+            HashMap<Genotype, Float> genotypesFreq = new HashMap<>();
+            float mgf = Float.MAX_VALUE;
+            String mgfGenotype = null;
+            for (int i = 0; i < genotypeObjects.length; i++) {
+                Genotype genotype = genotypeObjects[i];
+                if (counters[i] == 0 || !isCalled(genotype)) {
+                    continue;
+                }
+                float freq = counters[i] / (float) totalGenotypes;
+                genotypesFreq.put(genotype, freq);
+                if (freq < mgf) {
+                    mgf = freq;
+                    mgfGenotype = genotype.toString();
+                }
+            }
+            stats.setGenotypesFreq(genotypesFreq);
+            stats.setMgf(mgf);
+            stats.setMgfGenotype(mgfGenotype);
+        }
+        return stats;
+    }
+
+    private static boolean isCalled(Genotype genotype) {
+        for (int allele : genotype.getAllelesIdx()) {
+            if (allele < 0 || allele > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the cohorts into an array of cohort indexes for each sample position.
+     *
+     * @param cohorts   Cohorts to calculate
+     * @param samples   Samples sorted by position
+     * @return          Cohort indexes of each sample position
+     */
+    private static int[][] resolveCohorts(Map<String, Set<String>> cohorts, List<String> samples) {
+        int[][] sampleCohorts = new int[samples.size()][];
+        int[] cohortIndexes = new int[cohorts.size()];
+        for (int position = 0; position < samples.size(); position++) {
+            String sample = samples.get(position);
+            int numCohorts = 0;
+            int cohort = 0;
+            for (Set<String> cohortSamples : cohorts.values()) {
+                if (cohortSamples != null && cohortSamples.contains(sample)) {
+                    cohortIndexes[numCohorts++] = cohort;
+                }
+                cohort++;
+            }
+            sampleCohorts[position] = Arrays.copyOf(cohortIndexes, numCohorts);
+        }
+        return sampleCohorts;
+    }
+}
@@ -31,6 +31,7 @@ import org.opencb.commons.ProgressLogger;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.core.common.UriUtils;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
@@ -41,6 +42,7 @@ import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
 import org.opencb.opencga.storage.core.variant.io.db.VariantDBReader;
 import org.opencb.opencga.storage.core.variant.io.db.VariantStatsDBWriter;
 import org.opencb.opencga.storage.core.variant.io.json.mixin.GenericRecordAvroJsonMixin;
@@ -55,6 +57,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -74,6 +77,12 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
     public static final String OUTPUT = "output";
     public static final String STATS_LOAD_PARALLEL = "stats.load.parallel";
     public static final boolean DEFAULT_STATS_LOAD_PARALLEL = true;
+    public static final String STATS_COHORT_CALCULATOR = "stats.cohort.calculator";
+    public static final boolean DEFAULT_STATS_COHORT_CALCULATOR = true;
+    public static final String STATS_DIRECT_LOAD = "stats.direct.load";
+    public static final boolean DEFAULT_STATS_DIRECT_LOAD = false;
+    public static final String STATS_DIRECT_LOAD_CHECKPOINT = "stats.direct.load.checkpoint";
+    public static final boolean DEFAULT_STATS_DIRECT_LOAD_CHECKPOINT = false;
 
     private static final String VARIANT_STATS_SUFFIX = ".variants.stats.json.gz";
     private static final String SOURCE_STATS_SUFFIX = ".source.stats.json.gz";
@@ -101,9 +110,14 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
             throw new IllegalArgumentException(e);
         }
 
-        URI stats = createStats(dbAdaptor, output, study, cohorts, options);
+        if (options.getBoolean(STATS_DIRECT_LOAD, DEFAULT_STATS_DIRECT_LOAD)) {
+            StudyConfiguration studyConfiguration = dbAdaptor.getStudyConfigurationManager().getStudyConfiguration(study, options).first();
+            calculateAndLoadStats(dbAdaptor, output, toCohortsMap(cohorts), null, studyConfiguration, options);
+        } else {
+            URI stats = createStats(dbAdaptor, output, study, cohorts, options);
 
-        loadStats(dbAdaptor, stats, study, options);
+            loadStats(dbAdaptor, stats, study, options);
+        }
     }
 
 
@@ -137,11 +151,18 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
 
         StudyConfigurationManager studyConfigurationManager = variantDBAdaptor.getStudyConfigurationManager();
         StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(study, options).first();
+        return createStats(variantDBAdaptor, output, toCohortsMap(cohorts), null, studyConfiguration, options);
+    }
+
+    /**
+     * Cohorts map for cohorts already defined in the StudyConfiguration, without samples.
+     */
+    private static Map<String, Set<String>> toCohortsMap(List<String> cohorts) {
         Map<String, Set<String>> cohortsMap = new HashMap<>(cohorts.size());
         for (String cohort : cohorts) {
             cohortsMap.put(cohort, Collections.emptySet());
         }
-        return createStats(variantDBAdaptor, output, cohortsMap, null, studyConfiguration, options);
+        return cohortsMap;
     }
     /**
      * retrieves batches of Variants, delegates to obtain VariantStatsWrappers from those Variants, and writes them to the output URI.
@@ -176,10 +197,160 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
         //Parse query options
         int batchSize = options.getInt(Options.LOAD_BATCH_SIZE.key(), 100); // future optimization, threads, etc
         int numTasks = options.getInt(Options.LOAD_THREADS.key(), 6);
+        Properties tagmap = options.get(Options.AGGREGATION_MAPPING_PROPERTIES.key(), Properties.class, null);
+//            fileId = options.getString(VariantStorageEngine.Options.FILE_ID.key());
+
+        cohorts = prepareCohorts(cohorts, cohortIds, studyConfiguration, options);
+        boolean overwrite = isOverwrite(cohorts, studyConfiguration, options);
+        checkStudyConfiguration(studyConfiguration);
+
+
+        VariantSourceStats variantSourceStats = new VariantSourceStats(null/*FILE_ID*/, Integer.toString(studyConfiguration.getStudyId()));
+
+
+        // reader, tasks and writer
+        Query readerQuery = buildReaderQuery(cohorts, studyConfiguration, options);
+        VariantDBReader reader = newVariantDBReader(variantDBAdaptor, readerQuery, studyConfiguration);
+        List<ParallelTaskRunner.Task<Variant, String>> tasks = new ArrayList<>(numTasks);
+        ProgressLogger progressLogger = new ProgressLogger("Calculated stats:",
+                () -> variantDBAdaptor.count(readerQuery).first(), 200).setBatchSize(5000);
+        List<String> cohortCalculatorSamples = getCohortCalculatorSamples(readerQuery, studyConfiguration, options);
+        for (int i = 0; i < numTasks; i++) {
+            VariantStatsWrapperTask task = new VariantStatsWrapperTask(overwrite, cohorts, studyConfiguration, variantSourceStats,
+                    tagmap, progressLogger, cohortCalculatorSamples);
+            tasks.add(new VariantStatsJsonTask(task));
+        }
+        Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_SUFFIX);
+        logger.info("will write stats to {}", variantStatsPath);
+        StringDataWriter writer = new StringDataWriter(variantStatsPath, true);
+
+        // runner
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(numTasks).setBatchSize(batchSize).build();
+        ParallelTaskRunner runner = new ParallelTaskRunner<>(reader, tasks, writer, config);
+        try {
+            logger.info("starting stats creation for cohorts {}", cohorts.keySet());
+            long start = System.currentTimeMillis();
+            runner.run();
+            logger.info("finishing stats creation, time: {}ms", System.currentTimeMillis() - start);
+        } catch (ExecutionException e) {
+            throw new StorageEngineException("Unable to calculate statistics.", e);
+        }
+        // source stats
+        Path fileSourcePath = Paths.get(output.getPath() + SOURCE_STATS_SUFFIX);
+        try (OutputStream outputSourceStream = getOutputStream(fileSourcePath, options)) {
+            ObjectWriter sourceWriter = jsonObjectMapper.writerFor(VariantSourceStats.class);
+            outputSourceStream.write(sourceWriter.writeValueAsBytes(variantSourceStats));
+        }
+
+        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+
+        return output;
+    }
+
+    /**
+     * Calculates the statistics and loads them into the database in one single step, without writing the intermediate file.
+     * <p>
+     * The VariantStatsWrapper calculated by each task are written directly to the database by the same task.
+     * If {@link #STATS_DIRECT_LOAD_CHECKPOINT} is provided, the calculated stats are also written to the same file as in
+     * {@link #createStats}, so the load can be resumed with {@link #loadStats}.
+     *
+     * @param variantDBAdaptor   to obtain the Variants and load the stats
+     * @param output             where to write the VariantStats, if needed
+     * @param cohorts            cohorts (subsets) of the samples. key: cohort name, defaultValue: list of sample names.
+     * @param cohortIds          Cohort ID
+     * @param studyConfiguration Study configuration object
+     * @param options            (mandatory) fileId, (optional) filters to the query, batch size, number of threads to use...
+     * @throws IOException If any error occurs
+     * @throws StorageEngineException If any error occurs
+     */
+    public void calculateAndLoadStats(VariantDBAdaptor variantDBAdaptor, URI output, Map<String, Set<String>> cohorts,
+                                      Map<String, Integer> cohortIds, StudyConfiguration studyConfiguration, QueryOptions options)
+            throws IOException, StorageEngineException {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        final QueryOptions finalOptions = options;
+
+        int batchSize = options.getInt(Options.LOAD_BATCH_SIZE.key(), 100);
+        int numTasks = options.getInt(Options.LOAD_THREADS.key(), 6);
+        boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false);
+        boolean checkpoint = options.getBoolean(STATS_DIRECT_LOAD_CHECKPOINT, DEFAULT_STATS_DIRECT_LOAD_CHECKPOINT);
+        Properties tagmap = options.get(Options.AGGREGATION_MAPPING_PROPERTIES.key(), Properties.class, null);
+
+        Map<String, Set<String>> finalCohorts = prepareCohorts(cohorts, cohortIds, studyConfiguration, options);
+        boolean overwrite = isOverwrite(finalCohorts, studyConfiguration, options);
+        checkStudyConfiguration(studyConfiguration);
+        // Store the new cohorts and the invalidated stats before modifying any variant
+        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+
+        VariantSourceStats variantSourceStats = new VariantSourceStats(null/*FILE_ID*/, Integer.toString(studyConfiguration.getStudyId()));
+
+        Query readerQuery = buildReaderQuery(finalCohorts, studyConfiguration, options);
+        VariantDBReader reader = newVariantDBReader(variantDBAdaptor, readerQuery, studyConfiguration);
+        ProgressLogger progressLogger = new ProgressLogger("Calculated and loaded stats:",
+                () -> variantDBAdaptor.count(readerQuery).first(), 200).setBatchSize(5000);
+        List<String> cohortCalculatorSamples = getCohortCalculatorSamples(readerQuery, studyConfiguration, options);
+
+        List<VariantStatsDBWriter> dbWriters = Collections.synchronizedList(new ArrayList<>(numTasks));
+        Supplier<ParallelTaskRunner.Task<Variant, VariantStatsWrapper>> taskSupplier = () -> {
+            VariantStatsWrapperTask task = new VariantStatsWrapperTask(overwrite, finalCohorts, studyConfiguration,
+                    variantSourceStats, tagmap, progressLogger, cohortCalculatorSamples);
+            VariantStatsDBWriter dbWriter = newVariantStatisticsDBWriter(variantDBAdaptor, studyConfiguration, finalOptions);
+            dbWriters.add(dbWriter);
+            return new VariantStatsDBLoadTask(task, dbWriter, checkpoint);
+        };
+
+        DataWriter<VariantStatsWrapper> checkpointWriter = null;
+        if (checkpoint) {
+            Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_SUFFIX);
+            logger.info("will write stats checkpoint to {}", variantStatsPath);
+            checkpointWriter = newVariantStatsWrapperDataWriter(variantStatsPath);
+        }
+
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(numTasks)
+                .setBatchSize(batchSize)
+                .setAbortOnFail(true)
+                .build();
+        ParallelTaskRunner<Variant, VariantStatsWrapper> runner = new ParallelTaskRunner<>(reader, taskSupplier, checkpointWriter, config);
+        try {
+            logger.info("starting stats calculation and loading for cohorts {}", finalCohorts.keySet());
+            long start = System.currentTimeMillis();
+            runner.run();
+            logger.info("finishing stats calculation and loading, time: {}ms", System.currentTimeMillis() - start);
+        } catch (ExecutionException e) {
+            throw new StorageEngineException("Unable to calculate and load statistics.", e);
+        }
+
+        long writes = dbWriters.stream().mapToLong(VariantStatsDBWriter::getNumWrites).sum();
+        long variantStats = dbWriters.stream().mapToLong(VariantStatsDBWriter::getVariantStats).sum();
+        if (writes < variantStats) {
+            logger.warn("provided statistics of {} variants, but only {} were updated", variantStats, writes);
+        }
+
+        if (checkpoint) {
+            Path fileSourcePath = Paths.get(output.getPath() + SOURCE_STATS_SUFFIX);
+            try (OutputStream outputSourceStream = getOutputStream(fileSourcePath, options)) {
+                ObjectWriter sourceWriter = jsonObjectMapper.writerFor(VariantSourceStats.class);
+                outputSourceStream.write(sourceWriter.writeValueAsBytes(variantSourceStats));
+            }
+        }
+        variantDBAdaptor.getVariantSourceDBAdaptor().updateSourceStats(variantSourceStats, studyConfiguration, options);
+
+        checkAndUpdateCalculatedCohorts(studyConfiguration, finalCohorts.keySet(), updateStats);
+        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+    }
+
+    /**
+     * If no cohorts are provided and the study is aggregated, get the cohorts from the tagMap.
+     * Then, check and add the cohorts to the StudyConfiguration.
+     */
+    private Map<String, Set<String>> prepareCohorts(Map<String, Set<String>> cohorts, Map<String, Integer> cohortIds,
+                                                    StudyConfiguration studyConfiguration, QueryOptions options)
+            throws StorageEngineException {
         boolean overwrite = options.getBoolean(Options.OVERWRITE_STATS.key(), false);
         boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false);
         Properties tagmap = options.get(Options.AGGREGATION_MAPPING_PROPERTIES.key(), Properties.class, null);
-//            fileId = options.getString(VariantStorageEngine.Options.FILE_ID.key());
 
         // if no cohorts provided and the study is aggregated: try to get the cohorts from the tagMap
         if (cohorts == null || isAggregated(studyConfiguration.getAggregation()) && tagmap != null) {
@@ -194,6 +365,14 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
         }
 
         checkAndUpdateStudyConfigurationCohorts(studyConfiguration, cohorts, cohortIds, overwrite, updateStats);
+        return cohorts;
+    }
+
+    /**
+     * Checks invalidated stats, and returns overwrite=true if needed.
+     */
+    private boolean isOverwrite(Map<String, Set<String>> cohorts, StudyConfiguration studyConfiguration, QueryOptions options) {
+        boolean overwrite = options.getBoolean(Options.OVERWRITE_STATS.key(), false);
         if (!overwrite) {
             for (String cohortName : cohorts.keySet()) {
                 Integer cohortId = studyConfiguration.getCohortIds().get(cohortName);
@@ -203,13 +382,31 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
                 }
             }
         }
-        checkStudyConfiguration(studyConfiguration);
-
-
-        VariantSourceStats variantSourceStats = new VariantSourceStats(null/*FILE_ID*/, Integer.toString(studyConfiguration.getStudyId()));
+        return overwrite;
+    }
 
+    /**
+     * Samples returned by the reader, sorted by position, to calculate all the cohorts in one pass with the
+     * CohortVariantStatisticsCalculator. Not valid for aggregated studies.
+     *
+     * @param readerQuery           Query of the variants reader
+     * @param studyConfiguration    Study configuration
+     * @param options               Options
+     * @return Sorted samples, or null if the CohortVariantStatisticsCalculator is not used
+     */
+    private List<String> getCohortCalculatorSamples(Query readerQuery, StudyConfiguration studyConfiguration, QueryOptions options) {
+        if (isAggregated(studyConfiguration.getAggregation())
+                || !options.getBoolean(STATS_COHORT_CALCULATOR, DEFAULT_STATS_COHORT_CALCULATOR)) {
+            return null;
+        }
+        List<Integer> sampleIds = VariantQueryUtils.getReturnedSamples(readerQuery, buildReaderOptions(),
+                Collections.singletonList(studyConfiguration)).get(studyConfiguration.getStudyId());
+        Map<Integer, String> sampleNames = studyConfiguration.getSampleIds().inverse();
+        return sampleIds.stream().map(sampleNames::get).collect(Collectors.toList());
+    }
 
-        // reader, tasks and writer
+    private Query buildReaderQuery(Map<String, Set<String>> cohorts, StudyConfiguration studyConfiguration, QueryOptions options) {
+        boolean updateStats = options.getBoolean(Options.UPDATE_STATS.key(), false);
         Query readerQuery = new Query(VariantQueryParam.STUDIES.key(), studyConfiguration.getStudyId())
                 .append(VariantQueryParam.RETURNED_STUDIES.key(), studyConfiguration.getStudyId());
         if (options.containsKey(Options.FILE_ID.key())) {
@@ -227,90 +424,148 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
         }
         readerQuery.append(VariantQueryParam.UNKNOWN_GENOTYPE.key(), ".");
         logger.info("ReaderQuery: " + readerQuery.toJson());
-        QueryOptions readerOptions = new QueryOptions(QueryOptions.SORT, true)
-                .append(QueryOptions.EXCLUDE, VariantField.ANNOTATION);
+        return readerQuery;
+    }
+
+    private VariantDBReader newVariantDBReader(VariantDBAdaptor variantDBAdaptor, Query readerQuery,
+                                               StudyConfiguration studyConfiguration) {
+        QueryOptions readerOptions = buildReaderOptions();
         logger.info("ReaderQueryOptions: " + readerOptions.toJson());
-        VariantDBReader reader = new VariantDBReader(studyConfiguration, variantDBAdaptor, readerQuery, readerOptions);
-        List<ParallelTaskRunner.Task<Variant, String>> tasks = new ArrayList<>(numTasks);
-        ProgressLogger progressLogger = new ProgressLogger("Calculated stats:",
-                () -> variantDBAdaptor.count(readerQuery).first(), 200).setBatchSize(5000);
-        for (int i = 0; i < numTasks; i++) {
-            tasks.add(new VariantStatsWrapperTask(overwrite, cohorts, studyConfiguration, variantSourceStats, tagmap, progressLogger));
+        return new VariantDBReader(studyConfiguration, variantDBAdaptor, readerQuery, readerOptions);
+    }
+
+    private QueryOptions buildReaderOptions() {
+        return new QueryOptions(QueryOptions.SORT, true)
+                .append(QueryOptions.EXCLUDE, VariantField.ANNOTATION);
+    }
+
+    /**
+     * Serializes the VariantStatsWrappers calculated by the {@link VariantStatsWrapperTask} into JSON.
+     */
+    class VariantStatsJsonTask implements ParallelTaskRunner.Task<Variant, String> {
+
+        private final VariantStatsWrapperTask task;
+        private final ObjectWriter variantsWriter;
+
+        VariantStatsJsonTask(VariantStatsWrapperTask task) {
+            this.task = task;
+            ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
+            objectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
+            variantsWriter = objectMapper.writerFor(VariantStatsWrapper.class);
         }
-        Path variantStatsPath = Paths.get(output.getPath() + VARIANT_STATS_SUFFIX);
-        logger.info("will write stats to {}", variantStatsPath);
-        StringDataWriter writer = new StringDataWriter(variantStatsPath, true);
 
-        // runner
-        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(numTasks).setBatchSize(batchSize).build();
-        ParallelTaskRunner runner = new ParallelTaskRunner<>(reader, tasks, writer, config);
-        try {
-            logger.info("starting stats creation for cohorts {}", cohorts.keySet());
-            long start = System.currentTimeMillis();
-            runner.run();
-            logger.info("finishing stats creation, time: {}ms", System.currentTimeMillis() - start);
-        } catch (ExecutionException e) {
-            throw new StorageEngineException("Unable to calculate statistics.", e);
+        @Override
+        public void pre() {
+            task.pre();
         }
-        // source stats
-        Path fileSourcePath = Paths.get(output.getPath() + SOURCE_STATS_SUFFIX);
-        try (OutputStream outputSourceStream = getOutputStream(fileSourcePath, options)) {
-            ObjectWriter sourceWriter = jsonObjectMapper.writerFor(VariantSourceStats.class);
-            outputSourceStream.write(sourceWriter.writeValueAsBytes(variantSourceStats));
+
+        @Override
+        public List<String> apply(List<Variant> variants) {
+            List<VariantStatsWrapper> variantStatsWrappers = task.apply(variants);
+            List<String> strings = new ArrayList<>(variantStatsWrappers.size());
+            for (VariantStatsWrapper variantStatsWrapper : variantStatsWrappers) {
+                try {
+                    strings.add(variantsWriter.writeValueAsString(variantStatsWrapper));
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return strings;
         }
 
-        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+        @Override
+        public void post() {
+            task.post();
+        }
+    }
 
-        return output;
+    /**
+     * Loads the VariantStatsWrappers calculated by the {@link VariantStatsWrapperTask} into the database.
+     * Returns the loaded VariantStatsWrappers only if a checkpoint file is required.
+     */
+    class VariantStatsDBLoadTask implements ParallelTaskRunner.Task<Variant, VariantStatsWrapper> {
+
+        private final VariantStatsWrapperTask task;
+        private final VariantStatsDBWriter dbWriter;
+        private final boolean checkpoint;
+
+        VariantStatsDBLoadTask(VariantStatsWrapperTask task, VariantStatsDBWriter dbWriter, boolean checkpoint) {
+            this.task = task;
+            this.dbWriter = dbWriter;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public void pre() {
+            task.pre();
+            dbWriter.open();
+            dbWriter.pre();
+        }
+
+        @Override
+        public List<VariantStatsWrapper> apply(List<Variant> variants) {
+            List<VariantStatsWrapper> variantStatsWrappers = task.apply(variants);
+            if (!variantStatsWrappers.isEmpty()) {
+                dbWriter.write(variantStatsWrappers);
+            }
+            return checkpoint ? variantStatsWrappers : Collections.emptyList();
+        }
+
+        @Override
+        public void post() {
+            task.post();
+            dbWriter.post();
+            dbWriter.close();
+        }
     }
 
-    class VariantStatsWrapperTask implements ParallelTaskRunner.Task<Variant, String> {
+    class VariantStatsWrapperTask implements ParallelTaskRunner.Task<Variant, VariantStatsWrapper> {
 
         private boolean overwrite;
         private Map<String, Set<String>> cohorts;
         private StudyConfiguration studyConfiguration;
         private final ProgressLogger progressLogger;
         //        private String fileId;
-        private ObjectMapper jsonObjectMapper;
-        private ObjectWriter variantsWriter;
         private VariantSourceStats variantSourceStats;
         private Properties tagmap;
         private VariantStatisticsCalculator variantStatisticsCalculator;
+        private CohortVariantStatisticsCalculator cohortVariantStatisticsCalculator;
 
         VariantStatsWrapperTask(boolean overwrite, Map<String, Set<String>> cohorts,
                                 StudyConfiguration studyConfiguration,
-                                VariantSourceStats variantSourceStats, Properties tagmap, ProgressLogger progressLogger) {
+                                VariantSourceStats variantSourceStats, Properties tagmap, ProgressLogger progressLogger,
+                                List<String> cohortCalculatorSamples) {
             this.overwrite = overwrite;
             this.cohorts = cohorts;
             this.studyConfiguration = studyConfiguration;
             this.progressLogger = progressLogger;
-            jsonObjectMapper = new ObjectMapper(new JsonFactory());
-            jsonObjectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
-            variantsWriter = jsonObjectMapper.writerFor(VariantStatsWrapper.class);
             this.variantSourceStats = variantSourceStats;
             this.tagmap = tagmap;
             variantStatisticsCalculator = new VariantStatisticsCalculator(overwrite);
             variantStatisticsCalculator.setAggregationType(studyConfiguration.getAggregation(), tagmap);
+            if (cohortCalculatorSamples != null) {
+                cohortVariantStatisticsCalculator = new CohortVariantStatisticsCalculator(studyConfiguration, cohorts,
+                        cohortCalculatorSamples);
+            }
         }
 
         @Override
-        public List<String> apply(List<Variant> variants) {
+        public List<VariantStatsWrapper> apply(List<Variant> variants) {
 
-            List<String> strings = new ArrayList<>(variants.size());
             boolean defaultCohortAbsent = false;
 
-            List<VariantStatsWrapper> variantStatsWrappers = variantStatisticsCalculator.calculateBatch(variants,
-                    studyConfiguration.getStudyName(), null/*fileId*/, cohorts);
-
             long start = System.currentTimeMillis();
+            List<VariantStatsWrapper> variantStatsWrappers;
+            if (cohortVariantStatisticsCalculator != null) {
+                variantStatsWrappers = cohortVariantStatisticsCalculator.calculateBatch(variants);
+            } else {
+                variantStatsWrappers = variantStatisticsCalculator.calculateBatch(variants,
+                        studyConfiguration.getStudyName(), null/*fileId*/, cohorts);
+            }
+
             for (VariantStatsWrapper variantStatsWrapper : variantStatsWrappers) {
-                try {
-                    strings.add(variantsWriter.writeValueAsString(variantStatsWrapper));
-                    if (variantStatsWrapper.getCohortStats().get(StudyEntry.DEFAULT_COHORT) == null) {
-                        defaultCohortAbsent = true;
-                    }
-                } catch (JsonProcessingException e) {
-                    e.printStackTrace();
+                if (variantStatsWrapper.getCohortStats().get(StudyEntry.DEFAULT_COHORT) == null) {
+                    defaultCohortAbsent = true;
                 }
             }
 
@@ -322,7 +577,8 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
                     variantSourceStats.updateSampleStats(variants, null);  // TODO test
                 }
             }
-            logger.debug("another batch of {} elements calculated. time: {}ms", strings.size(), System.currentTimeMillis() - start);
+            logger.debug("another batch of {} elements calculated. time: {}ms", variantStatsWrappers.size(),
+                    System.currentTimeMillis() - start);
             if (!variants.isEmpty()) {
                 progressLogger.increment(variants.size(), () -> ", up to position "
                         + variants.get(variants.size() - 1).getChromosome()
@@ -333,13 +589,16 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
             } else {
                 logger.info("task with empty batch");
             }
-            return strings;
+            return variantStatsWrappers;
         }
 
         @Override
         public void post() {
-            if (variantStatisticsCalculator.getSkippedFiles() > 0) {
-                logger.warn("Non calculated variant stats: " + variantStatisticsCalculator.getSkippedFiles());
+            int skippedFiles = cohortVariantStatisticsCalculator != null
+                    ? cohortVariantStatisticsCalculator.getSkippedFiles()
+                    : variantStatisticsCalculator.getSkippedFiles();
+            if (skippedFiles > 0) {
+                logger.warn("Non calculated variant stats: " + skippedFiles);
             }
         }
     }
@@ -442,6 +701,47 @@ public class DefaultVariantStatisticsManager implements VariantStatisticsManager
         return reader;
     }
 
+    protected DataWriter<VariantStatsWrapper> newVariantStatsWrapperDataWriter(Path path) {
+        ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
+        objectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
+        ObjectWriter variantsWriter = objectMapper.writerFor(VariantStatsWrapper.class);
+        StringDataWriter stringDataWriter = new StringDataWriter(path, true);
+        return new DataWriter<VariantStatsWrapper>() {
+            @Override
+            public boolean open() {
+                return stringDataWriter.open();
+            }
+
+            @Override
+            public boolean pre() {
+                return stringDataWriter.pre();
+            }
+
+            @Override
+            public boolean write(List<VariantStatsWrapper> batch) {
+                List<String> strings = new ArrayList<>(batch.size());
+                for (VariantStatsWrapper variantStatsWrapper : batch) {
+                    try {
+                        strings.add(variantsWriter.writeValueAsString(variantStatsWrapper));
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return stringDataWriter.write(strings);
+            }
+
+            @Override
+            public boolean post() {
+                return stringDataWriter.post();
+            }
+
+            @Override
+            public boolean close() {
+                return stringDataWriter.close();
+            }
+        };
+    }
+
     protected VariantStatsDBWriter newVariantStatisticsDBWriter(VariantDBAdaptor dbAdaptor, StudyConfiguration studyConfiguration,
                                                              QueryOptions options) {
         return new VariantStatsDBWriter(dbAdaptor, studyConfiguration, options);
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.transform;
+
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.opencga.storage.core.io.plain.ByteLineDataReader;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transform task for the lines read by the {@link ByteLineDataReader}.
+ *
+ * Header and blank lines are discarded at byte level. Variant lines are decoded straight from the shared array of the
+ * batch, one by one, right when the HTSJDK or Biodata parser of the {@link VariantTransformTask} asks for them, so
+ * there is only one decoded line alive at a time. Both parsers only accept Strings, so the line can not be parsed
+ * without decoding it. Once the batch is transformed, its array is given back to the reader to be reused.
+ *
+ * Created on 17/10/17.
+ */
+public class VariantByteLineTransformTask<T> implements ParallelTaskRunner.Task<ByteBuffer, T> {
+
+    private final VariantTransformTask<T> task;
+    private final ByteLineDataReader reader;
+
+    public VariantByteLineTransformTask(VariantTransformTask<T> task) {
+        this(task, null);
+    }
+
+    /**
+     * Create a transform task that gives back the transformed batches to the reader.
+     *
+     * @param task      Task to transform the variant lines
+     * @param reader    Reader of the batches. If null, batches are not given back.
+     */
+    public VariantByteLineTransformTask(VariantTransformTask<T> task, ByteLineDataReader reader) {
+        this.task = task;
+        this.reader = reader;
+    }
+
+    @Override
+    public void pre() {
+        task.pre();
+    }
+
+    @Override
+    public List<T> apply(List<ByteBuffer> batch) {
+        List<ByteBuffer> variantLines = new ArrayList<>(batch.size());
+        for (ByteBuffer line : batch) {
+            if (ByteLineDataReader.startsWith(line, '#') || ByteLineDataReader.isBlank(line)) {
+                continue;
+            }
+            variantLines.add(line);
+        }
+        // Lines are decoded on demand. The transform task reads each line only once.
+        List<T> transformed = task.apply(new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return ByteLineDataReader.toString(variantLines.get(index));
+            }
+
+            @Override
+            public int size() {
+                return variantLines.size();
+            }
+        });
+        if (reader != null) {
+            // The transformed variants do not keep any reference to the bytes of the batch
+            reader.release(batch);
+        }
+        return transformed;
+    }
+
+    @Override
+    public void post() {
+        task.post();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.alignment.local;
+
+import htsjdk.samtools.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class BinaryCoverageStoreTest {
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Path bamPath;
+    private static BinaryCoverageStore store;
+    private static String chromosome;
+    private static int[] depths;
+    private static int regionStart;
+    private static int regionEnd;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        bamPath = Paths.get(BinaryCoverageStoreTest.class.getResource("/HG00096.chrom20.small.bam").toURI());
+        Path coveragePath = temporaryFolder.getRoot().toPath().resolve(bamPath.getFileName() + BinaryCoverageStore.COVERAGE_STORE_SUFFIX);
+        store = BinaryCoverageStore.build(bamPath, coveragePath, 2);
+        assertTrue(coveragePath.toFile().exists());
+
+        // Compute the expected depth of the first 100kb with reads
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bamPath.toFile());
+             SAMRecordIterator iterator = reader.iterator()) {
+            SAMRecord first = null;
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+                if (!record.getReadUnmappedFlag()) {
+                    first = record;
+                    break;
+                }
+            }
+            assertNotNull(first);
+            chromosome = first.getReferenceName();
+            // Align the region with the bins of the zoom levels
+            regionStart = ((first.getAlignmentStart() - 1) / 1000) * 1000 + 1;
+            regionEnd = regionStart + 100000 - 1;
+        }
+        depths = new int[regionEnd - regionStart + 1];
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bamPath.toFile());
+             SAMRecordIterator iterator = reader.query(chromosome, regionStart, regionEnd, false)) {
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+                if (record.getReadUnmappedFlag() || record.getNotPrimaryAlignmentFlag() || record.getDuplicateReadFlag()
+                        || record.getReadFailsVendorQualityCheckFlag()) {
+                    continue;
+                }
+                for (AlignmentBlock block : record.getAlignmentBlocks()) {
+                    for (int i = 0; i < block.getLength(); i++) {
+                        int position = block.getReferenceStart() + i - regionStart;
+                        if (position >= 0 && position < depths.length) {
+                            depths[position]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        BinaryCoverageStore other = BinaryCoverageStore.open(store.getPath());
+        assertArrayEquals(store.getBinSizes(), other.getBinSizes());
+        assertEquals(store.getChromosomeLengths(), other.getChromosomeLengths());
+        assertArrayEquals(store.getMeanCoverage(chromosome, regionStart, regionEnd, 100),
+                other.getMeanCoverage(chromosome, regionStart, regionEnd, 100));
+    }
+
+    @Test
+    public void testDepth() throws Exception {
+        short[] values = store.getMeanCoverage(chromosome, regionStart, regionEnd, 1);
+        assertEquals(depths.length, values.length);
+        for (int i = 0; i < depths.length; i++) {
+            assertEquals("Position " + (regionStart + i), depths[i], values[i]);
+        }
+    }
+
+    @Test
+    public void testWindows() throws Exception {
+        for (int windowSize : new int[]{7, 10, 200, 1000, 5000}) {
+            short[] means = store.getMeanCoverage(chromosome, regionStart, regionEnd, windowSize);
+            short[] maxs = store.getMaxCoverage(chromosome, regionStart, regionEnd, windowSize);
+            assertEquals((depths.length + windowSize - 1) / windowSize, means.length);
+            for (int window = 0; window < means.length; window++) {
+                int start = window * windowSize;
+                int end = Math.min(depths.length, start + windowSize);
+                long sum = 0;
+                int max = 0;
+                for (int i = start; i < end; i++) {
+                    sum += depths[i];
+                    max = Math.max(max, depths[i]);
+                }
+                String message = "Window " + window + " of " + windowSize;
+                assertEquals(message, ((double) sum) / (end - start), means[window], 1);
+                assertEquals(message, max, maxs[window]);
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfBounds() throws Exception {
+        assertEquals(0, store.getMeanCoverage("unknown", 1, 1000, 10).length);
+        int length = store.getChromosomeLengths().get(chromosome);
+        assertEquals(10, store.getMeanCoverage(chromosome, length - 99, length + 1000, 10).length);
+        assertEquals(0, store.getMeanCoverage(chromosome, length + 10, length + 1000, 10).length);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.alignment.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.tools.alignment.BamManager;
+import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class ParallelBamProcessorTest {
+
+    // Small chunks, so reads overlap several chunks
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Path bamPath;
+    private static ObjectMapper objectMapper;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        bamPath = Paths.get(ParallelBamProcessorTest.class.getResource("/HG00096.chrom20.small.bam").toURI());
+        objectMapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        AlignmentGlobalStats expected = new BamManager(bamPath).stats();
+        AlignmentGlobalStats stats = new ParallelBamProcessor(4, CHUNK_SIZE).stats(bamPath);
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(stats));
+    }
+
+    @Test
+    public void testStatsNoIndex() throws Exception {
+        Path copy = temporaryFolder.getRoot().toPath().resolve(bamPath.getFileName());
+        Files.copy(bamPath, copy);
+        AlignmentGlobalStats expected = new BamManager(bamPath).stats();
+        AlignmentGlobalStats stats = new ParallelBamProcessor(4, CHUNK_SIZE).stats(copy);
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(stats));
+    }
+
+    @Test
+    public void testStatsAndCoverage() throws Exception {
+        Path root = temporaryFolder.getRoot().toPath();
+        ParallelBamProcessor.Result result = new ParallelBamProcessor(4, CHUNK_SIZE)
+                .process(bamPath, true, root.resolve("chunks" + BinaryCoverageStore.COVERAGE_STORE_SUFFIX));
+        assertEquals(objectMapper.writeValueAsString(new BamManager(bamPath).stats()), objectMapper.writeValueAsString(result.getStats()));
+
+        // Compare with the coverage computed in one chunk per chromosome
+        Path copy = root.resolve(bamPath.getFileName());
+        Files.copy(bamPath, copy);
+        try (BinaryCoverageStore store = result.getCoverageStore();
+             BinaryCoverageStore expected = new ParallelBamProcessor(1)
+                     .coverage(copy, root.resolve("sequential" + BinaryCoverageStore.COVERAGE_STORE_SUFFIX))) {
+            assertFalse(root.resolve("chunks" + BinaryCoverageStore.COVERAGE_STORE_SUFFIX + ".tmp").toFile().exists());
+            String chromosome = "20";
+            int length = store.getChromosomeLengths().get(chromosome);
+            for (int windowSize : new int[]{1, 10, 1000}) {
+                // Reads of the BAM file are around 20:60000-62500
+                int start = windowSize == 1000 ? 1 : 50001;
+                int end = windowSize == 1000 ? length : 70000;
+                assertArrayEquals(expected.getMeanCoverage(chromosome, start, end, windowSize),
+                        store.getMeanCoverage(chromosome, start, end, windowSize));
+                assertArrayEquals(expected.getMaxCoverage(chromosome, start, end, windowSize),
+                        store.getMaxCoverage(chromosome, start, end, windowSize));
+            }
+            short[] depths = store.getMeanCoverage(chromosome, 50001, 70000, 1);
+            int max = 0;
+            for (short depth : depths) {
+                max = Math.max(max, depth);
+            }
+            assertTrue(max > 0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class InMemoryQueryCacheTest {
+
+    private final AtomicLong time = new AtomicLong(1000);
+    private long entrySize;
+
+    @Before
+    public void setUp() throws Exception {
+        entrySize = InMemoryQueryCache.estimateSize("ocga:db:var:0", result(0));
+    }
+
+    @Test
+    public void testGetPut() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize * 10, 0, time::get);
+        assertNull(cache.get("ocga:db:var:0"));
+        cache.put("ocga:db:var:0", new Query(), result(0));
+
+        QueryResult<String> queryResult = cache.get("ocga:db:var:0");
+        assertEquals(result(0).getResult(), queryResult.getResult());
+        // Modifying the returned result does not modify the cache
+        queryResult.getResult().clear();
+        assertEquals(result(0).getResult(), cache.get("ocga:db:var:0").getResult());
+
+        CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEntries());
+        assertEquals(entrySize, stats.getSizeBytes());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize * 3, 0, time::get);
+        cache.put("ocga:db:var:0", new Query(), result(0));
+        cache.put("ocga:db:var:1", new Query(), result(1));
+        cache.put("ocga:db:var:2", new Query(), result(2));
+        // Use the first entry. The second one is now the least recently used
+        assertNotNull(cache.get("ocga:db:var:0"));
+        cache.put("ocga:db:var:3", new Query(), result(3));
+
+        assertNotNull(cache.get("ocga:db:var:0"));
+        assertNull(cache.get("ocga:db:var:1"));
+        assertNotNull(cache.get("ocga:db:var:2"));
+        assertNotNull(cache.get("ocga:db:var:3"));
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(3, cache.getStats().getEntries());
+        assertEquals(entrySize * 3, cache.getStats().getSizeBytes());
+    }
+
+    @Test
+    public void testSkipLargeResults() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize / 2, 0, time::get);
+        cache.put("ocga:db:var:0", new Query(), result(0));
+        assertNull(cache.get("ocga:db:var:0"));
+        assertEquals(0, cache.getStats().getSizeBytes());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize * 10, 100, time::get);
+        cache.put("ocga:db:var:0", new Query(), result(0));
+        time.addAndGet(50);
+        cache.put("ocga:db:var:1", new Query(), result(1));
+        time.addAndGet(50);
+
+        assertNull(cache.get("ocga:db:var:0"));
+        assertNotNull(cache.get("ocga:db:var:1"));
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(1, cache.getStats().getEntries());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize * 10, 0, time::get);
+        cache.put("ocga:db1:var:0", new Query(), result(0));
+        cache.put("ocga:db1:var:1", new Query(), result(1));
+        cache.put("ocga:db2:var:0", new Query(), result(0));
+
+        cache.invalidate("ocga:db1:");
+        assertNull(cache.get("ocga:db1:var:0"));
+        assertNull(cache.get("ocga:db1:var:1"));
+        assertNotNull(cache.get("ocga:db2:var:0"));
+        assertEquals(InMemoryQueryCache.estimateSize("ocga:db2:var:0", result(0)), cache.getStats().getSizeBytes());
+        // Invalidated entries are not evictions
+        assertEquals(0, cache.getStats().getEvictions());
+
+        cache.clear();
+        assertNull(cache.get("ocga:db2:var:0"));
+        assertEquals(0, cache.getStats().getSizeBytes());
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(entrySize * 10, 0, time::get);
+        assertEquals(0, cache.getVersion("ocga:db1:"));
+        cache.invalidate("ocga:db1:");
+        assertEquals(1, cache.getVersion("ocga:db1:"));
+        assertEquals(0, cache.getVersion("ocga:db2:"));
+        cache.invalidate("ocga:db1:");
+        assertEquals(2, cache.getVersion("ocga:db1:"));
+    }
+
+    @Test
+    public void testCopyVariants() throws Exception {
+        InMemoryQueryCache cache = new InMemoryQueryCache(1024 * 1024, 0, time::get);
+        Variant variant = new Variant("1:1000:A:C");
+        cache.put("ocga:db:var:0", new Query(), new QueryResult<>("", 100, 1, 1, "", "", Collections.singletonList(variant)));
+        // Modifying the cached variants does not modify the cache
+        variant.setId("rs1");
+        QueryResult<Variant> queryResult = cache.get("ocga:db:var:0");
+        assertNotEquals("rs1", queryResult.first().getId());
+        queryResult.first().setId("rs2");
+        assertNotEquals("rs2", cache.<Variant>get("ocga:db:var:0").first().getId());
+        assertEquals(new Variant("1:1000:A:C"), cache.<Variant>get("ocga:db:var:0").first());
+    }
+
+    private QueryResult<String> result(int i) {
+        List<String> result = new ArrayList<>(Collections.nCopies(10, "1:" + (1000 + i) + ":A:C"));
+        return new QueryResult<>("", 100, result.size(), result.size(), "", "", result);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io.plain;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.opencga.storage.core.variant.VariantStorageBaseTest;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class BgzfStringDataReaderTest {
+
+    private Path gzipFile;
+    private Path bgzfFile;
+
+    @Before
+    public void setUp() throws Exception {
+        gzipFile = Paths.get(VariantStorageBaseTest.getResourceUri(VariantStorageBaseTest.VCF_TEST_FILE_NAME));
+        bgzfFile = gzipFile.resolveSibling("bgzf." + gzipFile.getFileName());
+        if (!bgzfFile.toFile().exists()) {
+            try (InputStream is = new GZIPInputStream(gzipFile.toUri().toURL().openStream());
+                 OutputStream os = new BlockCompressedOutputStream(bgzfFile.toFile())) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIsBgzf() throws Exception {
+        assertTrue(BgzfStringDataReader.isBgzf(bgzfFile));
+        assertFalse(BgzfStringDataReader.isBgzf(gzipFile));
+    }
+
+    @Test
+    public void testReadSameLines() throws Exception {
+        List<String> expected = readAll(new StringDataReader(gzipFile), 100);
+
+        AtomicLong totalBytes = new AtomicLong();
+        AtomicLong lastTotal = new AtomicLong();
+        BgzfStringDataReader reader = new BgzfStringDataReader(bgzfFile, 4);
+        reader.setReadBytesListener((total, delta) -> {
+            totalBytes.addAndGet(delta);
+            lastTotal.set(total);
+        });
+        List<String> actual = readAll(reader, 100);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(reader.getFileSize(), totalBytes.get());
+        assertEquals(reader.getFileSize(), lastTotal.get());
+    }
+
+    @Test
+    public void testReadOneByOne() throws Exception {
+        List<String> expected = readAll(new StringDataReader(gzipFile), 1);
+        List<String> actual = readAll(new BgzfStringDataReader(bgzfFile, 2), 1);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadByteLines() throws Exception {
+        List<String> expected = readAll(new StringDataReader(gzipFile), 100);
+        assertEquals(expected, readAll(new ByteLineDataReader(gzipFile), 100));
+        assertEquals(expected, readAll(new ByteLineDataReader(gzipFile), 7));
+
+        AtomicLong totalBytes = new AtomicLong();
+        ByteLineDataReader reader = new ByteLineDataReader(bgzfFile, 4);
+        reader.setReadBytesListener((total, delta) -> totalBytes.addAndGet(delta));
+        assertEquals(expected, readAll(reader, 100));
+        assertEquals(reader.getFileSize(), totalBytes.get());
+        assertEquals(expected, readAll(new ByteLineDataReader(bgzfFile, 2), 1));
+    }
+
+    private List<String> readAll(ByteLineDataReader reader, int batchSize) {
+        List<String> lines = new ArrayList<>();
+        reader.open();
+        reader.pre();
+        List<ByteBuffer> batch = reader.read(batchSize);
+        while (!batch.isEmpty()) {
+            for (ByteBuffer line : batch) {
+                lines.add(ByteLineDataReader.toString(line));
+            }
+            // Reuse the array of the batch in the next batches
+            reader.release(batch);
+            batch = reader.read(batchSize);
+        }
+        reader.post();
+        reader.close();
+        return lines;
+    }
+
+    private List<String> readAll(StringDataReader reader, int batchSize) {
+        List<String> lines = new ArrayList<>();
+        reader.open();
+        reader.pre();
+        List<String> batch = reader.read(batchSize);
+        while (!batch.isEmpty()) {
+            lines.addAll(batch);
+            batch = reader.read(batchSize);
+        }
+        reader.post();
+        reader.close();
+        return lines;
+    }
+}
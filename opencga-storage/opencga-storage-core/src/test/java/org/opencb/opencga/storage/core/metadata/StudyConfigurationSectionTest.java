@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metadata;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class StudyConfigurationSectionTest {
+
+    private SectionsStudyConfigurationAdaptor adaptor;
+    private StudyConfigurationManager scm;
+
+    @Before
+    public void setUp() throws Exception {
+        adaptor = new SectionsStudyConfigurationAdaptor();
+        scm = new StudyConfigurationManager(adaptor);
+
+        StudyConfiguration sc = new StudyConfiguration(1, "Study");
+        sc.getFileIds().put("file1", 1);
+        sc.getSampleIds().put("s1", 1);
+        sc.getSamplesInFiles().put(1, new LinkedHashSet<>(Collections.singletonList(1)));
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(EnumSet.allOf(StudyConfigurationSection.class), adaptor.lastModifiedSections);
+    }
+
+    @Test
+    public void testUpdateOnlyModifiedSections() throws Exception {
+        StudyConfiguration sc = scm.getStudyConfiguration(1, null).first();
+        sc.getSampleIds().put("s2", 2);
+        sc.getSamplesInFiles().get(1).add(2);
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(EnumSet.of(StudyConfigurationSection.SAMPLES), adaptor.lastModifiedSections);
+
+        sc = scm.getStudyConfiguration(1, null).first();
+        sc.getIndexedFiles().add(1);
+        sc.getAttributes().put("key", "value");
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(EnumSet.of(StudyConfigurationSection.FILES), adaptor.lastModifiedSections);
+
+        sc = scm.getStudyConfiguration(1, null).first();
+        sc.getAttributes().put("key", "otherValue");
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(EnumSet.noneOf(StudyConfigurationSection.class), adaptor.lastModifiedSections);
+
+        sc = scm.getStudyConfiguration(1, null).first();
+        assertEquals(Arrays.asList(1, 2), new ArrayList<>(sc.getSamplesInFiles().get(1)));
+        assertEquals(Collections.singleton(1), sc.getIndexedFiles());
+        assertEquals("otherValue", sc.getAttributes().getString("key"));
+    }
+
+    @Test
+    public void testModifyCachedInstance() throws Exception {
+        StudyConfiguration sc = scm.getStudyConfiguration(1, new QueryOptions(StudyConfigurationManager.READ_ONLY, true)).first();
+        sc.getCalculatedStats().add(1);
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(EnumSet.allOf(StudyConfigurationSection.class), adaptor.lastModifiedSections);
+    }
+
+    @Test
+    public void testReadOnlyModifiedSections() throws Exception {
+        StudyConfiguration cached = scm.getStudyConfiguration(1, new QueryOptions(StudyConfigurationManager.READ_ONLY, true)).first();
+
+        // Modified by other process
+        StudyConfiguration other = cached.newInstance();
+        other.getCohortIds().put("ALL", 1);
+        other.getCohorts().put(1, new HashSet<>(Collections.singletonList(1)));
+        other.setTimeStamp(cached.getTimeStamp() + 1);
+        adaptor.updateStudyConfiguration(other, EnumSet.of(StudyConfigurationSection.COHORTS), null);
+
+        StudyConfiguration sc = scm.getStudyConfiguration(1, new QueryOptions(StudyConfigurationManager.READ_ONLY, true)).first();
+        assertEquals(EnumSet.of(StudyConfigurationSection.COHORTS), adaptor.lastReadSections);
+        assertEquals(Integer.valueOf(1), sc.getCohortIds().get("ALL"));
+        // Unchanged sections are shared with the previous version
+        assertSame(cached.getSamplesInFiles(), sc.getSamplesInFiles());
+        assertEquals(cached.getFileIds(), sc.getFileIds());
+    }
+
+    @Test
+    public void testReadOnlySharedSnapshot() throws Exception {
+        StudyConfiguration snapshot = scm.getStudyConfiguration(1, StudyConfigurationManager.readOnly(null)).first();
+        assertSame(snapshot, scm.getStudyConfiguration("Study", StudyConfigurationManager.readOnly(null)).first());
+        assertSame(snapshot, scm.getStudyConfiguration(1, StudyConfigurationManager.readOnly(
+                new QueryOptions(StudyConfigurationManager.CACHED, true))).first());
+
+        // Writers get their own copy, and do not modify the shared snapshot
+        StudyConfiguration sc = scm.getStudyConfiguration(1, null).first();
+        assertNotSame(snapshot, sc);
+        sc.getSamplesInFiles().get(1).add(2);
+        scm.updateStudyConfiguration(sc, null);
+        assertEquals(Collections.singleton(1), snapshot.getSamplesInFiles().get(1));
+        assertEquals(EnumSet.of(StudyConfigurationSection.SAMPLES), adaptor.lastModifiedSections);
+    }
+
+    @Test
+    public void testCopyNestedCollections() throws Exception {
+        StudyConfiguration sc = scm.getStudyConfiguration(1, new QueryOptions(StudyConfigurationManager.READ_ONLY, true)).first();
+        StudyConfiguration copy = sc.newInstance();
+        copy.getSamplesInFiles().get(1).add(5);
+        assertFalse(sc.getSamplesInFiles().get(1).contains(5));
+        assertEquals(EnumSet.of(StudyConfigurationSection.SAMPLES), StudyConfigurationSection.getModifiedSections(sc, copy));
+    }
+
+    /**
+     * In-memory adaptor storing each section with its own timestamp.
+     */
+    private static class SectionsStudyConfigurationAdaptor extends StudyConfigurationAdaptor {
+        private StudyConfiguration stored;
+        private final Map<StudyConfigurationSection, Long> timeStamps = new EnumMap<>(StudyConfigurationSection.class);
+        private Set<StudyConfigurationSection> lastModifiedSections;
+        private Set<StudyConfigurationSection> lastReadSections;
+
+        @Override
+        protected QueryResult<StudyConfiguration> getStudyConfiguration(String studyName, Long time, QueryOptions options) {
+            return getStudyConfiguration(stored.getStudyId(), time, options);
+        }
+
+        @Override
+        protected QueryResult<StudyConfiguration> getStudyConfiguration(int studyId, Long timeStamp, QueryOptions options) {
+            if (stored == null || stored.getStudyId() != studyId || stored.getTimeStamp().equals(timeStamp)) {
+                return new QueryResult<>("", 0, 0, 0, "", "", Collections.emptyList());
+            }
+            StudyConfiguration sc = stored.newInstance();
+            lastReadSections = EnumSet.noneOf(StudyConfigurationSection.class);
+            for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+                if (timeStamp != null && timeStamps.get(section) <= timeStamp) {
+                    section.copy(new StudyConfiguration(), sc);
+                } else {
+                    lastReadSections.add(section);
+                }
+            }
+            return new QueryResult<>("", 0, 1, 1, "", "", Collections.singletonList(sc));
+        }
+
+        @Override
+        protected QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options) {
+            return updateStudyConfiguration(studyConfiguration, EnumSet.allOf(StudyConfigurationSection.class), options);
+        }
+
+        @Override
+        protected QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration,
+                                                       Set<StudyConfigurationSection> modifiedSections, QueryOptions options) {
+            lastModifiedSections = modifiedSections;
+            StudyConfiguration sc = studyConfiguration.newInstance();
+            for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+                if (modifiedSections.contains(section)) {
+                    timeStamps.put(section, sc.getTimeStamp());
+                } else {
+                    // Keep the stored value
+                    section.copy(stored, sc);
+                }
+            }
+            stored = sc;
+            return new QueryResult();
+        }
+
+        @Override
+        protected Map<String, Integer> getStudies(QueryOptions options) {
+            return Collections.singletonMap(stored.getStudyName(), stored.getStudyId());
+        }
+    }
+}
@@ -97,5 +97,17 @@ public abstract class VariantStorageManagerTransformTest extends VariantStorageB
         assertEquals(2, result.getTransformStats().getInt("malformed lines"));
     }
 
+    @Test
+    public void corruptedTransformByteLinesTest() throws Exception {
+
+        ObjectMap params = new ObjectMap(VariantStorageEngine.Options.TRANSFORM_FAIL_ON_MALFORMED_VARIANT.key(), false)
+                .append(VariantStorageEngine.Options.TRANSFORM_BYTE_LINES.key(), true);
+        URI outputUri = newOutputUri();
+        StoragePipelineResult result = runETL(getVariantStorageEngine(), corruptedInputUri, outputUri, params, true, true, false);
+
+        String[] malformedFiles = Paths.get(outputUri).toFile().list((dir, name) -> name.contains(MALFORMED_FILE));
+        assertEquals(1, malformedFiles.length);
+        assertEquals(2, result.getTransformStats().getInt("malformed lines"));
+    }
 
 }
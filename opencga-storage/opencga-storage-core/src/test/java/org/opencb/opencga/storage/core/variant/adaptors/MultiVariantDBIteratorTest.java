@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.adaptors;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 17/10/17.
+ */
+public class MultiVariantDBIteratorTest {
+
+    private final AtomicInteger numQueries = new AtomicInteger();
+
+    @Test
+    public void testSequential() throws Exception {
+        checkIterator(0, new QueryOptions(), 0, 250);
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        checkIterator(4, new QueryOptions(), 0, 250);
+    }
+
+    @Test
+    public void testPrefetchLimitSkip() throws Exception {
+        checkIterator(4, new QueryOptions(QueryOptions.LIMIT, 30).append(QueryOptions.SKIP, 25), 25, 55);
+    }
+
+    @Test
+    public void testPrefetchEmptyBatches() throws Exception {
+        List<String> ids = ids(250);
+        // Only return variants from the last batch
+        BiFunction<Query, QueryOptions, VariantDBIterator> factory = (query, options) -> {
+            List<String> batch = query.getAsStringList(VariantQueryParam.ID.key());
+            return batch.contains(ids.get(249)) ? iterator(batch, options) : VariantDBIterator.emptyIterator();
+        };
+        List<String> result = new ArrayList<>();
+        try (MultiVariantDBIterator iterator = new MultiVariantDBIterator(ids.iterator(), 10, 4, new Query(), null, factory)) {
+            iterator.forEachRemaining(v -> result.add(v.toString()));
+        }
+        assertEquals(ids.subList(240, 250), result);
+    }
+
+    private void checkIterator(int prefetchBatches, QueryOptions options, int from, int to) throws Exception {
+        List<String> ids = ids(250);
+        List<String> result = new ArrayList<>();
+        MultiVariantDBIterator iterator = new MultiVariantDBIterator(ids.iterator(), 10, prefetchBatches, new Query(), options,
+                (query, queryOptions) -> iterator(query.getAsStringList(VariantQueryParam.ID.key()), queryOptions));
+        iterator.forEachRemaining(v -> result.add(v.toString()));
+        iterator.close();
+
+        // Same order as the input
+        assertEquals(ids.subList(from, to), result);
+        // Only the time of the consumed batches is accumulated
+        assertEquals((to + 9) / 10, iterator.getTimeFetching(TimeUnit.MILLISECONDS));
+        assertTrue(numQueries.get() <= 25);
+    }
+
+    private List<String> ids(int numVariants) {
+        List<String> ids = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            ids.add(new Variant("1:" + (1000 + i) + ":A:C").toString());
+        }
+        return ids;
+    }
+
+    private VariantDBIterator iterator(List<String> ids, QueryOptions options) {
+        numQueries.incrementAndGet();
+        int limit = options.getInt(QueryOptions.LIMIT, Integer.MAX_VALUE);
+        List<Variant> variants = ids.stream().limit(limit).map(Variant::new).collect(Collectors.toList());
+        Iterator<Variant> iterator = variants.iterator();
+        VariantDBIterator variantDBIterator = new VariantDBIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Variant next() {
+                return iterator.next();
+            }
+        };
+        try {
+            // Simulate a slow query
+            Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // One millisecond of fetching time per query
+        variantDBIterator.setTimeFetching(TimeUnit.MILLISECONDS.toNanos(1));
+        return variantDBIterator;
+    }
+}
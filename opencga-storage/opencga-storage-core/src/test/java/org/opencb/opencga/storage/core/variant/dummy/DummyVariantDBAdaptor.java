@@ -36,6 +36,8 @@ import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 import org.slf4j.Logger;
@@ -43,6 +45,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created on 28/11/16.
@@ -56,6 +59,7 @@ public class DummyVariantDBAdaptor implements VariantDBAdaptor {
     private boolean closed = false;
     private Logger logger = LoggerFactory.getLogger(DummyVariantDBAdaptor.class);
     private static final List<String> TEMPLATES;
+    private static final Map<String, VariantSource> VARIANT_SOURCES = new ConcurrentHashMap<>();
 
     static {
         TEMPLATES = new ArrayList<>();
@@ -71,6 +75,10 @@ public class DummyVariantDBAdaptor implements VariantDBAdaptor {
         this.dbName = dbName;
     }
 
+    public static void clear() {
+        VARIANT_SOURCES.clear();
+    }
+
     @Override
     public VariantQueryResult<Variant> get(Query query, QueryOptions options) {
         List<Variant> variants = new ArrayList<>();
@@ -102,8 +110,16 @@ public class DummyVariantDBAdaptor implements VariantDBAdaptor {
     @Override
     public VariantDBIterator iterator(Query query, QueryOptions options) {
         List<Variant> variants = new ArrayList<>(TEMPLATES.size());
+        List<Region> regions = Collections.emptyList();
+        if (VariantQueryUtils.isValidParam(query, VariantQueryParam.REGION)) {
+            regions = Region.parseRegions(query.getString(VariantQueryParam.REGION.key()));
+        }
         for (String template : TEMPLATES) {
             Variant variant = new Variant(template);
+            if (!regions.isEmpty() && regions.stream().noneMatch(region -> region.getChromosome().equals(variant.getChromosome())
+                    && region.getStart() <= variant.getStart() && region.getEnd() >= variant.getStart())) {
+                continue;
+            }
 
             Map<Integer, List<Integer>> returnedSamples = getReturnedSamples(query, options);
             returnedSamples.forEach((study, samples) -> {
@@ -209,12 +225,16 @@ public class DummyVariantDBAdaptor implements VariantDBAdaptor {
 
             @Override
             public void updateVariantSource(VariantSource variantSource) throws StorageEngineException {
-
+                VARIANT_SOURCES.put(variantSource.getStudyId() + "_" + variantSource.getFileId(), variantSource);
             }
 
             @Override
             public Iterator<VariantSource> iterator(Query query, QueryOptions options) throws IOException {
-                return Collections.emptyIterator();
+                List<Integer> studies = query.getAsIntegerList(VariantSourceQueryParam.STUDY_ID.key());
+                return VARIANT_SOURCES.values()
+                        .stream()
+                        .filter(source -> studies.isEmpty() || studies.stream().anyMatch(s -> s.toString().equals(source.getStudyId())))
+                        .iterator();
             }
 
             @Override
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.io;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.readers.TabixReader;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.opencga.storage.core.variant.VariantStorageBaseTest;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class ExportPartitionOutputStreamTest {
+
+    private List<String> header;
+    private List<String> records;
+    private Path outdir;
+
+    @Before
+    public void setUp() throws Exception {
+        Path vcf = Paths.get(VariantStorageBaseTest.getResourceUri(VariantStorageBaseTest.VCF_TEST_FILE_NAME));
+        outdir = Files.createDirectories(VariantStorageBaseTest.getTmpRootDir().resolve(getClass().getSimpleName()));
+        header = new ArrayList<>();
+        records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(vcf.toFile()))))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    header.add(line);
+                } else {
+                    records.add(line);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcatPlain() throws Exception {
+        Path output = outdir.resolve("variants.vcf");
+        List<ExportPartitionOutputStream> partitions = writePartitions(output, false, false);
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ExportPartitionOutputStream partition : partitions) {
+                partition.appendTo(channel, null);
+                assertFalse(partition.getFile().toFile().exists());
+            }
+        }
+
+        try (InputStream is = new FileInputStream(output.toFile())) {
+            assertEquals(expectedLines(), readLines(is));
+        }
+    }
+
+    @Test
+    public void testConcatBgzfWithTabix() throws Exception {
+        Path output = outdir.resolve("variants.vcf.gz");
+        List<ExportPartitionOutputStream> partitions = writePartitions(output, true, true);
+
+        TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.VCF);
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ExportPartitionOutputStream partition : partitions) {
+                partition.appendTo(channel, indexCreator);
+            }
+            long dataSize = channel.position();
+            channel.write(ByteBuffer.wrap(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK));
+            indexCreator.finalizeIndex(dataSize << 16).writeBasedOnFeatureFile(output.toFile());
+        }
+
+        try (InputStream is = new GZIPInputStream(new FileInputStream(output.toFile()))) {
+            assertEquals(expectedLines(), readLines(is));
+        }
+
+        // Query a region from the middle of the file, crossing the partitions
+        String[] first = records.get(records.size() / 3).split("\t");
+        String[] last = records.get(records.size() * 2 / 3).split("\t");
+        int start = Integer.parseInt(first[1]);
+        int end = Integer.parseInt(last[1]);
+        List<String> expected = new ArrayList<>();
+        for (String record : records) {
+            String[] fields = record.split("\t");
+            int pos = Integer.parseInt(fields[1]);
+            if (fields[0].equals(first[0]) && pos + fields[3].length() - 1 >= start && pos <= end) {
+                expected.add(record);
+            }
+        }
+
+        List<String> actual = new ArrayList<>();
+        TabixReader tabixReader = new TabixReader(output.toString());
+        TabixReader.Iterator iterator = tabixReader.query(first[0] + ':' + start + '-' + end);
+        String line;
+        while ((line = iterator.next()) != null) {
+            actual.add(line);
+        }
+        tabixReader.close();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Split the records in 3 partitions. Each partition writes the header, and only the first one keeps it.
+     * The data is written in small chunks, not aligned with the lines.
+     */
+    private List<ExportPartitionOutputStream> writePartitions(Path output, boolean bgzf, boolean index) throws IOException {
+        List<ExportPartitionOutputStream> partitions = new ArrayList<>();
+        int numPartitions = 3;
+        int partitionSize = records.size() / numPartitions + 1;
+        for (int i = 0; i < numPartitions; i++) {
+            Path file = output.resolveSibling(output.getFileName() + "." + i + ".tmp");
+            ExportPartitionOutputStream partition = new ExportPartitionOutputStream(file, bgzf, i > 0, index);
+            StringBuilder sb = new StringBuilder();
+            header.forEach(line -> sb.append(line).append('\n'));
+            records.subList(i * partitionSize, Math.min(records.size(), (i + 1) * partitionSize))
+                    .forEach(line -> sb.append(line).append('\n'));
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            int chunkSize = 1000 + i;
+            for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                partition.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            }
+            partition.close();
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    private List<String> expectedLines() {
+        List<String> lines = new ArrayList<>(header);
+        lines.addAll(records);
+        return lines;
+    }
+
+    private List<String> readLines(InputStream is) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -16,14 +16,19 @@
 
 package org.opencb.opencga.storage.core.variant.io;
 
+import htsjdk.tribble.readers.TabixReader;
 import org.junit.Before;
 import org.junit.Test;
+import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.StoragePipelineResult;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.variant.VariantStorageBaseTest;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.core.variant.dummy.DummyStudyConfigurationAdaptor;
+import org.opencb.opencga.storage.core.variant.dummy.DummyVariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.dummy.DummyVariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.io.VariantWriterFactory.VariantOutputFormat;
 
@@ -33,9 +38,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.VariantStorageEngine.Options.EXPORT_THREADS;
 
 /**
  * Created on 06/12/16.
@@ -44,9 +54,11 @@ import static org.junit.Assert.assertTrue;
  */
 public class VariantExporterTest extends VariantStorageBaseTest {
 
+    private StoragePipelineResult etlResult;
+
     @Before
     public void setUp() throws Exception {
-        runDefaultETL(smallInputUri, variantStorageEngine, newStudyConfiguration());
+        etlResult = runDefaultETL(smallInputUri, variantStorageEngine, newStudyConfiguration());
     }
 
     @Override
@@ -62,6 +74,7 @@ public class VariantExporterTest extends VariantStorageBaseTest {
     @Override
     public void clearDB(String dbName) throws Exception {
         DummyStudyConfigurationAdaptor.clear();
+        DummyVariantDBAdaptor.clear();
     }
 
     @Test
@@ -94,4 +107,59 @@ public class VariantExporterTest extends VariantStorageBaseTest {
         }
     }
 
+    @Test
+    public void exportPartitionsTest() throws Exception {
+        // Register the file with some of the chromosomes of the dummy variants
+        VariantSource source = VariantReaderUtils.readVariantSource(Paths.get(etlResult.getTransformResult().getPath()), null);
+        source.setStudyId(String.valueOf(STUDY_ID));
+        source.getStats().getChromosomeCounts().clear();
+        for (String chromosome : Arrays.asList("X", "10", "MT", "2", "1")) {
+            source.getStats().getChromosomeCounts().put(chromosome, 1);
+        }
+        variantStorageEngine.getDBAdaptor().getVariantSourceDBAdaptor().updateVariantSource(source);
+
+        List<String> expectedChromosomes = Arrays.asList("1", "2", "10", "MT", "X");
+        VariantExporter exporter = new VariantExporter(variantStorageEngine);
+        List<Integer> studies = Collections.singletonList(STUDY_ID);
+        QueryOptions options = new QueryOptions(EXPORT_THREADS.key(), 3);
+        assertEquals(expectedChromosomes, exporter.getPartitions(VariantOutputFormat.VCF_GZ, new Query(), options, studies));
+        assertEquals(Collections.emptyList(), exporter.getPartitions(VariantOutputFormat.VCF_GZ, new Query(),
+                new QueryOptions(EXPORT_THREADS.key(), 1), studies));
+        assertEquals(Collections.emptyList(), exporter.getPartitions(VariantOutputFormat.VCF_GZ,
+                new Query(VariantQueryParam.REGION.key(), "1"), options, studies));
+        assertEquals(Collections.emptyList(), exporter.getPartitions(VariantOutputFormat.VCF_GZ, new Query(),
+                new QueryOptions(options).append(QueryOptions.LIMIT, 10), studies));
+
+        URI output = newOutputUri().resolve("variant.vcf.gz");
+        variantStorageEngine.exportData(output, VariantOutputFormat.VCF_GZ, new Query(), options);
+
+        // Header written once, and chromosomes in order
+        int headers = 0;
+        List<String> chromosomes = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(output.getPath()))))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#CHROM")) {
+                    headers++;
+                } else if (!line.startsWith("#")) {
+                    chromosomes.add(line.split("\t")[0]);
+                }
+            }
+        }
+        assertEquals(1, headers);
+        assertEquals(expectedChromosomes, chromosomes);
+
+        // Tabix index covering all the partitions
+        assertTrue(Paths.get(output.getPath() + ".tbi").toFile().exists());
+        TabixReader tabixReader = new TabixReader(output.getPath());
+        for (String chromosome : expectedChromosomes) {
+            TabixReader.Iterator iterator = tabixReader.query(chromosome + ":1-2000");
+            String line = iterator.next();
+            assertNotNull(chromosome, line);
+            assertEquals(chromosome, line.split("\t")[0]);
+            assertNull(chromosome, iterator.next());
+        }
+        tabixReader.close();
+    }
+
 }
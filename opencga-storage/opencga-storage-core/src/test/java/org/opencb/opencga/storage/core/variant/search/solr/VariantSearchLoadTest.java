@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.search.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.solr.SolrExternalResource;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class VariantSearchLoadTest {
+
+    @ClassRule
+    public static SolrExternalResource solr = new SolrExternalResource();
+
+    private VariantSearchManager variantSearchManager;
+    private SolrClient solrClient;
+
+    @Before
+    public void setUp() throws Exception {
+        solr.getSolrClient().deleteByQuery(solr.coreName, "*:*");
+        solr.getSolrClient().commit(solr.coreName);
+        solrClient = spy(solr.getSolrClient());
+
+        variantSearchManager = new VariantSearchManager(null, new StorageConfiguration());
+        variantSearchManager.setSolrClient(solrClient);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        variantSearchManager.load(solr.coreName, iterator(2500), new ObjectMap()
+                .append(VariantSearchManager.LOAD_BATCH_SIZE, 100)
+                .append(VariantSearchManager.LOAD_THREADS, 4));
+
+        assertEquals(2500, count());
+        // Only one commit at the end of the load
+        verify(solrClient, times(1)).commit(solr.coreName);
+        verify(solrClient, times(25)).addBeans(eq(solr.coreName), anyCollection(), eq(-1));
+    }
+
+    @Test
+    public void testLoadCommitWithin() throws Exception {
+        variantSearchManager.load(solr.coreName, iterator(1000), new ObjectMap()
+                .append(VariantSearchManager.LOAD_BATCH_SIZE, 300)
+                .append(VariantSearchManager.LOAD_THREADS, 2)
+                .append(VariantSearchManager.LOAD_COMMIT_WITHIN, 1000));
+
+        assertEquals(1000, count());
+        verify(solrClient, times(1)).commit(solr.coreName);
+        verify(solrClient, times(4)).addBeans(eq(solr.coreName), anyCollection(), eq(1000));
+    }
+
+    private long count() throws Exception {
+        return solrClient.query(solr.coreName, new SolrQuery("*:*").setRows(0)).getResults().getNumFound();
+    }
+
+    private VariantDBIterator iterator(int numVariants) {
+        List<Variant> variants = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            Variant variant = new Variant("1:" + (1000 + i) + ":A:C");
+            variant.setId("rs" + i);
+            variants.add(variant);
+        }
+        Iterator<Variant> iterator = variants.iterator();
+        return new VariantDBIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Variant next() {
+                return iterator.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.FileEntry;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on 17/10/17.
+ */
+public class CohortVariantStatisticsCalculatorTest {
+
+    private static final String STUDY = "s1";
+    private static final List<String> SAMPLES = Arrays.asList("S1", "S2", "S3", "S4", "S5", "S6");
+    private Map<String, Set<String>> cohorts;
+    private StudyConfiguration studyConfiguration;
+
+    @Before
+    public void setUp() throws Exception {
+        studyConfiguration = new StudyConfiguration(1, STUDY);
+        LinkedHashSet<Integer> sampleIds = new LinkedHashSet<>();
+        // Register the samples in reverse order, so the sample ids do not match the positions
+        for (int i = SAMPLES.size() - 1; i >= 0; i--) {
+            studyConfiguration.getSampleIds().put(SAMPLES.get(i), SAMPLES.size() - i);
+        }
+        for (String sample : SAMPLES) {
+            sampleIds.add(studyConfiguration.getSampleIds().get(sample));
+        }
+        studyConfiguration.getFileIds().put("file1", 1);
+        studyConfiguration.getSamplesInFiles().put(1, sampleIds);
+        studyConfiguration.getIndexedFiles().add(1);
+
+        cohorts = new LinkedHashMap<>();
+        cohorts.put(StudyEntry.DEFAULT_COHORT, new HashSet<>(SAMPLES));
+        cohorts.put("c1", new HashSet<>(Arrays.asList("S1", "S2", "S3")));
+        cohorts.put("c2", new HashSet<>(Arrays.asList("S3", "S4", "S6")));
+        cohorts.put("empty", Collections.emptySet());
+    }
+
+    @Test
+    public void testSameStatsAsVariantStatisticsCalculator() throws Exception {
+        List<List<String>> genotypes = Arrays.asList(
+                Arrays.asList("0/0", "0/1", "1/1", "./.", "0/1", "0/0"),
+                Arrays.asList("0/1", "0/1", "0/1", "0/1", "0/1", "0/1"),
+                Arrays.asList("./.", "./.", "0/0", "./.", "1/1", "0|1"),
+                Arrays.asList("1/1", "0/1", "1/1", "0/0", "1/.", "0/0"));
+
+        List<Variant> expected = new ArrayList<>();
+        List<Variant> actual = new ArrayList<>();
+        int start = 100;
+        for (List<String> gts : genotypes) {
+            expected.add(createVariant(start, gts));
+            actual.add(createVariant(start, gts));
+            start++;
+        }
+
+        new VariantStatisticsCalculator(true).calculateBatch(expected, STUDY, null, cohorts);
+        List<VariantStatsWrapper> wrappers = new CohortVariantStatisticsCalculator(studyConfiguration, cohorts).calculateBatch(actual);
+        assertEquals(actual.size(), wrappers.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            for (String cohort : cohorts.keySet()) {
+                VariantStats expectedStats = expected.get(i).getStudy(STUDY).getStats(cohort);
+                VariantStats actualStats = actual.get(i).getStudy(STUDY).getStats(cohort);
+                String message = expected.get(i) + " " + cohort;
+                assertEquals(message, expectedStats.getGenotypesCount(), actualStats.getGenotypesCount());
+                assertEquals(message, expectedStats.getRefAlleleCount(), actualStats.getRefAlleleCount());
+                assertEquals(message, expectedStats.getAltAlleleCount(), actualStats.getAltAlleleCount());
+                assertEquals(message, expectedStats.getMissingAlleles(), actualStats.getMissingAlleles());
+                assertEquals(message, expectedStats.getMissingGenotypes(), actualStats.getMissingGenotypes());
+                assertEquals(message, expectedStats.getQuality(), actualStats.getQuality(), 0.0001);
+                assertEquals(message, expectedStats.getPassedFilters(), actualStats.getPassedFilters());
+                if (cohorts.get(cohort).isEmpty()) {
+                    continue;
+                }
+                assertEquals(message, expectedStats.getMaf(), actualStats.getMaf(), 0.0001);
+                assertEquals(message, expectedStats.getMafAllele(), actualStats.getMafAllele());
+                assertEquals(message, expectedStats.getGenotypesFreq(), actualStats.getGenotypesFreq());
+                assertEquals(message, expectedStats.getMgf(), actualStats.getMgf(), 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testSkipMissingStudy() throws Exception {
+        Variant variant = createVariant(100, Arrays.asList("0/0", "0/1", "1/1", "./.", "0/1", "0/0"));
+        StudyConfiguration otherStudy = studyConfiguration.newInstance();
+        otherStudy.setStudyName("other_study");
+        CohortVariantStatisticsCalculator calculator = new CohortVariantStatisticsCalculator(otherStudy, cohorts);
+        assertEquals(0, calculator.calculateBatch(Collections.singletonList(variant)).size());
+        assertEquals(1, calculator.getSkippedFiles());
+    }
+
+    private Variant createVariant(int start, List<String> gts) {
+        Variant variant = new Variant("1:" + start + ":A:C");
+        StudyEntry studyEntry = new StudyEntry(STUDY, Collections.emptyList(), Collections.singletonList("GT"));
+        for (int i = 0; i < SAMPLES.size(); i++) {
+            studyEntry.addSampleData(SAMPLES.get(i), Collections.singletonList(gts.get(i)));
+        }
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("QUAL", String.valueOf(start + 0.5));
+        attributes.put("FILTER", start % 2 == 0 ? "PASS" : "LowQual");
+        studyEntry.setFiles(Collections.singletonList(new FileEntry("1", "", attributes)));
+        variant.addStudyEntry(studyEntry);
+        return variant;
+    }
+}
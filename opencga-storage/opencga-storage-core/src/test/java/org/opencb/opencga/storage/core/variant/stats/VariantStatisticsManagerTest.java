@@ -39,6 +39,7 @@ import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -109,6 +110,60 @@ public abstract class VariantStatisticsManagerTest extends VariantStorageBaseTes
         checkCohorts(dbAdaptor, studyConfiguration);
     }
 
+    @Test
+    public void calculateAndLoadStatsTest() throws Exception {
+        //Calculate and load stats for 2 cohorts at one time, without intermediate file
+        DefaultVariantStatisticsManager vsm = (DefaultVariantStatisticsManager) variantStorageEngine.newVariantStatisticsManager();
+
+        Integer fileId = studyConfiguration.getFileIds().get(Paths.get(inputUri).getFileName().toString());
+        QueryOptions options = new QueryOptions(VariantStorageEngine.Options.FILE_ID.key(), fileId);
+        options.put(VariantStorageEngine.Options.LOAD_BATCH_SIZE.key(), 100);
+        Iterator<String> iterator = studyConfiguration.getSampleIds().keySet().iterator();
+
+        HashSet<String> cohort1 = new HashSet<>();
+        cohort1.add(iterator.next());
+        cohort1.add(iterator.next());
+
+        HashSet<String> cohort2 = new HashSet<>();
+        cohort2.add(iterator.next());
+        cohort2.add(iterator.next());
+
+        Map<String, Set<String>> cohorts = new HashMap<>();
+        Map<String, Integer> cohortIds = new HashMap<>();
+        cohorts.put("cohort1", cohort1);
+        cohorts.put("cohort2", cohort2);
+        cohortIds.put("cohort1", 10);
+        cohortIds.put("cohort2", 11);
+
+        URI output = outputUri.resolve("direct.cohort1.cohort2.stats");
+        vsm.calculateAndLoadStats(dbAdaptor, output, cohorts, cohortIds, studyConfiguration, options);
+
+        assertTrue(studyConfiguration.getCalculatedStats().contains(10));
+        assertTrue(studyConfiguration.getCalculatedStats().contains(11));
+        assertFalse(Paths.get(output.getPath() + ".variants.stats.json.gz").toFile().exists());
+        checkCohorts(dbAdaptor, studyConfiguration);
+    }
+
+    @Test
+    public void calculateAndLoadStatsCheckpointTest() throws Exception {
+        DefaultVariantStatisticsManager vsm = (DefaultVariantStatisticsManager) variantStorageEngine.newVariantStatisticsManager();
+
+        Integer fileId = studyConfiguration.getFileIds().get(Paths.get(inputUri).getFileName().toString());
+        QueryOptions options = new QueryOptions(VariantStorageEngine.Options.FILE_ID.key(), fileId);
+        options.put(DefaultVariantStatisticsManager.STATS_DIRECT_LOAD_CHECKPOINT, true);
+        Map<String, Set<String>> cohorts = Collections.singletonMap("cohort1", new HashSet<>(studyConfiguration.getSampleIds().keySet()));
+        Map<String, Integer> cohortIds = Collections.singletonMap("cohort1", 10);
+
+        URI output = outputUri.resolve("direct.checkpoint.cohort1.stats");
+        vsm.calculateAndLoadStats(dbAdaptor, output, cohorts, cohortIds, studyConfiguration, options);
+
+        assertTrue(studyConfiguration.getCalculatedStats().contains(10));
+        // The checkpoint can be loaded again with loadStats
+        assertTrue(Paths.get(output.getPath() + ".variants.stats.json.gz").toFile().exists());
+        assertTrue(Paths.get(output.getPath() + ".source.stats.json.gz").toFile().exists());
+        checkCohorts(dbAdaptor, studyConfiguration);
+    }
+
     @Test
     public void calculateStatsSeparatedCohortsTest() throws Exception {
         //Calculate stats for 2 cohorts separately
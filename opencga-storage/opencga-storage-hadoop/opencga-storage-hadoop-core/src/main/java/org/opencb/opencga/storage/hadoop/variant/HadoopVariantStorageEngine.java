@@ -101,6 +101,15 @@ public class HadoopVariantStorageEngine extends VariantStorageEngine {
 
     public static final String MERGE_ARCHIVE_SCAN_BATCH_SIZE = "opencga.storage.hadoop.hbase.merge.archive.scan.batchsize";
     public static final int DEFAULT_MERGE_ARCHIVE_SCAN_BATCH_SIZE = 500;
+    // Number of archive batches fetched in background while merging the current one
+    public static final String MERGE_ARCHIVE_PREFETCH_BATCHES = "opencga.storage.hadoop.hbase.merge.archive.prefetch";
+    public static final int DEFAULT_MERGE_ARCHIVE_PREFETCH_BATCHES = 1;
+    // Also write the legacy lists of sample ids, read by older versions. Disable once all the readers use the sample bitmaps
+    public static final String VARIANT_TABLE_WRITE_LEGACY_SAMPLES = "opencga.storage.hadoop.variant.table.write.legacy.samples";
+    public static final boolean DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES = true;
+    // Also write all the StudyConfiguration in the main column, read by older versions.
+    public static final String STUDY_CONFIGURATION_WRITE_LEGACY = "opencga.storage.hadoop.study.configuration.write.legacy";
+    public static final boolean DEFAULT_STUDY_CONFIGURATION_WRITE_LEGACY = true;
     public static final String MERGE_COLLAPSE_DELETIONS      = "opencga.storage.hadoop.hbase.merge.collapse-deletions";
     public static final boolean DEFAULT_MERGE_COLLAPSE_DELETIONS = false;
     public static final String MERGE_LOAD_SPECIFIC_PUT       = "opencga.storage.hadoop.hbase.merge.use_specific_put";
@@ -122,6 +131,12 @@ public class HadoopVariantStorageEngine extends VariantStorageEngine {
     public static final String VARIANT_TABLE_PRESPLIT_SIZE = "opencga.variant.table.presplit.size";
     // Do not create phoenix indexes. Testing purposes only
     public static final String VARIANT_TABLE_INDEXES_SKIP = "opencga.variant.table.indexes.skip";
+    // Number of rows upserted through Phoenix before each commit, when loading the annotation
+    public static final String VARIANT_TABLE_LOAD_FLUSH_SIZE = "opencga.variant.table.load.flush_size";
+    public static final int DEFAULT_VARIANT_TABLE_LOAD_FLUSH_SIZE = 1000;
+    // Size in bytes of the HBase write buffer, when loading the stats
+    public static final String VARIANT_TABLE_LOAD_WRITE_BUFFER_SIZE = "opencga.variant.table.load.write_buffer_size";
+    public static final long DEFAULT_VARIANT_TABLE_LOAD_WRITE_BUFFER_SIZE = 8 * 1024 * 1024;
 
     // Archive table configuration
     public static final String ARCHIVE_TABLE_PREFIX = "opencga.storage.hadoop.variant.archive.table.prefix";
@@ -37,6 +37,7 @@ import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.utils.CellBaseUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.MultiVariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
@@ -68,6 +69,11 @@ import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.*;
@@ -77,6 +83,9 @@ import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils
  */
 public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
     protected static Logger logger = LoggerFactory.getLogger(VariantHadoopDBAdaptor.class);
+    // Ensembl gene ids, e.g. ENSG00000139618 or ENSMUSG00000017167. Gene names like ENSA do not match.
+    private static final Pattern ENSEMBL_GENE_ID = Pattern.compile("^ENS([A-Z]{3})?G\\d{11}(\\.\\d+)?$");
+    private static final int AGGREGATION_FETCH_SIZE = 10000;
     private final String variantTable;
     private final VariantPhoenixHelper phoenixHelper;
     private final HBaseCredentials credentials;
@@ -274,7 +283,7 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         }
         long startTime = System.currentTimeMillis();
         String sql = queryParser.parse(query, new QueryOptions(QueryOptions.COUNT, true));
-        logger.info(sql);
+        logger.debug(sql);
         try (Statement statement = getJdbcConnection().createStatement();
              ResultSet resultSet = statement.executeQuery(sql)) { // Cleans up Statement and RS
             resultSet.next();
@@ -288,12 +297,91 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public QueryResult distinct(Query query, String field) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException();
+        long startTime = System.currentTimeMillis();
+        Map<Object, Long> counts = aggregate(query, getAggregationField(field));
+        List<Object> values = new ArrayList<>(counts.keySet());
+        return new QueryResult<>("distinct", ((int) (System.currentTimeMillis() - startTime)),
+                values.size(), values.size(), "", "", values);
     }
 
+    /**
+     * Phoenix connections are not thread safe. Iterators used concurrently by other threads, see {@link #CONCURRENT_ITERATOR},
+     * use their own Phoenix connection, closed with the iterator.
+     *
+     * @param query     Query
+     * @param options   Query options
+     * @return          Iterator over the variants
+     */
     @Override
     public VariantDBIterator iterator(Query query, QueryOptions options) {
+        if (options != null && options.getBoolean(CONCURRENT_ITERATOR, false)) {
+            return iteratorWithOwnConnection(query, options);
+        }
+        return iterator(query, options, this::getJdbcConnection);
+    }
+
+    /**
+     * Phoenix connections are not thread safe. Prefetched queries are executed by other threads, so each query uses
+     * its own Phoenix connection, closed with the iterator.
+     *
+     * @param variants  Iterator of variants to query
+     * @param query     Query to apply to each batch of variants
+     * @param options   Query options
+     * @return          Iterator over the variants
+     */
+    @Override
+    public VariantDBIterator iterator(Iterator<?> variants, Query query, QueryOptions options) {
+        int prefetchBatches = options == null ? 0 : options.getInt(MultiVariantDBIterator.PREFETCH_BATCHES, 0);
+        if (prefetchBatches <= 0) {
+            return VariantDBAdaptor.super.iterator(variants, query, options);
+        }
+        return new MultiVariantDBIterator(variants, 100, prefetchBatches, query, options, this::iteratorWithOwnConnection);
+    }
+
+    /**
+     * Create an iterator for the query with its own Phoenix connection, closed with the iterator.
+     *
+     * @param query     Query
+     * @param options   Query options
+     * @return          Iterator over the variants
+     */
+    private VariantDBIterator iteratorWithOwnConnection(Query query, QueryOptions options) {
+        // Open the connection only if needed. Archive and native iterators use the thread safe HBase connection
+        AtomicReference<java.sql.Connection> connection = new AtomicReference<>();
+        try {
+            VariantDBIterator iterator = iterator(query, options, () -> {
+                if (connection.get() == null) {
+                    try {
+                        connection.set(phoenixHelper.newJdbcConnection(this.configuration));
+                    } catch (SQLException | ClassNotFoundException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return connection.get();
+            });
+            if (connection.get() != null) {
+                iterator.addCloseable(connection.get());
+            }
+            return iterator;
+        } catch (RuntimeException e) {
+            try {
+                close(connection.get());
+            } catch (SQLException e1) {
+                e.addSuppressed(e1);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Create an iterator for the query.
+     *
+     * @param query                 Query
+     * @param options               Query options
+     * @param phoenixConnection     Phoenix connection to use. Only required by the Phoenix iterator.
+     * @return                      Iterator over the variants
+     */
+    private VariantDBIterator iterator(Query query, QueryOptions options, Supplier<java.sql.Connection> phoenixConnection) {
 
         if (options == null) {
             options = new QueryOptions();
@@ -391,10 +479,10 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             try {
                 if (options.getBoolean("explain", true)) {
                     logger.info("---- " + "EXPLAIN " + sql);
-                    phoenixHelper.getPhoenixHelper().explain(getJdbcConnection(), sql, Logger::info);
+                    phoenixHelper.getPhoenixHelper().explain(phoenixConnection.get(), sql, Logger::info);
                 }
 
-                Statement statement = getJdbcConnection().createStatement(); // Statemnet closed by iterator
+                Statement statement = phoenixConnection.get().createStatement(); // Statemnet closed by iterator
                 statement.setFetchSize(options.getInt("batchSize", -1));
                 ResultSet resultSet = statement.executeQuery(sql); // RS closed by iterator
                 Set<VariantField> returnedFields = VariantField.getReturnedFields(options);
@@ -435,26 +523,277 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public QueryResult getFrequency(Query query, Region region, int regionIntervalSize) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException();
+        if (query == null) {
+            query = new Query();
+        }
+        // If interval is not provided is set to the value that returns 200 values
+        if (regionIntervalSize <= 0) {
+            regionIntervalSize = Math.max((region.getEnd() - region.getStart()) / 200, 1);
+        }
+
+        long startTime = System.currentTimeMillis();
+        String sql = queryParser.parseFrequency(query, region, regionIntervalSize);
+        logger.debug(sql);
+        Map<Long, Long> counts = new HashMap<>();
+        try (Statement statement = getJdbcConnection().createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                counts.merge(resultSet.getLong(1), resultSet.getLong(2), Long::sum);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        int dbTime = (int) (System.currentTimeMillis() - startTime);
+
+        // Same format as the MongoDB implementation, including the intervals without variants
+        int firstInterval = region.getStart() / regionIntervalSize;
+        int lastInterval = region.getEnd() / regionIntervalSize;
+        List<ObjectMap> intervals = new ArrayList<>(lastInterval - firstInterval + 1);
+        for (int interval = firstInterval; interval <= lastInterval; interval++) {
+            Long count = counts.get((long) interval);
+            intervals.add(new ObjectMap("_id", interval)
+                    .append("start", interval == 0 ? 1 : interval * regionIntervalSize)
+                    .append("end", interval * regionIntervalSize + regionIntervalSize - 1)
+                    .append("chromosome", region.getChromosome())
+                    .append("features_count", count == null ? 0 : Math.log(count)));
+        }
+
+        return new QueryResult<>(region.toString(), dbTime, intervals.size(), intervals.size(), null, null, intervals);
     }
 
     @Override
     public QueryResult rank(Query query, String field, int numResults, boolean asc) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException();
+        QueryOptions options = new QueryOptions();
+        options.put(QueryOptions.LIMIT, numResults);
+        options.put(QueryOptions.COUNT, true);
+        options.put(QueryOptions.ORDER, (asc) ? 1 : -1);
+
+        return groupBy(query, field, options);
     }
 
+    /**
+     * Count the variants by the values of a field.
+     *
+     * Phoenix can not unnest array columns, so ranking genes, transcripts, consequence types or biotypes scans the
+     * matching rows selecting only that column, and the values are counted in the client. Only scalar fields
+     * (chromosome, type) are aggregated in the region servers.
+     *
+     * Without "count", the ids of the variants are collected only for the returned groups, with a second scan.
+     *
+     * @param query     Query
+     * @param field     Field to group by
+     * @param options   Query options. Accepts limit, skip, order and count.
+     * @return          Groups, with the "id", "count" and, if not "count", the list of variants in "values"
+     */
     @Override
     public QueryResult groupBy(Query query, String field, QueryOptions options) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException();
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        if (query == null) {
+            query = new Query();
+        }
+        long startTime = System.currentTimeMillis();
+        boolean count = options.getBoolean(QueryOptions.COUNT, false);
+        AggregationField aggregationField = getAggregationField(field);
+        Map<Object, Long> counts = aggregate(query, aggregationField);
+
+        // Sort by count. 1 = ascending, -1 = descending
+        Comparator<Map.Entry<Object, Long>> comparator = Map.Entry.comparingByValue();
+        if (options.getInt(QueryOptions.ORDER, -1) < 0) {
+            comparator = comparator.reversed();
+        }
+        int skip = Math.max(options.getInt(QueryOptions.SKIP, 0), 0);
+        int limit = options.getInt(QueryOptions.LIMIT, -1) > 0 ? options.getInt(QueryOptions.LIMIT) : 10;
+
+        List<Map.Entry<Object, Long>> groups = counts.entrySet()
+                .stream()
+                .sorted(comparator)
+                .skip(skip)
+                .limit(limit)
+                .collect(Collectors.toList());
+
+        Map<Object, List<String>> variants = count
+                ? Collections.emptyMap()
+                : getVariants(query, aggregationField, groups.stream().map(Map.Entry::getKey).collect(Collectors.toSet()));
+
+        List<ObjectMap> result = new ArrayList<>(groups.size());
+        for (Map.Entry<Object, Long> entry : groups) {
+            ObjectMap map = new ObjectMap("id", entry.getKey());
+            if (!count) {
+                map.append("values", variants.getOrDefault(entry.getKey(), Collections.emptyList()));
+            }
+            result.add(map.append("count", entry.getValue()));
+        }
+
+        return new QueryResult<>("groupBy", ((int) (System.currentTimeMillis() - startTime)),
+                result.size(), counts.size(), "", "", result);
     }
 
     @Override
     public QueryResult groupBy(Query query, List<String> fields, QueryOptions options) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException();
+        String warningMsg = "Unimplemented VariantHadoopDBAdaptor::groupBy list of fields. Using field[0] : '" + fields.get(0) + "'";
+        logger.warn(warningMsg);
+        QueryResult queryResult = groupBy(query, fields.get(0), options);
+        queryResult.setWarningMsg(warningMsg);
+        return queryResult;
+    }
+
+    /**
+     * Count the variants by the values of a field.
+     *
+     * Scalar fields are grouped by Phoenix in the region servers, so only one row per value is returned.
+     * Array fields can not be grouped by Phoenix, as it does not support UNNEST. Only the required column is scanned,
+     * in parallel by Phoenix, and the values are counted in the client. The memory used is bounded by the number of
+     * distinct values, not by the number of variants.
+     *
+     * @param query             Query
+     * @param field             Field to group by
+     * @return Number of variants by value
+     */
+    private Map<Object, Long> aggregate(Query query, AggregationField field) {
+        if (query == null) {
+            query = new Query();
+        }
+        Map<Object, Long> counts = new HashMap<>();
+        String sql;
+        if (field.array) {
+            sql = queryParser.parseColumnValues(query, field.column, false);
+        } else {
+            sql = queryParser.parseGroupBy(query, field.column);
+        }
+        logger.debug(sql);
+        try (Statement statement = getJdbcConnection().createStatement()) {
+            statement.setFetchSize(AGGREGATION_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    if (field.array) {
+                        for (Object value : getValues(resultSet, field)) {
+                            if (field.filter.test(value)) {
+                                counts.merge(field.converter.apply(value), 1L, Long::sum);
+                            }
+                        }
+                    } else {
+                        Object value = resultSet.getObject(1);
+                        if (value != null && field.filter.test(value)) {
+                            counts.merge(field.converter.apply(value), resultSet.getLong(2), Long::sum);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return counts;
+    }
+
+    /**
+     * Get the variants of the given groups. The ids of the variants of any other group are discarded.
+     *
+     * @param query     Query
+     * @param field     Field to group by
+     * @param keys      Values of the field to return
+     * @return Variants by value
+     */
+    private Map<Object, List<String>> getVariants(Query query, AggregationField field, Set<Object> keys) {
+        Map<Object, List<String>> variants = new HashMap<>();
+        if (keys.isEmpty()) {
+            return variants;
+        }
+        String sql = queryParser.parseColumnValues(query, field.column, true);
+        logger.debug(sql);
+        try (Statement statement = getJdbcConnection().createStatement()) {
+            statement.setFetchSize(AGGREGATION_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    String variant = null;
+                    for (Object value : getValues(resultSet, field)) {
+                        if (!field.filter.test(value)) {
+                            continue;
+                        }
+                        Object key = field.converter.apply(value);
+                        if (keys.contains(key)) {
+                            if (variant == null) {
+                                variant = new Variant(resultSet.getString(VariantPhoenixHelper.VariantColumn.CHROMOSOME.column()),
+                                        resultSet.getInt(VariantPhoenixHelper.VariantColumn.POSITION.column()),
+                                        resultSet.getString(VariantPhoenixHelper.VariantColumn.REFERENCE.column()),
+                                        resultSet.getString(VariantPhoenixHelper.VariantColumn.ALTERNATE.column())).toString();
+                            }
+                            variants.computeIfAbsent(key, k -> new ArrayList<>()).add(variant);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return variants;
+    }
+
+    private static Collection<Object> getValues(ResultSet resultSet, AggregationField field) throws SQLException {
+        if (!field.array) {
+            Object value = resultSet.getObject(1);
+            return value == null ? Collections.emptyList() : Collections.singletonList(value);
+        }
+        java.sql.Array array = resultSet.getArray(1);
+        if (array == null || array.getArray() == null) {
+            return Collections.emptyList();
+        }
+        Object values = array.getArray();
+        // Arrays may contain duplicated values. Count each variant only once per value.
+        Set<Object> set = new HashSet<>();
+        if (values instanceof int[]) {
+            for (int value : (int[]) values) {
+                set.add(value);
+            }
+        } else {
+            for (Object value : (Object[]) values) {
+                if (value != null) {
+                    set.add(value);
+                }
+            }
+        }
+        return set;
+    }
+
+    private static AggregationField getAggregationField(String field) {
+        switch (field) {
+            case "gene":
+            case "ensemblGene":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.GENES, true,
+                        value -> ENSEMBL_GENE_ID.matcher(value.toString()).matches(), value -> value);
+            case "ensemblTranscript":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.TRANSCRIPTS, true, value -> true, value -> value);
+            case "ct":
+            case "consequence_type":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.SO, true, value -> true,
+                        value -> String.format("SO:%07d", ((Number) value).intValue()));
+            case "biotype":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.BIOTYPE, true, value -> true, value -> value);
+            case "chromosome":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.CHROMOSOME, false, value -> true, value -> value);
+            case "type":
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.TYPE, false, value -> true, value -> value);
+            default:
+                // Gene names. The GENES column contains both gene names and ensembl gene ids
+                return new AggregationField(VariantPhoenixHelper.VariantColumn.GENES, true,
+                        value -> !ENSEMBL_GENE_ID.matcher(value.toString()).matches(), value -> value);
+        }
+    }
+
+    private static final class AggregationField {
+        private final PhoenixHelper.Column column;
+        private final boolean array;
+        private final Predicate<Object> filter;
+        private final Function<Object, Object> converter;
+
+        private AggregationField(PhoenixHelper.Column column, boolean array, Predicate<Object> filter,
+                                 Function<Object, Object> converter) {
+            this.column = column;
+            this.array = array;
+            this.filter = filter;
+            this.converter = converter;
+        }
     }
 
     /**
@@ -480,13 +819,21 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         VariantStatsToHBaseConverter converter = new VariantStatsToHBaseConverter(genomeHelper, studyConfiguration);
         List<Put> puts = converter.apply(variantStatsWrappers);
 
+        long writeBufferSize = options == null
+                ? HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_LOAD_WRITE_BUFFER_SIZE
+                : options.getLong(HadoopVariantStorageEngine.VARIANT_TABLE_LOAD_WRITE_BUFFER_SIZE,
+                        HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_LOAD_WRITE_BUFFER_SIZE);
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(variantTable)).writeBufferSize(writeBufferSize);
+
         long start = System.currentTimeMillis();
-        try (Table table = getConnection().getTable(TableName.valueOf(variantTable))) {
-            table.put(puts);
+        // The mutator sends the puts grouped by region server in the background, and flushes the rest on close.
+        try (BufferedMutator mutator = getConnection().getBufferedMutator(params)) {
+            mutator.mutate(puts);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        return new QueryResult<>("Update annotations", (int) (System.currentTimeMillis() - start), 0, 0, "", "", Collections.emptyList());
+        return new QueryResult<>("Update stats", (int) (System.currentTimeMillis() - start), puts.size(), puts.size(), "", "",
+                Collections.emptyList());
     }
 
     public VariantAnnotationPhoenixDBWriter newAnnotationLoader(QueryOptions options) {
@@ -28,6 +28,7 @@ import org.opencb.biodata.formats.variant.vcf4.VariantVcfFactory;
 import org.opencb.biodata.models.variant.avro.AlternateCoordinate;
 import org.opencb.biodata.models.variant.avro.FileEntry;
 import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.opencga.storage.hadoop.variant.index.CoveredRegions;
 import org.opencb.opencga.storage.hadoop.variant.index.VariantTableStudyRow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,7 +59,6 @@ public class VariantLocalConflictResolver {
 
     private static final VariantComparator VARIANT_COMP = new VariantComparator();
     private static final VariantPositionComparator VARIANT_POSITION_COMPARATOR = new VariantPositionComparator();
-    private static final PositionComparator POSITION_COMPARATOR = new PositionComparator();
 
     public List<Variant> resolveConflicts(List<Variant> variants) {
         Map<Alternate, Variant> altToVar = removeDuplicatedAlts(variants);
@@ -351,9 +351,7 @@ public class VariantLocalConflictResolver {
     }
 
     public static List<Pair<Integer, Integer>> getMissingRegions(List<Variant> target, int start, int end) {
-        List<Pair<Integer, Integer>> targetReg = new ArrayList<>(new HashSet<>(buildRegions(target)));
-        targetReg.sort(POSITION_COMPARATOR);
-//        target.sort(varPositionOrder);
+        List<Pair<Integer, Integer>> targetReg = buildRegions(target);
 
         int min = start;
         int max = end;
@@ -370,34 +368,33 @@ public class VariantLocalConflictResolver {
                     new ImmutablePair<>(Math.min(minTarget, max), Math.max(minTarget, max)));
         }
         // find missing pieces
-        List<Pair<Integer, Integer>> holes = new ArrayList<>();
+        CoveredRegions covered = new CoveredRegions();
+        List<Integer> insertions = new ArrayList<>();
         for (Pair<Integer, Integer> pair : targetReg) {
-            if (min > max) {
-                break; // All holes closed
-            }
-            if (max < pair.getLeft()) { // Region ends before or at start of this target
-                holes.add(new ImmutablePair<>(min, max));
-                break; // finish
-            } else if (min > pair.getRight()) {
-                // No overlap
-                min = Math.max(min, pair.getRight() + 1);
-            } else if (min >= pair.getLeft() && max <= pair.getRight()) {
-                // Full overlap
-                min = Math.max(min, pair.getRight() + 1); // Reset min to current target end +1
-            } else if (min < pair.getLeft() && max >= pair.getLeft()) {
-                // Query overlaps with target start
-                holes.add(new ImmutablePair<>(min, pair.getLeft() - 1));
-                min = Math.max(min, pair.getRight() + 1);
-            } else if (min <= pair.getRight() && max >= pair.getRight()) {
-                // Query overlaps with target end
-                min = Math.max(min, pair.getRight() + 1); // Reset min to current target end +1
-            }
-        }
-        // Fill in holes at the end
-        if (min > maxTarget && min <= max) {
-            holes.add(new ImmutablePair<>(min, max));
-        }
-        return holes;
+            if (pair.getRight() < pair.getLeft()) {
+                insertions.add(pair.getLeft());
+            } else {
+                covered.add(pair.getLeft(), pair.getRight());
+            }
+        }
+        List<Pair<Integer, Integer>> holes = covered.getUncoveredRegions(min, max);
+        if (insertions.isEmpty() || holes.isEmpty()) {
+            return holes;
+        }
+        // Insertions split the holes where they are placed
+        Collections.sort(insertions);
+        List<Pair<Integer, Integer>> splitHoles = new ArrayList<>(holes.size() + insertions.size());
+        for (Pair<Integer, Integer> hole : holes) {
+            int holeStart = hole.getLeft();
+            for (Integer insertion : insertions) {
+                if (insertion > holeStart && insertion <= hole.getRight()) {
+                    splitHoles.add(new ImmutablePair<>(holeStart, insertion - 1));
+                    holeStart = insertion;
+                }
+            }
+            splitHoles.add(new ImmutablePair<>(holeStart, hole.getRight()));
+        }
+        return splitHoles;
     }
 
     private static List<Pair<Integer, Integer>> buildRegionsFromAlts(Collection<Alternate> target) {
@@ -688,22 +685,6 @@ public class VariantLocalConflictResolver {
         }
     }
 
-    private static class PositionComparator implements Comparator<Pair<Integer, Integer>> {
-
-        @Override
-        public int compare(Pair<Integer, Integer> o1, Pair<Integer, Integer> o2) {
-            int c = o1.getLeft().compareTo(o2.getLeft());
-            if (c != 0) {
-                return c;
-            }
-            c = o1.getRight().compareTo(o2.getRight());
-            if (c != 0) {
-                return c;
-            }
-            return Integer.compare(o1.hashCode(), o2.hashCode());
-        }
-    }
-
     public static Variant deepCopy(Variant var) {
 
         Variant v = new Variant(var.getChromosome(), var.getStart(), var.getEnd(), var.getReference(), var.getAlternate());
@@ -48,7 +48,7 @@ import org.opencb.opencga.storage.hadoop.variant.index.VariantTableHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.VariantTableStudyRow;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHelper;
 import org.opencb.opencga.storage.hadoop.variant.metadata.HBaseStudyConfigurationDBAdaptor;
-import org.opencb.opencga.storage.hadoop.variant.models.protobuf.SampleList;
+import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -332,9 +332,8 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
             } else {
                 VariantTableStudyRow row = rowsMap.get(studyId);
                 calculatePassCallRates(row, attributesMap, loadedSamplesSize);
-                Set<Integer> sampleWithVariant = new HashSet<>();
+                RoaringBitmap sampleWithVariant = row.getSamplesWithVariant();
                 for (String genotype : row.getGenotypes()) {
-                    sampleWithVariant.addAll(row.getSampleIds(genotype));
                     if (genotype.equals(VariantTableStudyRow.OTHER)) {
                         continue; // skip OTHER -> see Complex type
                     }
@@ -350,13 +349,8 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
                 }
 
                 // Load complex genotypes
-                for (Entry<Integer, String> entry : row.getComplexVariant().getSampleToGenotypeMap().entrySet()) {
-                    sampleWithVariant.add(entry.getKey());
-                    Integer samplePosition = getSamplePosition(returnedSamplesPosition, mapSampleIds, entry.getKey());
-                    if (samplePosition == null) {
-                        continue;   //Sample may not be required. Ignore this sample.
-                    }
-                    String genotype = entry.getValue();
+                for (Entry<String, RoaringBitmap> entry : row.getComplexGenotypes().entrySet()) {
+                    String genotype = entry.getKey();
                     String returnedGenotype;
                     // FIXME: Decide what to do with lists of genotypes
                     if (simpleGenotypes) {
@@ -365,7 +359,13 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
                     } else {
                         returnedGenotype = genotype;
                     }
-                    samplesDataArray[samplePosition] = Arrays.asList(returnedGenotype, VariantMerger.PASS_VALUE);
+                    for (Integer sampleId : entry.getValue()) {
+                        Integer samplePosition = getSamplePosition(returnedSamplesPosition, mapSampleIds, sampleId);
+                        if (samplePosition == null) {
+                            continue;   //Sample may not be required. Ignore this sample.
+                        }
+                        samplesDataArray[samplePosition] = Arrays.asList(returnedGenotype, VariantMerger.PASS_VALUE);
+                    }
                 }
 
                 // Fill gaps (with HOM_REF)
@@ -379,7 +379,7 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
 
                 // Check homRef count
                 int homRefCount = loadedSamplesSize;
-                homRefCount -= sampleWithVariant.size();
+                homRefCount -= sampleWithVariant.getCardinality();
                 if (homRefCount != row.getHomRefCount()) {
                     String message = "Wrong number of HomRef samples for variant " + variant + ". Got " + homRefCount + ", expect "
                             + row.getHomRefCount() + ". Samples number: " + samplesDataArray.length + " , ";
@@ -392,10 +392,10 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
 
                 // Set pass field
                 int passCount = loadedSamplesSize;
-                for (Entry<String, SampleList> entry : row.getComplexFilter().getFilterNonPass().entrySet()) {
+                for (Entry<String, RoaringBitmap> entry : row.getFilterNonPass().entrySet()) {
                     String filterString = entry.getKey();
-                    passCount -= entry.getValue().getSampleIdsCount();
-                    for (Integer id : entry.getValue().getSampleIdsList()) {
+                    passCount -= entry.getValue().getCardinality();
+                    for (Integer id : entry.getValue()) {
                         Integer samplePosition = getSamplePosition(returnedSamplesPosition, mapSampleIds, id);
                         if (samplePosition == null) {
                             continue; // Sample may not be required. Ignore this sample.
@@ -477,8 +477,8 @@ public abstract class HBaseToVariantConverter<T> implements Converter<T, Variant
 
     protected List<AlternateCoordinate> getAlternateCoordinates(Variant variant, VariantTableStudyRow row) {
         List<AlternateCoordinate> secAltArr;
-        List<VariantProto.AlternateCoordinate> secondaryAlternates = row.getComplexVariant().getSecondaryAlternatesList();
-        int secondaryAlternatesCount = row.getComplexVariant().getSecondaryAlternatesCount();
+        List<VariantProto.AlternateCoordinate> secondaryAlternates = row.getSecondaryAlternates();
+        int secondaryAlternatesCount = secondaryAlternates.size();
         secAltArr = new ArrayList<>(secondaryAlternatesCount);
         if (secondaryAlternatesCount > 0) {
             for (VariantProto.AlternateCoordinate altCoordinate : secondaryAlternates) {
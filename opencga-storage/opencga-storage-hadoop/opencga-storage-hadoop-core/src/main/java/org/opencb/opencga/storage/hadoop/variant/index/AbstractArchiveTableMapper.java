@@ -201,8 +201,9 @@ public abstract class AbstractArchiveTableMapper extends AbstractHBaseVariantMap
         }
         logger.info("Store variants: " + tableStudyRows.size());
         Put put = new Put(rowKey);
+        boolean writeLegacySamples = VariantTableStudyRow.isWriteLegacySamples(getHelper().getConf());
         for (VariantTableStudyRow row : tableStudyRows) {
-            byte[] value = VariantTableStudyRow.toProto(Collections.singletonList(row), getTimestamp()).toByteArray();
+            byte[] value = VariantTableStudyRow.toProto(Collections.singletonList(row), getTimestamp(), writeLegacySamples).toByteArray();
             String column = GenomeHelper.getVariantColumn(row);
             put.addColumn(getHelper().getColumnFamily(), Bytes.toBytes(column), value);
         }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.index;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+/**
+ * Set of genomic positions stored as sorted, non overlapping and non adjacent intervals.
+ *
+ * Used to track the positions covered by the variants of a slice, where long deletions and reference blocks
+ * would produce millions of positions. All the operations scale with the number of intervals, not with the number of bases.
+ * Intervals are inclusive on both ends. Optionally, all the intervals are clipped to the limits of a slice.
+ *
+ * Not thread safe for writing. Once built, can be read from multiple threads.
+ *
+ * Created on 17/10/17.
+ */
+public class CoveredRegions {
+
+    private final int sliceStart;
+    private final int sliceEnd;
+    // Interval start -> interval end
+    private final NavigableMap<Integer, Integer> regions = new TreeMap<>();
+
+    public CoveredRegions() {
+        this(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param sliceStart First position of the slice
+     * @param sliceEnd   Last position of the slice, inclusive
+     */
+    public CoveredRegions(int sliceStart, int sliceEnd) {
+        this.sliceStart = sliceStart;
+        this.sliceEnd = sliceEnd;
+    }
+
+    /**
+     * Add the positions of an interval. Empty intervals (end &lt; start) are ignored.
+     *
+     * @param start First position
+     * @param end   Last position, inclusive
+     * @return this
+     */
+    public CoveredRegions add(int start, int end) {
+        start = Math.max(start, sliceStart);
+        end = Math.min(end, sliceEnd);
+        if (end < start) {
+            return this;
+        }
+        // Merge with the previous interval, if overlaps or is adjacent
+        Map.Entry<Integer, Integer> previous = regions.floorEntry(start);
+        if (previous != null && previous.getValue() + 1L >= start) {
+            if (previous.getValue() >= end) {
+                return this;
+            }
+            start = previous.getKey();
+        }
+        // Absorb the following intervals
+        Map.Entry<Integer, Integer> next = regions.ceilingEntry(start);
+        while (next != null && next.getKey() <= end + 1L) {
+            end = Math.max(end, next.getValue());
+            regions.remove(next.getKey());
+            next = regions.higherEntry(next.getKey());
+        }
+        regions.put(start, end);
+        return this;
+    }
+
+    /**
+     * Union with other covered regions.
+     *
+     * @param other Covered regions to add
+     * @return this
+     */
+    public CoveredRegions addAll(CoveredRegions other) {
+        for (Map.Entry<Integer, Integer> entry : other.regions.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Remove the positions of an interval.
+     *
+     * @param start First position
+     * @param end   Last position, inclusive
+     * @return this
+     */
+    public CoveredRegions remove(int start, int end) {
+        if (end < start) {
+            return this;
+        }
+        // Trim the interval starting before
+        Map.Entry<Integer, Integer> previous = regions.lowerEntry(start);
+        if (previous != null && previous.getValue() >= start) {
+            regions.put(previous.getKey(), start - 1);
+            if (previous.getValue() > end) {
+                regions.put(end + 1, previous.getValue());
+                return this;
+            }
+        }
+        // Remove the intervals starting inside, keeping the part after the end
+        NavigableMap<Integer, Integer> inside = regions.subMap(start, true, end, true);
+        if (!inside.isEmpty()) {
+            int lastEnd = inside.lastEntry().getValue();
+            inside.clear();
+            if (lastEnd > end) {
+                regions.put(end + 1, lastEnd);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Subtract other covered regions.
+     *
+     * @param other Covered regions to remove
+     * @return this
+     */
+    public CoveredRegions removeAll(CoveredRegions other) {
+        for (Map.Entry<Integer, Integer> entry : other.regions.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    public boolean contains(int position) {
+        return overlaps(position, position);
+    }
+
+    /**
+     * @param start First position
+     * @param end   Last position, inclusive
+     * @return If any position of the interval is covered
+     */
+    public boolean overlaps(int start, int end) {
+        if (end < start) {
+            return false;
+        }
+        Map.Entry<Integer, Integer> entry = regions.floorEntry(end);
+        return entry != null && entry.getValue() >= start;
+    }
+
+    /**
+     * Get the intervals of positions not covered within a region.
+     *
+     * @param start First position
+     * @param end   Last position, inclusive
+     * @return Sorted list of uncovered intervals
+     */
+    public List<Pair<Integer, Integer>> getUncoveredRegions(int start, int end) {
+        if (end < start) {
+            return Collections.emptyList();
+        }
+        List<Pair<Integer, Integer>> uncovered = new ArrayList<>();
+        Integer from = regions.floorKey(start);
+        long position = start;
+        for (Map.Entry<Integer, Integer> entry : regions.subMap(from == null ? start : from, true, end, true).entrySet()) {
+            if (entry.getKey() > position) {
+                uncovered.add(new ImmutablePair<>((int) position, entry.getKey() - 1));
+            }
+            position = Math.max(position, entry.getValue() + 1L);
+        }
+        if (position <= end) {
+            uncovered.add(new ImmutablePair<>((int) position, end));
+        }
+        return uncovered;
+    }
+
+    /**
+     * @return Sorted list of covered intervals
+     */
+    public List<Pair<Integer, Integer>> getRegions() {
+        List<Pair<Integer, Integer>> list = new ArrayList<>(regions.size());
+        for (Map.Entry<Integer, Integer> entry : regions.entrySet()) {
+            list.add(new ImmutablePair<>(entry.getKey(), entry.getValue()));
+        }
+        return list;
+    }
+
+    public boolean isEmpty() {
+        return regions.isEmpty();
+    }
+
+    /**
+     * @return Number of intervals
+     */
+    public int size() {
+        return regions.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<Integer, Integer> entry : regions.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append('-').append(entry.getValue());
+        }
+        return sb.append(']').toString();
+    }
+}
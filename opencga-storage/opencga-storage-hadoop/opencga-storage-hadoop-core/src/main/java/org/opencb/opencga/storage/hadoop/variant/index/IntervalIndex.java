@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.index;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable index of elements by the interval of positions they cover.
+ *
+ * Elements are sorted by start, with the maximum end of all the previous elements, so the elements overlapping
+ * an interval are found with a binary search and a scan over the candidates, without expanding every covered position.
+ * Intervals are inclusive on both ends, and clipped to the limits of a slice.
+ *
+ * Once built, can be read from multiple threads.
+ *
+ * Created on 17/10/17.
+ */
+public class IntervalIndex<T> {
+
+    private final List<T> elements;
+    private final int[] starts;
+    private final int[] ends;
+    // Maximum end of the elements up to each index
+    private final int[] maxEnds;
+
+    /**
+     * @param elements      Elements to index
+     * @param startFunction First position covered by each element
+     * @param endFunction   Last position covered by each element, inclusive
+     * @param sliceStart    First position of the slice
+     * @param sliceEnd      Last position of the slice, inclusive
+     */
+    public IntervalIndex(Collection<T> elements, ToIntFunction<T> startFunction, ToIntFunction<T> endFunction,
+                         int sliceStart, int sliceEnd) {
+        List<int[]> intervals = new ArrayList<>(elements.size());
+        List<T> list = new ArrayList<>(elements.size());
+        for (T element : elements) {
+            int start = Math.max(startFunction.applyAsInt(element), sliceStart);
+            int end = Math.min(endFunction.applyAsInt(element), sliceEnd);
+            if (start <= end) {
+                intervals.add(new int[]{start, end, list.size()});
+                list.add(element);
+            }
+        }
+        intervals.sort(Comparator.comparingInt(interval -> interval[0]));
+
+        this.elements = new ArrayList<>(intervals.size());
+        starts = new int[intervals.size()];
+        ends = new int[intervals.size()];
+        maxEnds = new int[intervals.size()];
+        for (int i = 0; i < intervals.size(); i++) {
+            int[] interval = intervals.get(i);
+            this.elements.add(list.get(interval[2]));
+            starts[i] = interval[0];
+            ends[i] = interval[1];
+            maxEnds[i] = i == 0 ? interval[1] : Math.max(maxEnds[i - 1], interval[1]);
+        }
+    }
+
+    /**
+     * @param start First position
+     * @param end   Last position, inclusive
+     * @return Elements covering any position of the interval
+     */
+    public List<T> getOverlapping(int start, int end) {
+        if (end < start) {
+            return Collections.emptyList();
+        }
+        // First element starting after the end of the interval
+        int idx = Arrays.binarySearch(starts, end);
+        if (idx < 0) {
+            idx = -idx - 1;
+        } else {
+            while (idx < starts.length && starts[idx] <= end) {
+                idx++;
+            }
+        }
+        List<T> overlapping = new ArrayList<>();
+        // Previous elements can not overlap once the maximum end is before the start of the interval
+        for (int i = idx - 1; i >= 0 && maxEnds[i] >= start; i--) {
+            if (ends[i] >= start) {
+                overlapping.add(elements.get(i));
+            }
+        }
+        return overlapping;
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+}
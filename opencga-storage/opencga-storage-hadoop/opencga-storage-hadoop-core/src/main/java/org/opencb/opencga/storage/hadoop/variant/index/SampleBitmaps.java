@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.index;
+
+import com.google.protobuf.ByteString;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Utility methods to work with sets of sample ids encoded as {@link RoaringBitmap}.
+ *
+ * Sample ids are small and dense integers within a study, so a compressed bitmap takes a few bits per sample,
+ * instead of the ~50 bytes per sample of a boxed {@code HashSet<Integer>}.
+ *
+ * Created on 17/10/17.
+ */
+public final class SampleBitmaps {
+
+    // Only used through read-only views
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private SampleBitmaps() {
+    }
+
+    /**
+     * @return New empty bitmap
+     */
+    public static RoaringBitmap empty() {
+        return new RoaringBitmap();
+    }
+
+    public static RoaringBitmap of(Collection<Integer> sampleIds) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (Integer sampleId : sampleIds) {
+            bitmap.add(sampleId);
+        }
+        return bitmap;
+    }
+
+    public static RoaringBitmap of(int[] sampleIds) {
+        return RoaringBitmap.bitmapOf(sampleIds);
+    }
+
+    /**
+     * Read-only {@link Set} view of a bitmap. Changes in the bitmap are visible through the view.
+     *
+     * @param bitmap Bitmap to wrap
+     * @return Unmodifiable set view
+     */
+    public static Set<Integer> asSet(RoaringBitmap bitmap) {
+        return Collections.unmodifiableSet(new BitmapSet(bitmap == null ? EMPTY : bitmap));
+    }
+
+    public static List<Integer> toList(RoaringBitmap bitmap) {
+        List<Integer> list = new ArrayList<>(bitmap.getCardinality());
+        IntIterator iterator = bitmap.getIntIterator();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    public static RoaringBitmap union(Collection<RoaringBitmap> bitmaps) {
+        RoaringBitmap union = new RoaringBitmap();
+        for (RoaringBitmap bitmap : bitmaps) {
+            union.or(bitmap);
+        }
+        return union;
+    }
+
+    public static boolean intersects(RoaringBitmap a, RoaringBitmap b) {
+        return RoaringBitmap.intersects(a, b);
+    }
+
+    /**
+     * Serialize the bitmap using the portable Roaring format, after converting long runs of consecutive ids into run containers.
+     * The given bitmap is not modified.
+     *
+     * @param bitmap Bitmap to serialize
+     * @return Serialized bitmap
+     */
+    public static byte[] toBytes(RoaringBitmap bitmap) {
+        bitmap = bitmap.clone();
+        bitmap.runOptimize();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bitmap.serializedSizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            bitmap.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    public static ByteString toByteString(RoaringBitmap bitmap) {
+        return ByteString.copyFrom(toBytes(bitmap));
+    }
+
+    public static RoaringBitmap fromBytes(byte[] bytes) {
+        return fromBytes(new ByteArrayInputStream(bytes));
+    }
+
+    public static RoaringBitmap fromBytes(ByteString bytes) {
+        return fromBytes(bytes.newInput());
+    }
+
+    private static RoaringBitmap fromBytes(InputStream is) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try (DataInputStream in = new DataInputStream(is)) {
+            bitmap.deserialize(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private static final class BitmapSet extends AbstractSet<Integer> {
+        private final RoaringBitmap bitmap;
+
+        private BitmapSet(RoaringBitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return bitmap.iterator();
+        }
+
+        @Override
+        public int size() {
+            return bitmap.getCardinality();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return bitmap.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && bitmap.contains((Integer) o);
+        }
+    }
+}
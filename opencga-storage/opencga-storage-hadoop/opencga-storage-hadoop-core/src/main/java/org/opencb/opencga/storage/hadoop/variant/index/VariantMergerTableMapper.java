@@ -53,7 +53,6 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.opencb.opencga.storage.hadoop.variant.AnalysisTableMapReduceHelper.COUNTER_GROUP_NAME;
@@ -72,6 +71,8 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
     private VariantMerger variantMergerSamplesToIndex;
     private boolean resolveConflict;
     private Integer archiveBatchSize;
+    private int archivePrefetchBatches;
+    private ExecutorService archivePrefetchExecutor;
 
     public static final EnumSet<VariantType> TARGET_VARIANT_TYPE_SET = EnumSet.of(
             VariantType.SNV, VariantType.SNP,
@@ -94,6 +95,13 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
             this.getResultConverter().setParallel(true);
         }
         this.archiveBatchSize = context.getConfiguration().getInt(MERGE_ARCHIVE_SCAN_BATCH_SIZE, DEFAULT_MERGE_ARCHIVE_SCAN_BATCH_SIZE);
+        this.archivePrefetchBatches = Math.max(0,
+                context.getConfiguration().getInt(MERGE_ARCHIVE_PREFETCH_BATCHES, DEFAULT_MERGE_ARCHIVE_PREFETCH_BATCHES));
+        this.archivePrefetchExecutor = Executors.newFixedThreadPool(Math.max(1, archivePrefetchBatches), runnable -> {
+            Thread thread = new Thread(runnable, "archive_prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         // TODO: Read from configuration?
         resolveConflict = true;
@@ -153,6 +161,9 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
 
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
+        if (archivePrefetchExecutor != null) {
+            archivePrefetchExecutor.shutdownNow();
+        }
         super.cleanup(context);
     }
 
@@ -214,7 +225,7 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
     }
 
     private void processAnalysisVariants(VariantMapReduceContext ctx, List<Variant> analysisVar,
-                                         final NavigableMap<Integer, List<Variant>> varPosRegister, List<VariantTableStudyRow> rows) {
+                                         final IntervalIndex<Variant> varPosRegister, List<VariantTableStudyRow> rows) {
 
         /* ******** Update Analysis Variants ************** */
 
@@ -296,7 +307,7 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
      *
      */
     private void processNewVariants(VariantMapReduceContext ctx, Collection<Variant> analysisNew,
-                                    NavigableMap<Integer, List<Variant>> varPosRegister, List<VariantTableStudyRow> rows)
+                                    IntervalIndex<Variant> varPosRegister, List<VariantTableStudyRow> rows)
             throws IOException {
         logger.info("Merge {} new variants ", analysisNew.size());
         final AtomicLong overlap = new AtomicLong(0);
@@ -329,12 +340,10 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
     private void fillNewWithIndexedSamples(VariantMapReduceContext ctx, Collection<Variant> analysisNew) throws IOException {
         AtomicLong overlap = new AtomicLong(0);
         AtomicLong merge = new AtomicLong(0);
-        Set<Integer> coveredPositions = new ConcurrentSkipListSet<>();
-        processVariants(analysisNew, var -> {
-            int min = toPosition(var, true);
-            int max = toPosition(var, false);
-            coveredPositions.addAll(IntStream.range(min, max + 1).boxed().collect(Collectors.toList()));
-        });
+        CoveredRegions coveredRegions = new CoveredRegions();
+        for (Variant var : analysisNew) {
+            coveredRegions.add(toPosition(var, true), toPosition(var, false));
+        }
 
         loadFromArchive(ctx.context, ctx.getCurrRowKey(), ctx.fileIds, (fileIds, res) -> {
             if (null == res || res.isEmpty()) {
@@ -366,10 +375,8 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
                     }
                 }
                 int pad = 3;
-                for (int i = min - pad; i <= max + pad; i++) {
-                    if (coveredPositions.contains(i)) {
-                        return true;
-                    }
+                if (coveredRegions.overlaps(min - pad, max + pad)) {
+                    return true;
                 }
                 discardedVcfRecord.incrementAndGet();
                 return false;
@@ -378,11 +385,8 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
                 completeAlternateCoordinates(var);
                 int min = toPosition(var, true);
                 int max = toPosition(var, false);
-//                return IntStream.range(min, max + 1).boxed().anyMatch(i -> coveredPositions.contains(i));
-                for (int i = min; i <= max; i++) {
-                    if (coveredPositions.contains(i)) {
-                        return true;
-                    }
+                if (coveredRegions.overlaps(min, max)) {
+                    return true;
                 }
                 discardedVariant.incrementAndGet();
                 return false;
@@ -398,8 +402,7 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
             logger.info("Loaded " + archiveOther.size() + " variants for " + fileIds.size() + " files");
 
             startTime = System.nanoTime();
-            final NavigableMap<Integer, List<Variant>> varPosSortedOther =
-                    indexAlts(archiveOther, (int)ctx.startPos, (int)ctx.nextStartPos);
+            final IntervalIndex<Variant> varPosSortedOther = indexAlts(archiveOther, (int) ctx.startPos, (int) ctx.nextStartPos);
             logger.info("Create alts index of size " + varPosSortedOther.size() + " ... ");
             ctx.context.getCounter(COUNTER_GROUP_NAME, "OTHER_VARIANTS_FROM_ARCHIVE").increment(archiveOther.size());
             ctx.context.getCounter(COUNTER_GROUP_NAME, "OTHER_VARIANTS_FROM_ARCHIVE_NUM_QUERIES").increment(1);
@@ -437,7 +440,7 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
         endStep("1 Unpack and convert input ARCHIVE variants");
 
         logger.info("Index ...");
-        NavigableMap<Integer, List<Variant>> varPosRegister = indexAlts(archiveVar, (int) ctx.startPos, (int) ctx.nextStartPos);
+        IntervalIndex<Variant> varPosRegister = indexAlts(archiveVar, (int) ctx.startPos, (int) ctx.nextStartPos);
         endStep("2 Index input ARCHIVE variants");
 
         logger.info("Parse ...");
@@ -467,16 +470,9 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
         logger.info("Done merging");
     }
 
-    private NavigableMap<Integer, List<Variant>> indexAlts(List<Variant> variants, int startPos, int nextStartPos) {
-        // TODO Check if Alternates need indexing as well !!!
-        final ConcurrentSkipListMap<Integer, List<Variant>> retMap = new ConcurrentSkipListMap<>();
-        Consumer<Variant> variantConsumer = v -> {
-            int from = Math.max(toPosition(v, true), startPos);
-            int to = Math.min(toPosition(v, false) + 1, nextStartPos);
-            IntStream.range(from, to).forEach(p -> retMap.computeIfAbsent(p, (idx) -> new CopyOnWriteArrayList<>()).add(v));
-        };
-        processVariants(variants, variantConsumer);
-        return retMap;
+    private IntervalIndex<Variant> indexAlts(List<Variant> variants, int startPos, int nextStartPos) {
+        // Index by the interval covered by the variant and its secondary alternates, within the slice
+        return new IntervalIndex<>(variants, v -> toPosition(v, true), v -> toPosition(v, false), startPos, nextStartPos - 1);
     }
 
     private static Integer toPosition(Variant variant, boolean isStart) {
@@ -621,19 +617,10 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
         }
     }
 
-    private Collection<Variant> buildOverlappingNonRedundantSet(Variant var, final NavigableMap<Integer, List<Variant>> archiveVar) {
+    private Collection<Variant> buildOverlappingNonRedundantSet(Variant var, final IntervalIndex<Variant> archiveVar) {
         int min = toPosition(var, true);
         int max = toPosition(var, false);
-        Map<Variant, Object> vars = new IdentityHashMap<>();
-        IntStream.range(min, max + 1).boxed().forEach(p -> {
-            List<Variant> lst = archiveVar.get(p);
-            if (null != lst) {
-                for (Variant v : lst) {
-                    vars.put(v, null);
-                }
-            }
-        });
-        return vars.keySet();
+        return archiveVar.getOverlapping(min, max);
     }
 
     /**
@@ -655,39 +642,76 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
             merge.accept(Collections.emptySet(), null);
             return; // done
         }
-        logger.info("Search archive for " + archiveFileIds.size() + " files in total in batches of " + this.archiveBatchSize  + " ... ");
-        while (!archiveFileIds.isEmpty()) {
-            Long startTime = System.nanoTime();
-            // create batch
-            Set<String> batch = new HashSet<>();
-            for (String e : archiveFileIds) {
-                if (batch.size() < this.archiveBatchSize) {
-                    batch.add(e);
+        logger.info("Search archive for " + archiveFileIds.size() + " files in total in batches of " + this.archiveBatchSize
+                + ", prefetching " + archivePrefetchBatches + " batches ... ");
+        // create batches
+        List<Set<String>> batches = new ArrayList<>();
+        Set<String> batch = null;
+        for (String e : archiveFileIds) {
+            if (batch == null || batch.size() >= this.archiveBatchSize) {
+                batch = new HashSet<>();
+                batches.add(batch);
+            }
+            batch.add(e);
+        }
+
+        // Fetch the next batches from HBase while merging the current one
+        Deque<Future<Result>> prefetched = new ArrayDeque<>();
+        int nextBatch = 0;
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                while (nextBatch < batches.size() && prefetched.size() <= archivePrefetchBatches) {
+                    prefetched.add(fetchArchiveSlice(rowKey, batches.get(nextBatch++)));
+                }
+                long startTime = System.nanoTime();
+                Result res = prefetched.poll().get();
+                addStepDuration("9a Wait for archive slice", System.nanoTime() - startTime);
+
+                Set<Integer> batchIds = batches.get(i).stream().map(e -> Integer.valueOf(e)).collect(Collectors.toSet());
+                logger.info("Search archive for " + batchIds.size() + " files with " + (batches.size() - i - 1)
+                        + " batches remaining ... ");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Add files to search in archive: " + StringUtils.join(batches.get(i), ','));
+                }
+                if (res.isEmpty()) {
+                    logger.warn("No data found in archive table!!!");
+                    merge.accept(batchIds, null);
                 } else {
-                    break;
+                    merge.accept(batchIds, res);
                 }
             }
-            archiveFileIds.removeAll(batch); // remove ids
-            logger.info("Search archive for " + batch.size() + " files with " + archiveFileIds.size()  + " remaining ... ");
-            if (logger.isDebugEnabled()) {
-                logger.debug("Add files to search in archive: " + StringUtils.join(batch, ','));
-            }
-            Get get = new Get(rowKey);
-            byte[] cf = getHelper().getColumnFamily();
-            batch.forEach(e -> get.addColumn(cf, Bytes.toBytes(e)));
-            Set<Integer> batchIds = batch.stream().map(e -> Integer.valueOf(e)).collect(Collectors.toSet());
-            Result res = getHBaseManager().act(getHelper().getArchiveTable(), table -> table.get(get));
-            addStepDuration("9a Load archive slice from hbase", System.nanoTime() - startTime);
-            if (res.isEmpty()) {
-                logger.warn("No data found in archive table!!!");
-                merge.accept(batchIds, null);
-            } else {
-                merge.accept(batchIds, res);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException(e.getCause());
+        } finally {
+            prefetched.forEach(future -> future.cancel(true));
         }
         logger.info("Done processing archive data!");
     }
 
+    /**
+     * Asynchronously read the columns of a batch of files from the archive table.
+     * @param rowKey Slice to extract data for
+     * @param batch File ids to read
+     * @return Future result
+     */
+    private Future<Result> fetchArchiveSlice(byte[] rowKey, Set<String> batch) {
+        Get get = new Get(rowKey);
+        byte[] cf = getHelper().getColumnFamily();
+        batch.forEach(e -> get.addColumn(cf, Bytes.toBytes(e)));
+        return archivePrefetchExecutor.submit(() -> {
+            long startTime = System.nanoTime();
+            Result res = getHBaseManager().act(getHelper().getArchiveTable(), table -> table.get(get));
+            addStepDuration("9a Load archive slice from hbase", System.nanoTime() - startTime);
+            return res;
+        });
+    }
+
     /**
      * Check if Archive has Variant objects covering all bases (including no-call objects).
      * Increases HBase counter with the name VCF_VARIANT-error-FIXME to act on.
@@ -700,36 +724,26 @@ public class VariantMergerTableMapper extends AbstractArchiveTableMapper {
     private void checkArchiveConsistency(Context context, long startPos,
             long nextStartPos, List<Variant> archiveVar, List<Variant> analysisVar) {
         // Report Missing regions in ARCHIVE table, which are seen in VAR table
-        Set<Integer> archPosMissing = generateCoveredPositions(analysisVar.stream(), startPos, nextStartPos);
-        archPosMissing.removeAll(generateCoveredPositions(archiveVar.stream(), startPos, nextStartPos));
-        if (!archPosMissing.isEmpty()) {
+        CoveredRegions archRegionsMissing = generateCoveredRegions(analysisVar.stream(), startPos, nextStartPos);
+        archRegionsMissing.removeAll(generateCoveredRegions(archiveVar.stream(), startPos, nextStartPos));
+        if (!archRegionsMissing.isEmpty()) {
             // should never happen - positions exist in variant table but not in archive table
             context.getCounter(COUNTER_GROUP_NAME, "VCF_VARIANT-error-FIXME").increment(1);
-            logger.error(
-                    String.format("Positions found in variant table but not in Archive table: %s",
-                            Arrays.toString(archPosMissing.toArray(new Integer[0]))));
+            logger.error("Positions found in variant table but not in Archive table: {}", archRegionsMissing);
         }
     }
 
-    protected Set<Integer> generateCoveredPositions(Stream<Variant> variants, long startPos, long nextStartPos) {
-        final int sPos = (int) startPos;
-        final int ePos = (int) (nextStartPos - 1);
-        // limit to max start position end min end position (only slice region)
-        // hope this works
-        return variants.map(v -> generateRegion(Math.max(v.getStart(), sPos), Math.min(v.getEnd(), ePos))).flatMap(l -> l.stream())
-                .collect(Collectors.toSet());
-    }
-
-    protected Set<Integer> generateRegion(Integer start, Integer end) {
-        if (end < start) {
-            end = start;
-        }
-        int len = end - start;
-        Integer[] array = new Integer[len + 1];
-        for (int a = 0; a <= len; a++) { // <= to be inclusive
-            array[a] = (start + a);
-        }
-        return new HashSet<>(Arrays.asList(array));
+    /**
+     * Regions covered by the variants, limited to the slice region. Insertions cover their start position.
+     * @param variants Variants
+     * @param startPos First position of the slice
+     * @param nextStartPos First position of the next slice
+     * @return Covered regions
+     */
+    protected CoveredRegions generateCoveredRegions(Stream<Variant> variants, long startPos, long nextStartPos) {
+        CoveredRegions regions = new CoveredRegions((int) startPos, (int) (nextStartPos - 1));
+        variants.forEach(v -> regions.add(v.getStart(), Math.max(v.getStart(), v.getEnd())));
+        return regions;
     }
 
     protected Stream<Variant> filterVariantsByType(Stream<Variant> variants) {
@@ -20,8 +20,10 @@
 package org.opencb.opencga.storage.hadoop.variant.index;
 
 import com.google.common.base.MoreObjects;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
@@ -36,11 +38,13 @@ import org.opencb.biodata.models.variant.protobuf.VariantProto.AlternateCoordina
 import org.opencb.biodata.models.variant.protobuf.VariantProto.VariantType;
 import org.opencb.biodata.tools.variant.merge.VariantMerger;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.PhoenixHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixKeyFactory;
 import org.opencb.opencga.storage.hadoop.variant.models.protobuf.*;
 import org.opencb.opencga.storage.hadoop.variant.models.protobuf.ComplexFilter.Builder;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -50,12 +54,15 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.opencb.biodata.tools.variant.merge.VariantMerger.GT_KEY;
 
 /**
+ * Sample ids are kept as {@link RoaringBitmap}, in memory and in the protobuf encodings.
+ * The legacy protobuf encodings, with lists of sample ids, are still read, so existing tables are migrated
+ * to the bitmap encoding as their rows are rewritten. The legacy encodings are also written, for older readers, unless
+ * {@link HadoopVariantStorageEngine#VARIANT_TABLE_WRITE_LEGACY_SAMPLES} is disabled.
  *
  * @author Matthias Haimel mh719+git@cam.ac.uk
  */
@@ -85,9 +92,9 @@ public class VariantTableStudyRow {
     private final String ref;
     private final String alt;
     private final org.opencb.biodata.models.variant.avro.VariantType type;
-    private Map<String, Set<Integer>> callMap = new HashMap<>();
-    private Map<Integer, String> sampleToGenotype = new HashMap<>();
-    private Map<String, Set<Integer>> filterToSamples = new HashMap<>();
+    private Map<String, RoaringBitmap> callMap = new HashMap<>();
+    private Map<String, RoaringBitmap> genotypeToSamples = new HashMap<>();
+    private Map<String, RoaringBitmap> filterToSamples = new HashMap<>();
     private List<AlternateCoordinate> secAlternate = new ArrayList<>();
 
     public VariantTableStudyRow(Integer studyId, String chr, int pos, String ref, String alt,
@@ -105,9 +112,9 @@ public class VariantTableStudyRow {
         this.homRefCount = row.homRefCount;
         this.callCount = row.callCount;
         this.passCount = row.passCount;
-        this.callMap.putAll(row.callMap.entrySet().stream().collect(Collectors.toMap(p -> p.getKey(), p -> new HashSet<>(p.getValue()))));
+        this.callMap.putAll(copy(row.callMap));
         this.secAlternate.addAll(row.secAlternate != null ? row.secAlternate : Collections.emptyList());
-        this.sampleToGenotype.putAll(row.sampleToGenotype != null ? row.sampleToGenotype : Collections.emptyMap());
+        this.genotypeToSamples.putAll(copy(row.genotypeToSamples));
     }
 
     public VariantTableStudyRow(VariantTableStudyRowProto proto, String chromosome, Integer studyId) {
@@ -121,18 +128,17 @@ public class VariantTableStudyRow {
         this.passCount = proto.getPassCount();
         this.homRefCount = proto.getHomRefCount();
         this.callMap = new HashMap<>(4);
-        callMap.put(HOM_VAR, new HashSet<>(proto.getHomVarList()));
-        callMap.put(HET_REF, new HashSet<>(proto.getHetList()));
-        callMap.put(NOCALL, new HashSet<>(proto.getNocallList()));
-        callMap.put(OTHER, new HashSet<>(proto.getOtherList()));
-        for (Map.Entry<String, SampleList> entry : proto.getOtherGt().entrySet()) {
-            String gt = entry.getKey();
-            for (Integer sid : entry.getValue().getSampleIdsList()) {
-                sampleToGenotype.put(sid, gt);
-            }
+        callMap.put(HOM_VAR, toBitmap(proto.getHomVarBitmap(), proto.getHomVarList()));
+        callMap.put(HET_REF, toBitmap(proto.getHetBitmap(), proto.getHetList()));
+        callMap.put(NOCALL, toBitmap(proto.getNocallBitmap(), proto.getNocallList()));
+        callMap.put(OTHER, toBitmap(proto.getOtherBitmap(), proto.getOtherList()));
+        for (Entry<String, SampleList> entry : proto.getOtherGtMap().entrySet()) {
+            addComplexGenotype(entry.getKey(), SampleBitmaps.of(entry.getValue().getSampleIdsList()));
+        }
+        for (Entry<String, ByteString> entry : proto.getOtherGtBitmapMap().entrySet()) {
+            addComplexGenotype(entry.getKey(), SampleBitmaps.fromBytes(entry.getValue()));
         }
-        this.filterToSamples = proto.getFilterNonPass().entrySet().stream()
-                .collect(Collectors.toMap(k -> k.getKey(), e -> new HashSet<>(e.getValue().getSampleIdsList())));
+        addAll(filterToSamples, proto.getFilterNonPassBitmapMap(), proto.getFilterNonPassMap());
         this.secAlternate = proto.getSecondaryAlternateList();
     }
 
@@ -151,28 +157,46 @@ public class VariantTableStudyRow {
     }
 
     public ComplexFilter getComplexFilter() {
+        return getComplexFilter(HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES);
+    }
+
+    public ComplexFilter getComplexFilter(boolean writeLegacy) {
         Builder b = ComplexFilter.newBuilder();
-        Map<String, SampleList> map = toSampleListMap(this.filterToSamples);
-        b.putAllFilterNonPass(map);
+        b.putAllFilterNonPassBitmap(toByteStringMap(this.filterToSamples));
+        if (writeLegacy) {
+            b.putAllFilterNonPass(toSampleListMap(this.filterToSamples));
+        }
         return b.build();
     }
 
     private void setComplexFilter(ComplexFilter cf) {
-        Map<String, Set<Integer>> map = cf.getFilterNonPass().entrySet().stream().collect(
-                Collectors.toMap(e -> e.getKey(), e -> new HashSet<>(e.getValue().getSampleIdsList())));
-        this.filterToSamples.putAll(map);
+        addAll(this.filterToSamples, cf.getFilterNonPassBitmapMap(), cf.getFilterNonPassMap());
     }
 
     public ComplexVariant getComplexVariant() {
-        return ComplexVariant.newBuilder()
-                .putAllSampleToGenotype(this.sampleToGenotype)
-                .addAllSecondaryAlternates(this.secAlternate).build();
+        return getComplexVariant(HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES);
+    }
+
+    public ComplexVariant getComplexVariant(boolean writeLegacy) {
+        ComplexVariant.Builder builder = ComplexVariant.newBuilder()
+                .putAllGenotypeToSamples(toByteStringMap(this.genotypeToSamples))
+                .addAllSecondaryAlternates(this.secAlternate);
+        if (writeLegacy) {
+            for (Entry<String, RoaringBitmap> entry : this.genotypeToSamples.entrySet()) {
+                for (Integer sampleId : entry.getValue()) {
+                    builder.putSampleToGenotype(sampleId, entry.getKey());
+                }
+            }
+        }
+        return builder.build();
     }
 
     public void setComplexVariant(ComplexVariant complexVariant) {
-        Map<Integer, String> map = complexVariant.getSampleToGenotype();
-        if (map != null && map.size() > 0) {
-            this.sampleToGenotype.putAll(map);
+        for (Entry<Integer, String> entry : complexVariant.getSampleToGenotypeMap().entrySet()) {
+            addComplexGenotype(entry.getKey(), entry.getValue());
+        }
+        for (Entry<String, ByteString> entry : complexVariant.getGenotypeToSamplesMap().entrySet()) {
+            addComplexGenotype(entry.getKey(), SampleBitmaps.fromBytes(entry.getValue()));
         }
         List<AlternateCoordinate> secAlt = complexVariant.getSecondaryAlternatesList();
         if (secAlt != null && !secAlt.isEmpty()) {
@@ -180,16 +204,62 @@ public class VariantTableStudyRow {
         }
     }
 
+    public List<AlternateCoordinate> getSecondaryAlternates() {
+        return Collections.unmodifiableList(secAlternate);
+    }
+
     public Set<String> getGenotypes() {
         return callMap.keySet();
     }
 
+    /**
+     * Get the samples with a genotype code, as a set.
+     *
+     * @param gt Genotype code
+     * @return Read-only view of the samples with the given genotype code
+     */
     public Set<Integer> getSampleIds(String gt) {
-        Set<Integer> set = this.callMap.get(gt);
-        if (null == set) {
-            return Collections.emptySet();
-        }
-        return set;
+        return SampleBitmaps.asSet(this.callMap.get(gt));
+    }
+
+    /**
+     * Get the samples with a genotype code, as a bitmap.
+     *
+     * @param gt Genotype code
+     * @return Bitmap of the samples with the given genotype code. Must not be modified.
+     */
+    public RoaringBitmap getSampleBitmap(String gt) {
+        RoaringBitmap bitmap = this.callMap.get(gt);
+        return bitmap == null ? SampleBitmaps.empty() : bitmap;
+    }
+
+    /**
+     * Union of the samples of all the genotype codes and complex genotypes.
+     *
+     * @return Samples with any genotype code or complex genotype. Includes NOCALL samples.
+     */
+    public RoaringBitmap getSamplesWithVariant() {
+        RoaringBitmap samples = SampleBitmaps.union(this.callMap.values());
+        samples.or(SampleBitmaps.union(this.genotypeToSamples.values()));
+        return samples;
+    }
+
+    /**
+     * Get the complex genotypes.
+     *
+     * @return Complex genotypes (see {@link #OTHER}), with the bitmap of samples for each genotype. Bitmaps must not be modified.
+     */
+    public Map<String, RoaringBitmap> getComplexGenotypes() {
+        return Collections.unmodifiableMap(this.genotypeToSamples);
+    }
+
+    /**
+     * Get the non PASS filters.
+     *
+     * @return Non PASS filters, with the bitmap of samples for each filter. Bitmaps must not be modified.
+     */
+    public Map<String, RoaringBitmap> getFilterNonPass() {
+        return Collections.unmodifiableMap(this.filterToSamples);
     }
 
     public Set<Integer> getSampleIds(Genotype gt) {
@@ -206,12 +276,10 @@ public class VariantTableStudyRow {
      * @throws IllegalStateException in case the sample already exists in the collection
      */
     public void addSampleId(String gt, Collection<Integer> sampleIds) {
-        Set<Integer> set = this.callMap.get(gt);
-        if (null == set) {
-            set = new HashSet<>();
-            this.callMap.put(gt, set);
+        RoaringBitmap bitmap = this.callMap.computeIfAbsent(gt, k -> new RoaringBitmap());
+        for (Integer sampleId : sampleIds) {
+            bitmap.add(sampleId);
         }
-        set.addAll(sampleIds);
     }
 
     /**
@@ -220,14 +288,35 @@ public class VariantTableStudyRow {
      * @throws IllegalStateException in case the sample already exists in the collection
      */
     public void addSampleId(String gt, Integer sampleId) {
-        Set<Integer> set = this.callMap.get(gt);
-        if (null == set) {
-            set = new HashSet<>();
-            this.callMap.put(gt, set);
-        }
-        if (!set.add(sampleId)) {
+        RoaringBitmap bitmap = this.callMap.computeIfAbsent(gt, k -> new RoaringBitmap());
+        if (bitmap.contains(sampleId)) {
             throw new IllegalStateException(String.format("Sample id %s already in gt set %s", sampleId, gt));
         }
+        bitmap.add(sampleId);
+    }
+
+    private void addComplexGenotype(Integer sampleId, String gt) {
+        addComplexGenotype(gt, RoaringBitmap.bitmapOf(sampleId));
+    }
+
+    /**
+     * Each sample has only one complex genotype. Samples are removed from any other genotype, so the last one wins.
+     *
+     * @param gt        Complex genotype
+     * @param sampleIds Samples with this genotype
+     */
+    private void addComplexGenotype(String gt, RoaringBitmap sampleIds) {
+        Iterator<Entry<String, RoaringBitmap>> iterator = this.genotypeToSamples.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, RoaringBitmap> entry = iterator.next();
+            if (!entry.getKey().equals(gt)) {
+                entry.getValue().andNot(sampleIds);
+                if (entry.getValue().isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        this.genotypeToSamples.computeIfAbsent(gt, k -> new RoaringBitmap()).or(sampleIds);
     }
 
     public byte[] generateRowKey(VariantTableHelper helper) {
@@ -294,60 +383,63 @@ public class VariantTableStudyRow {
      * @return NULL if no changes, else PUT object with changed columns
      */
     public Put createSpecificPut(VariantTableHelper helper, Set<Integer> newSampleIds) {
+        boolean writeLegacy = isWriteLegacySamples(helper.getConf());
         boolean doPut = false;
         byte[] generateRowKey = generateRowKey(helper);
         byte[] cf = helper.getColumnFamily();
         Integer sid = helper.getStudyId();
         Put put = new Put(generateRowKey);
-        Set<Integer> newHomRef = new HashSet<>(newSampleIds);
+        RoaringBitmap newSamples = SampleBitmaps.of(newSampleIds);
+        RoaringBitmap newHomRef = newSamples.clone();
 
         /***** Complex GT *****/
-        Set<Integer> foundIds = this.sampleToGenotype.entrySet().stream().filter(e -> newSampleIds.contains(e.getKey()))
-                .map(e -> e.getKey()).collect(Collectors.toSet());
+        RoaringBitmap foundIds = new RoaringBitmap();
         /***** Secondary Alt list *****/
         // newRow.secAlternate // not needed to filter down //TODO check if new alternate is referenced
-        // Function to extract index list of all alleles
-        Function<Map.Entry<Integer, String>, Set<Integer>> function = (e) -> Genotype.parse(e.getValue()).stream()
-                .flatMap(g -> g.toProtobuf().getAllelesIdxList().stream()).collect(Collectors.toSet());
-        Set<Integer> oldIdx = this.sampleToGenotype.entrySet().stream().filter(e -> !newSampleIds.contains(e.getKey()))
-                .map(function).flatMap(l -> l.stream()).collect(Collectors.toSet());
-        Set<Integer> newIdx = this.sampleToGenotype.entrySet().stream().filter(e -> newSampleIds.contains(e.getKey()))
-                .map(function).flatMap(l -> l.stream()).collect(Collectors.toSet());
+        // Index list of all alleles used by old and new samples
+        Set<Integer> oldIdx = new HashSet<>();
+        Set<Integer> newIdx = new HashSet<>();
+        for (Entry<String, RoaringBitmap> entry : this.genotypeToSamples.entrySet()) {
+            RoaringBitmap found = RoaringBitmap.and(entry.getValue(), newSamples);
+            if (!found.isEmpty()) {
+                foundIds.or(found);
+                newIdx.addAll(getAllelesIdx(entry.getKey()));
+            }
+            if (found.getCardinality() < entry.getValue().getCardinality()) {
+                oldIdx.addAll(getAllelesIdx(entry.getKey()));
+            }
+        }
         newIdx.removeAll(oldIdx);
         if (!newIdx.isEmpty() || !foundIds.isEmpty()) {
             doPut = true;
-            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, COMPLEX)), this.getComplexVariant().toByteArray());
-            newHomRef.removeAll(foundIds);
+            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, COMPLEX)), this.getComplexVariant(writeLegacy).toByteArray());
+            newHomRef.andNot(foundIds);
         }
 
         /***** Filter *****/
-        long cntFilter = this.filterToSamples.entrySet().stream().filter(e -> !Collections.disjoint(e.getValue(), newSampleIds)).count();
-        if (cntFilter > 0) {
+        boolean newFilter = this.filterToSamples.values().stream().anyMatch(samples -> SampleBitmaps.intersects(samples, newSamples));
+        if (newFilter) {
             doPut = true;
-            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, FILTER_OTHER)), this.getComplexFilter().toByteArray());
+            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, FILTER_OTHER)), this.getComplexFilter(writeLegacy).toByteArray());
         }
         /**** PASS CNT ***/
-        Set<Integer> newPassIds = new HashSet<>(newSampleIds);
-        this.filterToSamples.values().forEach(newPassIds::removeAll);
+        RoaringBitmap newPassIds = RoaringBitmap.andNot(newSamples, SampleBitmaps.union(this.filterToSamples.values()));
         if (!newPassIds.isEmpty()) {
             doPut = true;
             put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, PASS_CNT)), Bytes.toBytes(this.passCount));
         }
 
         /**** GT ***/
-        Set<Integer> newCalls = new HashSet<>(newSampleIds);
-        for (Entry<String, Set<Integer>> entry : this.callMap.entrySet()) {
+        RoaringBitmap newCalls = newSamples.clone();
+        for (Entry<String, RoaringBitmap> entry : this.callMap.entrySet()) {
             byte[] column = Bytes.toBytes(buildColumnKey(sid, entry.getKey()));
-            boolean disjoint = Collections.disjoint(entry.getValue(), newSampleIds);
-            if (!disjoint) {
+            if (SampleBitmaps.intersects(entry.getValue(), newSamples)) {
                 doPut = true;
-                List<Integer> value = new ArrayList<>(entry.getValue());
-                Collections.sort(value);
-                byte[] bytesArray = PhoenixHelper.toBytes(value, PUnsignedIntArray.INSTANCE);
+                byte[] bytesArray = PhoenixHelper.toBytes(SampleBitmaps.toList(entry.getValue()), PUnsignedIntArray.INSTANCE);
                 put.addColumn(cf, column, bytesArray);
-                newHomRef.removeAll(value);
+                newHomRef.andNot(entry.getValue());
                 if (StringUtils.equals(entry.getKey(), NOCALL)) {
-                    newCalls.removeAll(value);
+                    newCalls.andNot(entry.getValue());
                 }
             }
         }
@@ -356,7 +448,7 @@ public class VariantTableStudyRow {
             put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, HOM_REF)), Bytes.toBytes(this.homRefCount));
         }
 
-        if (!this.callCount.equals(newCalls.size())) {
+        if (this.callCount != newCalls.getCardinality()) {
             doPut = true;
             put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, CALL_CNT)), Bytes.toBytes(this.callCount));
         }
@@ -373,6 +465,7 @@ public class VariantTableStudyRow {
     }
 
     public Put createPut(VariantTableHelper helper) {
+        boolean writeLegacy = isWriteLegacySamples(helper.getConf());
         byte[] generateRowKey = generateRowKey(helper);
         if (this.callMap.containsKey(HOM_REF)) {
             throw new IllegalStateException(
@@ -386,19 +479,18 @@ public class VariantTableStudyRow {
         put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, HOM_REF)), Bytes.toBytes(this.homRefCount));
         put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, PASS_CNT)), Bytes.toBytes(this.passCount));
         put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, CALL_CNT)), Bytes.toBytes(this.callCount));
-        if (!this.secAlternate.isEmpty() || this.sampleToGenotype.size() > 0) { //add complex genotype column if required
-            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, COMPLEX)), this.getComplexVariant().toByteArray());
+        if (!this.secAlternate.isEmpty() || !this.genotypeToSamples.isEmpty()) { //add complex genotype column if required
+            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, COMPLEX)), this.getComplexVariant(writeLegacy).toByteArray());
         }
         if (!this.filterToSamples.isEmpty()) {
-            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, FILTER_OTHER)), this.getComplexFilter().toByteArray());
+            put.addColumn(cf, Bytes.toBytes(buildColumnKey(sid, FILTER_OTHER)), this.getComplexFilter(writeLegacy).toByteArray());
         }
-        for (Entry<String, Set<Integer>> entry : this.callMap.entrySet()) {
+        for (Entry<String, RoaringBitmap> entry : this.callMap.entrySet()) {
             byte[] column = Bytes.toBytes(buildColumnKey(sid, entry.getKey()));
 
-            List<Integer> value = new ArrayList<>(entry.getValue());
-            if (!value.isEmpty()) {
-                Collections.sort(value);
-                byte[] bytesArray = PhoenixHelper.toBytes(value, PUnsignedIntArray.INSTANCE);
+            if (!entry.getValue().isEmpty()) {
+                // Bitmaps iterate in ascending order
+                byte[] bytesArray = PhoenixHelper.toBytes(SampleBitmaps.toList(entry.getValue()), PUnsignedIntArray.INSTANCE);
                 put.addColumn(cf, column, bytesArray);
             }
         }
@@ -417,24 +509,27 @@ public class VariantTableStudyRow {
     }
 
     public static VariantTableStudyRowsProto toProto(List<VariantTableStudyRow> rows, long timeStamp) {
+        return toProto(rows, timeStamp, HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES);
+    }
+
+    public static VariantTableStudyRowsProto toProto(List<VariantTableStudyRow> rows, long timeStamp, boolean writeLegacy) {
         return VariantTableStudyRowsProto.newBuilder()
-                .addAllRows(rows.stream().map(VariantTableStudyRow::toProto).collect(Collectors.toList()))
+                .addAllRows(rows.stream().map(row -> row.toProto(writeLegacy)).collect(Collectors.toList()))
                 .setTimestamp(timeStamp)
                 .build();
     }
 
+    public static boolean isWriteLegacySamples(Configuration conf) {
+        return conf.getBoolean(HadoopVariantStorageEngine.VARIANT_TABLE_WRITE_LEGACY_SAMPLES,
+                HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES);
+    }
+
     public VariantTableStudyRowProto toProto() {
-        Map<String, List<Integer>> otherGt = new HashMap<>();
-        for (Entry<Integer, String> entry : sampleToGenotype.entrySet()) {
-            String gt = entry.getValue();
-            List<Integer> samples = otherGt.get(gt);
-            if (samples == null) {
-                samples = new LinkedList<>();
-                otherGt.put(gt, samples);
-            }
-            samples.add(entry.getKey());
-        }
-        return VariantTableStudyRowProto.newBuilder()
+        return toProto(HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_WRITE_LEGACY_SAMPLES);
+    }
+
+    public VariantTableStudyRowProto toProto(boolean writeLegacy) {
+        VariantTableStudyRowProto.Builder builder = VariantTableStudyRowProto.newBuilder()
                 .setStart(pos)
                 .setReference(ref)
                 .setAlternate(alt)
@@ -442,14 +537,22 @@ public class VariantTableStudyRow {
                 .setCallCount(callCount)
                 .setPassCount(passCount)
                 .setHomRefCount(homRefCount)
-                .addAllHomVar(callMap.getOrDefault(HOM_VAR, Collections.emptySet()))
-                .addAllHet(callMap.getOrDefault(HET_REF, Collections.emptySet()))
-                .addAllNocall(callMap.getOrDefault(NOCALL, Collections.emptySet()))
-                .addAllOther(callMap.getOrDefault(OTHER, Collections.emptySet()))
+                .setHomVarBitmap(toByteString(callMap.get(HOM_VAR)))
+                .setHetBitmap(toByteString(callMap.get(HET_REF)))
+                .setNocallBitmap(toByteString(callMap.get(NOCALL)))
+                .setOtherBitmap(toByteString(callMap.get(OTHER)))
                 .addAllSecondaryAlternate(secAlternate)
-                .putAllOtherGt(toSampleListMap(otherGt))
-                .putAllFilterNonPass(toSampleListMap(this.filterToSamples))
-                .build();
+                .putAllOtherGtBitmap(toByteStringMap(genotypeToSamples))
+                .putAllFilterNonPassBitmap(toByteStringMap(this.filterToSamples));
+        if (writeLegacy) {
+            builder.addAllHomVar(toList(callMap.get(HOM_VAR)))
+                    .addAllHet(toList(callMap.get(HET_REF)))
+                    .addAllNocall(toList(callMap.get(NOCALL)))
+                    .addAllOther(toList(callMap.get(OTHER)))
+                    .putAllOtherGt(toSampleListMap(genotypeToSamples))
+                    .putAllFilterNonPass(toSampleListMap(this.filterToSamples));
+        }
+        return builder.build();
     }
 
     public VariantType toProto(org.opencb.biodata.models.variant.avro.VariantType type) {
@@ -460,11 +563,77 @@ public class VariantTableStudyRow {
         return org.opencb.biodata.models.variant.avro.VariantType.valueOf(type.toString());
     }
 
-    private Map<String, SampleList> toSampleListMap(Map<String, ? extends Collection<Integer>> map) {
-        return map.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Entry::getKey,
-                        entry -> SampleList.newBuilder().addAllSampleIds(entry.getValue()).build()));
+    private static ByteString toByteString(RoaringBitmap bitmap) {
+        if (bitmap == null || bitmap.isEmpty()) {
+            return ByteString.EMPTY;
+        } else {
+            return SampleBitmaps.toByteString(bitmap);
+        }
+    }
+
+    private static Map<String, ByteString> toByteStringMap(Map<String, RoaringBitmap> map) {
+        Map<String, ByteString> byteStringMap = new HashMap<>(map.size());
+        for (Entry<String, RoaringBitmap> entry : map.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                byteStringMap.put(entry.getKey(), SampleBitmaps.toByteString(entry.getValue()));
+            }
+        }
+        return byteStringMap;
+    }
+
+    private static List<Integer> toList(RoaringBitmap bitmap) {
+        return bitmap == null ? Collections.emptyList() : SampleBitmaps.toList(bitmap);
+    }
+
+    private static Map<String, SampleList> toSampleListMap(Map<String, RoaringBitmap> map) {
+        Map<String, SampleList> sampleListMap = new HashMap<>(map.size());
+        for (Entry<String, RoaringBitmap> entry : map.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                sampleListMap.put(entry.getKey(), SampleList.newBuilder().addAllSampleIds(SampleBitmaps.toList(entry.getValue())).build());
+            }
+        }
+        return sampleListMap;
+    }
+
+    /**
+     * Read a set of samples, from the bitmap encoding and from the legacy encoding.
+     *
+     * @param bitmap Bitmap encoded samples. Empty if missing.
+     * @param legacy Samples from the legacy encoding. Empty if missing.
+     * @return Bitmap with all the samples
+     */
+    private static RoaringBitmap toBitmap(ByteString bitmap, Collection<Integer> legacy) {
+        RoaringBitmap samples = bitmap.isEmpty() ? new RoaringBitmap() : SampleBitmaps.fromBytes(bitmap);
+        for (Integer sampleId : legacy) {
+            samples.add(sampleId);
+        }
+        return samples;
+    }
+
+    private static void addAll(Map<String, RoaringBitmap> map, Map<String, ByteString> bitmaps, Map<String, SampleList> legacy) {
+        for (Entry<String, ByteString> entry : bitmaps.entrySet()) {
+            map.computeIfAbsent(entry.getKey(), k -> new RoaringBitmap()).or(SampleBitmaps.fromBytes(entry.getValue()));
+        }
+        for (Entry<String, SampleList> entry : legacy.entrySet()) {
+            RoaringBitmap samples = map.computeIfAbsent(entry.getKey(), k -> new RoaringBitmap());
+            for (Integer sampleId : entry.getValue().getSampleIdsList()) {
+                samples.add(sampleId);
+            }
+        }
+    }
+
+    private static Map<String, RoaringBitmap> copy(Map<String, RoaringBitmap> map) {
+        Map<String, RoaringBitmap> copy = new HashMap<>(map.size());
+        for (Entry<String, RoaringBitmap> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    private static Set<Integer> getAllelesIdx(String genotype) {
+        return Genotype.parse(genotype).stream()
+                .flatMap(g -> g.toProtobuf().getAllelesIdxList().stream())
+                .collect(Collectors.toSet());
     }
 
     public static List<VariantTableStudyRow> parse(Result result, GenomeHelper helper) {
@@ -538,12 +707,9 @@ public class VariantTableStudyRow {
                 case OTHER:
                     try {
                         PhoenixArray phoenixArray = (PhoenixArray) PUnsignedIntArray.INSTANCE.toObject(entry.getValue());
-                        HashSet<Integer> value = new HashSet<>();
+                        RoaringBitmap value = new RoaringBitmap();
                         if (phoenixArray.getArray() != null) {
-                            int[] array = (int[]) phoenixArray.getArray();
-                            for (int i : array) {
-                                value.add(i);
-                            }
+                            value = SampleBitmaps.of((int[]) phoenixArray.getArray());
                         }
                         callMap.put(gt, value);
                     } catch (Exception e) {
@@ -613,12 +779,9 @@ public class VariantTableStudyRow {
         }
         for (String gt : new String[] { HET_REF, HOM_VAR, OTHER, NOCALL }) {
             Array sqlArray = resultSet.getArray(buildColumnKey(studyId, gt));
-            HashSet<Integer> value = new HashSet<>();
+            RoaringBitmap value = new RoaringBitmap();
             if (sqlArray != null && sqlArray.getArray() != null) {
-                int[] array = (int[]) sqlArray.getArray();
-                for (int i : array) {
-                    value.add(i);
-                }
+                value = SampleBitmaps.of((int[]) sqlArray.getArray());
             }
             callMap.put(gt, value);
         }
@@ -667,7 +830,7 @@ public class VariantTableStudyRow {
         int[] nocall = new Genotype(".").getAllelesIdx();
         int[] nocallBoth = new Genotype("./.").getAllelesIdx();
 
-        Set<Integer> homref = new HashSet<>();
+        RoaringBitmap homref = new RoaringBitmap();
         StudyEntry se = variant.getStudy(studyId.toString());
         if (null == se) {
             throw new IllegalStateException("Study Entry of variant is null: " + variant);
@@ -709,9 +872,10 @@ public class VariantTableStudyRow {
                     int[] alleleIdx = gt.getAllelesIdx();
                     if (Arrays.equals(alleleIdx, homRef)) {
                         addCallCount(1);
-                        if (!homref.add(sid)) {
+                        if (homref.contains(sid)) {
                             throw new IllegalStateException("Sample already exists as hom_ref " + sample);
                         }
+                        homref.add(sid);
                     } else if (Arrays.equals(alleleIdx, hetRef) || Arrays.equals(alleleIdx, hetRefOther)) {
                         addSampleId(HET_REF, sid);
                         addCallCount(1);
@@ -723,12 +887,12 @@ public class VariantTableStudyRow {
                     } else {
                         addSampleId(OTHER, sid);
                         addCallCount(1);
-                        sampleToGenotype.put(sid, gtStr);
+                        addComplexGenotype(sid, gtStr);
                     }
                 } else {
                     addSampleId(OTHER, sid);
                     addCallCount(1);
-                    sampleToGenotype.put(sid, gtStr);
+                    addComplexGenotype(sid, gtStr);
                 }
                 // Work out PASS / CALL count
                 // Samples from Archive table have PASS/etc set. From Analysis table, the flag is empty (already counted)
@@ -739,15 +903,10 @@ public class VariantTableStudyRow {
                     if (StringUtils.isBlank(filterString) || StringUtils.equals("-", filterString)) {
                         filterString = "."; // Blank and '-' filters are saved together as missing
                     }
-                    Set<Integer> set = filterToSamples.get(filterString);
-                    if (set == null) {
-                        set = new HashSet<>();
-                        filterToSamples.put(filterString, set);
-                    }
-                    set.add(sid);
+                    filterToSamples.computeIfAbsent(filterString, k -> new RoaringBitmap()).add(sid);
                 }
             }
-            addHomeRefCount(homref.size());
+            addHomeRefCount(homref.getCardinality());
         } catch (RuntimeException e) {
             throw new RuntimeException("Problems with " + variant.toJson(), e);
         }
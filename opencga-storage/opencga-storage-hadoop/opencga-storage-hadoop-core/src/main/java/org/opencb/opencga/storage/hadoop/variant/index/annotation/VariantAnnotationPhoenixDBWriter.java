@@ -22,6 +22,7 @@ import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.ProgressLogger;
 import org.opencb.opencga.storage.core.variant.io.db.VariantAnnotationDBWriter;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.adaptors.VariantHadoopDBAdaptor;
 import org.opencb.opencga.storage.hadoop.variant.converters.annotation.VariantAnnotationToHBaseConverter;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.PhoenixHelper;
@@ -66,7 +67,10 @@ public class VariantAnnotationPhoenixDBWriter extends VariantAnnotationDBWriter
         Collections.addAll(columns, VariantPhoenixHelper.VariantColumn.values());
         columns.addAll(VariantPhoenixHelper.getHumanPopulationFrequenciesColumns());
 
-        this.upsertExecutor = new VariantAnnotationUpsertExecutor(connection, SchemaUtil.getEscapedFullTableName(variantTable), columns);
+        int flushSize = options.getInt(HadoopVariantStorageEngine.VARIANT_TABLE_LOAD_FLUSH_SIZE,
+                HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_LOAD_FLUSH_SIZE);
+        this.upsertExecutor = new VariantAnnotationUpsertExecutor(connection, SchemaUtil.getEscapedFullTableName(variantTable), columns,
+                flushSize);
     }
 
     @Override
@@ -87,6 +91,7 @@ public class VariantAnnotationPhoenixDBWriter extends VariantAnnotationDBWriter
     public List<Object> apply(List<VariantAnnotation> variantAnnotationList) throws IOException {
         Iterable<Map<PhoenixHelper.Column, ?>> records = converter.apply(variantAnnotationList);
 
+        // Commits the whole batch
         upsertExecutor.execute(records);
 
 //        List<Put> puts = new ArrayList<>(variantAnnotationList.size());
@@ -20,6 +20,7 @@ import com.google.common.base.Function;
 import org.apache.phoenix.schema.types.PDataType;
 import org.apache.phoenix.schema.types.PhoenixArray;
 import org.apache.phoenix.util.UpsertExecutor;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.PhoenixHelper.Column;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHelper;
 import org.slf4j.Logger;
@@ -35,6 +36,11 @@ import java.util.stream.Collectors;
 import static org.apache.phoenix.monitoring.GlobalClientMetrics.GLOBAL_MUTATION_SQL_COUNTER;
 
 /**
+ * Upserts rows in the variant table through Phoenix.
+ *
+ * Rows are not committed one by one. The Phoenix client buffers the mutations, and sends them grouped by region
+ * every time the number of pending rows reaches the flush size, and at the end of each batch of records.
+ *
  * Created on 24/10/16.
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
@@ -43,13 +49,19 @@ public class VariantAnnotationUpsertExecutor extends UpsertExecutor<Map<Column,
 
     private static final Logger LOG = LoggerFactory.getLogger(VariantAnnotationUpsertExecutor.class);
     private final List<Column> columnList;
+    private final int flushSize;
+    private int pendingRows;
 
     public VariantAnnotationUpsertExecutor(Connection conn, String tableName) {
         this(conn, tableName, Arrays.stream(VariantPhoenixHelper.VariantColumn.values()).collect(Collectors.toList()));
     }
 
     public VariantAnnotationUpsertExecutor(Connection conn, String tableName, List<Column> columnList) {
-        this(conn, tableName, columnList, new UpsertListener<Map<Column, ?>>() {
+        this(conn, tableName, columnList, HadoopVariantStorageEngine.DEFAULT_VARIANT_TABLE_LOAD_FLUSH_SIZE);
+    }
+
+    public VariantAnnotationUpsertExecutor(Connection conn, String tableName, List<Column> columnList, int flushSize) {
+        this(conn, tableName, columnList, flushSize, new UpsertListener<Map<Column, ?>>() {
             @Override
             public void upsertDone(long upsertCount) {
 //                System.out.println("upsertCount = " + upsertCount);
@@ -65,19 +77,26 @@ public class VariantAnnotationUpsertExecutor extends UpsertExecutor<Map<Column,
         });
     }
 
-    public VariantAnnotationUpsertExecutor(Connection conn, String tableName, List<Column> columnList,
+    public VariantAnnotationUpsertExecutor(Connection conn, String tableName, List<Column> columnList, int flushSize,
                                            UpsertListener<Map<Column, ?>> upsertListener) {
         super(conn, tableName, columnList.stream().map(Column::toColumnInfo).collect(Collectors.toList()), upsertListener);
         this.columnList = columnList;
+        this.flushSize = Math.max(flushSize, 1);
 
         try {
-            conn.setAutoCommit(true);
+            conn.setAutoCommit(false);
         } catch (SQLException e) {
             // Impossible?
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void execute(Iterable<Map<Column, ?>> records) {
+        super.execute(records);
+        commit();
+    }
+
     @Override
     protected void execute(Map<Column, ?> map) {
         try {
@@ -100,8 +119,10 @@ public class VariantAnnotationUpsertExecutor extends UpsertExecutor<Map<Column,
             }
 
             preparedStatement.execute();
-            LOG.debug("preparedStatement.getUpdateCount() = " + preparedStatement.getUpdateCount());
             upsertListener.upsertDone(++upsertCount);
+            if (++pendingRows >= flushSize) {
+                commit();
+            }
 
         } catch (RuntimeException | SQLException e) {
             if (LOG.isDebugEnabled()) {
@@ -113,6 +134,20 @@ public class VariantAnnotationUpsertExecutor extends UpsertExecutor<Map<Column,
         }
     }
 
+    /**
+     * Send all the pending rows.
+     */
+    public void commit() {
+        if (pendingRows > 0) {
+            try {
+                conn.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException("Error committing " + pendingRows + " rows", e);
+            }
+            pendingRows = 0;
+        }
+    }
+
     private Array toArray(PDataType elementDataType, Collection<?> input) {
         if (elementDataType.isArrayType()) {
             elementDataType = PDataType.arrayBaseType(elementDataType);
@@ -132,6 +167,7 @@ public class VariantAnnotationUpsertExecutor extends UpsertExecutor<Map<Column,
         super.close();
         try {
             conn.commit();
+            pendingRows = 0;
         } catch (SQLException e) {
             throw new IOException(e);
         }
@@ -144,6 +144,88 @@ public class VariantSqlQueryParser {
         return sb.toString();
     }
 
+    /**
+     * Count the variants in each interval of a region.
+     *
+     * The count is aggregated by Phoenix in the region servers, returning one row per non empty interval,
+     * with the interval number (position / intervalSize) and the number of variants.
+     *
+     * @param query         Query to parse
+     * @param region        Region to split in intervals
+     * @param intervalSize  Size of each interval
+     * @return SQL query
+     */
+    public String parseFrequency(Query query, Region region, int intervalSize) {
+        String interval = '"' + VariantColumn.POSITION.column() + "\" / " + intervalSize;
+        return parseAggregation(query, Collections.singletonList(getRegionFilter(region)), interval + ", COUNT(*)", interval);
+    }
+
+    /**
+     * Count the variants by the value of a column. Only valid for non array columns.
+     *
+     * The count is aggregated by Phoenix in the region servers, returning one row per distinct value,
+     * with the value and the number of variants.
+     *
+     * @param query     Query to parse
+     * @param column    Column to group by
+     * @return SQL query
+     */
+    public String parseGroupBy(Query query, Column column) {
+        String columnName = '"' + column.column() + '"';
+        return parseAggregation(query, Collections.singletonList(columnName + " IS NOT NULL"), columnName + ", COUNT(*)", columnName);
+    }
+
+    /**
+     * Select the values of a column, and optionally the variant coordinates, for the variants matching the query.
+     *
+     * Phoenix can not group by the elements of an array column, so the values have to be aggregated by the client.
+     * Only the required columns are fetched.
+     *
+     * @param query             Query to parse
+     * @param column            Column to select
+     * @param includeVariant    Also select chromosome, position, reference and alternate
+     * @return SQL query
+     */
+    public String parseColumnValues(Query query, Column column, boolean includeVariant) {
+        String columnName = '"' + column.column() + '"';
+        StringBuilder projection = new StringBuilder(columnName);
+        if (includeVariant) {
+            projection.append(',').append(VariantColumn.CHROMOSOME)
+                    .append(',').append(VariantColumn.POSITION)
+                    .append(',').append(VariantColumn.REFERENCE)
+                    .append(',').append(VariantColumn.ALTERNATE);
+        }
+        return parseAggregation(query, Collections.singletonList(columnName + " IS NOT NULL"), projection.toString(), null);
+    }
+
+    private String parseAggregation(Query query, List<String> extraFilters, String projection, String groupBy) {
+        StringBuilder sb = new StringBuilder("SELECT ");
+
+        try {
+            Set<Column> dynamicColumns = new HashSet<>();
+            List<String> regionFilters = getRegionFilters(query);
+            List<String> filters = getOtherFilters(query, new QueryOptions(), dynamicColumns);
+
+            if (filters.isEmpty()) {
+                // Only region filters. Hint no index usage
+                sb.append("/*+ ").append(HintNode.Hint.NO_INDEX.toString()).append(" */ ");
+            }
+            filters.addAll(extraFilters);
+
+            sb.append(projection);
+            appendFromStatement(sb, dynamicColumns);
+            appendWhereStatement(sb, regionFilters, filters);
+        } catch (VariantQueryException e) {
+            e.setQuery(query);
+            throw e;
+        }
+
+        if (groupBy != null) {
+            sb.append(" GROUP BY ").append(groupBy);
+        }
+        return sb.toString();
+    }
+
     /**
      * Select only the required columns.
      *
@@ -176,7 +258,8 @@ public class VariantSqlQueryParser {
 
             if (returnedFields.contains(VariantField.STUDIES)) {
                 for (Integer studyId : studyIds) {
-                    StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId, null).first();
+                    StudyConfiguration studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyId,
+                            StudyConfigurationManager.readOnly(null)).first();
                     VariantStorageEngine.MergeMode mergeMode = VariantStorageEngine.MergeMode.from(studyConfiguration.getAttributes());
                     List<String> studyColumns = STUDY_COLUMNS;
                     if (returnedFields.contains(VariantField.STUDIES_SAMPLES_DATA)
@@ -506,14 +589,16 @@ public class VariantSqlQueryParser {
             }
             List<Integer> studyIds = studyConfigurationManager.getStudyIds(values, options);
             if (studyIds.size() == 1) {
-                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0), options).first();
+                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0),
+                        StudyConfigurationManager.readOnly(options)).first();
             } else {
                 defaultStudyConfiguration = null;
             }
         } else {
             List<Integer> studyIds = studyConfigurationManager.getStudyIds(options);
             if (studyIds.size() == 1) {
-                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0), options).first();
+                defaultStudyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0),
+                        StudyConfigurationManager.readOnly(options)).first();
             } else {
                 defaultStudyConfiguration = null;
             }
@@ -17,21 +17,29 @@
 package org.opencb.opencga.storage.hadoop.variant.metadata;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationAdaptor;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationSection;
 import org.opencb.opencga.storage.hadoop.utils.HBaseLock;
 import org.opencb.opencga.storage.hadoop.utils.HBaseManager;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.index.VariantTableHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixKeyFactory;
 import org.slf4j.Logger;
@@ -39,10 +47,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -64,6 +69,7 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
     private final ObjectMapper objectMapper;
     private final String tableName;
     private final HBaseLock lock;
+    private final boolean writeLegacy;
 
 
     public HBaseStudyConfigurationDBAdaptor(String tableName, Configuration configuration, ObjectMap options) {
@@ -85,6 +91,8 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
             this.hBaseManager = new HBaseManager(hBaseManager);
         }
         lock = new HBaseLock(this.hBaseManager, this.tableName, genomeHelper.getColumnFamily(), studiesRow);
+        writeLegacy = configuration.getBoolean(HadoopVariantStorageEngine.STUDY_CONFIGURATION_WRITE_LEGACY,
+                HadoopVariantStorageEngine.DEFAULT_STUDY_CONFIGURATION_WRITE_LEGACY);
     }
 
     @Override
@@ -129,6 +137,10 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
         Get get = new Get(studiesRow);
         byte[] columnQualifier = Bytes.toBytes(studyName);
         get.addColumn(genomeHelper.getColumnFamily(), columnQualifier);
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            get.addColumn(genomeHelper.getColumnFamily(), getSectionColumn(studyName, section));
+        }
+        get.addColumn(genomeHelper.getColumnFamily(), getSectionsMarkColumn(studyName));
         if (timeStamp != null) {
             try {
                 get.setTimeRange(timeStamp + 1, Long.MAX_VALUE);
@@ -142,12 +154,28 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
             if (hBaseManager.act(tableName, (table, admin) -> admin.tableExists(table.getName()))) {
                 studyConfigurationList = hBaseManager.act(tableName, table -> {
                     Result result = table.get(get);
-                    if (result.isEmpty()) {
+                    Cell mainCell = result.getColumnLatestCell(genomeHelper.getColumnFamily(), columnQualifier);
+                    if (mainCell == null) {
                         return Collections.emptyList();
                     } else {
-                        byte[] value = result.getValue(genomeHelper.getColumnFamily(), columnQualifier);
-                        StudyConfiguration studyConfiguration = objectMapper.readValue(value, StudyConfiguration.class);
-                        return Collections.singletonList(studyConfiguration);
+                        ObjectNode node = (ObjectNode) objectMapper.readTree(CellUtil.cloneValue(mainCell));
+                        // The section columns are only valid if they were written along with the main column.
+                        // Otherwise, the main column was written by an older version, and contains all the sections.
+                        Cell marksCell = result.getColumnLatestCell(genomeHelper.getColumnFamily(), getSectionsMarkColumn(studyName));
+                        boolean sectionsUpToDate = marksCell != null && marksCell.getTimestamp() >= mainCell.getTimestamp();
+                        if (sectionsUpToDate) {
+                            // Only the sections modified after the timeStamp are returned
+                            for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+                                byte[] sectionValue = result.getValue(genomeHelper.getColumnFamily(), getSectionColumn(studyName, section));
+                                if (sectionValue != null) {
+                                    node.setAll((ObjectNode) objectMapper.readTree(sectionValue));
+                                } else if (timeStamp != null) {
+                                    // Not modified. Discard the legacy copy from the main column, if any
+                                    node.remove(section.getFields());
+                                }
+                            }
+                        }
+                        return Collections.singletonList(objectMapper.treeToValue(node, StudyConfiguration.class));
                     }
                 });
             }
@@ -160,19 +188,46 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
 
     @Override
     protected QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options) {
+        return updateStudyConfiguration(studyConfiguration, EnumSet.allOf(StudyConfigurationSection.class), options);
+    }
+
+    @Override
+    protected QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, Set<StudyConfigurationSection> modifiedSections,
+                                                   QueryOptions options) {
         long startTime = System.currentTimeMillis();
         String error = "";
-        logger.info("Update StudyConfiguration {}", studyConfiguration.getStudyName());
-        updateStudiesSummary(studyConfiguration.getStudyName(), studyConfiguration.getStudyId(), options);
-        byte[] columnQualifier = Bytes.toBytes(studyConfiguration.getStudyName());
+        String studyName = studyConfiguration.getStudyName();
+        logger.info("Update StudyConfiguration {}. Modified sections: {}", studyName, modifiedSections);
+        updateStudiesSummary(studyName, studyConfiguration.getStudyId(), options);
+        byte[] columnQualifier = Bytes.toBytes(studyName);
 
         studyConfiguration.getHeaders().clear(); // REMOVE: stored in Archive table
 
         try {
             hBaseManager.act(tableName, table -> {
-                byte[] bytes = objectMapper.writeValueAsBytes(studyConfiguration);
+                // Studies in the old format, or last written by an older version, have to be completely rewritten
+                Set<StudyConfigurationSection> sections = areSectionsUpToDate(table, studyName)
+                        ? modifiedSections
+                        : EnumSet.allOf(StudyConfigurationSection.class);
+                long timeStamp = studyConfiguration.getTimeStamp();
                 Put put = new Put(studiesRow);
-                put.addColumn(genomeHelper.getColumnFamily(), columnQualifier, studyConfiguration.getTimeStamp(), bytes);
+                ObjectNode node = objectMapper.valueToTree(studyConfiguration);
+                for (StudyConfigurationSection section : sections) {
+                    ObjectNode sectionNode = node.deepCopy().retain(section.getFields());
+                    put.addColumn(genomeHelper.getColumnFamily(), getSectionColumn(studyName, section),
+                            timeStamp, objectMapper.writeValueAsBytes(sectionNode));
+                }
+                ArrayNode sectionNames = JsonNodeFactory.instance.arrayNode();
+                sections.forEach(section -> sectionNames.add(section.name()));
+                put.addColumn(genomeHelper.getColumnFamily(), getSectionsMarkColumn(studyName),
+                        timeStamp, objectMapper.writeValueAsBytes(sectionNames));
+                if (!writeLegacy) {
+                    // Older versions can not read this study anymore
+                    for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+                        node.remove(section.getFields());
+                    }
+                }
+                put.addColumn(genomeHelper.getColumnFamily(), columnQualifier, timeStamp, objectMapper.writeValueAsBytes(node));
                 table.put(put);
             });
         } catch (IOException e) {
@@ -182,6 +237,34 @@ public class HBaseStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor
         return new QueryResult<>("", (int) (System.currentTimeMillis() - startTime), 0, 0, "", error, Collections.emptyList());
     }
 
+    /**
+     * Check if the section columns of a study were written along with the main column.
+     * Only the timestamps are read.
+     *
+     * @param table     Table
+     * @param studyName Study name
+     * @return  If the section columns are up to date
+     * @throws IOException if there is any error reading from HBase
+     */
+    private boolean areSectionsUpToDate(Table table, String studyName) throws IOException {
+        Get get = new Get(studiesRow);
+        get.addColumn(genomeHelper.getColumnFamily(), Bytes.toBytes(studyName));
+        get.addColumn(genomeHelper.getColumnFamily(), getSectionsMarkColumn(studyName));
+        get.setFilter(new KeyOnlyFilter());
+        Result result = table.get(get);
+        Cell mainCell = result.getColumnLatestCell(genomeHelper.getColumnFamily(), Bytes.toBytes(studyName));
+        Cell marksCell = result.getColumnLatestCell(genomeHelper.getColumnFamily(), getSectionsMarkColumn(studyName));
+        return mainCell != null && marksCell != null && marksCell.getTimestamp() >= mainCell.getTimestamp();
+    }
+
+    private static byte[] getSectionColumn(String studyName, StudyConfigurationSection section) {
+        return Bytes.toBytes(studyName + '#' + section.name());
+    }
+
+    private static byte[] getSectionsMarkColumn(String studyName) {
+        return Bytes.toBytes(studyName + "#_SECTIONS");
+    }
+
     @Override
     public BiMap<String, Integer> getStudies(QueryOptions options) {
         Get get = new Get(studiesRow);
@@ -492,6 +492,13 @@ public class VariantHadoopMultiSampleTest extends VariantStorageBaseTest impleme
                 .append(VariantStorageEngine.Options.EXTRA_GENOTYPE_FIELDS.key(), VariantMerger.GENOTYPE_FILTER_KEY + ",DP,GQX,MQ"), 6);
     }
 
+    @Test
+    public void testPlatinumFilesOneByOne_prefetchArchive() throws Exception {
+        testPlatinumFilesOneByOne(new ObjectMap()
+                .append(HadoopVariantStorageEngine.MERGE_ARCHIVE_SCAN_BATCH_SIZE, 1)
+                .append(HadoopVariantStorageEngine.MERGE_ARCHIVE_PREFETCH_BATCHES, 3), 4);
+    }
+
     @Test
     public void testPlatinumFilesOneByOne_extraFields_noCollapseDels() throws Exception {
         testPlatinumFilesOneByOne(new ObjectMap()
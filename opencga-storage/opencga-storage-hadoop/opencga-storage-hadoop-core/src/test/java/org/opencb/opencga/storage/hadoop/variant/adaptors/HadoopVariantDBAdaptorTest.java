@@ -52,7 +52,7 @@ public class HadoopVariantDBAdaptorTest extends VariantDBAdaptorTest implements
 
 
     private static final boolean FILES = false;
-    private static final boolean GROUP_BY = false;
+    private static final boolean GROUP_BY = true;
     private static final boolean CT_GENES = false;
     protected static final boolean MISSING_ALLELE = false;
 
@@ -171,7 +171,6 @@ public class HadoopVariantDBAdaptorTest extends VariantDBAdaptorTest implements
     }
 
     @Override
-    @Ignore
     public void groupBy_gene_limit_0() throws Exception {
         Assume.assumeTrue(GROUP_BY);
         super.groupBy_gene_limit_0();
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.index;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class CoveredRegionsTest {
+
+    @Test
+    public void testAddMerge() throws Exception {
+        CoveredRegions regions = new CoveredRegions()
+                .add(10, 20)
+                .add(30, 40)
+                .add(21, 25)    // Adjacent
+                .add(35, 50)    // Overlapping
+                .add(12, 15)    // Contained
+                .add(60, 59);   // Empty
+        assertEquals(Arrays.asList(pair(10, 25), pair(30, 50)), regions.getRegions());
+
+        regions.add(1, 100);
+        assertEquals(Collections.singletonList(pair(1, 100)), regions.getRegions());
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        CoveredRegions regions = new CoveredRegions(1000, 1999)
+                .add(500, 1010)
+                .add(1990, 3000)
+                .add(5000, 6000);
+        assertEquals(Arrays.asList(pair(1000, 1010), pair(1990, 1999)), regions.getRegions());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        CoveredRegions regions = new CoveredRegions().add(10, 50).add(60, 70);
+        regions.remove(20, 30);
+        regions.remove(45, 65);
+        assertEquals(Arrays.asList(pair(10, 19), pair(31, 44), pair(66, 70)), regions.getRegions());
+
+        regions.removeAll(new CoveredRegions().add(0, 15).add(66, 100));
+        assertEquals(Arrays.asList(pair(16, 19), pair(31, 44)), regions.getRegions());
+    }
+
+    @Test
+    public void testUncoveredRegions() throws Exception {
+        CoveredRegions regions = new CoveredRegions().add(10, 20).add(30, 40);
+        assertEquals(Arrays.asList(pair(5, 9), pair(21, 29), pair(41, 45)), regions.getUncoveredRegions(5, 45));
+        assertEquals(Collections.singletonList(pair(21, 29)), regions.getUncoveredRegions(15, 35));
+        assertEquals(Collections.emptyList(), regions.getUncoveredRegions(12, 18));
+        assertEquals(Collections.emptyList(), regions.getUncoveredRegions(12, 11));
+        assertTrue(regions.overlaps(0, 10));
+        assertTrue(regions.overlaps(40, 100));
+        assertFalse(regions.overlaps(21, 29));
+        assertFalse(regions.overlaps(15, 14));
+    }
+
+    @Test
+    public void testLargeRegions() throws Exception {
+        // Long deletions or reference blocks are a single interval
+        CoveredRegions regions = new CoveredRegions(1, 100000000).add(1, 50000000).add(50000010, 200000000);
+        assertEquals(2, regions.size());
+        assertEquals(Collections.singletonList(pair(50000001, 50000009)), regions.getUncoveredRegions(1, 100000000));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            CoveredRegions regions = new CoveredRegions();
+            BitSet expected = new BitSet();
+            for (int j = 0; j < 20; j++) {
+                int start = random.nextInt(200);
+                int end = start + random.nextInt(30);
+                if (random.nextBoolean()) {
+                    regions.add(start, end);
+                    expected.set(start, end + 1);
+                } else {
+                    regions.remove(start, end);
+                    expected.clear(start, end + 1);
+                }
+            }
+            for (int position = 0; position < 250; position++) {
+                assertEquals(expected.get(position), regions.contains(position));
+            }
+            BitSet uncovered = new BitSet();
+            for (Pair<Integer, Integer> pair : regions.getUncoveredRegions(0, 249)) {
+                uncovered.set(pair.getLeft(), pair.getRight() + 1);
+            }
+            uncovered.flip(0, 250);
+            assertEquals(expected, uncovered);
+        }
+    }
+
+    private static Pair<Integer, Integer> pair(int start, int end) {
+        return new ImmutablePair<>(start, end);
+    }
+}
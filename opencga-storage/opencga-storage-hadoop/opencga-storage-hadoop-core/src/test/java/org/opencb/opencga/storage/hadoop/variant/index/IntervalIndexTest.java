@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.index;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class IntervalIndexTest {
+
+    @Test
+    public void testOverlapping() throws Exception {
+        IntervalIndex<int[]> index = newIndex(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                new int[]{10, 20},
+                new int[]{15, 15},
+                new int[]{1, 100},   // Long reference block
+                new int[]{30, 40},
+                new int[]{30, 30},
+                new int[]{60, 59});  // Empty
+        assertEquals(5, index.size());
+
+        assertEquals(set("1-100", "10-20", "15-15"), overlapping(index, 15, 15));
+        assertEquals(set("1-100", "10-20"), overlapping(index, 20, 25));
+        assertEquals(set("1-100", "30-40", "30-30"), overlapping(index, 25, 30));
+        assertEquals(set("1-100"), overlapping(index, 41, 200));
+        assertEquals(set(), overlapping(index, 101, 200));
+        assertEquals(set(), overlapping(index, 20, 10));
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        IntervalIndex<int[]> index = newIndex(1000, 1999,
+                new int[]{500, 1010},
+                new int[]{1990, 3000},
+                new int[]{5000, 6000});
+        assertEquals(2, index.size());
+        assertEquals(set("500-1010"), overlapping(index, 0, 1500));
+        assertEquals(set("1990-3000"), overlapping(index, 1500, 4000));
+        assertEquals(set(), overlapping(index, 2000, 6000));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random random = new Random(1);
+        List<int[]> intervals = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(10000);
+            intervals.add(new int[]{start, start + (random.nextInt(10) == 0 ? random.nextInt(2000) : random.nextInt(10))});
+        }
+        IntervalIndex<int[]> index = new IntervalIndex<>(intervals, i -> i[0], i -> i[1], 0, 9999);
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(10000);
+            int end = start + random.nextInt(100);
+            Set<int[]> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int[] interval : intervals) {
+                if (interval[0] <= end && Math.min(interval[1], 9999) >= start) {
+                    expected.add(interval);
+                }
+            }
+            Set<int[]> actual = Collections.newSetFromMap(new IdentityHashMap<>());
+            actual.addAll(index.getOverlapping(start, end));
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static IntervalIndex<int[]> newIndex(int sliceStart, int sliceEnd, int[]... intervals) {
+        return new IntervalIndex<>(Arrays.asList(intervals), i -> i[0], i -> i[1], sliceStart, sliceEnd);
+    }
+
+    private static Set<String> overlapping(IntervalIndex<int[]> index, int start, int end) {
+        Set<String> set = new HashSet<>();
+        for (int[] interval : index.getOverlapping(start, end)) {
+            set.add(interval[0] + "-" + interval[1]);
+        }
+        return set;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
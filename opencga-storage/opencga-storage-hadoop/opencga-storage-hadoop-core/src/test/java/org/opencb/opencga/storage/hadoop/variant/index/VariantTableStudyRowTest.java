@@ -20,7 +20,11 @@ import org.junit.Test;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.tools.variant.merge.VariantMerger;
+import org.opencb.opencga.storage.hadoop.variant.models.protobuf.ComplexFilter;
+import org.opencb.opencga.storage.hadoop.variant.models.protobuf.ComplexVariant;
 import org.opencb.opencga.storage.hadoop.variant.models.protobuf.SampleList;
+import org.opencb.opencga.storage.hadoop.variant.models.protobuf.VariantTableStudyRowProto;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -64,10 +68,11 @@ public class VariantTableStudyRowTest {
 
         // Check FILTER
         assertEquals(1, row.getPassCount().intValue());
-        assertEquals(3, row.getComplexFilter().getFilterNonPass().size());
-        int otherFilters = row.getComplexFilter().getFilterNonPass().values()
+        assertEquals(3, row.getFilterNonPass().size());
+        assertEquals(3, ComplexFilter.parseFrom(row.getComplexFilter().toByteArray()).getFilterNonPassBitmapCount());
+        int otherFilters = row.getFilterNonPass().values()
                 .stream()
-                .map(SampleList::getSampleIdsCount)
+                .map(RoaringBitmap::getCardinality)
                 .reduce((i1, i2) -> i1 + i2).orElse(0);
         assertEquals(5, otherFilters);
         assertEquals(6, otherFilters + row.getPassCount());
@@ -76,4 +81,117 @@ public class VariantTableStudyRowTest {
         System.out.println("row = " + row);
 
     }
+
+    @Test
+    public void testProtoBitmapEncoding() throws Exception {
+        Variant variant = new Variant("1:1000:A:T");
+        Integer studyId = 1;
+
+        StudyEntry studyEntry = new StudyEntry(studyId.toString(), Collections.emptyList(), Arrays.asList("GT", VariantMerger.VCF_FILTER));
+        for (int i = 0; i < 1000; i++) {
+            String gt = i % 10 == 0 ? "0/1" : i % 33 == 0 ? "1/2" : "0/0";
+            studyEntry.addSampleData("s" + i, Arrays.asList(gt, i % 7 == 0 ? "LowQ" : "PASS"));
+        }
+        variant.addStudyEntry(studyEntry);
+        VariantTableStudyRow row = new VariantTableStudyRow(variant, studyId, studyEntry.getSamplesPosition());
+
+        VariantTableStudyRowProto proto = VariantTableStudyRowProto.parseFrom(row.toProto(false).toByteArray());
+        assertEquals(0, proto.getHetCount());
+        assertFalse(proto.getHetBitmap().isEmpty());
+
+        VariantTableStudyRow copy = new VariantTableStudyRow(proto, "1", studyId);
+        assertEquals(row.getSampleIds(VariantTableStudyRow.HET_REF), copy.getSampleIds(VariantTableStudyRow.HET_REF));
+        assertEquals(100, copy.getSampleIds(VariantTableStudyRow.HET_REF).size());
+        assertEquals(row.getSampleIds(VariantTableStudyRow.OTHER), copy.getSampleIds(VariantTableStudyRow.OTHER));
+        assertEquals(row.getComplexGenotypes(), copy.getComplexGenotypes());
+        assertEquals(row.getFilterNonPass(), copy.getFilterNonPass());
+        assertEquals(row.getHomRefCount(), copy.getHomRefCount());
+        assertEquals(row.getPassCount(), copy.getPassCount());
+    }
+
+    @Test
+    public void testReadLegacyProto() throws Exception {
+        VariantTableStudyRowProto proto = VariantTableStudyRowProto.newBuilder()
+                .setStart(1000)
+                .setReference("A")
+                .setAlternate("T")
+                .setType(org.opencb.biodata.models.variant.protobuf.VariantProto.VariantType.SNV)
+                .addAllHet(Arrays.asList(1, 5))
+                .addAllOther(Collections.singletonList(3))
+                .putOtherGt("1/2", SampleList.newBuilder().addSampleIds(3).build())
+                .putFilterNonPass("LowQ", SampleList.newBuilder().addAllSampleIds(Arrays.asList(1, 2)).build())
+                .build();
+
+        VariantTableStudyRow row = new VariantTableStudyRow(proto, "1", 1);
+        assertEquals(new HashSet<>(Arrays.asList(1, 5)), row.getSampleIds(VariantTableStudyRow.HET_REF));
+        assertEquals(Collections.singleton(3), row.getSampleIds(VariantTableStudyRow.OTHER));
+        assertEquals(RoaringBitmap.bitmapOf(3), row.getComplexGenotypes().get("1/2"));
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), row.getFilterNonPass().get("LowQ"));
+        assertEquals(RoaringBitmap.bitmapOf(1, 3, 5), row.getSamplesWithVariant());
+
+        // Rewritten with the new encoding
+        VariantTableStudyRowProto newProto = row.toProto(false);
+        assertEquals(0, newProto.getHetCount());
+        assertEquals(0, newProto.getOtherGtCount());
+        assertEquals(RoaringBitmap.bitmapOf(1, 5), SampleBitmaps.fromBytes(newProto.getHetBitmap()));
+        assertEquals(RoaringBitmap.bitmapOf(3), SampleBitmaps.fromBytes(newProto.getOtherGtBitmapMap().get("1/2")));
+    }
+
+    @Test
+    public void testWriteLegacyProto() throws Exception {
+        VariantTableStudyRow row = new VariantTableStudyRow(1, "1", 1000, "A", "T",
+                org.opencb.biodata.models.variant.avro.VariantType.SNV);
+        row.addSampleId(VariantTableStudyRow.HET_REF, Arrays.asList(1, 5));
+        row.addSampleId(VariantTableStudyRow.OTHER, 3);
+        row.setComplexVariant(ComplexVariant.newBuilder().putSampleToGenotype(3, "1/2").build());
+
+        // Older readers only know the legacy fields
+        VariantTableStudyRowProto proto = row.toProto(true);
+        assertEquals(Arrays.asList(1, 5), proto.getHetList());
+        assertEquals(Collections.singletonList(3), proto.getOtherList());
+        assertEquals(Collections.singletonList(3), proto.getOtherGtMap().get("1/2").getSampleIdsList());
+        assertEquals(RoaringBitmap.bitmapOf(1, 5), SampleBitmaps.fromBytes(proto.getHetBitmap()));
+        assertEquals(Collections.singletonMap(3, "1/2"), row.getComplexVariant(true).getSampleToGenotypeMap());
+        assertEquals(0, row.getComplexVariant(false).getSampleToGenotypeCount());
+
+        // Reading both encodings does not duplicate samples
+        VariantTableStudyRow copy = new VariantTableStudyRow(proto, "1", 1);
+        assertEquals(row.getSampleIds(VariantTableStudyRow.HET_REF), copy.getSampleIds(VariantTableStudyRow.HET_REF));
+        assertEquals(row.getComplexGenotypes(), copy.getComplexGenotypes());
+    }
+
+    @Test
+    public void testComplexGenotypeLastWins() throws Exception {
+        VariantTableStudyRow row = new VariantTableStudyRow(1, "1", 1000, "A", "T",
+                org.opencb.biodata.models.variant.avro.VariantType.SNV);
+        row.setComplexVariant(ComplexVariant.newBuilder()
+                .putSampleToGenotype(3, "1/2")
+                .putSampleToGenotype(4, "1/2")
+                .putGenotypeToSamples("2/2", SampleBitmaps.toByteString(RoaringBitmap.bitmapOf(3)))
+                .build());
+
+        assertEquals(RoaringBitmap.bitmapOf(4), row.getComplexGenotypes().get("1/2"));
+        assertEquals(RoaringBitmap.bitmapOf(3), row.getComplexGenotypes().get("2/2"));
+
+        row.setComplexVariant(ComplexVariant.newBuilder().putSampleToGenotype(4, "2/2").build());
+        assertNull(row.getComplexGenotypes().get("1/2"));
+        assertEquals(RoaringBitmap.bitmapOf(3, 4), row.getComplexGenotypes().get("2/2"));
+    }
+
+    @Test
+    public void testSampleBitmapsNotShared() throws Exception {
+        VariantTableStudyRow row = new VariantTableStudyRow(1, "1", 1000, "A", "T",
+                org.opencb.biodata.models.variant.avro.VariantType.SNV);
+        row.getSampleBitmap(VariantTableStudyRow.HOM_VAR).add(1);
+        assertTrue(row.getSampleBitmap(VariantTableStudyRow.HOM_VAR).isEmpty());
+        assertTrue(SampleBitmaps.empty().isEmpty());
+
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.add(0L, 1000L);
+        RoaringBitmap expected = bitmap.clone();
+        assertEquals(bitmap, SampleBitmaps.fromBytes(SampleBitmaps.toBytes(bitmap)));
+        // Not run optimized
+        assertFalse(bitmap.hasRunCompression());
+        assertEquals(expected, bitmap);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.metadata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationSection;
+import org.opencb.opencga.storage.core.variant.VariantStorageBaseTest;
+import org.opencb.opencga.storage.hadoop.utils.HBaseManager;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageTest;
+import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixKeyFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 17/10/17.
+ */
+public class HBaseStudyConfigurationDBAdaptorTest extends VariantStorageBaseTest implements HadoopVariantStorageTest {
+
+    @ClassRule
+    public static ExternalResource externalResource = new HadoopExternalResource();
+
+    private static final String STUDY_NAME = "Study";
+    private static final int STUDY_ID = 1;
+
+    private final byte[] studiesRow = VariantPhoenixKeyFactory.generateVariantRowKey(GenomeHelper.DEFAULT_METADATA_ROW_KEY, 0);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HBaseManager hBaseManager;
+    private GenomeHelper genomeHelper;
+    private StudyConfigurationManager writer;
+    private StudyConfigurationManager reader;
+
+    @Before
+    public void setUp() throws Exception {
+        clearDB(DB_NAME);
+        hBaseManager = new HBaseManager(configuration.get());
+        genomeHelper = new GenomeHelper(configuration.get());
+        // Two managers, as two different processes, sharing the same table
+        writer = new StudyConfigurationManager(new HBaseStudyConfigurationDBAdaptor(DB_NAME, configuration.get(), null));
+        reader = new StudyConfigurationManager(new HBaseStudyConfigurationDBAdaptor(DB_NAME, configuration.get(), null));
+
+        StudyConfiguration sc = new StudyConfiguration(STUDY_ID, STUDY_NAME);
+        sc.getFileIds().put("file1", 1);
+        sc.getSampleIds().put("s1", 1);
+        sc.getSamplesInFiles().put(1, new LinkedHashSet<>(Collections.singletonList(1)));
+        writer.updateStudyConfiguration(sc, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+        reader.close();
+        hBaseManager.close();
+    }
+
+    @Test
+    public void testSectionColumns() throws Exception {
+        Result result = getRow();
+        long firstTimeStamp = getCell(result, STUDY_NAME).getTimestamp();
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            assertEquals(firstTimeStamp, getCell(result, STUDY_NAME + '#' + section.name()).getTimestamp());
+        }
+        // Legacy main column, readable by older versions
+        JsonNode main = objectMapper.readTree(result.getValue(genomeHelper.getColumnFamily(), Bytes.toBytes(STUDY_NAME)));
+        assertEquals(1, main.get("fileIds").get("file1").asInt());
+
+        Thread.sleep(5);
+        writer.lockAndUpdate(STUDY_ID, sc -> {
+            sc.getCohortIds().put("ALL", 1);
+            sc.getCohorts().put(1, new HashSet<>(Collections.singletonList(1)));
+            return sc;
+        });
+
+        result = getRow();
+        long secondTimeStamp = getCell(result, STUDY_NAME).getTimestamp();
+        assertNotEquals(firstTimeStamp, secondTimeStamp);
+        assertEquals(secondTimeStamp, getCell(result, STUDY_NAME + '#' + StudyConfigurationSection.COHORTS.name()).getTimestamp());
+        assertEquals(firstTimeStamp, getCell(result, STUDY_NAME + '#' + StudyConfigurationSection.FILES.name()).getTimestamp());
+        assertEquals(firstTimeStamp, getCell(result, STUDY_NAME + '#' + StudyConfigurationSection.SAMPLES.name()).getTimestamp());
+        main = objectMapper.readTree(result.getValue(genomeHelper.getColumnFamily(), Bytes.toBytes(STUDY_NAME)));
+        assertEquals(1, main.get("fileIds").get("file1").asInt());
+        assertEquals(1, main.get("cohortIds").get("ALL").asInt());
+    }
+
+    @Test
+    public void testReadModifiedSections() throws Exception {
+        StudyConfiguration cached = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(1), cached.getFileIds().get("file1"));
+
+        Thread.sleep(5);
+        writer.lockAndUpdate(STUDY_ID, sc -> {
+            sc.getCohortIds().put("ALL", 1);
+            sc.getCohorts().put(1, new HashSet<>(Collections.singletonList(1)));
+            return sc;
+        });
+
+        StudyConfiguration sc = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(1), sc.getCohortIds().get("ALL"));
+        assertEquals(Collections.singleton(1), sc.getCohorts().get(1));
+        assertEquals(Integer.valueOf(1), sc.getFileIds().get("file1"));
+        assertEquals(Collections.singleton(1), sc.getSamplesInFiles().get(1));
+    }
+
+    @Test
+    public void testReadUpdatedByOldVersion() throws Exception {
+        StudyConfiguration cached = reader.getStudyConfiguration(STUDY_ID, null).first();
+
+        // Older versions only write the main column, with all the sections
+        StudyConfiguration old = cached.newInstance();
+        old.getFileIds().put("file2", 2);
+        old.setTimeStamp(System.currentTimeMillis() + 10);
+        hBaseManager.act(DB_NAME, table -> {
+            Put put = new Put(studiesRow);
+            put.addColumn(genomeHelper.getColumnFamily(), Bytes.toBytes(STUDY_NAME), old.getTimeStamp(),
+                    objectMapper.writeValueAsBytes(old));
+            table.put(put);
+        });
+
+        StudyConfiguration sc = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(2), sc.getFileIds().get("file2"));
+
+        // The next update writes again all the sections
+        Thread.sleep(15);
+        StudyConfiguration updated = writer.lockAndUpdate(STUDY_ID, s -> {
+            s.getCohortIds().put("ALL", 1);
+            return s;
+        });
+        Result result = getRow();
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            assertEquals(updated.getTimeStamp().longValue(), getCell(result, STUDY_NAME + '#' + section.name()).getTimestamp());
+        }
+        try (StudyConfigurationManager scm = new StudyConfigurationManager(
+                new HBaseStudyConfigurationDBAdaptor(DB_NAME, configuration.get(), null))) {
+            sc = scm.getStudyConfiguration(STUDY_ID, null).first();
+        }
+        assertEquals(Integer.valueOf(2), sc.getFileIds().get("file2"));
+        assertEquals(Integer.valueOf(1), sc.getCohortIds().get("ALL"));
+    }
+
+    @Test
+    public void testWithoutLegacyMainColumn() throws Exception {
+        Configuration conf = new Configuration(configuration.get());
+        conf.setBoolean(HadoopVariantStorageEngine.STUDY_CONFIGURATION_WRITE_LEGACY, false);
+        StudyConfigurationManager scm = new StudyConfigurationManager(new HBaseStudyConfigurationDBAdaptor(DB_NAME, conf, null));
+        scm.lockAndUpdate(STUDY_ID, sc -> {
+            sc.getFileIds().put("file2", 2);
+            return sc;
+        });
+
+        JsonNode main = objectMapper.readTree(getRow().getValue(genomeHelper.getColumnFamily(), Bytes.toBytes(STUDY_NAME)));
+        assertNull(main.get("fileIds"));
+
+        StudyConfiguration sc = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(1), sc.getFileIds().get("file1"));
+        assertEquals(Integer.valueOf(2), sc.getFileIds().get("file2"));
+        assertEquals(Collections.singleton(1), sc.getSamplesInFiles().get(1));
+        scm.close();
+    }
+
+    private Result getRow() throws Exception {
+        return hBaseManager.act(DB_NAME, table -> table.get(new Get(studiesRow)));
+    }
+
+    private Cell getCell(Result result, String column) {
+        Cell cell = result.getColumnLatestCell(genomeHelper.getColumnFamily(), Bytes.toBytes(column));
+        assertNotNull(column, cell);
+        return cell;
+    }
+}
@@ -32,15 +32,13 @@ import org.opencb.commons.datastore.mongodb.MongoDataStore;
 import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationAdaptor;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationSection;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 import org.opencb.opencga.storage.mongodb.utils.MongoLock;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyConfigurationConverter;
 
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
@@ -52,6 +50,16 @@ import static org.opencb.commons.datastore.mongodb.MongoDBCollection.UPSERT;
  */
 public class MongoDBStudyConfigurationDBAdaptor extends StudyConfigurationAdaptor {
 
+    /**
+     * Last update timestamp of each {@link StudyConfigurationSection}.
+     */
+    public static final String SECTION_TIMESTAMPS_FIELD = "_timeStamps";
+    /**
+     * TimeStamp of the last update that also updated the section timestamps.
+     * Older versions update the StudyConfiguration without updating the section timestamps.
+     */
+    public static final String LAST_UPDATE_TIMESTAMP = "LAST_UPDATE";
+
     private final MongoDataStoreManager mongoManager;
     private final boolean closeConnection;
 
@@ -131,7 +139,12 @@ public class MongoDBStudyConfigurationDBAdaptor extends StudyConfigurationAdapto
             query.append("timeStamp", new Document("$ne", timeStamp));
         }
 
-        QueryResult<StudyConfiguration> queryResult = collection.find(query, null, studyConfigurationConverter, null);
+        QueryResult<StudyConfiguration> queryResult;
+        if (timeStamp == null) {
+            queryResult = collection.find(query, null, studyConfigurationConverter, null);
+        } else {
+            queryResult = getModifiedStudyConfiguration(query, timeStamp);
+        }
         if (queryResult.getResult().isEmpty()) {
             studyConfiguration = null;
         } else {
@@ -151,10 +164,74 @@ public class MongoDBStudyConfigurationDBAdaptor extends StudyConfigurationAdapto
         }
     }
 
+    /**
+     * Read a StudyConfiguration modified after the given timeStamp. Only the sections modified after the timeStamp are read.
+     * The rest of sections are left as null.
+     *
+     * @param query     Query matching the study, and excluding the given timeStamp
+     * @param timeStamp TimeStamp of the previous version
+     * @return          Partial StudyConfiguration, if any
+     */
+    private QueryResult<StudyConfiguration> getModifiedStudyConfiguration(Document query, long timeStamp) {
+        List<String> sectionFields = new ArrayList<>();
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            sectionFields.addAll(section.getFields());
+        }
+        QueryResult<Document> result = collection.find(query, Projections.exclude(sectionFields), null);
+        if (result.getResult().isEmpty()) {
+            return new QueryResult<>(result.getId(), result.getDbTime(), 0, 0, "", "", Collections.emptyList());
+        }
+        Document document = result.first();
+        StudyConfiguration studyConfiguration = studyConfigurationConverter.convertToDataModelType(document);
+
+        Document sectionTimeStamps = document.get(SECTION_TIMESTAMPS_FIELD, Document.class);
+        Number studyTimeStamp = document.get("timeStamp", Number.class);
+        Number lastUpdate = sectionTimeStamps == null ? null : sectionTimeStamps.get(LAST_UPDATE_TIMESTAMP, Number.class);
+        // Read all the sections if the last update did not update the section timeStamps, or if the clocks are not in sync
+        boolean readAll = lastUpdate == null || studyTimeStamp == null
+                || lastUpdate.longValue() != studyTimeStamp.longValue() || studyTimeStamp.longValue() < timeStamp;
+        List<String> modifiedFields = new ArrayList<>();
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            Number sectionTimeStamp = sectionTimeStamps == null ? null : sectionTimeStamps.get(section.name(), Number.class);
+            if (readAll || sectionTimeStamp == null || sectionTimeStamp.longValue() > timeStamp) {
+                modifiedFields.addAll(section.getFields());
+            }
+        }
+        if (!modifiedFields.isEmpty()) {
+            StudyConfiguration sections = collection.find(new Document("_id", studyConfiguration.getStudyId()),
+                    Projections.include(modifiedFields), studyConfigurationConverter, null).first();
+            if (sections != null) {
+                for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+                    if (!section.isMissing(sections)) {
+                        section.copy(sections, studyConfiguration);
+                    }
+                }
+            }
+        }
+        return new QueryResult<>(result.getId(), result.getDbTime(), 1, 1, "", "", Collections.singletonList(studyConfiguration));
+    }
+
     @Override
     public QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, QueryOptions options) {
+        return updateStudyConfiguration(studyConfiguration, EnumSet.allOf(StudyConfigurationSection.class), options);
+    }
+
+    @Override
+    public QueryResult updateStudyConfiguration(StudyConfiguration studyConfiguration, Set<StudyConfigurationSection> modifiedSections,
+                                                QueryOptions options) {
         Document studyMongo = new DocumentToStudyConfigurationConverter().convertToStorageType(studyConfiguration);
 
+        // Skip the sections not modified
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            if (!modifiedSections.contains(section)) {
+                section.getFields().forEach(studyMongo::remove);
+            }
+        }
+        for (StudyConfigurationSection section : modifiedSections) {
+            studyMongo.put(SECTION_TIMESTAMPS_FIELD + '.' + section.name(), studyConfiguration.getTimeStamp());
+        }
+        studyMongo.put(SECTION_TIMESTAMPS_FIELD + '.' + LAST_UPDATE_TIMESTAMP, studyConfiguration.getTimeStamp());
+
         // Update field by field, instead of replacing the whole object to preserve existing fields like "_lock"
         Document query = new Document("_id", studyConfiguration.getStudyId());
         List<Bson> updates = new ArrayList<>(studyMongo.size());
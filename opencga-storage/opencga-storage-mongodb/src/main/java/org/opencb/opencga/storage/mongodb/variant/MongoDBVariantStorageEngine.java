@@ -47,6 +47,7 @@ import org.opencb.opencga.storage.core.variant.io.db.VariantAnnotationDBWriter;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 import org.opencb.opencga.storage.mongodb.metadata.MongoDBStudyConfigurationDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBPartitionedScan;
 import org.opencb.opencga.storage.mongodb.variant.io.db.VariantMongoDBAnnotationDBWriter;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoVariantImporter;
 import org.slf4j.Logger;
@@ -95,12 +96,16 @@ public class MongoDBVariantStorageEngine extends VariantStorageEngine {
         STAGE_RESUME("stage.resume", false),
         STAGE_PARALLEL_WRITE("stage.parallel.write", false),
         STAGE_CLEAN_WHILE_LOAD("stage.clean.while.load", true),
+        STAGE_COMPRESSION("stage.compression", "snappy"),   //Compression of the stage blobs: snappy, none or deflate
         MERGE("merge", false),
         MERGE_SKIP("merge.skip", false), // Internal use only
         MERGE_RESUME("merge.resume", false),
         MERGE_IGNORE_OVERLAPPING_VARIANTS("merge.ignore-overlapping-variants", false),   //Do not look for overlapping variants
         MERGE_PARALLEL_WRITE("merge.parallel.write", false),
-        MERGE_BATCH_SIZE("merge.batch.size", 10);          //Number of files to merge directly from first to second collection
+        MERGE_BATCH_SIZE("merge.batch.size", 10),          //Number of files to merge directly from first to second collection
+        ITERATOR_CONVERT_THREADS("iterator.convert.threads", 0),   //Threads converting documents into variants. 0 for sequential
+        ITERATOR_PARTITION_THREADS("iterator.partition.threads", 0),   //Concurrent cursors for unsorted full scans. 0 for one cursor
+        ITERATOR_PARTITION_SIZE("iterator.partition.size", VariantMongoDBPartitionedScan.DEFAULT_PARTITION_SIZE);
 
         private final String key;
         private final Object value;
@@ -44,6 +44,7 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.stage.VariantToAvroBinaryConverter;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantWriteResult;
 import org.opencb.opencga.storage.mongodb.variant.load.stage.MongoDBVariantStageConverterTask;
 import org.opencb.opencga.storage.mongodb.variant.load.stage.MongoDBVariantStageLoader;
@@ -287,7 +288,9 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 
             //Runner
             ProgressLogger progressLogger = new ProgressLogger("Write variants in STAGE collection:", numRecords, 200);
-            MongoDBVariantStageConverterTask converterTask = new MongoDBVariantStageConverterTask(progressLogger);
+            String compression = options.getString(STAGE_COMPRESSION.key(), STAGE_COMPRESSION.defaultValue());
+            MongoDBVariantStageConverterTask converterTask = new MongoDBVariantStageConverterTask(progressLogger,
+                    new VariantToAvroBinaryConverter(VariantToAvroBinaryConverter.Compression.parse(compression)));
             MongoDBVariantStageLoader stageLoader =
                     new MongoDBVariantStageLoader(stageCollection, studyConfiguration.getStudyId(), fileId,
                             isResumeStage(options));
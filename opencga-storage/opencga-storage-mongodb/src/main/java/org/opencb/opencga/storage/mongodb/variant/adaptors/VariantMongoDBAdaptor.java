@@ -64,6 +64,7 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.*;
@@ -516,7 +517,23 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         Document mongoQuery = queryParser.parseQuery(query);
         Document projection = queryParser.createProjection(query, options);
         DocumentToVariantConverter converter = getDocumentToVariantConverter(query, options);
-        options.putIfAbsent(MongoDBCollection.BATCH_SIZE, 100);
+        options.putIfAbsent(MongoDBCollection.BATCH_SIZE, VariantMongoDBIterator.DEFAULT_BATCH_SIZE);
+        int batchSize = options.getInt(MongoDBCollection.BATCH_SIZE);
+        // Queries with limit are too short to convert in parallel
+        int convertThreads = options.containsKey(QueryOptions.LIMIT) ? 0 : options.getInt(ITERATOR_CONVERT_THREADS.key(),
+                configuration.getInt(ITERATOR_CONVERT_THREADS.key(), ITERATOR_CONVERT_THREADS.defaultValue()));
+
+        // Long unsorted queries can be read with concurrent cursors
+        int partitionThreads = options.getInt(ITERATOR_PARTITION_THREADS.key(),
+                configuration.getInt(ITERATOR_PARTITION_THREADS.key(), ITERATOR_PARTITION_THREADS.defaultValue()));
+        if (partitionThreads > 1
+                && !options.containsKey(QueryOptions.TIMEOUT)
+                && !options.containsKey(QueryOptions.LIMIT)
+                && !options.containsKey(QueryOptions.SKIP)
+                && !options.getBoolean(QueryOptions.SORT, false)) {
+            logger.debug("Using mongodb partitioned scan with {} threads", partitionThreads);
+            return partitionedScan(mongoQuery, projection, options, newConverterFactory(query, options)).iterator(partitionThreads);
+        }
 
         // Short unsorted queries with timeout or limit don't need the persistent cursor.
         if (options.containsKey(QueryOptions.TIMEOUT)
@@ -524,13 +541,68 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 || !options.getBoolean(QueryOptions.SORT, false)) {
             StopWatch stopWatch = StopWatch.createStarted();
             FindIterable<Document> dbCursor = variantsCollection.nativeQuery().find(mongoQuery, projection, options);
-            VariantMongoDBIterator dbIterator = new VariantMongoDBIterator(dbCursor, converter);
+            VariantMongoDBIterator dbIterator = new VariantMongoDBIterator(dbCursor,
+                    convertThreads > 0 ? newConverterFactory(query, options) : () -> converter, batchSize, convertThreads);
             dbIterator.setTimeFetching(dbIterator.getTimeFetching() + stopWatch.getNanoTime());
             return dbIterator;
         } else {
             logger.debug("Using mongodb persistent iterator");
-            return VariantMongoDBIterator.persistentIterator(variantsCollection, mongoQuery, projection, options, converter);
+            return VariantMongoDBIterator.persistentIterator(variantsCollection, mongoQuery, projection, options,
+                    convertThreads > 0 ? newConverterFactory(query, options) : () -> converter, convertThreads);
+        }
+    }
+
+    /**
+     * Split a query in partitions to be read with concurrent cursors. See {@link VariantMongoDBPartitionedScan}.
+     *
+     * Each partition is read with its own cursor, so options that apply to the whole result can not be used.
+     *
+     * @param query   Query to be executed in the database
+     * @param options Query modifiers, accepted values are: include and exclude. Limit, skip and sort are not accepted
+     * @return Partitioned scan of the query
+     */
+    public VariantMongoDBPartitionedScan partitionedScan(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        if (query == null) {
+            query = new Query();
+        }
+        for (String key : Arrays.asList(QueryOptions.LIMIT, QueryOptions.SKIP, QueryOptions.SORT)) {
+            if (options.containsKey(key)) {
+                throw new VariantQueryException("Unsupported option '" + key + "' for a partitioned scan");
+            }
         }
+        Document mongoQuery = queryParser.parseQuery(query);
+        Document projection = queryParser.createProjection(query, options);
+        // Check that the returned studies exist
+        getDocumentToVariantConverter(query, options);
+        options.putIfAbsent(MongoDBCollection.BATCH_SIZE, VariantMongoDBIterator.DEFAULT_BATCH_SIZE);
+        return partitionedScan(mongoQuery, projection, options, newConverterFactory(query, options));
+    }
+
+    private VariantMongoDBPartitionedScan partitionedScan(Document mongoQuery, Document projection, QueryOptions options,
+                                                         Supplier<DocumentToVariantConverter> converterFactory) {
+        int partitionSize = options.getInt(ITERATOR_PARTITION_SIZE.key(),
+                configuration.getInt(ITERATOR_PARTITION_SIZE.key(), ITERATOR_PARTITION_SIZE.defaultValue()));
+        return new VariantMongoDBPartitionedScan(variantsCollection, mongoQuery, projection, options, converterFactory, partitionSize);
+    }
+
+    /**
+     * Converters are not thread safe, as they cache the StudyConfigurations and samples on first use. Each thread needs its own.
+     *
+     * @param query   Query
+     * @param options Query options
+     * @return Factory of new converters for the query, safe to be called from several threads
+     */
+    private Supplier<DocumentToVariantConverter> newConverterFactory(Query query, QueryOptions options) {
+        Query queryCopy = new Query(query);
+        QueryOptions optionsCopy = new QueryOptions(options);
+        return () -> {
+            synchronized (queryCopy) {
+                return getDocumentToVariantConverter(queryCopy, optionsCopy);
+            }
+        };
     }
 
     @Override
@@ -939,8 +1011,9 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         samplesConverter.setFormat(getIncludeFormats(query));
         // Fetch some StudyConfigurations that will be needed
         if (returnedStudies != null) {
+            QueryOptions readOnlyOptions = StudyConfigurationManager.readOnly(options);
             for (Integer studyId : returnedStudies) {
-                QueryResult<StudyConfiguration> queryResult = studyConfigurationManager.getStudyConfiguration(studyId, options);
+                QueryResult<StudyConfiguration> queryResult = studyConfigurationManager.getStudyConfiguration(studyId, readOnlyOptions);
                 if (queryResult.getResult().isEmpty()) {
                     throw VariantQueryException.studyNotFound(studyId);
 //                    throw new IllegalArgumentException("Couldn't find studyConfiguration for StudyId '" + studyId + "'");
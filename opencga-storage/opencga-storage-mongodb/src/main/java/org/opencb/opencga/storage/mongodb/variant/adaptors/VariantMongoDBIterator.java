@@ -16,6 +16,8 @@
 
 package org.opencb.opencga.storage.mongodb.variant.adaptors;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
 import org.apache.commons.lang3.time.StopWatch;
@@ -28,34 +30,85 @@ import org.opencb.commons.datastore.mongodb.MongoPersistentCursor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 /**
+ * Iterates over a cursor of variant documents, converting them into variants.
+ *
+ * Optionally, documents can be converted in parallel. In that case, a background thread reads batches of documents from the cursor,
+ * and a pool of "convertThreads" threads converts them into variants. Converters are not thread safe, so each converter thread
+ * gets its own converter from a factory. Converted batches are returned in the same order as the cursor, through a bounded queue.
+ * The fetching time is the time spent reading from the cursor, and the converting time is the sum of the time spent by all the
+ * converter threads.
+ *
  * Created by jacobo on 9/01/15.
  */
 public class VariantMongoDBIterator extends VariantDBIterator {
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    private static final Future<List<Variant>> END_OF_CURSOR = CompletableFuture.completedFuture(Collections.emptyList());
+
     private MongoCursor<Document> dbCursor;
     private DocumentToVariantConverter documentToVariantConverter;
+    // Converters used by the converter threads
+    private final ThreadLocal<DocumentToVariantConverter> threadConverters;
+
+    // Number of threads converting documents in parallel. 0 to convert in the caller thread
+    private final int convertThreads;
+    private final int batchSize;
+    private ExecutorService fetchExecutor;
+    private ExecutorService convertExecutor;
+    private BlockingQueue<Future<List<Variant>>> convertedBatches;
+    private Iterator<Variant> currentBatch = Collections.emptyIterator();
+    private boolean finished = false;
+    private final AtomicLong parallelTimeFetching = new AtomicLong();
+    private final AtomicLong parallelTimeConverting = new AtomicLong();
 
     //Package protected
     VariantMongoDBIterator(FindIterable<Document> dbCursor, DocumentToVariantConverter documentToVariantConverter) {
-        this(dbCursor, documentToVariantConverter, 100);
+        this(dbCursor, documentToVariantConverter, DEFAULT_BATCH_SIZE);
     }
 
     //Package protected
     VariantMongoDBIterator(FindIterable<Document> dbCursor, DocumentToVariantConverter documentToVariantConverter, int batchSize) {
-        this.documentToVariantConverter = documentToVariantConverter;
+        this(dbCursor, () -> documentToVariantConverter, batchSize, 0);
+    }
+
+    /**
+     * @param dbCursor          Cursor
+     * @param converterFactory  Creates the converters. Must return a new converter per call if convertThreads is greater than 0
+     * @param batchSize         Batch size
+     * @param convertThreads    Threads converting documents into variants. 0 to convert in the caller thread
+     */
+    //Package protected
+    VariantMongoDBIterator(FindIterable<Document> dbCursor, Supplier<DocumentToVariantConverter> converterFactory, int batchSize,
+                           int convertThreads) {
+        this.convertThreads = Math.max(0, convertThreads);
+        this.documentToVariantConverter = this.convertThreads == 0 ? converterFactory.get() : null;
+        this.threadConverters = ThreadLocal.withInitial(converterFactory);
         if (batchSize > 0) {
             dbCursor.batchSize(batchSize);
         }
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
         this.dbCursor = fetch(dbCursor::iterator);
     }
 
     //Package protected
     static VariantMongoDBIterator persistentIterator(MongoDBCollection collection, Bson query, Bson projection, QueryOptions options,
                                                      DocumentToVariantConverter converter) {
+        return persistentIterator(collection, query, projection, options, () -> converter, 0);
+    }
+
+    //Package protected
+    static VariantMongoDBIterator persistentIterator(MongoDBCollection collection, Bson query, Bson projection, QueryOptions options,
+                                                     Supplier<DocumentToVariantConverter> converterFactory, int convertThreads) {
         StopWatch watch = StopWatch.createStarted();
         MongoPersistentCursor cursor = new MongoPersistentCursor(collection, query, projection, options);
-        VariantMongoDBIterator iterator = new VariantMongoDBIterator(cursor, converter);
+        int batchSize = options.getInt(MongoDBCollection.BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        VariantMongoDBIterator iterator = new VariantMongoDBIterator(cursor, converterFactory, batchSize, convertThreads);
         iterator.timeFetching += watch.getNanoTime();
         return iterator;
     }
@@ -63,24 +116,148 @@ public class VariantMongoDBIterator extends VariantDBIterator {
     //Package protected
     VariantMongoDBIterator(MongoCursor<Document> cursor,
                            DocumentToVariantConverter documentToVariantConverter) {
-        this.documentToVariantConverter = documentToVariantConverter;
+        this(cursor, () -> documentToVariantConverter, DEFAULT_BATCH_SIZE, 0);
+    }
+
+    //Package protected
+    VariantMongoDBIterator(MongoCursor<Document> cursor, Supplier<DocumentToVariantConverter> converterFactory, int batchSize,
+                           int convertThreads) {
+        this.convertThreads = Math.max(0, convertThreads);
+        this.documentToVariantConverter = this.convertThreads == 0 ? converterFactory.get() : null;
+        this.threadConverters = ThreadLocal.withInitial(converterFactory);
         this.dbCursor = cursor;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
     }
 
     @Override
     public boolean hasNext() {
-        return fetch(() -> dbCursor.hasNext());
+        if (convertThreads == 0) {
+            return fetch(() -> dbCursor.hasNext());
+        }
+        while (!currentBatch.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            Future<List<Variant>> future;
+            try {
+                future = nextBatch();
+                if (future == END_OF_CURSOR) {
+                    finished = true;
+                    shutdownExecutors();
+                    return false;
+                }
+                currentBatch = future.get().iterator();
+            } catch (InterruptedException e) {
+                finished = true;
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                // The fetch thread stops after the first error
+                finished = true;
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+        return true;
     }
 
     @Override
     public Variant next() {
-        Document document = fetch(() -> dbCursor.next());
-        return convert(() -> documentToVariantConverter.convertToDataModelType(document));
+        if (convertThreads == 0) {
+            Document document = fetch(() -> dbCursor.next());
+            return convert(() -> documentToVariantConverter.convertToDataModelType(document));
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    /**
+     * Take the next converted batch. Starts the background threads the first time.
+     */
+    private Future<List<Variant>> nextBatch() throws InterruptedException {
+        if (convertedBatches == null) {
+            convertedBatches = new ArrayBlockingQueue<>(convertThreads * 2);
+            convertExecutor = Executors.newFixedThreadPool(convertThreads,
+                    new ThreadFactoryBuilder().setNameFormat("variant-mongodb-iterator-convert-%d").setDaemon(true).build());
+            fetchExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("variant-mongodb-iterator-fetch-%d").setDaemon(true).build());
+            fetchExecutor.submit(this::fetchBatches);
+        }
+        return convertedBatches.take();
+    }
+
+    /**
+     * Read batches of documents from the cursor, and submit them to the converter threads. Runs in the fetch thread.
+     * The bounded queue limits the number of batches in memory.
+     */
+    private void fetchBatches() {
+        try {
+            try {
+                while (true) {
+                    long start = System.nanoTime();
+                    List<Document> documents = new ArrayList<>(batchSize);
+                    while (documents.size() < batchSize && dbCursor.hasNext()) {
+                        documents.add(dbCursor.next());
+                    }
+                    parallelTimeFetching.addAndGet(System.nanoTime() - start);
+                    if (documents.isEmpty()) {
+                        break;
+                    }
+                    convertedBatches.put(convertExecutor.submit(() -> convertBatch(documents)));
+                }
+                convertedBatches.put(END_OF_CURSOR);
+            } catch (RuntimeException e) {
+                CompletableFuture<List<Variant>> error = new CompletableFuture<>();
+                error.completeExceptionally(e);
+                convertedBatches.put(error);
+            }
+        } catch (InterruptedException e) {
+            // Iterator closed
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Variant> convertBatch(List<Document> documents) {
+        long start = System.nanoTime();
+        try {
+            DocumentToVariantConverter converter = threadConverters.get();
+            List<Variant> variants = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                variants.add(converter.convertToDataModelType(document));
+            }
+            return variants;
+        } finally {
+            parallelTimeConverting.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void shutdownExecutors() throws InterruptedException {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+            convertExecutor.shutdownNow();
+            // Do not close the cursor while it is being read
+            fetchExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            fetchExecutor = null;
+            convertExecutor = null;
+        }
+    }
+
+    @Override
+    public long getTimeFetching() {
+        return timeFetching + parallelTimeFetching.get();
+    }
+
+    @Override
+    public long getTimeConverting() {
+        return timeConverting + parallelTimeConverting.get();
     }
 
     @Override
     public void close() throws Exception {
         super.close();
+        finished = true;
+        shutdownExecutors();
         dbCursor.close();
     }
 }
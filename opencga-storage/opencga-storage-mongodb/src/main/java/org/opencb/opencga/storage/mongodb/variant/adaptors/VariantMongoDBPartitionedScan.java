@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStringIdConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Reads a query over the variants collection with several concurrent cursors.
+ *
+ * The query is split in partitions of consecutive positions of each chromosome. Each partition is a range of the "_id" field,
+ * which is always indexed (and usually the shard key), in conjunction with the original query. Every variant belongs to exactly
+ * one partition, given by its start. The partitions can be read as an unordered {@link VariantDBIterator}, using a pool of threads
+ * with one cursor each, or as one {@link DataReader} per partition. Each partition uses a new converter, as converters are not
+ * thread safe.
+ *
+ * Created on 17/10/17.
+ */
+public class VariantMongoDBPartitionedScan {
+
+    public static final int DEFAULT_PARTITION_SIZE = 10000000;
+
+    private final MongoDBCollection variantsCollection;
+    private final Document mongoQuery;
+    private final Document projection;
+    private final QueryOptions options;
+    private final Supplier<DocumentToVariantConverter> converterFactory;
+    private final int partitionSize;
+    private final int batchSize;
+    private List<Region> partitions;
+    private final Logger logger = LoggerFactory.getLogger(VariantMongoDBPartitionedScan.class);
+
+    //Package protected
+    VariantMongoDBPartitionedScan(MongoDBCollection variantsCollection, Document mongoQuery, Document projection, QueryOptions options,
+                                  Supplier<DocumentToVariantConverter> converterFactory, int partitionSize) {
+        this.variantsCollection = variantsCollection;
+        this.mongoQuery = mongoQuery;
+        this.projection = projection;
+        this.options = options;
+        this.converterFactory = converterFactory;
+        this.partitionSize = partitionSize > 0 ? partitionSize : DEFAULT_PARTITION_SIZE;
+        this.batchSize = options.getInt(MongoDBCollection.BATCH_SIZE, VariantMongoDBIterator.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Split all the chromosomes of the collection, up to the last variant, in regions of "partitionSize" positions.
+     *
+     * @return Regions of the partitions
+     */
+    public synchronized List<Region> getPartitions() {
+        if (partitions == null) {
+            partitions = new ArrayList<>();
+            List<String> chromosomes = variantsCollection.distinct(DocumentToVariantConverter.CHROMOSOME_FIELD, null, String.class)
+                    .getResult();
+            for (String chromosome : chromosomes) {
+                Document last = variantsCollection.nativeQuery()
+                        .find(getIdFilter(chromosome, 0, Integer.MAX_VALUE), Projections.include(DocumentToVariantConverter.START_FIELD),
+                                new QueryOptions())
+                        .sort(Sorts.descending("_id"))
+                        .limit(1)
+                        .first();
+                if (last == null) {
+                    continue;
+                }
+                int lastStart = last.getInteger(DocumentToVariantConverter.START_FIELD);
+                for (long start = 0; start <= lastStart; start += partitionSize) {
+                    partitions.add(new Region(chromosome, (int) start, (int) Math.min(lastStart, start + partitionSize - 1)));
+                }
+            }
+            logger.debug("Split query in {} partitions of {} positions", partitions.size(), partitionSize);
+        }
+        return partitions;
+    }
+
+    /**
+     * Read all the partitions with a pool of threads. Variants are returned in no particular order.
+     *
+     * @param threads Number of partitions to read concurrently
+     * @return Unordered iterator
+     */
+    public VariantDBIterator iterator(int threads) {
+        return new PartitionedVariantDBIterator(getPartitions(), Math.max(1, threads));
+    }
+
+    /**
+     * Get one reader per partition. Each reader opens its cursor when opened.
+     *
+     * @return List of readers, in the order of the partitions
+     */
+    public List<DataReader<Variant>> getReaders() {
+        List<DataReader<Variant>> readers = new ArrayList<>();
+        for (Region partition : getPartitions()) {
+            readers.add(new PartitionReader(partition));
+        }
+        return readers;
+    }
+
+    /**
+     * @param partition Region of the partition
+     * @return Iterator over the variants of the partition, in order
+     */
+    public VariantMongoDBIterator iterator(Region partition) {
+        Document partitionQuery = new Document("$and", Arrays.asList(mongoQuery,
+                getIdFilter(partition.getChromosome(), partition.getStart(), partition.getEnd() + 1)));
+        return new VariantMongoDBIterator(variantsCollection.nativeQuery().find(partitionQuery, projection, options),
+                converterFactory.get(), batchSize);
+    }
+
+    /**
+     * @param chromosome Chromosome
+     * @param start      First position
+     * @param end        Last position, exclusive
+     * @return Filter by the range of ids
+     */
+    private static Document getIdFilter(String chromosome, int start, int end) {
+        return new Document("_id", new Document()
+                .append("$gte", VariantStringIdConverter.buildId(chromosome, start))
+                .append("$lt", VariantStringIdConverter.buildId(chromosome, end)));
+    }
+
+    private class PartitionReader implements DataReader<Variant> {
+        private final Region partition;
+        private VariantMongoDBIterator iterator;
+
+        PartitionReader(Region partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public boolean open() {
+            iterator = VariantMongoDBPartitionedScan.this.iterator(partition);
+            return true;
+        }
+
+        @Override
+        public List<Variant> read(int batchSize) {
+            List<Variant> variants = new ArrayList<>(batchSize);
+            while (variants.size() < batchSize && iterator.hasNext()) {
+                variants.add(iterator.next());
+            }
+            return variants;
+        }
+
+        @Override
+        public boolean close() {
+            try {
+                iterator.close();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionReader{" + partition + '}';
+        }
+    }
+
+    /**
+     * Reads the partitions with a pool of threads. Each thread reads a partition at a time, putting batches of variants in a
+     * bounded queue. The fetching and converting times are the sum of the times of all the partitions.
+     */
+    private class PartitionedVariantDBIterator extends VariantDBIterator {
+        private final List<Variant> endOfPartitions = Collections.emptyList();
+        private final Queue<Region> pendingPartitions;
+        private final BlockingQueue<List<Variant>> batches;
+        private final ExecutorService executor;
+        private final AtomicInteger runningThreads;
+        private final AtomicLong partitionsTimeFetching = new AtomicLong();
+        private final AtomicLong partitionsTimeConverting = new AtomicLong();
+        private volatile Throwable error;
+        private Iterator<Variant> currentBatch = Collections.emptyIterator();
+        private boolean finished = false;
+
+        PartitionedVariantDBIterator(List<Region> partitions, int threads) {
+            pendingPartitions = new ConcurrentLinkedQueue<>(partitions);
+            threads = Math.min(threads, Math.max(1, partitions.size()));
+            batches = new ArrayBlockingQueue<>(threads * 2);
+            runningThreads = new AtomicInteger(threads);
+            executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("variant-mongodb-partitioned-scan-%d").setDaemon(true).build());
+            for (int i = 0; i < threads; i++) {
+                executor.submit(this::readPartitions);
+            }
+            executor.shutdown();
+        }
+
+        private void readPartitions() {
+            try {
+                try {
+                    Region partition;
+                    while (error == null && (partition = pendingPartitions.poll()) != null) {
+                        try (VariantMongoDBIterator iterator = VariantMongoDBPartitionedScan.this.iterator(partition)) {
+                            try {
+                                List<Variant> batch = new ArrayList<>(batchSize);
+                                while (iterator.hasNext()) {
+                                    batch.add(iterator.next());
+                                    if (batch.size() == batchSize) {
+                                        batches.put(batch);
+                                        batch = new ArrayList<>(batchSize);
+                                    }
+                                }
+                                if (!batch.isEmpty()) {
+                                    batches.put(batch);
+                                }
+                            } finally {
+                                partitionsTimeFetching.addAndGet(iterator.getTimeFetching());
+                                partitionsTimeConverting.addAndGet(iterator.getTimeConverting());
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    error = e;
+                }
+                // The last thread signals the end
+                if (runningThreads.decrementAndGet() == 0 || error != null) {
+                    batches.put(endOfPartitions);
+                }
+            } catch (InterruptedException e) {
+                // Iterator closed
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentBatch.hasNext()) {
+                if (finished) {
+                    return false;
+                }
+                List<Variant> batch;
+                try {
+                    batch = batches.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                }
+                if (batch == endOfPartitions) {
+                    finished = true;
+                    if (error != null) {
+                        throw Throwables.propagate(error);
+                    }
+                    return false;
+                }
+                currentBatch = batch.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Variant next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentBatch.next();
+        }
+
+        @Override
+        public long getTimeFetching() {
+            return timeFetching + partitionsTimeFetching.get();
+        }
+
+        @Override
+        public long getTimeConverting() {
+            return timeConverting + partitionsTimeConverting.get();
+        }
+
+        @Override
+        public void close() throws Exception {
+            super.close();
+            finished = true;
+            executor.shutdownNow();
+            // Wait for the threads to close their cursors
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
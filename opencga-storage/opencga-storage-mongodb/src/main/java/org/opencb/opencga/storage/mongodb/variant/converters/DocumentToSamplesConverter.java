@@ -174,7 +174,8 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
 
         if (!studyConfigurations.containsKey(studyId) && studyConfigurationManager != null) { // Samples not set as constructor argument,
             // need to query
-            QueryResult<StudyConfiguration> queryResult = studyConfigurationManager.getStudyConfiguration(studyId, null);
+            QueryResult<StudyConfiguration> queryResult =
+                    studyConfigurationManager.getStudyConfiguration(studyId, StudyConfigurationManager.readOnly(null));
             if (queryResult.first() == null) {
                 logger.warn("DocumentToSamplesConverter.convertToDataModelType StudyConfiguration {studyId: {}} not found! Looking for "
                         + "VariantSource", studyId);
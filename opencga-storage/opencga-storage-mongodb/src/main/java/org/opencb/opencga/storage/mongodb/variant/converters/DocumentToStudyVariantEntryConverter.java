@@ -229,7 +229,8 @@ public class DocumentToStudyVariantEntryConverter {
             if (studyConfigurationManager == null) {
                 studyIds.put(studyId, Integer.toString(studyId));
             } else {
-                QueryResult<StudyConfiguration> queryResult = studyConfigurationManager.getStudyConfiguration(studyId, null);
+                QueryResult<StudyConfiguration> queryResult =
+                        studyConfigurationManager.getStudyConfiguration(studyId, StudyConfigurationManager.readOnly(null));
                 if (queryResult.getResult().isEmpty()) {
                     studyIds.put(studyId, Integer.toString(studyId));
                 } else {
@@ -22,37 +22,133 @@ import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.bson.types.Binary;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
 import org.opencb.commons.utils.CompressionUtils;
+import org.xerial.snappy.Snappy;
 
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 /**
+ * Converts variants into compressed avro binary blobs, for the stage collection.
+ *
+ * Each blob starts with one byte identifying its {@link Compression}, so blobs written with different compressions can be read
+ * with the same converter. Encoders, decoders and buffers are reused by each thread.
+ *
  * Created on 27/06/16.
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
 public class VariantToAvroBinaryConverter implements ComplexTypeConverter<Variant, Binary> {
 
-    private SpecificDatumWriter<VariantAvro> writer = new SpecificDatumWriter<>(VariantAvro.getClassSchema());
-    private SpecificDatumReader<VariantAvro> reader = new SpecificDatumReader<>(VariantAvro.getClassSchema());
+    /**
+     * Compression of the blobs.
+     *
+     * DEFLATE blobs have no header, as written by previous versions. They are zlib streams, where the lower 4 bits of the first
+     * byte are always 8, so they can not be confused with the header of any other compression.
+     */
+    public enum Compression {
+        NONE((byte) 0x01),
+        SNAPPY((byte) 0x02),
+        DEFLATE((byte) 0x78);
+
+        private final byte header;
+
+        Compression(byte header) {
+            this.header = header;
+        }
+
+        public static Compression parse(String compression) {
+            return compression == null || compression.isEmpty() ? DEFAULT_COMPRESSION : valueOf(compression.toUpperCase());
+        }
+
+        static Compression fromHeader(byte header) {
+            if ((header & 0x0F) == 8) {
+                return DEFLATE;
+            } else if (header == NONE.header) {
+                return NONE;
+            } else if (header == SNAPPY.header) {
+                return SNAPPY;
+            } else {
+                throw new IllegalArgumentException("Unknown stage blob compression " + header);
+            }
+        }
+    }
+
+    public static final Compression DEFAULT_COMPRESSION = Compression.SNAPPY;
+
+    private final SpecificDatumWriter<VariantAvro> writer = new SpecificDatumWriter<>(VariantAvro.getClassSchema());
+    private final SpecificDatumReader<VariantAvro> reader = new SpecificDatumReader<>(VariantAvro.getClassSchema());
+    private final Compression compression;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    public VariantToAvroBinaryConverter() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public VariantToAvroBinaryConverter(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Thread local encoder, decoder and buffers.
+     */
+    private static final class Buffers {
+        private final ExposedByteArrayOutputStream outputStream = new ExposedByteArrayOutputStream();
+        private BinaryEncoder encoder;
+        private BinaryDecoder decoder;
+        private byte[] buffer = new byte[0];
+
+        private byte[] getBuffer(int length) {
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            return buffer;
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private byte[] getData() {
+            return buf;
+        }
+    }
 
     @Override
     public Variant convertToDataModelType(Binary object) {
-        BinaryDecoder decoder = null;
+        byte[] data = object.getData();
+        Buffers buffers = this.buffers.get();
         try {
-            byte[] data = object.getData();
-            data = CompressionUtils.decompress(data);
-            InputStream is = new ByteArrayInputStream(data);
-//                is = new GZIPInputStream(is);
-            decoder = DecoderFactory.get().directBinaryDecoder(is, decoder);
-
-            return new Variant(reader.read(null, decoder));
+            byte[] avro;
+            int offset;
+            int length;
+            switch (Compression.fromHeader(data[0])) {
+                case NONE:
+                    avro = data;
+                    offset = 1;
+                    length = data.length - 1;
+                    break;
+                case SNAPPY:
+                    length = Snappy.uncompressedLength(data, 1, data.length - 1);
+                    avro = buffers.getBuffer(length);
+                    offset = 0;
+                    Snappy.uncompress(data, 1, data.length - 1, avro, 0);
+                    break;
+                case DEFLATE:
+                    avro = CompressionUtils.decompress(data);
+                    offset = 0;
+                    length = avro.length;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown compression");
+            }
+            buffers.decoder = DecoderFactory.get().binaryDecoder(avro, offset, length, buffers.decoder);
+            return new Variant(reader.read(null, buffers.decoder));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         } catch (DataFormatException e) {
@@ -60,25 +156,38 @@ public class VariantToAvroBinaryConverter implements ComplexTypeConverter<Varian
         }
     }
 
-
     @Override
     public Binary convertToStorageType(Variant variant) {
-        BinaryEncoder encoder = null;
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-//            byteArrayOutputStream.reset();
-        OutputStream outputStream = byteArrayOutputStream;
+        Buffers buffers = this.buffers.get();
+        ExposedByteArrayOutputStream outputStream = buffers.outputStream;
+        outputStream.reset();
+        if (compression == Compression.NONE) {
+            outputStream.write(Compression.NONE.header);
+        }
         try {
-//                outputStream = new GZIPOutputStream(outputStream);
-            encoder = EncoderFactory.get().directBinaryEncoder(outputStream, encoder);
-            writer.write(variant.getImpl(), encoder);
-            encoder.flush();
-            outputStream.flush();
-            outputStream.close();
-            byte[] data = byteArrayOutputStream.toByteArray();
-            data = CompressionUtils.compress(data);
-            return new Binary(data);
+            buffers.encoder = EncoderFactory.get().binaryEncoder(outputStream, buffers.encoder);
+            writer.write(variant.getImpl(), buffers.encoder);
+            buffers.encoder.flush();
+            switch (compression) {
+                case NONE:
+                    return new Binary(outputStream.toByteArray());
+                case SNAPPY:
+                    int length = outputStream.size();
+                    byte[] compressed = buffers.getBuffer(1 + Snappy.maxCompressedLength(length));
+                    compressed[0] = Compression.SNAPPY.header;
+                    int compressedLength = Snappy.compress(outputStream.getData(), 0, length, compressed, 1);
+                    return new Binary(Arrays.copyOf(compressed, 1 + compressedLength));
+                case DEFLATE:
+                    return new Binary(CompressionUtils.compress(outputStream.toByteArray()));
+                default:
+                    throw new IllegalStateException("Unknown compression " + compression);
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
+
+    public Compression getCompression() {
+        return compression;
+    }
 }
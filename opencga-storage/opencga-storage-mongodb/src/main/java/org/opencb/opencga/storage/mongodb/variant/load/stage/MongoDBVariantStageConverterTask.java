@@ -22,6 +22,7 @@ import org.bson.Document;
 import org.bson.types.Binary;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.commons.ProgressLogger;
+import org.opencb.commons.datastore.core.ComplexTypeConverter;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStoragePipeline;
 
@@ -40,10 +41,16 @@ import static org.opencb.opencga.storage.mongodb.variant.load.stage.MongoDBVaria
 public class MongoDBVariantStageConverterTask implements ParallelTaskRunner.Task<Variant, ListMultimap<Document, Binary>> {
 
     private final ProgressLogger progressLogger;
+    private final ComplexTypeConverter<Variant, Binary> variantConverter;
     private final AtomicLong skippedVariants;
 
     public MongoDBVariantStageConverterTask(ProgressLogger progressLogger) {
+        this(progressLogger, VARIANT_CONVERTER_DEFAULT);
+    }
+
+    public MongoDBVariantStageConverterTask(ProgressLogger progressLogger, ComplexTypeConverter<Variant, Binary> variantConverter) {
         this.progressLogger = progressLogger;
+        this.variantConverter = variantConverter;
         skippedVariants = new AtomicLong(0);
     }
 
@@ -64,7 +71,7 @@ public class MongoDBVariantStageConverterTask implements ParallelTaskRunner.Task
                 localSkippedVariants++;
                 continue;
             }
-            Binary binary = VARIANT_CONVERTER_DEFAULT.convertToStorageType(variant);
+            Binary binary = variantConverter.convertToStorageType(variant);
             Document id = STAGE_TO_VARIANT_CONVERTER.convertToStorageType(variant);
 
             ids.put(id, binary);
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.metadata;
+
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationSection;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageTest;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.VariantStorageBaseTest.DB_NAME;
+import static org.opencb.opencga.storage.mongodb.metadata.MongoDBStudyConfigurationDBAdaptor.LAST_UPDATE_TIMESTAMP;
+import static org.opencb.opencga.storage.mongodb.metadata.MongoDBStudyConfigurationDBAdaptor.SECTION_TIMESTAMPS_FIELD;
+
+/**
+ * Created on 17/10/17.
+ */
+public class MongoDBStudyConfigurationDBAdaptorTest implements MongoDBVariantStorageTest {
+
+    private static final int STUDY_ID = 1;
+
+    private StudyConfigurationManager writer;
+    private StudyConfigurationManager reader;
+    private MongoDBCollection collection;
+    private MongoDataStoreManager mongoDataStoreManager;
+
+    @Before
+    public void setUp() throws Exception {
+        clearDB(DB_NAME);
+        // Two engines, as two different processes, sharing the same database
+        writer = getVariantStorageEngine().getDBAdaptor().getStudyConfigurationManager();
+        reader = newVariantStorageEngine().getDBAdaptor().getStudyConfigurationManager();
+        mongoDataStoreManager = getMongoDataStoreManager(DB_NAME);
+        collection = mongoDataStoreManager.get(DB_NAME).getCollection(
+                MongoDBVariantStorageEngine.MongoDBVariantOptions.COLLECTION_STUDIES.defaultValue());
+
+        StudyConfiguration sc = new StudyConfiguration(STUDY_ID, "Study");
+        sc.getFileIds().put("file1", 1);
+        sc.getSampleIds().put("s1", 1);
+        sc.getSamplesInFiles().put(1, new LinkedHashSet<>(Collections.singletonList(1)));
+        writer.updateStudyConfiguration(sc, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mongoDataStoreManager.close();
+        closeConnections();
+    }
+
+    @Test
+    public void testSectionTimeStamps() throws Exception {
+        Document document = getDocument();
+        long firstTimeStamp = document.get("timeStamp", Number.class).longValue();
+        Document timeStamps = document.get(SECTION_TIMESTAMPS_FIELD, Document.class);
+        for (StudyConfigurationSection section : StudyConfigurationSection.values()) {
+            assertEquals(firstTimeStamp, timeStamps.get(section.name(), Number.class).longValue());
+        }
+        assertEquals(firstTimeStamp, timeStamps.get(LAST_UPDATE_TIMESTAMP, Number.class).longValue());
+
+        Thread.sleep(5);
+        writer.lockAndUpdate(STUDY_ID, sc -> {
+            sc.getCohortIds().put("ALL", 1);
+            sc.getCohorts().put(1, new HashSet<>(Collections.singletonList(1)));
+            return sc;
+        });
+
+        document = getDocument();
+        long secondTimeStamp = document.get("timeStamp", Number.class).longValue();
+        timeStamps = document.get(SECTION_TIMESTAMPS_FIELD, Document.class);
+        assertNotEquals(firstTimeStamp, secondTimeStamp);
+        assertEquals(secondTimeStamp, timeStamps.get(StudyConfigurationSection.COHORTS.name(), Number.class).longValue());
+        assertEquals(firstTimeStamp, timeStamps.get(StudyConfigurationSection.FILES.name(), Number.class).longValue());
+        assertEquals(firstTimeStamp, timeStamps.get(StudyConfigurationSection.SAMPLES.name(), Number.class).longValue());
+        assertEquals(secondTimeStamp, timeStamps.get(LAST_UPDATE_TIMESTAMP, Number.class).longValue());
+        // Not modified sections are still in the document
+        assertNotNull(document.get("fileIds"));
+        assertNotNull(document.get("samplesInFiles"));
+    }
+
+    @Test
+    public void testReadModifiedSections() throws Exception {
+        StudyConfiguration cached = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(1), cached.getFileIds().get("file1"));
+
+        Thread.sleep(5);
+        writer.lockAndUpdate(STUDY_ID, sc -> {
+            sc.getCohortIds().put("ALL", 1);
+            sc.getCohorts().put(1, new HashSet<>(Collections.singletonList(1)));
+            return sc;
+        });
+
+        StudyConfiguration sc = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(Integer.valueOf(1), sc.getCohortIds().get("ALL"));
+        assertEquals(Collections.singleton(1), sc.getCohorts().get(1));
+        assertEquals(Integer.valueOf(1), sc.getFileIds().get("file1"));
+        assertEquals(Collections.singleton(1), sc.getSamplesInFiles().get(1));
+        assertEquals(writer.getStudyConfiguration(STUDY_ID, null).first(), sc);
+    }
+
+    @Test
+    public void testReadUpdatedByOldVersion() throws Exception {
+        StudyConfiguration cached = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertNull(cached.getFileIds().get("file2"));
+
+        // Older versions update all the fields without updating the section timestamps
+        long timeStamp = System.currentTimeMillis() + 10;
+        collection.update(new Document("_id", STUDY_ID), Updates.combine(
+                Updates.set("fileIds.file2", 2),
+                Updates.set("timeStamp", timeStamp)), new QueryOptions());
+
+        StudyConfiguration sc = reader.getStudyConfiguration(STUDY_ID, null).first();
+        assertEquals(timeStamp, sc.getTimeStamp().longValue());
+        assertEquals(Integer.valueOf(2), sc.getFileIds().get("file2"));
+    }
+
+    private Document getDocument() {
+        return collection.find(new Document("_id", STUDY_ID), new QueryOptions()).first();
+    }
+}
@@ -24,11 +24,19 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.commons.io.DataReader;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptorTest;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageTest;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -120,4 +128,94 @@ public class VariantMongoDBAdaptorTest extends VariantDBAdaptorTest implements M
         assertEquals(numVariantsChr1, numVariantsNoAnnotation);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testParallelConvertIterator() throws Exception {
+        checkParallelConvertIterator(new Query(), new QueryOptions());
+        // Persistent cursor
+        checkParallelConvertIterator(new Query(), new QueryOptions(QueryOptions.SORT, true));
+    }
+
+    @Test
+    public void testParallelConvertIteratorReturnedSamples() throws Exception {
+        // Converters lazily cache the returned samples of each study
+        List<String> samples = new ArrayList<>(studyConfiguration.getSampleIds().keySet()).subList(0, 3);
+        Query query = new Query(VariantQueryParam.RETURNED_STUDIES.key(), studyConfiguration.getStudyName())
+                .append(VariantQueryParam.RETURNED_SAMPLES.key(), samples);
+        checkParallelConvertIterator(query, new QueryOptions());
+        checkParallelConvertIterator(query, new QueryOptions(QueryOptions.SORT, true));
+        checkPartitionedScan(query);
+    }
+
+    private void checkParallelConvertIterator(Query query, QueryOptions options) throws Exception {
+        String convertThreads = MongoDBVariantStorageEngine.MongoDBVariantOptions.ITERATOR_CONVERT_THREADS.key();
+        List<String> expected = new ArrayList<>();
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(options).append(convertThreads, 0))) {
+            iterator.forEachRemaining(variant -> expected.add(variant.toJson()));
+        }
+        List<String> variants = new ArrayList<>();
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(options)
+                .append(convertThreads, 4)
+                .append(MongoDBCollection.BATCH_SIZE, 7))) {
+            iterator.forEachRemaining(variant -> variants.add(variant.toJson()));
+            assertFalse(iterator.hasNext());
+            assertTrue(iterator.getTimeConverting() > 0);
+            assertTrue(iterator.getTimeFetching() > 0);
+        }
+        assertEquals(NUM_VARIANTS, variants.size());
+        assertEquals(expected, variants);
+
+        // Close before reading all the variants
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(options)
+                .append(convertThreads, 4)
+                .append(MongoDBCollection.BATCH_SIZE, 7))) {
+            assertEquals(expected.get(0), iterator.next().toJson());
+        }
+    }
+
+    @Test
+    public void testPartitionedScan() throws Exception {
+        checkPartitionedScan(new Query());
+        checkPartitionedScan(new Query(VariantQueryParam.REGION.key(), "1:1000000-20000000,22"));
+    }
+
+    @Test
+    public void testPartitionedScanLimit() throws Exception {
+        thrown.expect(VariantQueryException.class);
+        ((VariantMongoDBAdaptor) dbAdaptor).partitionedScan(new Query(), new QueryOptions(QueryOptions.LIMIT, 10));
+    }
+
+    private void checkPartitionedScan(Query query) throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions()); iterator.hasNext(); ) {
+            expected.add(iterator.next().toJson());
+        }
+        Collections.sort(expected);
+        assertFalse(expected.isEmpty());
+
+        String partitionSize = MongoDBVariantStorageEngine.MongoDBVariantOptions.ITERATOR_PARTITION_SIZE.key();
+        String partitionThreads = MongoDBVariantStorageEngine.MongoDBVariantOptions.ITERATOR_PARTITION_THREADS.key();
+        List<String> variants = new ArrayList<>();
+        try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions(partitionSize, 10000000)
+                .append(partitionThreads, 4))) {
+            iterator.forEachRemaining(variant -> variants.add(variant.toJson()));
+            assertTrue(iterator.getTimeFetching() > 0);
+        }
+        Collections.sort(variants);
+        assertEquals(expected, variants);
+
+        VariantMongoDBPartitionedScan scan = ((VariantMongoDBAdaptor) dbAdaptor)
+                .partitionedScan(query, new QueryOptions(partitionSize, 10000000));
+        assertTrue(scan.getPartitions().size() > 1);
+        variants.clear();
+        for (DataReader<Variant> reader : scan.getReaders()) {
+            reader.open();
+            for (List<Variant> batch = reader.read(10); !batch.isEmpty(); batch = reader.read(10)) {
+                batch.forEach(variant -> variants.add(variant.toJson()));
+            }
+            reader.close();
+        }
+        Collections.sort(variants);
+        assertEquals(expected, variants);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.converters.stage;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.bson.types.Binary;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.FileEntry;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.utils.CompressionUtils;
+import org.opencb.opencga.storage.mongodb.variant.converters.stage.VariantToAvroBinaryConverter.Compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on 17/10/17.
+ */
+public class VariantToAvroBinaryConverterTest {
+
+    private List<Variant> variants;
+
+    @Before
+    public void setUp() throws Exception {
+        variants = new ArrayList<>();
+        Random random = new Random(1);
+        String[] gts = {"0/0", "0/1", "1/1", "./."};
+        for (int i = 0; i < 1000; i++) {
+            Variant variant = new Variant("1:" + (1000 + i * 10) + ":A:" + (i % 2 == 0 ? "C" : "GT"));
+            StudyEntry studyEntry = new StudyEntry("1");
+            FileEntry fileEntry = new FileEntry("2", "", new HashMap<>());
+            fileEntry.getAttributes().put("QUAL", String.valueOf(random.nextInt(1000)));
+            fileEntry.getAttributes().put("DP", String.valueOf(random.nextInt(100)));
+            studyEntry.setFiles(Collections.singletonList(fileEntry));
+            studyEntry.setFormatAsString("GT:DP");
+            for (int s = 0; s < 20; s++) {
+                Map<String, String> data = new HashMap<>();
+                data.put("GT", gts[random.nextInt(gts.length)]);
+                data.put("DP", String.valueOf(random.nextInt(50)));
+                studyEntry.addSampleData("S" + s, data);
+            }
+            variant.addStudyEntry(studyEntry);
+            variants.add(variant);
+        }
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        for (Compression compression : Compression.values()) {
+            VariantToAvroBinaryConverter converter = new VariantToAvroBinaryConverter(compression);
+            for (Variant variant : variants) {
+                Binary binary = converter.convertToStorageType(variant);
+                assertEquals(compression, Compression.fromHeader(binary.getData()[0]));
+                assertEquals(compression.name(), variant.toJson(), converter.convertToDataModelType(binary).toJson());
+            }
+        }
+    }
+
+    @Test
+    public void testReadAnyCompression() throws Exception {
+        VariantToAvroBinaryConverter reader = new VariantToAvroBinaryConverter();
+        for (Compression compression : Compression.values()) {
+            VariantToAvroBinaryConverter writer = new VariantToAvroBinaryConverter(compression);
+            for (Variant variant : variants) {
+                assertEquals(variant.toJson(), reader.convertToDataModelType(writer.convertToStorageType(variant)).toJson());
+            }
+        }
+    }
+
+    @Test
+    public void testReadLegacyBlobs() throws Exception {
+        // Blobs written by previous versions: deflated avro, without header
+        SpecificDatumWriter<VariantAvro> writer = new SpecificDatumWriter<>(VariantAvro.getClassSchema());
+        VariantToAvroBinaryConverter converter = new VariantToAvroBinaryConverter();
+        for (Variant variant : variants) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(outputStream, null);
+            writer.write(variant.getImpl(), encoder);
+            encoder.flush();
+            Binary legacy = new Binary(CompressionUtils.compress(outputStream.toByteArray()));
+
+            assertEquals(variant.toJson(), converter.convertToDataModelType(legacy).toJson());
+            assertEquals(legacy, new VariantToAvroBinaryConverter(Compression.DEFLATE).convertToStorageType(variant));
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        VariantToAvroBinaryConverter converter = new VariantToAvroBinaryConverter();
+        variants.parallelStream().forEach(variant -> {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(variant.toJson(), converter.convertToDataModelType(converter.convertToStorageType(variant)).toJson());
+            }
+        });
+    }
+
+    @Test
+    @Ignore
+    public void benchmark() throws Exception {
+        int rounds = 20;
+        for (Compression compression : Compression.values()) {
+            VariantToAvroBinaryConverter converter = new VariantToAvroBinaryConverter(compression);
+            List<Binary> binaries = new ArrayList<>(variants.size());
+            // Warm up
+            for (Variant variant : variants) {
+                converter.convertToDataModelType(converter.convertToStorageType(variant));
+            }
+
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                binaries.clear();
+                for (Variant variant : variants) {
+                    binaries.add(converter.convertToStorageType(variant));
+                }
+            }
+            long encode = System.nanoTime() - start;
+            for (Binary binary : binaries) {
+                bytes += binary.length();
+            }
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                for (Binary binary : binaries) {
+                    converter.convertToDataModelType(binary);
+                }
+            }
+            long decode = System.nanoTime() - start;
+
+            long n = (long) rounds * variants.size();
+            System.out.println(String.format("%-8s %6.1f bytes/variant, encode %7d ns/variant, decode %7d ns/variant",
+                    compression, bytes / (double) variants.size(), encode / n, decode / n));
+        }
+    }
+}